@@ -0,0 +1,250 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Arbalo AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.opentdc.addressbooks.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.opentdc.addressbooks.AddressModel;
+import org.opentdc.addressbooks.AddressType;
+import org.opentdc.addressbooks.AddressbookModel;
+import org.opentdc.addressbooks.AttributeType;
+import org.opentdc.addressbooks.ContactModel;
+import org.opentdc.addressbooks.ServiceProvider;
+
+/**
+ * Generates and opens the stores the benchmarks run on.
+ * A store with n contacts consists of the 'all' addressbook and the addressbook 'bench', which both contain
+ * all contacts; each contact has one email address. Contact ids are derived from the contact number, 
+ * so that benchmarks can address contacts without listing them.
+ * Generated stores are kept in the directory given by the system property bench.dir and reused by later runs.
+ * @author Bruno Kaiser
+ *
+ */
+final class BenchStore {
+	static final String PREFIX = "bench";
+	static final String ALL_ADDRESSBOOK_ID = id("addressbook", 0);
+	static final String BENCH_ADDRESSBOOK_ID = id("addressbook", 1);
+	// keep a reference, otherwise the level is lost when the logger is garbage collected
+	private static final Logger providerLogger = Logger.getLogger(ServiceProvider.class.getName());
+
+	private BenchStore() {
+	}
+
+	/**
+	 * @param number the number of the contact
+	 * @return the id of this contact
+	 */
+	static String contactId(
+			int number) {
+		return id("contact", number);
+	}
+
+	/**
+	 * Generate a store, unless it was generated before.
+	 * @param contacts the number of contacts
+	 * @param format the snapshot format
+	 * @return the data directory of the store; it must not be changed, see copy()
+	 * @throws IOException if the store can not be written
+	 */
+	static File prepare(
+			int contacts,
+			SnapshotFormat format) throws IOException {
+		File _dir = new File(System.getProperty("bench.dir", 
+				new File(System.getProperty("java.io.tmpdir"), "opentdc-bench").getPath()), 
+				"store-" + contacts + "-" + format.name().toLowerCase());
+		SnapshotStore _store = new SnapshotStore(_dir, format.createCodec(BinarySnapshotCodec.Compression.NONE));
+		if (!_store.exists()) {
+			if (!_dir.isDirectory() && !_dir.mkdirs()) {
+				throw new IOException("directory <" + _dir + "> can not be created.");
+			}
+			_store.write(generate(contacts));
+		}
+		return _dir;
+	}
+
+	/**
+	 * Copy a prepared store into a new directory, for benchmarks that change the store.
+	 * @param dir the data directory of the prepared store
+	 * @return the new data directory
+	 * @throws IOException if the store can not be copied
+	 */
+	static File copy(
+			File dir) throws IOException {
+		File _copy = Files.createTempDirectory(dir.getParentFile().toPath(), dir.getName() + "-").toFile();
+		for (File _file : dir.listFiles()) {
+			Files.copy(_file.toPath(), new File(_copy, _file.getName()).toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+		return _copy;
+	}
+
+	/**
+	 * Delete a data directory created by copy().
+	 * @param dir the data directory
+	 */
+	static void delete(
+			File dir) {
+		if (dir != null && dir.listFiles() != null) {
+			for (File _file : dir.listFiles()) {
+				_file.delete();
+			}
+			dir.delete();
+		}
+	}
+
+	/**
+	 * Configure the provider for a store and start it. A provider started before is closed first.
+	 * @param dir the data directory
+	 * @param persistenceMode the persistence mode, e.g. snapshot or journal
+	 * @param format the snapshot format
+	 * @return the provider
+	 * @throws IOException if the store can not be loaded
+	 */
+	static FileServiceProvider open(
+			File dir,
+			String persistenceMode,
+			SnapshotFormat format) throws IOException {
+		configure(dir, persistenceMode, format);
+		FileServiceProvider.reset();
+		return new FileServiceProvider(null, PREFIX);
+	}
+
+	/**
+	 * Configure the provider for a store without starting it.
+	 * @param dir the data directory
+	 * @param persistenceMode the persistence mode, e.g. snapshot or journal
+	 * @param format the snapshot format
+	 */
+	static void configure(
+			File dir,
+			String persistenceMode,
+			SnapshotFormat format) {
+		quietLogging();
+		System.setProperty(PREFIX + "." + ProviderConfig.DATA_DIR, dir.getPath());
+		System.setProperty(PREFIX + "." + ProviderConfig.PERSISTENCE_MODE, persistenceMode);
+		System.setProperty(PREFIX + "." + ProviderConfig.SNAPSHOT_FORMAT, format.name().toLowerCase());
+		System.setProperty(PREFIX + "." + ProviderConfig.JOURNAL_SYNC, "false");
+		System.setProperty(PREFIX + "." + ProviderConfig.METRICS_JMX, "false");
+	}
+
+	/**
+	 * Switch off INFO logging of the provider, unless the system property bench.logLevel says otherwise.
+	 */
+	static void quietLogging() {
+		providerLogger.setLevel(Level.parse(System.getProperty("bench.logLevel", "WARNING")));
+	}
+
+	/**
+	 * Close the provider and drop its indexes.
+	 */
+	static void close() {
+		FileServiceProvider.reset();
+	}
+
+	/**
+	 * @param number the number of a new contact
+	 * @return a contact as sent by a client, without id
+	 */
+	static ContactModel newContact(
+			int number) {
+		ContactModel _contact = new ContactModel();
+		_contact.setFirstName("First" + number);
+		_contact.setLastName("Last" + (number % 1000));
+		return _contact;
+	}
+
+	private static StoreSnapshot generate(
+			int contacts) {
+		Date _date = new Date();
+		ABaddressbook _all = new ABaddressbook(newAddressbook(ALL_ADDRESSBOOK_ID, "AAA", _date));
+		ABaddressbook _bench = new ABaddressbook(newAddressbook(BENCH_ADDRESSBOOK_ID, "bench", _date));
+		List<ABcontact> _contacts = new ArrayList<ABcontact>(contacts);
+		for (int i = 0; i < contacts; i++) {
+			ContactModel _model = newContact(i);
+			_model.setId(contactId(i));
+			_model.setFn(ContactModel.createFullName(_model.getFirstName(), _model.getLastName()));
+			_model.setCreatedAt(_date);
+			_model.setCreatedBy("SYSTEM");
+			_model.setModifiedAt(_date);
+			_model.setModifiedBy("SYSTEM");
+			ABcontact _contact = new ABcontact();
+			_contact.setModel(_model);
+			_contact.addMembership(ALL_ADDRESSBOOK_ID);
+			_contact.addMembership(BENCH_ADDRESSBOOK_ID);
+			_contact.setAddresses(Collections.singletonList(newAddress(i, _date)));
+			_all.addContact(_model.getId());
+			_bench.addContact(_model.getId());
+			_contacts.add(_contact);
+		}
+		List<ABaddressbook> _addressbooks = new ArrayList<ABaddressbook>();
+		_addressbooks.add(_all);
+		_addressbooks.add(_bench);
+		return new StoreSnapshot(_addressbooks, _contacts, Collections.<ABorg>emptyList());
+	}
+
+	private static AddressbookModel newAddressbook(
+			String id,
+			String name,
+			Date date) {
+		AddressbookModel _model = new AddressbookModel();
+		_model.setId(id);
+		_model.setName(name);
+		_model.setCreatedAt(date);
+		_model.setCreatedBy("SYSTEM");
+		_model.setModifiedAt(date);
+		_model.setModifiedBy("SYSTEM");
+		return _model;
+	}
+
+	private static AddressModel newAddress(
+			int number,
+			Date date) {
+		AddressModel _address = new AddressModel();
+		_address.setId(id("address", number));
+		_address.setAddressType(AddressType.EMAIL);
+		_address.setAttributeType(AttributeType.WORK);
+		_address.setValue("contact" + number + "@example.org");
+		_address.setCreatedAt(date);
+		_address.setCreatedBy("SYSTEM");
+		_address.setModifiedAt(date);
+		_address.setModifiedBy("SYSTEM");
+		return _address;
+	}
+
+	private static String id(
+			String type,
+			int number) {
+		return UUID.nameUUIDFromBytes((type + number).getBytes(StandardCharsets.UTF_8)).toString();
+	}
+}
@@ -0,0 +1,96 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Arbalo AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.opentdc.addressbooks.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.opentdc.addressbooks.AddressbookModel;
+
+/**
+ * Deletes an addressbook with all its contacts from a store, in journal mode.
+ * The addressbook is filled before each iteration, i.e. each iteration deletes exactly one addressbook.
+ * @author Bruno Kaiser
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 20)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class DeleteAddressbookBenchmark {
+	@Param({"1000", "10000", "100000", "1000000"})
+	int contacts;
+
+	@Param({"10", "1000"})
+	int members;
+
+	private File dir;
+	private FileServiceProvider provider;
+	private String aid;
+	private int number;
+
+	@Setup
+	public void setUp() throws IOException {
+		dir = BenchStore.copy(BenchStore.prepare(contacts, SnapshotFormat.BINARY));
+		provider = BenchStore.open(dir, "journal", SnapshotFormat.BINARY);
+		number = contacts;
+	}
+
+	@Setup(Level.Iteration)
+	public void fill() {
+		AddressbookModel _addressbook = new AddressbookModel();
+		_addressbook.setName("delete" + number);
+		aid = provider.create(null, _addressbook).getId();
+		for (int i = 0; i < members; i++) {
+			provider.createContact(null, aid, BenchStore.newContact(number++));
+		}
+	}
+
+	@TearDown
+	public void tearDown() {
+		BenchStore.close();
+		BenchStore.delete(dir);
+	}
+
+	@Benchmark
+	public void delete() {
+		provider.delete(aid);
+	}
+}
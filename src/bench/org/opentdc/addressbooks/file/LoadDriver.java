@@ -0,0 +1,339 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Arbalo AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.opentdc.addressbooks.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.opentdc.addressbooks.AddressModel;
+import org.opentdc.addressbooks.AddressType;
+import org.opentdc.addressbooks.AddressbookModel;
+import org.opentdc.addressbooks.AttributeType;
+import org.opentdc.addressbooks.ContactModel;
+import org.opentdc.addressbooks.OrgModel;
+import org.opentdc.addressbooks.ServiceProvider;
+
+/**
+ * Replays a configurable mix of reads and writes with several threads against a ServiceProvider
+ * and reports the throughput, the errors and the latency percentiles of each operation.
+ * Deletes only remove contacts that were created by the same thread, so that all other operations 
+ * work on the contacts and orgs of the initial store.
+ * @author Bruno Kaiser
+ *
+ */
+public class LoadDriver {
+	static final String DEFAULT_MIX = "readContact=50,listContacts=10,listAllContacts=5,readOrg=10,"
+			+ "listAddresses=10,createContact=5,updateContact=5,deleteContact=2,createAddress=3";
+	private static final String PREFIX = "loaddriver";
+	private static final int PAGE_SIZE = 20;
+
+	enum Operation {
+		READ_CONTACT("readContact"),
+		LIST_CONTACTS("listContacts"),
+		LIST_ALL_CONTACTS("listAllContacts"),
+		READ_ORG("readOrg"),
+		LIST_ADDRESSES("listAddresses"),
+		CREATE_CONTACT("createContact"),
+		UPDATE_CONTACT("updateContact"),
+		DELETE_CONTACT("deleteContact"),
+		CREATE_ADDRESS("createAddress");
+
+		private final String name;
+
+		private Operation(
+				String name) {
+			this.name = name;
+		}
+
+		static Operation parse(
+				String name) {
+			for (Operation _operation : values()) {
+				if (_operation.name.equals(name)) {
+					return _operation;
+				}
+			}
+			throw new IllegalArgumentException("unknown operation <" + name + ">");
+		}
+	}
+
+	/**
+	 * A contact or org with the addressbook it was found in.
+	 */
+	private static class Ref<T> {
+		final String aid;
+		final String id;
+		final T model;
+
+		Ref(
+				String aid,
+				String id,
+				T model) {
+			this.aid = aid;
+			this.id = id;
+			this.model = model;
+		}
+	}
+
+	private final ServiceProvider provider;
+	private final List<String> addressbooks = new ArrayList<String>();
+	private final List<Ref<ContactModel>> contacts = new ArrayList<Ref<ContactModel>>();
+	private final List<Ref<OrgModel>> orgs = new ArrayList<Ref<OrgModel>>();
+	private final int[] weights = new int[Operation.values().length];
+	private final int totalWeight;
+	private final OperationMetrics[] metrics = new OperationMetrics[Operation.values().length];
+
+	/**
+	 * Constructor. Lists the addressbooks with their contacts and orgs, which are the working set of the load.
+	 * @param provider the provider to drive
+	 * @param mix the weights of the operations, e.g. readContact=80,createContact=20
+	 */
+	public LoadDriver(
+			ServiceProvider provider,
+			String mix) {
+		this.provider = provider;
+		int _total = 0;
+		for (String _entry : mix.split(",")) {
+			String[] _pair = _entry.trim().split("=");
+			int _weight = Integer.parseInt(_pair[1].trim());
+			weights[Operation.parse(_pair[0].trim()).ordinal()] += _weight;
+			_total += _weight;
+		}
+		if (_total <= 0) {
+			throw new IllegalArgumentException("the mix <" + mix + "> contains no operation");
+		}
+		totalWeight = _total;
+		for (Operation _operation : Operation.values()) {
+			metrics[_operation.ordinal()] = new OperationMetrics(_operation.name);
+		}
+		for (AddressbookModel _addressbook : provider.list(null, null, 0, Integer.MAX_VALUE)) {
+			String _aid = _addressbook.getId();
+			addressbooks.add(_aid);
+			for (ContactModel _contact : provider.listContacts(_aid, null, null, 0, Integer.MAX_VALUE)) {
+				contacts.add(new Ref<ContactModel>(_aid, _contact.getId(), _contact));
+			}
+			for (OrgModel _org : provider.listOrgs(_aid, null, null, 0, Integer.MAX_VALUE)) {
+				orgs.add(new Ref<OrgModel>(_aid, _org.getId(), _org));
+			}
+		}
+	}
+
+	/**
+	 * Run the load.
+	 * @param threads the number of threads
+	 * @param warmupSeconds the seconds to run before measuring
+	 * @param seconds the seconds to measure
+	 * @return the report, one line per operation
+	 * @throws InterruptedException if interrupted while waiting for the threads
+	 */
+	public String run(
+			int threads,
+			int warmupSeconds,
+			final int seconds) throws InterruptedException {
+		final long _measureFrom = System.nanoTime() + TimeUnit.SECONDS.toNanos(warmupSeconds);
+		final long _end = _measureFrom + TimeUnit.SECONDS.toNanos(seconds);
+		List<Thread> _threads = new ArrayList<Thread>(threads);
+		for (int i = 0; i < threads; i++) {
+			final HttpServletRequest _request = StandInRequest.of("loaddriver" + i);
+			Thread _thread = new Thread("loaddriver-" + i) {
+				@Override
+				public void run() {
+					drive(_request, _measureFrom, _end);
+				}
+			};
+			_thread.start();
+			_threads.add(_thread);
+		}
+		for (Thread _thread : _threads) {
+			_thread.join();
+		}
+		return report(seconds);
+	}
+
+	private void drive(
+			HttpServletRequest request,
+			long measureFrom,
+			long end) {
+		Random _random = ThreadLocalRandom.current();
+		List<Ref<ContactModel>> _created = new ArrayList<Ref<ContactModel>>();
+		long _now;
+		while ((_now = System.nanoTime()) < end) {
+			Operation _operation = next(_random);
+			if (_operation == Operation.DELETE_CONTACT && _created.isEmpty()) {
+				_operation = Operation.CREATE_CONTACT;
+			}
+			OperationMetrics _metrics = metrics[_operation.ordinal()];
+			try {
+				execute(_operation, _random, request, _created);
+			} catch (RuntimeException _ex) {
+				if (_now >= measureFrom) {
+					_metrics.failed(_ex);
+				}
+			}
+			if (_now >= measureFrom) {
+				_metrics.record(System.nanoTime() - _now);
+			}
+		}
+	}
+
+	private Operation next(
+			Random random) {
+		int _value = random.nextInt(totalWeight);
+		for (Operation _operation : Operation.values()) {
+			_value -= weights[_operation.ordinal()];
+			if (_value < 0) {
+				return _operation;
+			}
+		}
+		throw new IllegalStateException();
+	}
+
+	private void execute(
+			Operation operation,
+			Random random,
+			HttpServletRequest request,
+			List<Ref<ContactModel>> created) {
+		switch (operation) {
+		case READ_CONTACT:
+			Ref<ContactModel> _contact = pick(contacts, random);
+			provider.readContact(_contact.aid, _contact.id);
+			break;
+		case LIST_CONTACTS:
+			provider.listContacts(pick(addressbooks, random), null, null, random.nextInt(5) * PAGE_SIZE, PAGE_SIZE);
+			break;
+		case LIST_ALL_CONTACTS:
+			provider.listAllContacts(null, null, random.nextInt(Math.max(1, contacts.size())), PAGE_SIZE);
+			break;
+		case READ_ORG:
+			Ref<OrgModel> _org = pick(orgs, random);
+			provider.readOrg(_org.aid, _org.id);
+			break;
+		case LIST_ADDRESSES:
+			_contact = pick(contacts, random);
+			provider.listAddresses(_contact.aid, _contact.id, null, null, 0, PAGE_SIZE);
+			break;
+		case CREATE_CONTACT:
+			String _aid = pick(addressbooks, random);
+			ContactModel _model = new ContactModel();
+			_model.setFirstName("Load");
+			_model.setLastName("Driver" + random.nextInt(100000));
+			_model = provider.createContact(request, _aid, _model);
+			created.add(new Ref<ContactModel>(_aid, _model.getId(), _model));
+			break;
+		case UPDATE_CONTACT:
+			_contact = pick(contacts, random);
+			_model = new ContactModel();
+			_model.setFirstName(_contact.model.getFirstName());
+			_model.setLastName(_contact.model.getLastName());
+			_model.setCreatedAt(_contact.model.getCreatedAt());
+			_model.setCreatedBy(_contact.model.getCreatedBy());
+			_model.setNote("updated " + random.nextInt());
+			provider.updateContact(request, _contact.aid, _contact.id, _model);
+			break;
+		case DELETE_CONTACT:
+			_contact = created.remove(created.size() - 1);
+			provider.deleteContact(_contact.aid, _contact.id);
+			break;
+		case CREATE_ADDRESS:
+			_contact = pick(contacts, random);
+			AddressModel _address = new AddressModel();
+			_address.setAddressType(AddressType.PHONE);
+			_address.setAttributeType(AttributeType.MOBILE);
+			_address.setValue("+41 79 " + (1000000 + random.nextInt(9000000)));
+			provider.createAddress(request, _contact.aid, _contact.id, _address);
+			break;
+		}
+	}
+
+	private String report(
+			int seconds) {
+		StringBuilder _sb = new StringBuilder();
+		_sb.append(String.format("%-16s %10s %10s %8s %10s %10s %10s %10s %10s%n", 
+				"operation", "count", "ops/s", "errors", "p50[us]", "p90[us]", "p99[us]", "p99.9[us]", "max[us]"));
+		long _count = 0;
+		for (OperationMetrics _metrics : metrics) {
+			if (_metrics.getCount() == 0) {
+				continue;
+			}
+			_count += _metrics.getCount();
+			_sb.append(String.format("%-16s %10d %10.0f %8d %10d %10d %10d %10d %10d", 
+					_metrics.getName(), _metrics.getCount(), (double) _metrics.getCount() / seconds, _metrics.getErrorCount(),
+					_metrics.getP50Micros(), _metrics.getP90Micros(), _metrics.getP99Micros(), _metrics.getP999Micros(), 
+					_metrics.getMaxMicros()));
+			Map<String, Long> _errors = _metrics.getErrors();
+			if (!_errors.isEmpty()) {
+				_sb.append("  ").append(_errors);
+			}
+			_sb.append('\n');
+		}
+		_sb.append(String.format("%-16s %10d %10.0f%n", "total", _count, (double) _count / seconds));
+		return _sb.toString();
+	}
+
+	private static <T> T pick(
+			List<T> values,
+			Random random) {
+		if (values.isEmpty()) {
+			throw new IllegalStateException("the store contains no values for this operation");
+		}
+		return values.get(random.nextInt(values.size()));
+	}
+
+	/**
+	 * Start FileServiceProvider on a store and drive it.
+	 * The provider is configured with the system properties loaddriver.&lt;key&gt;, e.g. -Dloaddriver.persistence.mode=journal.
+	 * @param args dataDir [threads [seconds [warmupSeconds [mix]]]]
+	 * @throws IOException if the store can not be loaded
+	 * @throws InterruptedException if interrupted while running
+	 */
+	public static void main(
+			String[] args) throws IOException, InterruptedException {
+		if (args.length < 1 || args.length > 5) {
+			System.err.println("usage: LoadDriver dataDir [threads [seconds [warmupSeconds [mix]]]]");
+			System.err.println("       mix defaults to " + DEFAULT_MIX);
+			System.exit(1);
+		}
+		int _threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+		int _seconds = args.length > 2 ? Integer.parseInt(args[2]) : 60;
+		int _warmupSeconds = args.length > 3 ? Integer.parseInt(args[3]) : 10;
+		String _mix = args.length > 4 ? args[4] : DEFAULT_MIX;
+		System.setProperty(PREFIX + "." + ProviderConfig.DATA_DIR, new File(args[0]).getPath());
+		BenchStore.quietLogging();
+		FileServiceProvider _provider = new FileServiceProvider(null, PREFIX);
+		LoadDriver _driver = new LoadDriver(_provider, _mix);
+		System.out.println("driving " + _driver.addressbooks.size() + " addressbooks with " + _driver.contacts.size() + 
+				" contact and " + _driver.orgs.size() + " org memberships with " + _threads + " threads for " + _seconds + "s.");
+		System.out.print(_driver.run(_threads, _warmupSeconds, _seconds));
+		System.out.println();
+		System.out.print(FileServiceProvider.getMetrics().dump());
+		FileServiceProvider.reset();
+	}
+}
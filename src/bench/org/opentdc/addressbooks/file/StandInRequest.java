@@ -0,0 +1,89 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Arbalo AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.opentdc.addressbooks.file;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.security.Principal;
+
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * A stand-in for the servlet request of an authenticated user, for driving the provider without a servlet container.
+ * It answers the principal and the remote user; all other methods return null, false or 0.
+ * @author Bruno Kaiser
+ *
+ */
+final class StandInRequest {
+	private StandInRequest() {
+	}
+
+	/**
+	 * @param user the name of the authenticated user
+	 * @return a request of this user
+	 */
+	static HttpServletRequest of(
+			final String user) {
+		final Principal _principal = new Principal() {
+			@Override
+			public String getName() {
+				return user;
+			}
+		};
+		return (HttpServletRequest) Proxy.newProxyInstance(StandInRequest.class.getClassLoader(),
+			new Class<?>[] { HttpServletRequest.class },
+			new InvocationHandler() {
+				@Override
+				public Object invoke(Object proxy, Method method, Object[] args) {
+					switch (method.getName()) {
+					case "getUserPrincipal":
+						return _principal;
+					case "getRemoteUser":
+						return user;
+					case "toString":
+						return "StandInRequest(" + user + ")";
+					case "hashCode":
+						return System.identityHashCode(proxy);
+					case "equals":
+						return proxy == args[0];
+					default:
+						return defaultValue(method.getReturnType());
+					}
+				}
+			});
+	}
+
+	private static Object defaultValue(
+			Class<?> type) {
+		if (type == boolean.class) {
+			return Boolean.FALSE;
+		} else if (type == int.class) {
+			return 0;
+		} else if (type == long.class) {
+			return 0L;
+		}
+		return null;
+	}
+}
@@ -0,0 +1,287 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Arbalo AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.opentdc.addressbooks.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+import org.opentdc.addressbooks.AddressModel;
+import org.opentdc.addressbooks.AddressType;
+import org.opentdc.addressbooks.AddressbookModel;
+import org.opentdc.addressbooks.AttributeType;
+import org.opentdc.addressbooks.ContactModel;
+import org.opentdc.addressbooks.MessageType;
+import org.opentdc.addressbooks.OrgModel;
+import org.opentdc.addressbooks.OrgType;
+
+/**
+ * Generates a synthetic store of realistic shape in the on-disk snapshot format of FileServiceProvider:
+ * addressbook sizes are skewed (a few large addressbooks, many small ones), about a fifth of the contacts 
+ * and orgs are shared by several addressbooks, and contacts and orgs have a varying number of addresses 
+ * of all types. The same seed generates the same store.
+ * @author Bruno Kaiser
+ *
+ */
+public class StoreGenerator {
+	private static final String[] FIRST_NAMES = { 
+		"Anna", "Bruno", "Claudia", "Daniel", "Eva", "Felix", "Gabriela", "Hans", "Irene", "Jan", 
+		"Karin", "Lukas", "Maria", "Nicolas", "Olivia", "Peter", "Rita", "Stefan", "Tanja", "Urs", 
+		"Vera", "Walter", "Yvonne", "Zoe", "Marco", "Sandra", "Thomas", "Nina", "Reto", "Laura" };
+	private static final String[] LAST_NAMES = { 
+		"Meier", "Müller", "Schmid", "Keller", "Weber", "Huber", "Schneider", "Meyer", "Steiner", "Fischer", 
+		"Gerber", "Brunner", "Baumann", "Frei", "Zimmermann", "Moser", "Widmer", "Wyss", "Graf", "Roth", 
+		"Kaiser", "Suter", "Bachmann", "Wolf", "Rossi", "Bianchi", "Favre", "Dubois", "Martin", "Bernasconi" };
+	private static final String[] ORG_WORDS = { 
+		"Alpine", "Swiss", "Global", "Digital", "Lake", "Mountain", "Data", "Bridge", "Summit", "River", 
+		"Systems", "Consulting", "Logistics", "Partners", "Solutions", "Engineering", "Finance", "Media" };
+	private static final String[] CITIES = { "Zürich", "Bern", "Basel", "Luzern", "Genève", "Lausanne", "Zug", "Chur" };
+	private static final double SKEW = 3.0;
+	private static final double SHARED = 0.2;
+
+	private final int contacts;
+	private final int orgs;
+	private final int addressbooks;
+	private final Random random;
+	private final Date date = new Date();
+
+	/**
+	 * Constructor.
+	 * @param contacts the number of contacts
+	 * @param orgs the number of orgs
+	 * @param addressbooks the number of addressbooks, not counting the 'all' addressbook
+	 * @param seed the seed of the random generator
+	 */
+	public StoreGenerator(
+			int contacts,
+			int orgs,
+			int addressbooks,
+			long seed) {
+		this.contacts = contacts;
+		this.orgs = orgs;
+		this.addressbooks = Math.max(1, addressbooks);
+		this.random = new Random(seed);
+	}
+
+	/**
+	 * Generate the store and write it as snapshot into a data directory; an existing snapshot is replaced.
+	 * @param dir the data directory
+	 * @param format the snapshot format
+	 * @throws IOException if the snapshot can not be written
+	 */
+	public void write(
+			File dir,
+			SnapshotFormat format) throws IOException {
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			throw new IOException("directory <" + dir + "> can not be created.");
+		}
+		new SnapshotStore(dir, format.createCodec(BinarySnapshotCodec.Compression.NONE)).write(generate());
+	}
+
+	StoreSnapshot generate() {
+		List<ABaddressbook> _addressbooks = new ArrayList<ABaddressbook>(addressbooks + 1);
+		ABaddressbook _all = new ABaddressbook(newAddressbook("AAA"));
+		_addressbooks.add(_all);
+		for (int i = 0; i < addressbooks; i++) {
+			_addressbooks.add(new ABaddressbook(newAddressbook("addressbook" + i)));
+		}
+		List<ABcontact> _contacts = new ArrayList<ABcontact>(contacts);
+		for (int i = 0; i < contacts; i++) {
+			ABcontact _contact = new ABcontact();
+			_contact.setModel(newContact());
+			_contact.setAddresses(newAddresses(1 + geometric(0.5), AddressType.EMAIL, AddressType.PHONE, 
+					AddressType.EMAIL, AddressType.PHONE, AddressType.POSTAL, AddressType.WEB, AddressType.MESSAGING));
+			String _cid = _contact.getModel().getId();
+			_contact.addMembership(_all.getModel().getId());
+			_all.addContact(_cid);
+			for (ABaddressbook _addressbook : pickAddressbooks(_addressbooks)) {
+				_contact.addMembership(_addressbook.getModel().getId());
+				_addressbook.addContact(_cid);
+			}
+			_contacts.add(_contact);
+		}
+		List<ABorg> _orgs = new ArrayList<ABorg>(orgs);
+		for (int i = 0; i < orgs; i++) {
+			ABorg _org = new ABorg();
+			_org.setModel(newOrg());
+			_org.setAddresses(newAddresses(1 + geometric(0.4), AddressType.WEB, AddressType.PHONE, AddressType.POSTAL,
+					AddressType.EMAIL));
+			String _oid = _org.getModel().getId();
+			_org.addMembership(_all.getModel().getId());
+			_all.addOrg(_oid);
+			for (ABaddressbook _addressbook : pickAddressbooks(_addressbooks)) {
+				_org.addMembership(_addressbook.getModel().getId());
+				_addressbook.addOrg(_oid);
+			}
+			_orgs.add(_org);
+		}
+		return new StoreSnapshot(_addressbooks, _contacts, _orgs);
+	}
+
+	/**
+	 * Pick the addressbooks of a contact or org: one addressbook with a skewed distribution,
+	 * plus one to three further ones for shared contacts and orgs.
+	 */
+	private List<ABaddressbook> pickAddressbooks(
+			List<ABaddressbook> addressbooks) {
+		List<ABaddressbook> _picked = new ArrayList<ABaddressbook>(4);
+		int _count = random.nextDouble() < SHARED ? 2 + random.nextInt(3) : 1;
+		for (int i = 0; i < _count; i++) {
+			// index 0 is the 'all' addressbook
+			ABaddressbook _addressbook = addressbooks.get(1 + (int) (this.addressbooks * Math.pow(random.nextDouble(), SKEW)));
+			if (!_picked.contains(_addressbook)) {
+				_picked.add(_addressbook);
+			}
+		}
+		return _picked;
+	}
+
+	private AddressbookModel newAddressbook(
+			String name) {
+		AddressbookModel _model = new AddressbookModel();
+		_model.setId(newId());
+		_model.setName(name);
+		_model.setCreatedAt(date);
+		_model.setCreatedBy("generator");
+		_model.setModifiedAt(date);
+		_model.setModifiedBy("generator");
+		return _model;
+	}
+
+	private ContactModel newContact() {
+		ContactModel _model = new ContactModel();
+		_model.setId(newId());
+		_model.setFirstName(pick(FIRST_NAMES));
+		_model.setLastName(pick(LAST_NAMES));
+		_model.setFn(ContactModel.createFullName(_model.getFirstName(), _model.getLastName()));
+		if (random.nextInt(3) == 0) {
+			_model.setCompany(pick(ORG_WORDS) + " " + pick(ORG_WORDS));
+			_model.setJobTitle(pick(ORG_WORDS) + " Manager");
+		}
+		_model.setCreatedAt(date);
+		_model.setCreatedBy("generator");
+		_model.setModifiedAt(date);
+		_model.setModifiedBy("generator");
+		return _model;
+	}
+
+	private OrgModel newOrg() {
+		OrgModel _model = new OrgModel();
+		_model.setId(newId());
+		_model.setName(pick(ORG_WORDS) + " " + pick(ORG_WORDS) + " " + random.nextInt(1000));
+		_model.setOrgType(random.nextInt(4) == 0 ? OrgType.OTHER : OrgType.COMP);
+		_model.setCreatedAt(date);
+		_model.setCreatedBy("generator");
+		_model.setModifiedAt(date);
+		_model.setModifiedBy("generator");
+		return _model;
+	}
+
+	private List<AddressModel> newAddresses(
+			int count,
+			AddressType... types) {
+		List<AddressModel> _addresses = new ArrayList<AddressModel>(count);
+		for (int i = 0; i < count; i++) {
+			AddressModel _address = new AddressModel();
+			_address.setId(newId());
+			_address.setAddressType(types[random.nextInt(types.length)]);
+			_address.setAttributeType(AttributeType.values()[random.nextInt(AttributeType.values().length)]);
+			String _key = Long.toString(random.nextLong() & Long.MAX_VALUE, 36);
+			switch (_address.getAddressType()) {
+			case EMAIL:
+				_address.setValue(_key + "@example.org");
+				break;
+			case PHONE:
+				_address.setValue("+41 " + (10 + random.nextInt(90)) + " " + (1000000 + random.nextInt(9000000)));
+				break;
+			case WEB:
+				_address.setValue("https://www." + _key + ".example.org");
+				break;
+			case MESSAGING:
+				_address.setValue(_key);
+				_address.setMsgType(MessageType.values()[random.nextInt(MessageType.values().length)]);
+				break;
+			case POSTAL:
+				_address.setStreet("Bahnhofstrasse " + (1 + random.nextInt(200)));
+				_address.setPostalCode(Integer.toString(1000 + random.nextInt(9000)));
+				_address.setCity(pick(CITIES));
+				_address.setCountryCode((short) 41);
+				break;
+			}
+			_address.setCreatedAt(date);
+			_address.setCreatedBy("generator");
+			_address.setModifiedAt(date);
+			_address.setModifiedBy("generator");
+			_addresses.add(_address);
+		}
+		return _addresses;
+	}
+
+	/**
+	 * @return the number of failures before the first success of a Bernoulli trial with probability p
+	 */
+	private int geometric(
+			double p) {
+		int _count = 0;
+		while (random.nextDouble() >= p && _count < 10) {
+			_count++;
+		}
+		return _count;
+	}
+
+	private String pick(
+			String[] values) {
+		return values[random.nextInt(values.length)];
+	}
+
+	private String newId() {
+		return new UUID(random.nextLong(), random.nextLong()).toString();
+	}
+
+	/**
+	 * Generate a store.
+	 * @param args dataDir contacts [orgs [addressbooks [json|binary [seed]]]]
+	 * @throws IOException if the store can not be written
+	 */
+	public static void main(
+			String[] args) throws IOException {
+		if (args.length < 2 || args.length > 6) {
+			System.err.println("usage: StoreGenerator dataDir contacts [orgs [addressbooks [json|binary [seed]]]]");
+			System.exit(1);
+		}
+		int _contacts = Integer.parseInt(args[1]);
+		int _orgs = args.length > 2 ? Integer.parseInt(args[2]) : _contacts / 20;
+		int _addressbooks = args.length > 3 ? Integer.parseInt(args[3]) : Math.max(1, _contacts / 1000);
+		SnapshotFormat _format = args.length > 4 ? SnapshotFormat.valueOf(args[4].toUpperCase()) : SnapshotFormat.JSON;
+		long _seed = args.length > 5 ? Long.parseLong(args[5]) : 1;
+		long _start = System.currentTimeMillis();
+		new StoreGenerator(_contacts, _orgs, _addressbooks, _seed).write(new File(args[0]), _format);
+		System.out.println("generated " + _contacts + " contacts, " + _orgs + " orgs and " + _addressbooks + 
+				" addressbooks in <" + args[0] + "> in " + (System.currentTimeMillis() - _start) + "ms.");
+	}
+}
@@ -23,24 +23,24 @@
  */
 package org.opentdc.addressbooks.file;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Collection;
+import java.util.Set;
 
 import org.opentdc.addressbooks.AddressbookModel;
 
 public class ABaddressbook {
-	private AddressbookModel model;
-	private ArrayList<String> contactIds;
-	private ArrayList<String> orgIds;
+	private volatile AddressbookModel model;		// replaced by a changed copy on each update, never changed in place
+	private MembershipSet contactIds;
+	private MembershipSet orgIds;
 	
 	public ABaddressbook() {
-		contactIds = new ArrayList<String>();
-		orgIds = new ArrayList<String>();
+		contactIds = new MembershipSet();
+		orgIds = new MembershipSet();
 	}
 	
 	public ABaddressbook(AddressbookModel addressbookModel) {
-		contactIds = new ArrayList<String>();
-		orgIds = new ArrayList<String>();
+		contactIds = new MembershipSet();
+		orgIds = new MembershipSet();
 		this.model = addressbookModel;
 	}
 	
@@ -52,17 +52,15 @@ public class ABaddressbook {
 		this.model = addressbookModel;
 	}
 	
-	public List<String> getContacts() {
+	/**
+	 * @return the ids of the contacts in insertion order
+	 */
+	public Set<String> getContacts() {
 		return contactIds;
 	}
 	
 	public boolean containsContact(String cid) {
-		for (String _id : contactIds) {
-			if (_id.equalsIgnoreCase(cid)) {
-				return true;
-			}
-		}
-		return false;
+		return contactIds.contains(cid);
 	}
 		
 	public void addContact(String cid) {
@@ -74,26 +72,22 @@ public class ABaddressbook {
 	}
 
 	/**
-	 * @return the orgs
+	 * @return the ids of the orgs in insertion order
 	 */
-	public ArrayList<String> getOrgs() {
+	public Set<String> getOrgs() {
 		return orgIds;
 	}
 
 	public boolean containsOrg(String oid) {
-		for (String _id : orgIds) {
-			if (_id.equalsIgnoreCase(oid)) {
-				return true;
-			}
-		}
-		return false;
+		return orgIds.contains(oid);
 	}
 		
 	/**
 	 * @param orgs the orgs to set
 	 */
-	public void setOrgs(ArrayList<String> orgs) {
-		this.orgIds = orgs;
+	public void setOrgs(Collection<String> orgs) {
+		this.orgIds = new MembershipSet();
+		this.orgIds.addAll(orgs);
 	}
 	
 	public void addOrg(String oid) {
@@ -23,20 +23,21 @@
  */
 package org.opentdc.addressbooks.file;
 
-import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import org.opentdc.addressbooks.AddressModel;
 import org.opentdc.addressbooks.OrgModel;
 
 public class ABorg {
-	private OrgModel model;
-	private ArrayList<AddressModel> addresses;
-	private ArrayList<String> memberships;  // lists ids of addressbooks where this org is a member of
+	private volatile OrgModel model;		// replaced by a changed copy on each update, never changed in place
+	private volatile List<AddressModel> addresses;		// sorted and read-only; replaced on each change
+	private CopyOnWriteArrayList<String> memberships;  // lists ids of addressbooks where this org is a member of
 	
 	public ABorg() {
-		addresses = new ArrayList<AddressModel>();
-		memberships = new ArrayList<String>();
+		addresses = SortedAddresses.EMPTY;
+		memberships = new CopyOnWriteArrayList<String>();
 	}
 
 	public OrgModel getModel() {
@@ -47,30 +48,32 @@ public class ABorg {
 		this.model = orgModel;
 	}
 
-	public ArrayList<AddressModel> getAddresses() {
+	/**
+	 * @return the addresses in AddressComparator order; the list is read-only and does not change
+	 */
+	public List<AddressModel> getAddresses() {
 		return addresses;
 	}
 	
-	public void setAddresses(ArrayList<AddressModel> addresses) {
-		this.addresses = addresses;
+	public void setAddresses(List<AddressModel> addresses) {
+		this.addresses = SortedAddresses.of(addresses);
 	}
 	
-	public void addAddress(AddressModel address) {
-		this.addresses.add(address);
+	public synchronized void addAddress(AddressModel address) {
+		this.addresses = SortedAddresses.add(this.addresses, address);
 	}
 	
-	public void replaceAddress(AddressModel address) {
-		int _index = 0;
-		for (_index = 0; _index < this.addresses.size(); _index++) {
-			if (this.addresses.get(_index).getId().equalsIgnoreCase(address.getId())) {
-				break;
-			}
-		}
-		this.addresses.set(_index, address);
+	public synchronized void replaceAddress(AddressModel address) {
+		this.addresses = SortedAddresses.replace(this.addresses, address);
 	}
 	
-	public boolean removeAddress(AddressModel address) {
-		return this.addresses.remove(address);
+	public synchronized boolean removeAddress(AddressModel address) {
+		List<AddressModel> _addresses = SortedAddresses.remove(this.addresses, address);
+		if (_addresses == this.addresses) {
+			return false;
+		}
+		this.addresses = _addresses;
+		return true;
 	}
 	
 	public void setCreatedAt(Date createdAt) {
@@ -92,7 +95,7 @@ public class ABorg {
 	/**
 	 * @return a list of Addressbook ids that contain this org
 	 */
-	public ArrayList<String> getMemberships() {
+	public List<String> getMemberships() {
 		return memberships;
 	}
 	
@@ -0,0 +1,252 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Arbalo AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.opentdc.addressbooks.file;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.opentdc.addressbooks.AddressModel;
+import org.opentdc.addressbooks.AddressType;
+
+/**
+ * A hash index from the normalized value of email, phone, web and messaging addresses to the ids of their owners, 
+ * i.e. contacts or orgs. Postal addresses are not indexed.
+ * Each entry maps the ids of the addresses with this value to the ids of their owners, so that adding an address 
+ * twice has no effect and removing one of two addresses with the same value keeps the other.
+ * The entries are immutable and replaced on each change; lookups never take a lock.
+ * The index is built from its source on first use and maintained incrementally afterwards;
+ * until then add(), remove() and replace() are no-ops.
+ * @author Bruno Kaiser
+ *
+ * @param <T> the type of the owners
+ */
+class AddressValueIndex<T> {
+	/**
+	 * Provides all owners when the index is built.
+	 */
+	interface Source<T> {
+		Collection<T> values();
+	}
+
+	/**
+	 * Provides the id and the addresses of an owner.
+	 */
+	interface Owner<T> {
+		String getId(T owner);
+
+		List<AddressModel> getAddresses(T owner);
+	}
+
+	private final Source<T> source;
+	private final Owner<T> owner;
+	private volatile Map<String, Map<String, String>> entries = null;
+
+	/**
+	 * Constructor.
+	 * @param owner provides the ids and addresses of the owners
+	 * @param source provides the owners when the index is built
+	 */
+	AddressValueIndex(
+			Owner<T> owner,
+			Source<T> source) {
+		this.owner = owner;
+		this.source = source;
+	}
+
+	/**
+	 * Add an address of an owner.
+	 * @param ownerId the id of the owner
+	 * @param address the address
+	 */
+	synchronized void add(
+			String ownerId,
+			AddressModel address) {
+		if (entries != null) {
+			put(entries, ownerId, address);
+		}
+	}
+
+	/**
+	 * Remove an address.
+	 * @param address the address
+	 */
+	synchronized void remove(
+			AddressModel address) {
+		if (entries != null) {
+			delete(entries, address);
+		}
+	}
+
+	/**
+	 * Replace an address by a changed version.
+	 * @param ownerId the id of the owner
+	 * @param address the previous version of the address, or null
+	 * @param changed the changed address
+	 */
+	synchronized void replace(
+			String ownerId,
+			AddressModel address,
+			AddressModel changed) {
+		if (entries != null) {
+			if (address != null) {
+				delete(entries, address);
+			}
+			put(entries, ownerId, changed);
+		}
+	}
+
+	/**
+	 * @param addressType the type of the address; POSTAL addresses are not indexed
+	 * @param value the value of the address; it is normalized like the indexed values
+	 * @return the ids of the owners of an address with this value, in no particular order
+	 */
+	Set<String> lookup(
+			AddressType addressType,
+			String value) {
+		String _key = key(addressType, value);
+		Map<String, String> _entry = _key == null ? null : current().get(_key);
+		if (_entry == null) {
+			return Collections.emptySet();
+		}
+		return new LinkedHashSet<String>(_entry.values());
+	}
+
+	/**
+	 * @param addressType the type of an address
+	 * @return true if addresses of this type are indexed
+	 */
+	static boolean isIndexed(
+			AddressType addressType) {
+		return addressType != null && addressType != AddressType.POSTAL;
+	}
+
+	/**
+	 * Normalize the value of an address, so that different notations of the same address match:
+	 * email addresses and messaging ids are compared without case, phone numbers by their digits
+	 * (with 00 as international prefix replaced by +), and web addresses without case, scheme, 'www.' and trailing slash.
+	 * @param addressType the type of the address
+	 * @param value the value of the address
+	 * @return the key of the address in the index, or null if the address is not indexed
+	 */
+	static String key(
+			AddressType addressType,
+			String value) {
+		if (!isIndexed(addressType) || value == null) {
+			return null;
+		}
+		String _value = value.trim().toLowerCase(Locale.ROOT);
+		switch (addressType) {
+		case PHONE:
+			StringBuilder _digits = new StringBuilder(_value.length());
+			for (int i = 0; i < _value.length(); i++) {
+				char _c = _value.charAt(i);
+				if (_c >= '0' && _c <= '9' || _c == '+' && _digits.length() == 0) {
+					_digits.append(_c);
+				}
+			}
+			_value = _digits.toString();
+			if (_value.startsWith("00")) {
+				_value = "+" + _value.substring(2);
+			}
+			break;
+		case WEB:
+			int _scheme = _value.indexOf("://");
+			if (_scheme >= 0) {
+				_value = _value.substring(_scheme + 3);
+			}
+			if (_value.startsWith("www.")) {
+				_value = _value.substring(4);
+			}
+			while (_value.endsWith("/")) {
+				_value = _value.substring(0, _value.length() - 1);
+			}
+			break;
+		default:
+			break;
+		}
+		return _value.isEmpty() ? null : addressType.name() + ':' + _value;
+	}
+
+	private static void put(
+			Map<String, Map<String, String>> entries,
+			String ownerId,
+			AddressModel address) {
+		String _key = key(address.getAddressType(), address.getValue());
+		if (_key == null) {
+			return;
+		}
+		Map<String, String> _entry = entries.get(_key);
+		if (_entry == null) {
+			entries.put(_key, Collections.singletonMap(address.getId(), ownerId));
+		} else if (!ownerId.equals(_entry.get(address.getId()))) {
+			Map<String, String> _changed = new HashMap<String, String>(_entry);
+			_changed.put(address.getId(), ownerId);
+			entries.put(_key, Collections.unmodifiableMap(_changed));
+		}
+	}
+
+	private static void delete(
+			Map<String, Map<String, String>> entries,
+			AddressModel address) {
+		String _key = key(address.getAddressType(), address.getValue());
+		Map<String, String> _entry = _key == null ? null : entries.get(_key);
+		if (_entry == null || !_entry.containsKey(address.getId())) {
+			return;
+		}
+		if (_entry.size() == 1) {
+			entries.remove(_key);
+		} else {
+			Map<String, String> _changed = new HashMap<String, String>(_entry);
+			_changed.remove(address.getId());
+			entries.put(_key, Collections.unmodifiableMap(_changed));
+		}
+	}
+
+	private Map<String, Map<String, String>> current() {
+		Map<String, Map<String, String>> _entries = entries;
+		if (_entries != null) {
+			return _entries;
+		}
+		synchronized (this) {
+			if (entries == null) {
+				Map<String, Map<String, String>> _built = new ConcurrentHashMap<String, Map<String, String>>();
+				for (T _owner : source.values()) {
+					String _id = owner.getId(_owner);
+					for (AddressModel _address : owner.getAddresses(_owner)) {
+						put(_built, _id, _address);
+					}
+				}
+				entries = _built;
+			}
+			return entries;
+		}
+	}
+}
@@ -0,0 +1,566 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Arbalo AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.opentdc.addressbooks.file;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.UUID;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+
+/**
+ * Compact binary snapshot format.
+ * <pre>
+ * header:  'O' 'A' 'B' 'S' version:byte compression:byte
+ * frames:  DICTIONARY count:varint string*
+ *          RECORD section:byte id:identifier pid:identifier length:varint payload
+ *          END
+ * </pre>
+ * Strings are length-prefixed UTF-8; ids in canonical UUID form are stored as 16 bytes. Object keys and the values of fields with few distinct values
+ * (e.g. createdBy, city, addressType) are replaced by indexes into a string dictionary; new dictionary
+ * entries are written in a DICTIONARY frame right before the first record using them.
+ * All frames after the header are optionally deflate-compressed.
+ * The id and parent id in the frame header allow to index a snapshot without decoding the payloads.
+ * @author Bruno Kaiser
+ *
+ */
+class BinarySnapshotCodec implements SnapshotCodec {
+	static final int VERSION = 1;
+	private static final byte[] MAGIC = { 'O', 'A', 'B', 'S' };
+	static final int HEADER_SIZE = MAGIC.length + 2;
+	static final int FRAME_END = 0;
+	static final int FRAME_DICTIONARY = 1;
+	static final int FRAME_RECORD = 2;
+	private static final int T_NULL = 0;
+	private static final int T_TRUE = 1;
+	private static final int T_FALSE = 2;
+	private static final int T_LONG = 3;
+	private static final int T_DOUBLE = 4;
+	private static final int T_STRING = 5;
+	private static final int T_DICTIONARY_STRING = 6;
+	private static final int T_ARRAY = 7;
+	private static final int T_OBJECT = 8;
+	private static final int T_UUID = 9;
+	private static final int MAX_DICTIONARY_SIZE = 1 << 16;
+	private static final int BUFFER_SIZE = 64 * 1024;
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final Set<String> DICTIONARY_FIELDS = new HashSet<String>(Arrays.asList(
+			"createdBy", "modifiedBy", "city", "postalCode", "addressType", "attributeType", "msgType",
+			"orgType", "company", "department", "jobTitle", "parentType", "memberships"));
+
+	public enum Compression {
+		NONE,
+		DEFLATE
+	}
+
+	private final Compression compression;
+
+	/**
+	 * Constructor.
+	 * @param compression the compression of snapshots written by this codec; reading detects it from the header
+	 */
+	BinarySnapshotCodec(
+			Compression compression) {
+		this.compression = compression;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.opentdc.addressbooks.file.SnapshotCodec#getExtension()
+	 */
+	@Override
+	public String getExtension() {
+		return "bin";
+	}
+
+	/**
+	 * Check whether a stream starts with the header of a binary snapshot. The stream is reset afterwards.
+	 * @param in a stream supporting mark/reset
+	 * @return true if the stream contains a binary snapshot
+	 * @throws IOException if the stream can not be read
+	 */
+	static boolean isBinarySnapshot(
+			InputStream in) throws IOException {
+		in.mark(MAGIC.length);
+		try {
+			for (byte _b : MAGIC) {
+				if (in.read() != _b) {
+					return false;
+				}
+			}
+			return true;
+		} finally {
+			in.reset();
+		}
+	}
+
+	/**
+	 * Read and verify the snapshot header.
+	 * @param in the snapshot stream, positioned at its start
+	 * @return the compression of the frames following the header
+	 * @throws IOException if the header is not valid
+	 */
+	static Compression readHeader(
+			InputStream in) throws IOException {
+		for (byte _b : MAGIC) {
+			if (in.read() != _b) {
+				throw new IOException("not a binary snapshot.");
+			}
+		}
+		int _version = in.read();
+		if (_version < 1 || _version > VERSION) {
+			throw new IOException("binary snapshot version <" + _version + "> is not supported; expected <= " + VERSION + ".");
+		}
+		int _compression = in.read();
+		if (_compression < 0 || _compression >= Compression.values().length) {
+			throw new IOException("binary snapshot has an invalid compression <" + _compression + ">.");
+		}
+		return Compression.values()[_compression];
+	}
+
+	/* (non-Javadoc)
+	 * @see org.opentdc.addressbooks.file.SnapshotCodec#openWriter(java.io.OutputStream)
+	 */
+	@Override
+	public RecordWriter openWriter(
+			OutputStream out) throws IOException {
+		out.write(MAGIC);
+		out.write(VERSION);
+		out.write(compression.ordinal());
+		if (compression == Compression.DEFLATE) {
+			final DeflaterOutputStream _deflater = new DeflaterOutputStream(out, new Deflater(Deflater.BEST_SPEED), BUFFER_SIZE);
+			return new BinaryRecordWriter(new DataOutputStream(_deflater)) {
+				@Override
+				public void finish() throws IOException {
+					super.finish();
+					_deflater.finish();
+				}
+			};
+		}
+		return new BinaryRecordWriter(new DataOutputStream(out));
+	}
+
+	/* (non-Javadoc)
+	 * @see org.opentdc.addressbooks.file.SnapshotCodec#read(java.io.InputStream, org.opentdc.addressbooks.file.SnapshotCodec.RecordSink)
+	 */
+	@Override
+	public void read(
+			InputStream in,
+			RecordSink sink) throws IOException {
+		InputStream _body = in;
+		if (readHeader(in) == Compression.DEFLATE) {
+			_body = new BufferedInputStream(new InflaterInputStream(in, new Inflater(), BUFFER_SIZE), BUFFER_SIZE);
+		}
+		DataInputStream _in = new DataInputStream(_body);
+		List<String> _dictionary = new ArrayList<String>();
+		byte[] _payload = new byte[1024];
+		while (true) {
+			int _frame = _in.read();
+			switch (_frame) {
+			case FRAME_END:
+				return;
+			case FRAME_DICTIONARY:
+				readDictionary(_in, _dictionary);
+				break;
+			case FRAME_RECORD:
+				StoreSection _section = readSection(_in.readUnsignedByte());
+				readIdentifier(_in);		// id
+				readIdentifier(_in);		// pid
+				int _length = readVarInt(_in);
+				if (_payload.length < _length) {
+					_payload = new byte[Math.max(_length, _payload.length * 2)];
+				}
+				_in.readFully(_payload, 0, _length);
+				sink.accept(_section, decodeRecord(_payload, 0, _length, _dictionary));
+				break;
+			case -1:
+				throw new EOFException("binary snapshot is truncated.");
+			default:
+				throw new IOException("binary snapshot contains an invalid frame type <" + _frame + ">.");
+			}
+		}
+	}
+
+	static StoreSection readSection(
+			int ordinal) throws IOException {
+		if (ordinal >= StoreSection.values().length) {
+			throw new IOException("binary snapshot contains an invalid section <" + ordinal + ">.");
+		}
+		return StoreSection.values()[ordinal];
+	}
+
+	static void readDictionary(
+			DataInputStream in,
+			List<String> dictionary) throws IOException {
+		int _count = readVarInt(in);
+		for (int i = 0; i < _count; i++) {
+			dictionary.add(readString(in));
+		}
+	}
+
+	/**
+	 * Decode the payload of a record frame.
+	 * @param buffer contains the payload
+	 * @param offset the start of the payload
+	 * @param length the length of the payload
+	 * @param dictionary the string dictionary read so far
+	 * @return the record
+	 * @throws IOException if the payload is corrupt
+	 */
+	static JsonObject decodeRecord(
+			byte[] buffer,
+			int offset,
+			int length,
+			List<String> dictionary) throws IOException {
+		try {
+			JsonElement _record = new PayloadDecoder(buffer, offset, dictionary).readValue();
+			if (!_record.isJsonObject()) {
+				throw new IOException("binary snapshot record is not an object.");
+			}
+			return _record.getAsJsonObject();
+		} catch (IndexOutOfBoundsException _ex) {
+			throw new IOException("binary snapshot record is corrupt.", _ex);
+		}
+	}
+
+	/******************************** encoding *****************************************/
+	private static class BinaryRecordWriter implements RecordWriter {
+		private final DataOutputStream out;
+		private final Map<String, Integer> dictionary = new HashMap<String, Integer>();
+		private final List<String> newEntries = new ArrayList<String>();
+		private final ByteArrayOutputStream buffer = new ByteArrayOutputStream(1024);
+		private final DataOutputStream payload = new DataOutputStream(buffer);
+
+		BinaryRecordWriter(
+				DataOutputStream out) {
+			this.out = out;
+		}
+
+		@Override
+		public void accept(
+				StoreSection section,
+				JsonObject record) throws IOException {
+			buffer.reset();
+			writeValue(record, false);
+			payload.flush();
+			if (!newEntries.isEmpty()) {
+				out.writeByte(FRAME_DICTIONARY);
+				writeVarInt(out, newEntries.size());
+				for (String _entry : newEntries) {
+					writeString(out, _entry);
+				}
+				newEntries.clear();
+			}
+			out.writeByte(FRAME_RECORD);
+			out.writeByte(section.ordinal());
+			writeIdentifier(out, StoreRecords.getId(record));
+			writeIdentifier(out, section == StoreSection.ADDRESSES ? StoreRecords.getParentId(record) : "");
+			writeVarInt(out, buffer.size());
+			buffer.writeTo(out);
+		}
+
+		@Override
+		public void finish() throws IOException {
+			out.writeByte(FRAME_END);
+			out.flush();
+		}
+
+		private void writeValue(
+				JsonElement value,
+				boolean useDictionary) throws IOException {
+			if (value == null || value.isJsonNull()) {
+				payload.writeByte(T_NULL);
+			} else if (value.isJsonObject()) {
+				JsonObject _object = value.getAsJsonObject();
+				Set<Entry<String, JsonElement>> _entries = _object.entrySet();
+				payload.writeByte(T_OBJECT);
+				writeVarInt(payload, _entries.size());
+				for (Entry<String, JsonElement> _entry : _entries) {
+					int _index = lookup(_entry.getKey());
+					writeVarInt(payload, _index + 1);		// 0: key follows inline
+					if (_index < 0) {
+						writeString(payload, _entry.getKey());
+					}
+					writeValue(_entry.getValue(), DICTIONARY_FIELDS.contains(_entry.getKey()));
+				}
+			} else if (value.isJsonArray()) {
+				JsonArray _array = value.getAsJsonArray();
+				payload.writeByte(T_ARRAY);
+				writeVarInt(payload, _array.size());
+				for (JsonElement _element : _array) {
+					writeValue(_element, useDictionary);
+				}
+			} else {
+				JsonPrimitive _primitive = value.getAsJsonPrimitive();
+				if (_primitive.isBoolean()) {
+					payload.writeByte(_primitive.getAsBoolean() ? T_TRUE : T_FALSE);
+				} else if (_primitive.isNumber()) {
+					writeNumber(_primitive);
+				} else {
+					String _s = _primitive.getAsString();
+					int _index = useDictionary ? lookup(_s) : -1;
+					UUID _uuid = null;
+					if (_index >= 0) {
+						payload.writeByte(T_DICTIONARY_STRING);
+						writeVarInt(payload, _index);
+					} else if ((_uuid = toUUID(_s)) != null) {
+						payload.writeByte(T_UUID);
+						payload.writeLong(_uuid.getMostSignificantBits());
+						payload.writeLong(_uuid.getLeastSignificantBits());
+					} else {
+						payload.writeByte(T_STRING);
+						writeString(payload, _s);
+					}
+				}
+			}
+		}
+
+		private void writeNumber(
+				JsonPrimitive number) throws IOException {
+			String _text = number.getAsString();
+			try {
+				long _l = Long.parseLong(_text);
+				payload.writeByte(T_LONG);
+				writeVarLong(payload, (_l << 1) ^ (_l >> 63));		// zigzag
+			} catch (NumberFormatException _ex) {
+				payload.writeByte(T_DOUBLE);
+				payload.writeDouble(number.getAsDouble());
+			}
+		}
+
+		/**
+		 * @return the dictionary index of the string, or -1 if the dictionary is full
+		 */
+		private int lookup(
+				String s) {
+			Integer _index = dictionary.get(s);
+			if (_index == null) {
+				if (dictionary.size() >= MAX_DICTIONARY_SIZE) {
+					return -1;
+				}
+				_index = dictionary.size();
+				dictionary.put(s, _index);
+				newEntries.add(s);
+			}
+			return _index;
+		}
+	}
+
+	/******************************** decoding *****************************************/
+	private static class PayloadDecoder {
+		private final byte[] buffer;
+		private final List<String> dictionary;
+		private int pos;
+
+		PayloadDecoder(
+				byte[] buffer,
+				int offset,
+				List<String> dictionary) {
+			this.buffer = buffer;
+			this.pos = offset;
+			this.dictionary = dictionary;
+		}
+
+		JsonElement readValue() throws IOException {
+			int _type = buffer[pos++];
+			switch (_type) {
+			case T_NULL:
+				return JsonNull.INSTANCE;
+			case T_TRUE:
+				return new JsonPrimitive(Boolean.TRUE);
+			case T_FALSE:
+				return new JsonPrimitive(Boolean.FALSE);
+			case T_LONG:
+				long _zigzag = readVarLong();
+				return new JsonPrimitive(Long.valueOf((_zigzag >>> 1) ^ -(_zigzag & 1)));
+			case T_DOUBLE:
+				return new JsonPrimitive(Double.valueOf(Double.longBitsToDouble(readLong())));
+			case T_STRING:
+				return new JsonPrimitive(readString());
+			case T_DICTIONARY_STRING:
+				return new JsonPrimitive(dictionary.get((int) readVarLong()));
+			case T_UUID:
+				return new JsonPrimitive(new UUID(readLong(), readLong()).toString());
+			case T_ARRAY:
+				int _size = (int) readVarLong();
+				JsonArray _array = new JsonArray();
+				for (int i = 0; i < _size; i++) {
+					_array.add(readValue());
+				}
+				return _array;
+			case T_OBJECT:
+				int _count = (int) readVarLong();
+				JsonObject _object = new JsonObject();
+				for (int i = 0; i < _count; i++) {
+					int _key = (int) readVarLong();
+					String _name = _key == 0 ? readString() : dictionary.get(_key - 1);
+					_object.add(_name, readValue());
+				}
+				return _object;
+			default:
+				throw new IOException("binary snapshot record contains an invalid value type <" + _type + ">.");
+			}
+		}
+
+		private long readLong() {
+			long _value = 0;
+			for (int i = 0; i < 8; i++) {
+				_value = (_value << 8) | (buffer[pos++] & 0xff);
+			}
+			return _value;
+		}
+
+		private String readString() {
+			int _length = (int) readVarLong();
+			String _s = new String(buffer, pos, _length, UTF8);
+			pos += _length;
+			return _s;
+		}
+
+		private long readVarLong() {
+			long _value = 0;
+			int _shift = 0;
+			while (true) {
+				byte _b = buffer[pos++];
+				_value |= (long) (_b & 0x7f) << _shift;
+				if ((_b & 0x80) == 0) {
+					return _value;
+				}
+				_shift += 7;
+			}
+		}
+	}
+
+	/******************************** primitives *****************************************/
+	static void writeVarInt(
+			DataOutputStream out,
+			int value) throws IOException {
+		writeVarLong(out, value & 0xffffffffL);
+	}
+
+	static void writeVarLong(
+			DataOutputStream out,
+			long value) throws IOException {
+		while ((value & ~0x7fL) != 0) {
+			out.writeByte((int) ((value & 0x7f) | 0x80));
+			value >>>= 7;
+		}
+		out.writeByte((int) value);
+	}
+
+	static int readVarInt(
+			DataInputStream in) throws IOException {
+		int _value = 0;
+		int _shift = 0;
+		while (true) {
+			int _b = in.readUnsignedByte();
+			if (_shift > 28) {
+				throw new IOException("binary snapshot contains an invalid varint.");
+			}
+			_value |= (_b & 0x7f) << _shift;
+			if ((_b & 0x80) == 0) {
+				return _value;
+			}
+			_shift += 7;
+		}
+	}
+
+	static void writeString(
+			DataOutputStream out,
+			String s) throws IOException {
+		byte[] _bytes = s.getBytes(UTF8);
+		writeVarInt(out, _bytes.length);
+		out.write(_bytes);
+	}
+
+	/**
+	 * Write an id; ids in canonical UUID form take 17 bytes instead of 37.
+	 */
+	static void writeIdentifier(
+			DataOutputStream out,
+			String id) throws IOException {
+		UUID _uuid = toUUID(id);
+		if (_uuid == null) {
+			out.writeByte(0);
+			writeString(out, id);
+		} else {
+			out.writeByte(1);
+			out.writeLong(_uuid.getMostSignificantBits());
+			out.writeLong(_uuid.getLeastSignificantBits());
+		}
+	}
+
+	static String readIdentifier(
+			DataInputStream in) throws IOException {
+		if (in.readUnsignedByte() == 0) {
+			return readString(in);
+		}
+		return new UUID(in.readLong(), in.readLong()).toString();
+	}
+
+	/**
+	 * @return the UUID if the string is its canonical representation, null otherwise
+	 */
+	private static UUID toUUID(
+			String s) {
+		if (s.length() != 36 || s.charAt(8) != '-' || s.charAt(13) != '-' || s.charAt(18) != '-' || s.charAt(23) != '-') {
+			return null;
+		}
+		try {
+			UUID _uuid = UUID.fromString(s);
+			return _uuid.toString().equals(s) ? _uuid : null;
+		} catch (IllegalArgumentException _ex) {
+			return null;
+		}
+	}
+
+	static String readString(
+			DataInputStream in) throws IOException {
+		byte[] _bytes = new byte[readVarInt(in)];
+		in.readFully(_bytes);
+		return new String(_bytes, UTF8);
+	}
+}
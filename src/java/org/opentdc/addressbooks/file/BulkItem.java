@@ -0,0 +1,100 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Arbalo AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.opentdc.addressbooks.file;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.opentdc.addressbooks.AddressModel;
+import org.opentdc.addressbooks.ContactModel;
+import org.opentdc.addressbooks.OrgModel;
+
+/**
+ * A contact or an org with its addresses, to be created by FileServiceProvider.bulkImport().
+ * @author Bruno Kaiser
+ *
+ */
+public class BulkItem {
+	private ContactModel contact;
+	private OrgModel org;
+	private List<AddressModel> addresses = new ArrayList<AddressModel>();
+
+	public BulkItem() {
+	}
+
+	/**
+	 * @param contact the contact to create; with the id of an existing contact, this contact is added to the addressbook
+	 * @param addresses the addresses to create for the contact
+	 * @return the item
+	 */
+	public static BulkItem contact(
+			ContactModel contact,
+			List<AddressModel> addresses) {
+		BulkItem _item = new BulkItem();
+		_item.contact = contact;
+		_item.setAddresses(addresses);
+		return _item;
+	}
+
+	/**
+	 * @param org the org to create; with the id of an existing org, this org is added to the addressbook
+	 * @param addresses the addresses to create for the org
+	 * @return the item
+	 */
+	public static BulkItem org(
+			OrgModel org,
+			List<AddressModel> addresses) {
+		BulkItem _item = new BulkItem();
+		_item.org = org;
+		_item.setAddresses(addresses);
+		return _item;
+	}
+
+	public ContactModel getContact() {
+		return contact;
+	}
+
+	public void setContact(
+			ContactModel contact) {
+		this.contact = contact;
+	}
+
+	public OrgModel getOrg() {
+		return org;
+	}
+
+	public void setOrg(
+			OrgModel org) {
+		this.org = org;
+	}
+
+	public List<AddressModel> getAddresses() {
+		return addresses;
+	}
+
+	public void setAddresses(
+			List<AddressModel> addresses) {
+		this.addresses = addresses == null ? new ArrayList<AddressModel>() : addresses;
+	}
+}
@@ -0,0 +1,92 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Arbalo AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.opentdc.addressbooks.file;
+
+/**
+ * The outcome of one BulkItem of FileServiceProvider.bulkImport().
+ * @author Bruno Kaiser
+ *
+ */
+public class BulkResult {
+	public enum Status {
+		CREATED,	// the contact or org was created with all its addresses
+		ADDED,		// the existing contact or org was added to the addressbook, and its new addresses were created
+		FAILED		// nothing of the item was applied, see getMessage()
+	}
+
+	private final int index;
+	private final String id;
+	private final Status status;
+	private final String message;
+
+	private BulkResult(
+			int index,
+			String id,
+			Status status,
+			String message) {
+		this.index = index;
+		this.id = id;
+		this.status = status;
+		this.message = message;
+	}
+
+	static BulkResult applied(
+			int index,
+			String id,
+			boolean created) {
+		return new BulkResult(index, id, created ? Status.CREATED : Status.ADDED, null);
+	}
+
+	static BulkResult failed(
+			int index,
+			String id,
+			String message) {
+		return new BulkResult(index, id, Status.FAILED, message);
+	}
+
+	/**
+	 * @return the position of the item in the list passed to bulkImport()
+	 */
+	public int getIndex() {
+		return index;
+	}
+
+	/**
+	 * @return the id of the contact or org, or null if the item failed before an id was assigned
+	 */
+	public String getId() {
+		return id;
+	}
+
+	public Status getStatus() {
+		return status;
+	}
+
+	/**
+	 * @return the reason why the item failed, or null
+	 */
+	public String getMessage() {
+		return message;
+	}
+}
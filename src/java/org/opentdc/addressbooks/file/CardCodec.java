@@ -0,0 +1,122 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Arbalo AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.opentdc.addressbooks.file;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+
+import org.opentdc.addressbooks.AddressModel;
+import org.opentdc.addressbooks.ContactModel;
+import org.opentdc.addressbooks.OrgModel;
+
+/**
+ * Encodes and decodes contacts and orgs with their addresses in a CardFormat.
+ * Implementations must stream the cards, so that addressbooks of any size can be written and read with constant memory.
+ * @author Bruno Kaiser
+ *
+ */
+interface CardCodec {
+	/**
+	 * Writes the cards of an addressbook one by one.
+	 */
+	interface CardWriter {
+		void writeContact(ContactModel contact, List<AddressModel> addresses) throws IOException;
+
+		void writeOrg(OrgModel org, List<AddressModel> addresses) throws IOException;
+
+		/**
+		 * Flush the cards written; the underlying stream is not closed.
+		 * @throws IOException if the cards can not be written
+		 */
+		void finish() throws IOException;
+	}
+
+	/**
+	 * Reads the cards of a file one by one.
+	 */
+	interface CardReader {
+		/**
+		 * Read the next card. A card that can not be parsed is returned with an error, and reading continues
+		 * with the card after it.
+		 * @return the next card, or null at the end of the stream
+		 * @throws IOException if the stream can not be read
+		 */
+		Card next() throws IOException;
+	}
+
+	/**
+	 * A contact or org as read from a file, not validated yet.
+	 */
+	class Card {
+		private final int line;
+		private final BulkItem item;
+		private final String error;
+
+		Card(
+				int line,
+				BulkItem item,
+				String error) {
+			this.line = line;
+			this.item = item;
+			this.error = error;
+		}
+
+		/**
+		 * @return the line of the file the card starts at
+		 */
+		int getLine() {
+			return line;
+		}
+
+		/**
+		 * @return the contact or org with its addresses, or null if the card can not be parsed
+		 */
+		BulkItem getItem() {
+			return item;
+		}
+
+		/**
+		 * @return the reason why the card can not be parsed, or null
+		 */
+		String getError() {
+			return error;
+		}
+	}
+
+	/**
+	 * @return the file name extension of files in this format
+	 */
+	String getExtension();
+
+	/**
+	 * @return the media type of files in this format
+	 */
+	String getMediaType();
+
+	CardWriter openWriter(OutputStream out) throws IOException;
+
+	CardReader openReader(InputStream in) throws IOException;
+}
@@ -0,0 +1,193 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Arbalo AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.opentdc.addressbooks.file;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.opentdc.service.exception.InternalServerErrorException;
+
+/**
+ * Imports a file of contacts and orgs in batches.
+ * A parser thread reads the cards one by one into a bounded queue; the importing thread takes them from the queue
+ * and passes them on in batches. Thus parsing and indexing overlap, and at most the cards of the queue and of one
+ * batch are held in memory, whatever the size of the file.
+ * @author Bruno Kaiser
+ *
+ */
+class CardImporter {
+	private static final CardCodec.Card END = new CardCodec.Card(0, null, null);
+
+	/**
+	 * Applies a batch of parsed cards.
+	 */
+	interface Sink {
+		/**
+		 * @param items the contacts and orgs to import
+		 * @return the result of each item, in the order of the items
+		 */
+		List<BulkResult> apply(List<BulkItem> items);
+	}
+
+	private final CardCodec codec;
+	private final int batchSize;
+	private final int maxErrors;
+	private final ImportListener listener;
+
+	/**
+	 * Constructor.
+	 * @param codec decodes the file
+	 * @param batchSize the number of cards passed to the sink at once; also the capacity of the queue
+	 * @param maxErrors the number of errors kept in the report
+	 * @param listener is called with the progress and the errors, or null
+	 */
+	CardImporter(
+			CardCodec codec,
+			int batchSize,
+			int maxErrors,
+			ImportListener listener) {
+		this.codec = codec;
+		this.batchSize = Math.max(1, batchSize);
+		this.maxErrors = maxErrors;
+		this.listener = listener;
+	}
+
+	/**
+	 * Import a file.
+	 * @param in the file; it is read to its end, but not closed
+	 * @param sink applies the batches
+	 * @return the report of the import
+	 * @throws IOException if the file can not be read; the cards read before were imported
+	 */
+	ImportReport run(
+			InputStream in,
+			Sink sink) throws IOException {
+		final CardCodec.CardReader _reader = codec.openReader(in);
+		final BlockingQueue<CardCodec.Card> _queue = new ArrayBlockingQueue<CardCodec.Card>(batchSize);
+		final AtomicReference<Exception> _failure = new AtomicReference<Exception>();
+		Thread _parser = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					CardCodec.Card _card = null;
+					while ((_card = _reader.next()) != null) {
+						_queue.put(_card);
+					}
+					_queue.put(END);
+				} catch (InterruptedException _ex) {
+					// the import was aborted
+				} catch (IOException | RuntimeException _ex) {
+					_failure.set(_ex);
+					try {
+						_queue.put(END);
+					} catch (InterruptedException _ie) {
+						// the import was aborted
+					}
+				}
+			}
+		}, "addressbooks-import");
+		_parser.setDaemon(true);
+		_parser.start();
+		ImportReport _report = new ImportReport(maxErrors);
+		List<CardCodec.Card> _batch = new ArrayList<CardCodec.Card>(batchSize);
+		try {
+			CardCodec.Card _card = null;
+			while ((_card = _queue.take()) != END) {
+				_batch.add(_card);
+				if (_batch.size() == batchSize) {
+					apply(_batch, sink, _report);
+					_batch.clear();
+				}
+			}
+			apply(_batch, sink, _report);
+		} catch (InterruptedException _ex) {
+			Thread.currentThread().interrupt();
+			throw new InternalServerErrorException("import was interrupted after " + _report.getRead() + " cards.");
+		} finally {
+			_parser.interrupt();		// stops the parser if the import failed
+		}
+		Exception _ex = _failure.get();
+		if (_ex instanceof IOException) {
+			throw (IOException) _ex;
+		} else if (_ex != null) {
+			throw (RuntimeException) _ex;
+		}
+		_report.finish();
+		if (listener != null) {
+			listener.onProgress(_report);
+		}
+		return _report;
+	}
+
+	private void apply(
+			List<CardCodec.Card> batch,
+			Sink sink,
+			ImportReport report) {
+		List<BulkItem> _items = new ArrayList<BulkItem>(batch.size());
+		List<CardCodec.Card> _cards = new ArrayList<CardCodec.Card>(batch.size());
+		for (CardCodec.Card _card : batch) {
+			if (_card.getError() != null) {
+				addError(report, new ImportError(_card.getLine(), null, _card.getError()));
+			} else {
+				_items.add(_card.getItem());
+				_cards.add(_card);
+			}
+		}
+		if (!_items.isEmpty()) {
+			List<BulkResult> _results = sink.apply(_items);
+			for (int i = 0; i < _results.size(); i++) {
+				BulkResult _result = _results.get(i);
+				switch (_result.getStatus()) {
+				case CREATED:
+					report.addCreated();
+					break;
+				case ADDED:
+					report.addAdded();
+					break;
+				case FAILED:
+					addError(report, new ImportError(_cards.get(i).getLine(), _result.getId(), _result.getMessage()));
+					break;
+				}
+			}
+		}
+		report.addRead(batch.size());
+		if (listener != null && !batch.isEmpty()) {
+			listener.onProgress(report);
+		}
+	}
+
+	private void addError(
+			ImportReport report,
+			ImportError error) {
+		report.addError(error);
+		if (listener != null) {
+			listener.onError(error);
+		}
+	}
+}
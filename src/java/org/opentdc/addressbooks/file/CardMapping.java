@@ -0,0 +1,129 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Arbalo AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.opentdc.addressbooks.file;
+
+import org.opentdc.addressbooks.AddressModel;
+import org.opentdc.addressbooks.AddressType;
+import org.opentdc.addressbooks.AttributeType;
+import org.opentdc.addressbooks.ContactModel;
+
+/**
+ * Rules shared by the CardReaders to map the fields of a file to the models.
+ * The models are only mapped here; they are validated by FileServiceProvider.bulkImport().
+ * @author Bruno Kaiser
+ *
+ */
+final class CardMapping {
+	private CardMapping() {
+	}
+
+	/**
+	 * @param type the name of an attribute type, in any case, or one of the vCard types cell or mobile
+	 * @return the attribute type, or null if the name is unknown
+	 */
+	static AttributeType toAttributeType(
+			String type) {
+		if (type == null || type.length() == 0) {
+			return null;
+		}
+		if (type.equalsIgnoreCase(VCardCodec.TYPE_CELL) || type.equalsIgnoreCase(AttributeType.MOBILE.name())) {
+			return AttributeType.MOBILE;
+		}
+		for (AttributeType _type : AttributeType.values()) {
+			if (_type.name().equalsIgnoreCase(type)) {
+				return _type;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @param type the name of an enum constant, in any case
+	 * @param enumType the enum
+	 * @return the constant
+	 * @throws IllegalArgumentException if the name is unknown
+	 */
+	static <E extends Enum<E>> E toEnum(
+			String type,
+			Class<E> enumType) {
+		for (E _constant : enumType.getEnumConstants()) {
+			if (_constant.name().equalsIgnoreCase(type.trim())) {
+				return _constant;
+			}
+		}
+		throw new IllegalArgumentException("invalid " + enumType.getSimpleName() + " <" + type + ">");
+	}
+
+	/**
+	 * @param countryCode a numeric country code, or any other text
+	 * @return the country code, or 0 if the text is not a number
+	 */
+	static short toCountryCode(
+			String countryCode) {
+		if (countryCode == null) {
+			return 0;
+		}
+		try {
+			return Short.parseShort(countryCode.trim());
+		} catch (NumberFormatException _ex) {
+			return 0;
+		}
+	}
+
+	/**
+	 * @param addressType the type of the address
+	 * @param attributeType the attribute type, or null for OTHER
+	 * @return a new address
+	 */
+	static AddressModel newAddress(
+			AddressType addressType,
+			AttributeType attributeType) {
+		AddressModel _address = new AddressModel();
+		_address.setAddressType(addressType);
+		_address.setAttributeType(attributeType == null ? AttributeType.OTHER : attributeType);
+		return _address;
+	}
+
+	/**
+	 * Take the first and last name of a contact from its full name, if the contact has neither.
+	 * The last word is taken as the last name, the words before it as the first name.
+	 * @param contact the contact
+	 * @param fn the full name, or null
+	 */
+	static void setNames(
+			ContactModel contact,
+			String fn) {
+		if (contact.getFirstName() != null || contact.getLastName() != null || fn == null || fn.trim().length() == 0) {
+			return;
+		}
+		String _fn = fn.trim();
+		int _last = _fn.lastIndexOf(' ');
+		if (_last < 0) {
+			contact.setLastName(_fn);
+		} else {
+			contact.setFirstName(_fn.substring(0, _last).trim());
+			contact.setLastName(_fn.substring(_last + 1));
+		}
+	}
+}
@@ -0,0 +1,406 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Arbalo AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.opentdc.addressbooks.file;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.opentdc.service.exception.InternalServerErrorException;
+
+/**
+ * In-process feed of all committed mutations, e.g. to keep a search index or a cache up to date without polling.
+ * Each commit publishes an event with the next sequence number into a bounded ring buffer.
+ * Every subscriber is called by its own thread, in sequence order, and starts after a given sequence number.
+ * A subscriber that falls behind by more than the capacity of the buffer either holds back the writers 
+ * (OverflowPolicy.BLOCK, for at most the block timeout) or misses the overwritten events and is told so 
+ * (OverflowPolicy.DROP). If the feed is persisted, such subscribers read the missed events from the feed log 
+ * instead, and subscribers can resume after a restart.
+ * @author Bruno Kaiser
+ *
+ */
+public class ChangeFeed {
+	private static final Logger logger = Logger.getLogger(ChangeFeed.class.getName());
+	private static final int READ_BATCH = 1024;
+
+	/**
+	 * What happens when a subscriber falls behind by more than the capacity of the buffer.
+	 */
+	public enum OverflowPolicy {
+		/**
+		 * writers wait until the subscriber has caught up, or until the block timeout expired
+		 */
+		BLOCK,
+		/**
+		 * the subscriber misses the overwritten events and is told with onOverflow()
+		 */
+		DROP
+	}
+
+	/**
+	 * Receives the events of the feed.
+	 */
+	public interface Subscriber {
+		/**
+		 * Called for each event in sequence order, on the thread of the subscription.
+		 * @param event the event
+		 */
+		void onEvent(FeedEvent event);
+
+		/**
+		 * Called instead of onEvent() for events that are not available anymore.
+		 * @param first the sequence number of the first missed event
+		 * @param last the sequence number of the last missed event
+		 */
+		void onOverflow(long first, long last);
+	}
+
+	/**
+	 * A running subscription; cancel() stops it.
+	 */
+	public final class Subscription implements Runnable {
+		private final String name;
+		private final OverflowPolicy policy;
+		private final Subscriber subscriber;
+		private final Thread thread;
+		private long cursor;		// the sequence number of the next event to deliver
+		private boolean cancelled = false;
+
+		private Subscription(
+				String name,
+				long cursor,
+				OverflowPolicy policy,
+				Subscriber subscriber) {
+			this.name = name;
+			this.cursor = cursor;
+			this.policy = policy;
+			this.subscriber = subscriber;
+			this.thread = new Thread(this, "addressbooks-feed-" + name);
+			this.thread.setDaemon(true);
+		}
+
+		/**
+		 * @return the name of the subscription
+		 */
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * @return the sequence number of the last event delivered or skipped
+		 */
+		public long getPosition() {
+			synchronized (ChangeFeed.this) {
+				return cursor - 1;
+			}
+		}
+
+		/**
+		 * Stop the subscription; an event that is being delivered is completed first.
+		 */
+		public void cancel() {
+			synchronized (ChangeFeed.this) {
+				cancelled = true;
+				subscriptions.remove(this);
+				ChangeFeed.this.notifyAll();
+			}
+		}
+
+		/**
+		 * The delivery loop of the subscription.
+		 */
+		@Override
+		public void run() {
+			while (true) {
+				long _from = 0;
+				long _oldest = 0;
+				FeedEvent _event = null;
+				synchronized (ChangeFeed.this) {
+					while (!cancelled && !closed && cursor >= next) {
+						try {
+							ChangeFeed.this.wait();
+						} catch (InterruptedException _ex) {
+							// re-check the state; close() interrupts waiting subscriptions
+						}
+					}
+					if (cancelled || cursor >= next) {		// cancelled, or closed and all events delivered
+						return;
+					}
+					_from = cursor;
+					_oldest = getOldest();
+					if (cursor >= _oldest) {
+						_event = slots[index(cursor)];
+					}
+				}
+				if (_event != null) {
+					deliver(_event);
+				} else {
+					catchUp(_from, _oldest);
+				}
+			}
+		}
+
+		/**
+		 * Deliver the events that were overwritten in the buffer from the feed log, or report them as missed.
+		 */
+		private void catchUp(
+				long from,
+				long oldest) {
+			List<FeedEvent> _events = new ArrayList<FeedEvent>();
+			if (log != null) {
+				try {
+					_events = log.read(from - 1, READ_BATCH);
+				} catch (IOException _ex) {
+					logger.warning("feed subscription <" + name + ">: feed log can not be read: " + _ex.getMessage());
+				}
+			}
+			long _expected = from;
+			for (FeedEvent _event : _events) {
+				if (_event.getSeq() >= oldest) {
+					break;		// the buffer has it
+				}
+				if (_event.getSeq() < _expected) {
+					continue;
+				}
+				if (_event.getSeq() > _expected) {
+					skip(_expected, _event.getSeq() - 1);
+				}
+				deliver(_event);
+				_expected = _event.getSeq() + 1;
+			}
+			if (_expected == from) {
+				skip(from, oldest - 1);		// neither in the buffer nor in the feed log
+			}
+		}
+
+		private void deliver(
+				FeedEvent event) {
+			try {
+				subscriber.onEvent(event);
+			} catch (RuntimeException _ex) {
+				logger.log(Level.WARNING, "feed subscription <" + name + "> failed on event <" + event.getSeq() + ">.", _ex);
+			}
+			advance(event.getSeq() + 1);
+		}
+
+		private void skip(
+				long first,
+				long last) {
+			if (last < first) {
+				return;
+			}
+			logger.warning("feed subscription <" + name + "> missed events <" + first + "> to <" + last + ">.");
+			try {
+				subscriber.onOverflow(first, last);
+			} catch (RuntimeException _ex) {
+				logger.log(Level.WARNING, "feed subscription <" + name + "> failed on overflow.", _ex);
+			}
+			advance(last + 1);
+		}
+
+		private void advance(
+				long seq) {
+			synchronized (ChangeFeed.this) {
+				cursor = Math.max(cursor, seq);
+				ChangeFeed.this.notifyAll();		// wake writers that wait for this subscription
+			}
+		}
+	}
+
+	private final FeedEvent[] slots;
+	private final long blockTimeout;
+	private final FeedLog log;
+	private final List<Subscription> subscriptions = new ArrayList<Subscription>();
+	private long first = 1;		// the sequence number of the first event published by this process
+	private long next = 1;		// the sequence number of the next event
+	private boolean closed = false;
+
+	/**
+	 * Constructor.
+	 * @param capacity the number of events kept in memory
+	 * @param blockTimeout the maximal time in milliseconds a writer waits for BLOCK subscribers
+	 * @param log the feed log, or null if the feed is not persisted
+	 */
+	ChangeFeed(
+			int capacity,
+			long blockTimeout,
+			FeedLog log) {
+		this.slots = new FeedEvent[Math.max(1, capacity)];
+		this.blockTimeout = blockTimeout;
+		this.log = log;
+	}
+
+	/**
+	 * Continue the sequence numbers of the feed log and start persisting the feed.
+	 * @throws IOException if the feed log can not be read
+	 */
+	void open() throws IOException {
+		if (log == null) {
+			return;
+		}
+		synchronized (this) {
+			first = log.getLast() + 1;
+			next = first;
+		}
+		subscribe("log", first - 1, OverflowPolicy.BLOCK, new Subscriber() {
+			@Override
+			public void onEvent(FeedEvent event) {
+				try {
+					log.append(event);
+				} catch (IOException _ex) {
+					throw new InternalServerErrorException("feed event <" + event.getSeq() + "> can not be persisted: " + 
+							_ex.getMessage());
+				}
+			}
+
+			@Override
+			public void onOverflow(long first, long last) {
+				// the events are lost for subscribers that resume later
+			}
+		});
+	}
+
+	/**
+	 * Publish a committed mutation.
+	 * @param record the mutation
+	 */
+	void publish(
+			JournalRecord record) {
+		long _deadline = 0;
+		synchronized (this) {
+			if (closed) {
+				return;
+			}
+			while (isBlocked()) {
+				long _now = System.currentTimeMillis();
+				if (_deadline == 0) {
+					_deadline = _now + blockTimeout;
+				}
+				if (_now >= _deadline) {
+					logger.warning("feed event <" + next + "> overwrites an event that was not delivered to all " + 
+							"BLOCK subscribers within " + blockTimeout + "ms.");
+					break;
+				}
+				try {
+					wait(_deadline - _now);
+				} catch (InterruptedException _ex) {
+					Thread.currentThread().interrupt();
+					break;
+				}
+			}
+			slots[index(next)] = new FeedEvent(next, System.currentTimeMillis(), record);
+			next++;
+			notifyAll();
+		}
+	}
+
+	/**
+	 * Subscribe to the feed.
+	 * @param name the name of the subscription, e.g. for its thread
+	 * @param after the sequence number after which to start, e.g. the position of an earlier subscription; 
+	 * -1 to start with the next event
+	 * @param policy what happens if the subscriber falls behind
+	 * @param subscriber receives the events
+	 * @return the running subscription
+	 */
+	public Subscription subscribe(
+			String name,
+			long after,
+			OverflowPolicy policy,
+			Subscriber subscriber) {
+		Subscription _subscription = null;
+		synchronized (this) {
+			if (closed) {
+				throw new InternalServerErrorException("the change feed is closed.");
+			}
+			_subscription = new Subscription(name, after < 0 ? next : Math.min(after + 1, next), policy, subscriber);
+			subscriptions.add(_subscription);
+		}
+		_subscription.thread.start();
+		return _subscription;
+	}
+
+	/**
+	 * @return the sequence number of the latest event, or 0 if there is none
+	 */
+	public synchronized long getLatest() {
+		return next - 1;
+	}
+
+	/**
+	 * Stop all subscriptions once they delivered the events published so far, waiting at most a second for each,
+	 * and close the feed log.
+	 */
+	void close() {
+		List<Subscription> _subscriptions = null;
+		synchronized (this) {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			notifyAll();
+			_subscriptions = new ArrayList<Subscription>(subscriptions);
+		}
+		for (Subscription _subscription : _subscriptions) {
+			_subscription.thread.interrupt();
+			try {
+				_subscription.thread.join(1000);
+			} catch (InterruptedException _ex) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		if (log != null) {
+			log.close();
+		}
+	}
+
+	/**
+	 * @return true if publishing the next event would overwrite an event a BLOCK subscriber has not received yet;
+	 * subscribers that already read from the feed log do not block
+	 */
+	private boolean isBlocked() {
+		long _overwritten = next - slots.length;
+		for (Subscription _subscription : subscriptions) {
+			if (_subscription.policy == OverflowPolicy.BLOCK && _subscription.cursor <= _overwritten 
+					&& _subscription.cursor >= getOldest()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return the sequence number of the oldest event in the buffer
+	 */
+	private long getOldest() {
+		return Math.max(first, next - slots.length);
+	}
+
+	private int index(
+			long seq) {
+		return (int) (seq % slots.length);
+	}
+}
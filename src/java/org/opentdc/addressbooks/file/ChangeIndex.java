@@ -0,0 +1,394 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Arbalo AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.opentdc.addressbooks.file;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * The changes of contacts, orgs and addresses in the order they were made, for incremental sync.
+ * Each entity is contained once, at the position of its latest change; deletions are kept as tombstones.
+ * When a contact or org is deleted completely, its tombstone replaces the entries of its addresses and its
+ * tombstones in single addressbooks, so that all that remains of a deleted entity is subject to maxTombstones.
+ * The index is built from its source on first use, ordered by modifiedAt, and each later change is appended.
+ * Clients read the changes after a token; the token contains the sequence number of the last change they read
+ * and the epoch of the index, so that tokens of an earlier process, or tokens older than the oldest tombstone
+ * that is still kept, are recognized as expired.
+ * Readers iterate a skip list and never take a lock.
+ * Until the index is built, put() and delete() are no-ops.
+ * @author Bruno Kaiser
+ *
+ */
+class ChangeIndex {
+	enum Kind {
+		CONTACT,
+		ORG,
+		ADDRESS
+	}
+
+	/**
+	 * A change of one entity.
+	 */
+	static final class Change {
+		private final long seq;
+		private final Kind kind;
+		private final String id;
+		private final String ownerId;
+		private final String aid;
+		private final boolean deleted;
+		private final Date modifiedAt;
+		private long bound = 0;		// the latest modifiedAt of this change and all changes before it
+
+		/**
+		 * Constructor.
+		 * @param seq the sequence number; ignored when the change is passed to the index
+		 * @param kind the kind of the entity
+		 * @param id the id of the entity
+		 * @param ownerId the id of the contact or org of an address; null for contacts and orgs
+		 * @param aid the addressbook a tombstone applies to; null if the entity was deleted completely
+		 * @param deleted true for a tombstone
+		 * @param modifiedAt the modification date of the entity
+		 */
+		Change(
+				long seq,
+				Kind kind,
+				String id,
+				String ownerId,
+				String aid,
+				boolean deleted,
+				Date modifiedAt) {
+			this.seq = seq;
+			this.kind = kind;
+			this.id = id;
+			this.ownerId = ownerId;
+			this.aid = aid;
+			this.deleted = deleted;
+			this.modifiedAt = modifiedAt;
+		}
+
+		long getSeq() {
+			return seq;
+		}
+
+		Kind getKind() {
+			return kind;
+		}
+
+		String getId() {
+			return id;
+		}
+
+		String getOwnerId() {
+			return ownerId;
+		}
+
+		String getAid() {
+			return aid;
+		}
+
+		boolean isDeleted() {
+			return deleted;
+		}
+
+		Date getModifiedAt() {
+			return modifiedAt;
+		}
+
+		private long getTime() {
+			return modifiedAt == null ? 0 : modifiedAt.getTime();
+		}
+
+		private String getKey() {
+			return aid == null ? getEntityKey(kind, id) : getEntityKey(kind, id) + "@" + aid;
+		}
+	}
+
+	private static String getEntityKey(
+			Kind kind,
+			String id) {
+		return kind + ":" + id;
+	}
+
+	/**
+	 * Provides the current entities when the index is built.
+	 */
+	interface Source {
+		Collection<Change> values();
+	}
+
+	private static final Comparator<Change> BY_MODIFIED_AT = new Comparator<Change>() {
+		@Override
+		public int compare(Change c1, Change c2) {
+			return Long.compare(c1.getTime(), c2.getTime());
+		}
+	};
+
+	private final Source source;
+	private final int maxTombstones;
+	private final String epoch = Long.toString(System.currentTimeMillis(), 36);
+	private volatile ConcurrentNavigableMap<Long, Change> changes = null;
+	private final Map<String, Long> latest = new HashMap<String, Long>();
+	private final ArrayDeque<Change> tombstones = new ArrayDeque<Change>();
+	private final Map<String, List<String>> scoped = new HashMap<String, List<String>>();		// entity -> aids of its tombstones
+	private long seq = 0;
+	private long bound = 0;
+	private volatile long horizon = 0;		// the latest sequence number of a discarded tombstone
+
+	/**
+	 * Constructor.
+	 * @param source provides the current entities when the index is built
+	 * @param maxTombstones the number of tombstones to keep; tokens older than a discarded tombstone are expired
+	 */
+	ChangeIndex(
+			Source source,
+			int maxTombstones) {
+		this.source = source;
+		this.maxTombstones = Math.max(1, maxTombstones);
+	}
+
+	/**
+	 * Record that an entity was created or changed, or was added to an addressbook.
+	 * @param kind the kind of the entity
+	 * @param id the id of the entity
+	 * @param ownerId the contact or org of an address; null for contacts and orgs
+	 * @param modifiedAt the modification date of the entity
+	 */
+	synchronized void put(
+			Kind kind,
+			String id,
+			String ownerId,
+			Date modifiedAt) {
+		if (changes != null) {
+			append(changes, new Change(0, kind, id, ownerId, null, false, modifiedAt));
+		}
+	}
+
+	/**
+	 * Record a tombstone.
+	 * @param kind the kind of the entity
+	 * @param id the id of the entity
+	 * @param ownerId the contact or org of an address; null for contacts and orgs
+	 * @param aid the addressbook the entity was removed from, or null if it was deleted completely
+	 */
+	synchronized void delete(
+			Kind kind,
+			String id,
+			String ownerId,
+			String aid) {
+		if (changes == null) {
+			return;
+		}
+		addTombstone(new Change(0, kind, id, ownerId, aid, true, new Date()));
+	}
+
+	/**
+	 * Record the tombstone of a contact or org that was deleted completely, and drop the entries of its addresses
+	 * and its tombstones in single addressbooks. A client that reads the tombstone drops the addresses with the owner.
+	 * @param kind CONTACT or ORG
+	 * @param id the id of the contact or org
+	 * @param addressIds the ids of its addresses
+	 */
+	synchronized void deleteOwner(
+			Kind kind,
+			String id,
+			Collection<String> addressIds) {
+		if (changes == null) {
+			return;
+		}
+		for (String _addressId : addressIds) {
+			drop(getEntityKey(Kind.ADDRESS, _addressId));
+		}
+		List<String> _aids = scoped.remove(getEntityKey(kind, id));
+		if (_aids != null) {
+			for (String _aid : _aids) {
+				drop(getEntityKey(kind, id) + "@" + _aid);
+			}
+		}
+		addTombstone(new Change(0, kind, id, null, null, true, new Date()));
+	}
+
+	private void addTombstone(
+			Change tombstone) {
+		Change _tombstone = append(changes, tombstone);
+		tombstones.addLast(_tombstone);
+		if (_tombstone.getAid() != null) {
+			String _entity = getEntityKey(_tombstone.getKind(), _tombstone.getId());
+			List<String> _aids = scoped.get(_entity);
+			if (_aids == null) {
+				_aids = new ArrayList<String>(1);
+				scoped.put(_entity, _aids);
+			}
+			if (!_aids.contains(_tombstone.getAid())) {
+				_aids.add(_tombstone.getAid());
+			}
+		}
+		while (tombstones.size() > maxTombstones) {
+			Change _oldest = tombstones.removeFirst();
+			if (changes.remove(_oldest.getSeq()) != null) {		// not superseded by a later change
+				latest.remove(_oldest.getKey());
+				horizon = Math.max(horizon, _oldest.getSeq());
+				if (_oldest.getAid() != null) {
+					String _entity = getEntityKey(_oldest.getKind(), _oldest.getId());
+					List<String> _aids = scoped.get(_entity);
+					if (_aids != null && _aids.remove(_oldest.getAid()) && _aids.isEmpty()) {
+						scoped.remove(_entity);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Remove the entry of a key; a dropped tombstone stays in the queue until it is discarded.
+	 * @param key the key of the entry
+	 */
+	private void drop(
+			String key) {
+		Long _seq = latest.remove(key);
+		if (_seq != null) {
+			changes.remove(_seq);
+		}
+	}
+
+	/**
+	 * @param seq the sequence number of the last change read, see parse()
+	 * @return the changes after seq in the order they were made; the view is weakly consistent
+	 */
+	Collection<Change> after(
+			long seq) {
+		return current().tailMap(seq, false).values();
+	}
+
+	/**
+	 * Find the contacts or orgs modified since a date. The changes are read from the latest backwards, and the
+	 * search stops at the first change before which all changes are older, i.e. only the recent changes are read.
+	 * @param kind CONTACT or ORG
+	 * @param since the earliest modification date
+	 * @return the ids of the entities that exist and were modified at or after since
+	 */
+	Set<String> modifiedSince(
+			Kind kind,
+			Date since) {
+		Set<String> _ids = new HashSet<String>();
+		for (Change _change : current().descendingMap().values()) {
+			if (_change.bound < since.getTime()) {
+				break;
+			}
+			if (_change.getKind() == kind && !_change.isDeleted() && _change.getTime() >= since.getTime()) {
+				_ids.add(_change.getId());
+			}
+		}
+		return _ids;
+	}
+
+	/**
+	 * @return the sequence number of the latest change
+	 */
+	long getLatest() {
+		ConcurrentNavigableMap<Long, Change> _changes = current();
+		return _changes.isEmpty() ? 0 : _changes.lastKey();
+	}
+
+	/**
+	 * @param seq a sequence number
+	 * @return the token for the changes after seq
+	 */
+	String getToken(
+			long seq) {
+		return epoch + "-" + seq;
+	}
+
+	/**
+	 * Read a token.
+	 * @param token a token returned by getToken(), or null to read all changes
+	 * @return the sequence number of the token, or -1 if the token is expired
+	 * @throws IllegalArgumentException if the token is not valid
+	 */
+	long parse(
+			String token) {
+		current();
+		if (token == null || token.isEmpty()) {
+			return 0;
+		}
+		int _dash = token.lastIndexOf('-');
+		long _seq = 0;
+		try {
+			_seq = _dash < 0 ? -1 : Long.parseLong(token.substring(_dash + 1));
+		} catch (NumberFormatException _ex) {
+			_seq = -1;
+		}
+		if (_seq < 0) {
+			throw new IllegalArgumentException("token <" + token + "> is not valid.");
+		}
+		if (!token.substring(0, _dash).equals(epoch) || _seq < horizon) {
+			return -1;
+		}
+		return _seq;
+	}
+
+	private Change append(
+			ConcurrentNavigableMap<Long, Change> changes,
+			Change change) {
+		Change _change = new Change(++seq, change.getKind(), change.getId(), change.getOwnerId(), change.getAid(),
+				change.isDeleted(), change.getModifiedAt());
+		bound = Math.max(bound, _change.getTime());
+		_change.bound = bound;
+		changes.put(_change.getSeq(), _change);		// insert first, so that readers see the entity at any time
+		Long _previous = latest.put(_change.getKey(), _change.getSeq());
+		if (_previous != null) {
+			changes.remove(_previous);
+		}
+		return _change;
+	}
+
+	private ConcurrentNavigableMap<Long, Change> current() {
+		ConcurrentNavigableMap<Long, Change> _changes = changes;
+		if (_changes != null) {
+			return _changes;
+		}
+		synchronized (this) {
+			if (changes == null) {
+				List<Change> _entities = new ArrayList<Change>(source.values());
+				Collections.sort(_entities, BY_MODIFIED_AT);
+				ConcurrentNavigableMap<Long, Change> _built = new ConcurrentSkipListMap<Long, Change>();
+				for (Change _entity : _entities) {
+					append(_built, _entity);
+				}
+				changes = _built;
+			}
+			return changes;
+		}
+	}
+}
@@ -0,0 +1,141 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Arbalo AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.opentdc.addressbooks.file;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.opentdc.addressbooks.AddressModel;
+import org.opentdc.addressbooks.ContactModel;
+import org.opentdc.addressbooks.OrgModel;
+
+/**
+ * The changes of an addressbook since a token, as returned by FileServiceProvider.changesSince().
+ * Changed entities are returned in their current version; deleted ones by their id.
+ * The addresses of a deleted contact or org are not listed separately.
+ * @author Bruno Kaiser
+ *
+ */
+public class ChangeSet {
+	private final List<ContactModel> contacts = new ArrayList<ContactModel>();
+	private final List<OrgModel> orgs = new ArrayList<OrgModel>();
+	private final List<AddressModel> addresses = new ArrayList<AddressModel>();
+	private final List<String> deletedContacts = new ArrayList<String>();
+	private final List<String> deletedOrgs = new ArrayList<String>();
+	private final List<String> deletedAddresses = new ArrayList<String>();
+	private final boolean resync;
+	private String token = null;
+	private boolean more = false;
+
+	/**
+	 * Constructor.
+	 * @param resync true if the token passed was expired, see isResync()
+	 */
+	ChangeSet(
+			boolean resync) {
+		this.resync = resync;
+	}
+
+	/**
+	 * @return the contacts that were created or changed, or added to the addressbook
+	 */
+	public List<ContactModel> getContacts() {
+		return contacts;
+	}
+
+	/**
+	 * @return the orgs that were created or changed, or added to the addressbook
+	 */
+	public List<OrgModel> getOrgs() {
+		return orgs;
+	}
+
+	/**
+	 * @return the addresses of contacts and orgs of the addressbook that were created or changed
+	 */
+	public List<AddressModel> getAddresses() {
+		return addresses;
+	}
+
+	/**
+	 * @return the ids of the contacts that were deleted or removed from the addressbook
+	 */
+	public List<String> getDeletedContacts() {
+		return deletedContacts;
+	}
+
+	/**
+	 * @return the ids of the orgs that were deleted or removed from the addressbook
+	 */
+	public List<String> getDeletedOrgs() {
+		return deletedOrgs;
+	}
+
+	/**
+	 * @return the ids of the addresses that were deleted
+	 */
+	public List<String> getDeletedAddresses() {
+		return deletedAddresses;
+	}
+
+	/**
+	 * @return true if the token passed was expired, e.g. after a restart of the service; the client then has to 
+	 * discard its copy of the addressbook, as these changes start from the beginning
+	 */
+	public boolean isResync() {
+		return resync;
+	}
+
+	/**
+	 * @return the token to pass for the next changes
+	 */
+	public String getToken() {
+		return token;
+	}
+
+	/**
+	 * @return true if more changes are available right away
+	 */
+	public boolean isMore() {
+		return more;
+	}
+
+	/**
+	 * @return the number of changed and deleted entities
+	 */
+	public int size() {
+		return contacts.size() + orgs.size() + addresses.size() + 
+				deletedContacts.size() + deletedOrgs.size() + deletedAddresses.size();
+	}
+
+	void setToken(
+			String token) {
+		this.token = token;
+	}
+
+	void setMore(
+			boolean more) {
+		this.more = more;
+	}
+}
@@ -0,0 +1,192 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Arbalo AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.opentdc.addressbooks.file;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * An immutable list that is split into chunks of a few hundred elements.
+ * Inserting or removing an element returns a new version of the list that copies the affected chunk and the
+ * chunk table only; all other chunks are shared with the previous version.
+ * Readers of a version are therefore never blocked nor disturbed by writers that publish newer versions.
+ * @author Bruno Kaiser
+ *
+ * @param <T> the type of the elements
+ */
+final class ChunkedList<T> extends AbstractList<T> implements RandomAccess {
+	private static final int CHUNK_SIZE = 256;
+
+	private final Object[][] chunks;
+	private final int[] starts;
+	private final int size;
+
+	private ChunkedList(
+			Object[][] chunks,
+			int size) {
+		this.chunks = chunks;
+		this.size = size;
+		this.starts = new int[chunks.length];
+		int _start = 0;
+		for (int i = 0; i < chunks.length; i++) {
+			starts[i] = _start;
+			_start += chunks[i].length;
+		}
+	}
+
+	/**
+	 * @param elements the elements of the new list
+	 * @return a list containing the elements in the same order
+	 */
+	static <T> ChunkedList<T> of(
+			List<T> elements) {
+		Object[] _all = elements.toArray();
+		Object[][] _chunks = new Object[(_all.length + CHUNK_SIZE - 1) / CHUNK_SIZE][];
+		for (int i = 0; i < _chunks.length; i++) {
+			_chunks[i] = Arrays.copyOfRange(_all, i * CHUNK_SIZE, Math.min(_all.length, (i + 1) * CHUNK_SIZE));
+		}
+		return new ChunkedList<T>(_chunks, _all.length);
+	}
+
+	/* (non-Javadoc)
+	 * @see java.util.AbstractList#get(int)
+	 */
+	@Override
+	@SuppressWarnings("unchecked")
+	public T get(
+			int index) {
+		if (index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException("index " + index + ", size " + size);
+		}
+		int _chunk = chunkOf(index);
+		return (T) chunks[_chunk][index - starts[_chunk]];
+	}
+
+	/* (non-Javadoc)
+	 * @see java.util.AbstractCollection#size()
+	 */
+	@Override
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Search an element in a list that is sorted by the given order.
+	 * @param key the element to search
+	 * @param order the sort order of the list
+	 * @return the index of the element, or (-(insertion point) - 1) as in Collections.binarySearch
+	 */
+	@SuppressWarnings("unchecked")
+	int search(
+			T key,
+			Comparator<? super T> order) {
+		int _lo = 0;
+		int _hi = chunks.length - 1;
+		while (_lo <= _hi) {		// find the first chunk whose last element is not smaller than the key
+			int _mid = (_lo + _hi) >>> 1;
+			Object[] _chunk = chunks[_mid];
+			if (order.compare((T) _chunk[_chunk.length - 1], key) < 0) {
+				_lo = _mid + 1;
+			} else {
+				_hi = _mid - 1;
+			}
+		}
+		if (_lo == chunks.length) {
+			return -size - 1;
+		}
+		int _pos = Arrays.binarySearch((T[]) chunks[_lo], key, order);
+		return _pos >= 0 ? starts[_lo] + _pos : -(starts[_lo] - _pos - 1) - 1;
+	}
+
+	/**
+	 * @param index the position of the new element
+	 * @param element the element to insert
+	 * @return a new version of this list containing the element
+	 */
+	ChunkedList<T> insert(
+			int index,
+			T element) {
+		if (index < 0 || index > size) {
+			throw new IndexOutOfBoundsException("index " + index + ", size " + size);
+		}
+		if (chunks.length == 0) {
+			return new ChunkedList<T>(new Object[][] { new Object[] { element } }, 1);
+		}
+		int _chunk = index == size ? chunks.length - 1 : chunkOf(index);
+		Object[] _old = chunks[_chunk];
+		int _offset = index - starts[_chunk];
+		Object[] _new = new Object[_old.length + 1];
+		System.arraycopy(_old, 0, _new, 0, _offset);
+		_new[_offset] = element;
+		System.arraycopy(_old, _offset, _new, _offset + 1, _old.length - _offset);
+		Object[][] _chunks = null;
+		if (_new.length > 2 * CHUNK_SIZE) {		// split the chunk
+			_chunks = new Object[chunks.length + 1][];
+			System.arraycopy(chunks, 0, _chunks, 0, _chunk);
+			_chunks[_chunk] = Arrays.copyOfRange(_new, 0, CHUNK_SIZE);
+			_chunks[_chunk + 1] = Arrays.copyOfRange(_new, CHUNK_SIZE, _new.length);
+			System.arraycopy(chunks, _chunk + 1, _chunks, _chunk + 2, chunks.length - _chunk - 1);
+		} else {
+			_chunks = chunks.clone();
+			_chunks[_chunk] = _new;
+		}
+		return new ChunkedList<T>(_chunks, size + 1);
+	}
+
+	/**
+	 * @param index the position of the element to remove
+	 * @return a new version of this list without the element
+	 */
+	ChunkedList<T> delete(
+			int index) {
+		if (index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException("index " + index + ", size " + size);
+		}
+		int _chunk = chunkOf(index);
+		Object[] _old = chunks[_chunk];
+		Object[][] _chunks = null;
+		if (_old.length == 1) {		// drop the chunk
+			_chunks = new Object[chunks.length - 1][];
+			System.arraycopy(chunks, 0, _chunks, 0, _chunk);
+			System.arraycopy(chunks, _chunk + 1, _chunks, _chunk, chunks.length - _chunk - 1);
+		} else {
+			int _offset = index - starts[_chunk];
+			Object[] _new = new Object[_old.length - 1];
+			System.arraycopy(_old, 0, _new, 0, _offset);
+			System.arraycopy(_old, _offset + 1, _new, _offset, _old.length - _offset - 1);
+			_chunks = chunks.clone();
+			_chunks[_chunk] = _new;
+		}
+		return new ChunkedList<T>(_chunks, size - 1);
+	}
+
+	private int chunkOf(
+			int index) {
+		int _pos = Arrays.binarySearch(starts, index);
+		return _pos >= 0 ? _pos : -_pos - 2;
+	}
+}
@@ -0,0 +1,468 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Arbalo AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.opentdc.addressbooks.file;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.opentdc.addressbooks.AddressModel;
+import org.opentdc.addressbooks.AddressType;
+import org.opentdc.addressbooks.AttributeType;
+import org.opentdc.addressbooks.ContactModel;
+import org.opentdc.addressbooks.MessageType;
+import org.opentdc.addressbooks.OrgModel;
+import org.opentdc.addressbooks.OrgType;
+
+/**
+ * CSV (RFC 4180) codec with a header row and one row per address of a contact or org.
+ * A contact or org without addresses takes one row with empty address columns; the rows of a contact or org
+ * with several addresses repeat its columns and follow each other.
+ * The kind column tells contacts from orgs; each only fills its own columns.
+ * @author Bruno Kaiser
+ *
+ */
+final class CsvCardCodec implements CardCodec {
+	static final String KIND_CONTACT = "contact";
+	static final String KIND_ORG = "org";
+	static final String DATE_PATTERN = "yyyy-MM-dd";
+	static final String[] CONTACT_COLUMNS = { "fn", "firstName", "lastName", "middleName", "maidenName", "prefix", 
+		"suffix", "nickName", "jobTitle", "department", "company", "birthday", "note", "photoUrl" };
+	static final String[] ORG_COLUMNS = { "name", "description", "orgType", "costCenter", "stockExchange", 
+		"tickerSymbol", "logoUrl" };
+	static final String[] ADDRESS_COLUMNS = { "addressType", "attributeType", "msgType", "value", "street", 
+		"postalCode", "city", "countryCode" };
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final int ENTITY_COLUMNS = 2 + CONTACT_COLUMNS.length + ORG_COLUMNS.length;
+
+	/* (non-Javadoc)
+	 * @see org.opentdc.addressbooks.file.CardCodec#getExtension()
+	 */
+	@Override
+	public String getExtension() {
+		return "csv";
+	}
+
+	/* (non-Javadoc)
+	 * @see org.opentdc.addressbooks.file.CardCodec#getMediaType()
+	 */
+	@Override
+	public String getMediaType() {
+		return "text/csv";
+	}
+
+	/* (non-Javadoc)
+	 * @see org.opentdc.addressbooks.file.CardCodec#openWriter(java.io.OutputStream)
+	 */
+	@Override
+	public CardWriter openWriter(
+			OutputStream out) throws IOException {
+		return new CsvWriter(out);
+	}
+
+	/* (non-Javadoc)
+	 * @see org.opentdc.addressbooks.file.CardCodec#openReader(java.io.InputStream)
+	 */
+	@Override
+	public CardReader openReader(
+			InputStream in) throws IOException {
+		return new CsvReader(in);
+	}
+
+	private static class CsvWriter implements CardWriter {
+		private final Writer out;
+		private final SimpleDateFormat dateFormat = new SimpleDateFormat(DATE_PATTERN);
+		private final String[] row = new String[ENTITY_COLUMNS + ADDRESS_COLUMNS.length];
+
+		CsvWriter(
+				OutputStream out) throws IOException {
+			this.out = new BufferedWriter(new OutputStreamWriter(out, UTF8), 65536);
+			int _column = 0;
+			row[_column++] = "kind";
+			row[_column++] = "id";
+			for (String[] _columns : new String[][] { CONTACT_COLUMNS, ORG_COLUMNS, ADDRESS_COLUMNS }) {
+				System.arraycopy(_columns, 0, row, _column, _columns.length);
+				_column += _columns.length;
+			}
+			writeRow();
+		}
+
+		/* (non-Javadoc)
+		 * @see org.opentdc.addressbooks.file.CardCodec.CardWriter#writeContact(org.opentdc.addressbooks.ContactModel, java.util.List)
+		 */
+		@Override
+		public void writeContact(
+				ContactModel contact,
+				List<AddressModel> addresses) throws IOException {
+			Arrays.fill(row, null);
+			row[0] = KIND_CONTACT;
+			row[1] = contact.getId();
+			int _column = 2;
+			row[_column++] = contact.getFn();
+			row[_column++] = contact.getFirstName();
+			row[_column++] = contact.getLastName();
+			row[_column++] = contact.getMiddleName();
+			row[_column++] = contact.getMaidenName();
+			row[_column++] = contact.getPrefix();
+			row[_column++] = contact.getSuffix();
+			row[_column++] = contact.getNickName();
+			row[_column++] = contact.getJobTitle();
+			row[_column++] = contact.getDepartment();
+			row[_column++] = contact.getCompany();
+			row[_column++] = contact.getBirthday() == null ? null : dateFormat.format(contact.getBirthday());
+			row[_column++] = contact.getNote();
+			row[_column++] = contact.getPhotoUrl();
+			writeAddresses(addresses);
+		}
+
+		/* (non-Javadoc)
+		 * @see org.opentdc.addressbooks.file.CardCodec.CardWriter#writeOrg(org.opentdc.addressbooks.OrgModel, java.util.List)
+		 */
+		@Override
+		public void writeOrg(
+				OrgModel org,
+				List<AddressModel> addresses) throws IOException {
+			Arrays.fill(row, null);
+			row[0] = KIND_ORG;
+			row[1] = org.getId();
+			int _column = 2 + CONTACT_COLUMNS.length;
+			row[_column++] = org.getName();
+			row[_column++] = org.getDescription();
+			row[_column++] = org.getOrgType() == null ? null : org.getOrgType().name();
+			row[_column++] = org.getCostCenter();
+			row[_column++] = org.getStockExchange();
+			row[_column++] = org.getTickerSymbol();
+			row[_column++] = org.getLogoUrl();
+			writeAddresses(addresses);
+		}
+
+		/* (non-Javadoc)
+		 * @see org.opentdc.addressbooks.file.CardCodec.CardWriter#finish()
+		 */
+		@Override
+		public void finish() throws IOException {
+			out.flush();
+		}
+
+		private void writeAddresses(
+				List<AddressModel> addresses) throws IOException {
+			if (addresses.isEmpty()) {
+				writeRow();
+			}
+			for (AddressModel _address : addresses) {
+				int _column = ENTITY_COLUMNS;
+				row[_column++] = _address.getAddressType() == null ? null : _address.getAddressType().name();
+				row[_column++] = _address.getAttributeType() == null ? null : _address.getAttributeType().name();
+				row[_column++] = _address.getMsgType() == null ? null : _address.getMsgType().name();
+				row[_column++] = _address.getValue();
+				row[_column++] = _address.getStreet();
+				row[_column++] = _address.getPostalCode();
+				row[_column++] = _address.getCity();
+				row[_column++] = _address.getCountryCode() == 0 ? null : String.valueOf(_address.getCountryCode());
+				writeRow();
+			}
+		}
+
+		private void writeRow() throws IOException {
+			for (int i = 0; i < row.length; i++) {
+				if (i > 0) {
+					out.write(',');
+				}
+				if (row[i] != null) {
+					writeField(row[i]);
+				}
+			}
+			out.write("\r\n");
+		}
+
+		/**
+		 * Write a field, quoted if it contains a comma, a quote or a line break.
+		 * @param field the field value
+		 * @throws IOException if the field can not be written
+		 */
+		private void writeField(
+				String field) throws IOException {
+			boolean _quote = false;
+			for (int i = 0; i < field.length() && !_quote; i++) {
+				char _c = field.charAt(i);
+				_quote = _c == ',' || _c == '"' || _c == '\r' || _c == '\n';
+			}
+			if (_quote) {
+				out.write('"');
+				out.write(field.replace("\"", "\"\""));
+				out.write('"');
+			} else {
+				out.write(field);
+			}
+		}
+	}
+
+	/**
+	 * Reads CSV files with a header row. The columns are found by their name in any case and order, ignoring blanks,
+	 * dashes and underscores (e.g. "First Name"); missing columns are empty. Consecutive rows with the same kind and id make up one contact or org with several addresses;
+	 * each row without an id is a contact or org of its own. Rows with an empty kind are contacts.
+	 * Without firstName and lastName, both are taken from fn.
+	 */
+	private static class CsvReader implements CardReader {
+		private final BufferedReader in;
+		private final SimpleDateFormat dateFormat = new SimpleDateFormat(DATE_PATTERN);
+		private final Map<String, Integer> columns = new HashMap<String, Integer>();
+		private final List<String> fields = new ArrayList<String>();
+		private final StringBuilder field = new StringBuilder();
+		private String[] row = null;
+		private int rowLineNr = 0;
+		private Card failure = null;
+		private int lineNr = 1;
+
+		CsvReader(
+				InputStream in) throws IOException {
+			this.in = new BufferedReader(new InputStreamReader(in, UTF8), 65536);
+			this.dateFormat.setLenient(false);
+			this.in.mark(1);
+			if (this.in.read() != VCardCodec.BOM.charAt(0)) {
+				this.in.reset();
+			}
+			String[] _header = readRow();
+			for (int i = 0; _header != null && i < _header.length; i++) {
+				columns.put(toKey(_header[i]), i);
+			}
+			row = _header == null ? null : readRow();
+		}
+
+		/* (non-Javadoc)
+		 * @see org.opentdc.addressbooks.file.CardCodec.CardReader#next()
+		 */
+		@Override
+		public Card next() throws IOException {
+			if (row == null) {
+				Card _failure = failure;
+				failure = null;
+				return _failure;
+			}
+			int _start = rowLineNr;
+			String[] _first = row;
+			String _kind = get(_first, "kind");
+			String _id = get(_first, "id");
+			List<String[]> _addresses = new ArrayList<String[]>();
+			_addresses.add(_first);
+			try {
+				row = readRow();
+				while (row != null && _id != null && _id.equals(get(row, "id")) && equals(_kind, get(row, "kind"))) {
+					_addresses.add(row);
+					row = readRow();
+				}
+			} catch (IllegalArgumentException _ex) {
+				row = null;			// the rest of the stream can not be parsed; report it after this card
+				failure = new Card(rowLineNr, null, "line " + lineNr + ": " + _ex.getMessage());
+			}
+			try {
+				return new Card(_start, toItem(_kind, _id, _first, _addresses), null);
+			} catch (IllegalArgumentException _ex) {
+				return new Card(_start, null, _ex.getMessage());
+			}
+		}
+
+		private BulkItem toItem(
+				String kind,
+				String id,
+				String[] first,
+				List<String[]> rows) {
+			List<AddressModel> _addresses = new ArrayList<AddressModel>();
+			for (String[] _row : rows) {
+				String _addressType = get(_row, "addressType");
+				if (_addressType != null) {
+					AddressModel _address = CardMapping.newAddress(CardMapping.toEnum(_addressType, AddressType.class),
+							toAttributeType(get(_row, "attributeType")));
+					String _msgType = get(_row, "msgType");
+					_address.setMsgType(_msgType == null ? null : CardMapping.toEnum(_msgType, MessageType.class));
+					_address.setValue(get(_row, "value"));
+					_address.setStreet(get(_row, "street"));
+					_address.setPostalCode(get(_row, "postalCode"));
+					_address.setCity(get(_row, "city"));
+					_address.setCountryCode(CardMapping.toCountryCode(get(_row, "countryCode")));
+					_addresses.add(_address);
+				}
+			}
+			if (kind == null || kind.equalsIgnoreCase(KIND_CONTACT)) {
+				ContactModel _contact = new ContactModel();
+				_contact.setId(id);
+				_contact.setFirstName(get(first, "firstName"));
+				_contact.setLastName(get(first, "lastName"));
+				_contact.setMiddleName(get(first, "middleName"));
+				_contact.setMaidenName(get(first, "maidenName"));
+				_contact.setPrefix(get(first, "prefix"));
+				_contact.setSuffix(get(first, "suffix"));
+				_contact.setNickName(get(first, "nickName"));
+				_contact.setJobTitle(get(first, "jobTitle"));
+				_contact.setDepartment(get(first, "department"));
+				_contact.setCompany(get(first, "company"));
+				_contact.setBirthday(parseDate(get(first, "birthday")));
+				_contact.setNote(get(first, "note"));
+				_contact.setPhotoUrl(get(first, "photoUrl"));
+				CardMapping.setNames(_contact, get(first, "fn"));
+				return BulkItem.contact(_contact, _addresses);
+			}
+			if (kind.equalsIgnoreCase(KIND_ORG)) {
+				OrgModel _org = new OrgModel();
+				_org.setId(id);
+				_org.setName(get(first, "name"));
+				_org.setDescription(get(first, "description"));
+				String _orgType = get(first, "orgType");
+				_org.setOrgType(_orgType == null ? null : CardMapping.toEnum(_orgType, OrgType.class));
+				_org.setCostCenter(get(first, "costCenter"));
+				_org.setStockExchange(get(first, "stockExchange"));
+				_org.setTickerSymbol(get(first, "tickerSymbol"));
+				_org.setLogoUrl(get(first, "logoUrl"));
+				return BulkItem.org(_org, _addresses);
+			}
+			throw new IllegalArgumentException("invalid kind <" + kind + ">");
+		}
+
+		/**
+		 * @param row a row
+		 * @param column the name of a column
+		 * @return the field of the column, or null if it is empty or the column does not exist
+		 */
+		private String get(
+				String[] row,
+				String column) {
+			Integer _index = columns.get(column.toLowerCase(Locale.ROOT));
+			if (_index == null || _index >= row.length || row[_index].length() == 0) {
+				return null;
+			}
+			return row[_index];
+		}
+
+		/**
+		 * @param column the name of a column
+		 * @return the name in lower case without blanks, dashes and underscores, e.g. firstname for "First Name"
+		 */
+		private static String toKey(
+				String column) {
+			return column.replaceAll("[\\s_-]", "").toLowerCase(Locale.ROOT);
+		}
+
+		private Date parseDate(
+				String value) {
+			if (value == null) {
+				return null;
+			}
+			try {
+				return dateFormat.parse(value.trim());
+			} catch (ParseException _ex) {
+				throw new IllegalArgumentException("invalid date <" + value + ">");
+			}
+		}
+
+		/**
+		 * Read a row; quoted fields may contain commas, quotes and line breaks.
+		 * @return the fields of the next row, or null at the end of the stream
+		 * @throws IOException if the stream can not be read
+		 * @throws IllegalArgumentException if a quoted field is not terminated
+		 */
+		private String[] readRow() throws IOException {
+			int _c = in.read();
+			while (_c == '\r' || _c == '\n') {		// skip empty lines
+				if (_c == '\n') {
+					lineNr++;
+				}
+				_c = in.read();
+			}
+			if (_c < 0) {
+				return null;
+			}
+			rowLineNr = lineNr;
+			fields.clear();
+			field.setLength(0);
+			boolean _quoted = false;
+			while (true) {
+				if (_quoted) {
+					if (_c < 0) {
+						throw new IllegalArgumentException("quoted field is not terminated");
+					}
+					if (_c == '"') {
+						_c = in.read();
+						if (_c != '"') {
+							_quoted = false;
+							continue;
+						}
+					} else if (_c == '\n') {
+						lineNr++;
+					}
+					field.append((char) _c);
+				} else if (_c == '"' && field.length() == 0) {
+					_quoted = true;
+				} else if (_c == ',') {
+					fields.add(field.toString());
+					field.setLength(0);
+				} else if (_c == '\r' || _c == '\n' || _c < 0) {
+					fields.add(field.toString());
+					if (_c == '\r') {
+						in.mark(1);
+						if (in.read() != '\n') {
+							in.reset();
+						}
+					}
+					if (_c >= 0) {
+						lineNr++;
+					}
+					return fields.toArray(new String[fields.size()]);
+				} else {
+					field.append((char) _c);
+				}
+				_c = in.read();
+			}
+		}
+
+		private static boolean equals(
+				String s1,
+				String s2) {
+			return s1 == null ? s2 == null : s1.equalsIgnoreCase(s2);
+		}
+
+		private static AttributeType toAttributeType(
+				String type) {
+			AttributeType _type = CardMapping.toAttributeType(type);
+			if (_type == null && type != null) {
+				throw new IllegalArgumentException("invalid AttributeType <" + type + ">");
+			}
+			return _type;
+		}
+	}
+}
@@ -0,0 +1,71 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Arbalo AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.opentdc.addressbooks.file;
+
+/**
+ * A committed mutation of the store, as delivered by the ChangeFeed.
+ * @author Bruno Kaiser
+ *
+ */
+public class FeedEvent {
+	private final long seq;
+	private final long time;
+	private final JournalRecord record;
+
+	/**
+	 * Constructor.
+	 * @param seq the sequence number of the event
+	 * @param time the time of the commit in milliseconds
+	 * @param record the mutation
+	 */
+	FeedEvent(
+			long seq,
+			long time,
+			JournalRecord record) {
+		this.seq = seq;
+		this.time = time;
+		this.record = record;
+	}
+
+	/**
+	 * @return the sequence number; events are numbered without gaps, also across restarts if the feed is persisted
+	 */
+	public long getSeq() {
+		return seq;
+	}
+
+	/**
+	 * @return the time of the commit in milliseconds since the epoch
+	 */
+	public long getTime() {
+		return time;
+	}
+
+	/**
+	 * @return the mutation, with the changed model, or the id of the deleted entity
+	 */
+	public JournalRecord getRecord() {
+		return record;
+	}
+}
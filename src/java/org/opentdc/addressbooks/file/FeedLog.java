@@ -0,0 +1,228 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Arbalo AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.opentdc.addressbooks.file;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.logging.Logger;
+
+import com.google.gson.JsonParseException;
+
+/**
+ * Local file copy of the change feed, so that subscribers can resume from a sequence number that is no longer
+ * kept in memory, also after a restart.
+ * Events are appended as JSON lines to segments named after the sequence number of their first event;
+ * when a segment is full, a new one is started and the oldest segments beyond the retention are deleted.
+ * @author Bruno Kaiser
+ *
+ */
+class FeedLog {
+	private static final Logger logger = Logger.getLogger(FeedLog.class.getName());
+	private static final String SEGMENT_PREFIX = "feed-";
+	private static final String SEGMENT_SUFFIX = ".log";
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final File dir;
+	private final int segmentSize;
+	private final int maxSegments;
+	private FileChannel channel = null;
+	private int events = 0;		// events in the current segment
+
+	/**
+	 * Constructor.
+	 * @param dir the directory of the segments
+	 * @param segmentSize the number of events per segment
+	 * @param maxSegments the number of segments to keep
+	 */
+	FeedLog(
+			File dir,
+			int segmentSize,
+			int maxSegments) {
+		this.dir = dir;
+		this.segmentSize = Math.max(1, segmentSize);
+		this.maxSegments = Math.max(1, maxSegments);
+	}
+
+	/**
+	 * @return the sequence number of the last event that was written, or 0 if there is none
+	 * @throws IOException if the segments can not be read
+	 */
+	synchronized long getLast() throws IOException {
+		File[] _segments = listSegments();
+		long _last = 0;
+		for (int i = _segments.length - 1; i >= 0 && _last == 0; i--) {
+			for (FeedEvent _event : read(_segments[i], 0, Integer.MAX_VALUE)) {
+				_last = _event.getSeq();
+			}
+		}
+		return _last;
+	}
+
+	/**
+	 * Append an event; a new segment is started with the first event and whenever the current one is full.
+	 * @param event the event
+	 * @throws IOException if the event can not be written
+	 */
+	synchronized void append(
+			FeedEvent event) throws IOException {
+		if (channel == null || events >= segmentSize) {
+			if (channel != null) {
+				channel.close();
+			}
+			if (!dir.isDirectory() && !dir.mkdirs()) {
+				throw new IOException("feed directory <" + dir + "> can not be created.");
+			}
+			channel = FileChannel.open(getSegmentFile(event.getSeq()).toPath(),
+					StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+			events = 0;
+			deleteOldSegments();
+		}
+		ByteBuffer _line = ByteBuffer.wrap((StoreJson.GSON.toJson(event) + "\n").getBytes(UTF8));
+		while (_line.hasRemaining()) {
+			channel.write(_line);
+		}
+		events++;
+	}
+
+	/**
+	 * Read events from the segments.
+	 * @param after the sequence number after which to start
+	 * @param max the maximal number of events to read
+	 * @return the events after the sequence number in order; the first one is later than after + 1 if the
+	 * following events are not contained in the segments anymore
+	 * @throws IOException if a segment can not be read
+	 */
+	List<FeedEvent> read(
+			long after,
+			int max) throws IOException {
+		File[] _segments;
+		synchronized (this) {
+			_segments = listSegments();
+		}
+		List<FeedEvent> _events = new ArrayList<FeedEvent>();
+		for (int i = 0; i < _segments.length && _events.size() < max; i++) {
+			if (i + 1 < _segments.length && getFirstSeq(_segments[i + 1]) <= after + 1) {
+				continue;		// all events of this segment were read already
+			}
+			_events.addAll(read(_segments[i], after, max - _events.size()));
+		}
+		return _events;
+	}
+
+	/**
+	 * Close the current segment.
+	 */
+	synchronized void close() {
+		if (channel != null) {
+			try {
+				channel.close();
+			} catch (IOException _ex) {
+				logger.warning("feed segment can not be closed: " + _ex.getMessage());
+			}
+			channel = null;
+		}
+	}
+
+	private List<FeedEvent> read(
+			File segment,
+			long after,
+			int max) throws IOException {
+		List<FeedEvent> _events = new ArrayList<FeedEvent>();
+		try (BufferedReader _reader = new BufferedReader(
+				new InputStreamReader(new FileInputStream(segment), UTF8))) {
+			String _line = null;
+			while (_events.size() < max && (_line = _reader.readLine()) != null) {
+				FeedEvent _event = null;
+				try {
+					_event = StoreJson.GSON.fromJson(_line, FeedEvent.class);
+				} catch (JsonParseException _ex) {
+					_event = null;
+				}
+				if (_event == null || _event.getRecord() == null) {
+					break;		// torn event at the end of the segment, e.g. after a crash
+				}
+				if (_event.getSeq() > after) {
+					_events.add(_event);
+				}
+			}
+		}
+		return _events;
+	}
+
+	private void deleteOldSegments() {
+		File[] _segments = listSegments();
+		for (int i = 0; i < _segments.length - maxSegments; i++) {
+			if (!_segments[i].delete()) {
+				logger.warning("feed segment <" + _segments[i].getName() + "> can not be deleted.");
+			}
+		}
+	}
+
+	private File getSegmentFile(
+			long firstSeq) {
+		return new File(dir, SEGMENT_PREFIX + String.format("%016d", firstSeq) + SEGMENT_SUFFIX);
+	}
+
+	private static long getFirstSeq(
+			File segment) {
+		String _name = segment.getName();
+		return Long.parseLong(_name.substring(SEGMENT_PREFIX.length(), _name.length() - SEGMENT_SUFFIX.length()));
+	}
+
+	/**
+	 * @return all segments, oldest first
+	 */
+	private File[] listSegments() {
+		File[] _segments = dir.listFiles(new FileFilter() {
+			@Override
+			public boolean accept(File file) {
+				String _name = file.getName();
+				return file.isFile() && _name.startsWith(SEGMENT_PREFIX) && _name.endsWith(SEGMENT_SUFFIX)
+						&& _name.substring(SEGMENT_PREFIX.length(), _name.length() - SEGMENT_SUFFIX.length()).matches("[0-9]+");
+			}
+		});
+		if (_segments == null) {
+			return new File[0];
+		}
+		Arrays.sort(_segments, new Comparator<File>() {
+			@Override
+			public int compare(File f1, File f2) {
+				return Long.compare(getFirstSeq(f1), getFirstSeq(f2));
+			}
+		});
+		return _segments;
+	}
+}
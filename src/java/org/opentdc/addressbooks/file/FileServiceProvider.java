@@ -23,20 +23,34 @@
  */
 package org.opentdc.addressbooks.file;
 
+import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Logger;
 
 import javax.servlet.ServletContext;
 import javax.servlet.http.HttpServletRequest;
 
 import org.opentdc.addressbooks.AddressModel;
+import org.opentdc.addressbooks.AddressType;
 import org.opentdc.addressbooks.AddressbookModel;
 import org.opentdc.addressbooks.AddressbookQueryHandler;
 import org.opentdc.addressbooks.ContactModel;
@@ -53,6 +67,8 @@ import org.opentdc.service.exception.NotFoundException;
 import org.opentdc.service.exception.ValidationException;
 import org.opentdc.util.PrettyPrinter;
 
+import com.google.gson.JsonObject;
+
 /**
  * File-based implementation of Addressbook Service.
  * @author Bruno Kaiser
@@ -65,8 +81,31 @@ public class FileServiceProvider extends AbstractFileServiceProvider<ABaddressbo
 	private static Map<String, ABorg> orgIndex = null;
 	private static Map<String, AddressModel> addressIndex = null;
 	private static final Logger logger = Logger.getLogger(ServiceProvider.class.getName());
+	private static ProviderLog log = new ProviderLog(logger, null);
+	private static final ProviderMetrics metrics = new ProviderMetrics();
 	private static ABaddressbook allAddressbook = null;
 	private static final String ALL_ADDRESSBOOK_NAME = "AAA";
+	private static SnapshotStore snapshotStore = null;
+	private static StoreWriter storeWriter = null;
+	private static LoadMetrics loadMetrics = null;
+	private static boolean mapped = false;
+	private static SortedIndex<ContactModel> contactOrder = null;
+	private static SortedIndex<OrgModel> orgOrder = null;
+	private static PrefixIndex<ContactModel> contactSearch = null;
+	private static PrefixIndex<OrgModel> orgSearch = null;
+	private static QueryPlanner<ContactModel> contactPlanner = null;
+	private static QueryPlanner<OrgModel> orgPlanner = null;
+	private static ChangeIndex changes = null;
+	private static ChangeFeed feed = null;
+	private static AddressValueIndex<ABcontact> contactAddressValues = null;
+	private static AddressValueIndex<ABorg> orgAddressValues = null;
+	private static LockStripes locks = null;
+	private static PersistenceMode persistenceMode = null;
+	private static ForkJoinPool bulkPool = null;		// null if bulk imports are validated sequentially
+	private static int importBatchSize = 1000;
+	private static int importMaxErrors = 100;
+	private static final int BULK_CHUNK_SIZE = 1000;
+	private static final int EXPORT_PAGE_SIZE = 1000;
 	
 	/**
 	 * Constructor.
@@ -80,19 +119,51 @@ public class FileServiceProvider extends AbstractFileServiceProvider<ABaddressbo
 		) throws IOException {
 		super(context, prefix);
 		if (abookIndex == null) {
+			loadMetrics = new LoadMetrics();
 			abookIndex = new ConcurrentHashMap<String, ABaddressbook>();
 			contactIndex = new ConcurrentHashMap<String, ABcontact>();
 			orgIndex = new ConcurrentHashMap<String, ABorg>();
 			addressIndex = new ConcurrentHashMap<String, AddressModel>();
+			createSortedIndexes();
+			createAddressValueIndexes();
+			createSearchIndexes();
+			createQueryPlanners();
+			ProviderConfig _config = new ProviderConfig(context, prefix);
+			createChangeIndex(_config.getInt(ProviderConfig.CHANGES_TOMBSTONES, 100000));
+			feed = openFeed(_config);
+			locks = new LockStripes(_config.getInt(ProviderConfig.LOCK_STRIPES, 64));
+			int _bulkParallelism = _config.getInt(ProviderConfig.BULK_PARALLELISM, Runtime.getRuntime().availableProcessors());
+			bulkPool = _bulkParallelism > 1 ? new ForkJoinPool(_bulkParallelism) : null;
+			importBatchSize = _config.getInt(ProviderConfig.IMPORT_BATCH_SIZE, 1000);
+			importMaxErrors = _config.getInt(ProviderConfig.IMPORT_MAX_ERRORS, 100);
+			log = new ProviderLog(logger, _config);
+			if (_config.getBoolean(ProviderConfig.METRICS_JMX, true)) {
+				metrics.register(prefix);
+			}
+			SnapshotFormat _format = _config.getEnum(ProviderConfig.SNAPSHOT_FORMAT, SnapshotFormat.class, SnapshotFormat.JSON);
+			snapshotStore = new SnapshotStore(_config.getDataDir(), _format.createCodec(
+				_config.getEnum(ProviderConfig.SNAPSHOT_COMPRESSION, BinarySnapshotCodec.Compression.class, 
+						BinarySnapshotCodec.Compression.NONE)));
 			
-			List<ABaddressbook> _addressbooks = importJson();
-			for (ABaddressbook _addressbook : _addressbooks) {
-				addAbookToIndex(_addressbook);
-				if (_addressbook.getModel().getName().equalsIgnoreCase(ALL_ADDRESSBOOK_NAME)) {
-					allAddressbook = _addressbook;
+			SnapshotStore _source = findSnapshot(_config.getDataDir());
+			if (_source == snapshotStore && _config.getBoolean(ProviderConfig.SNAPSHOT_MAPPED, false) 
+					&& mapSnapshot(_config)) {
+				logger.info("serving contacts, orgs and addresses from mapped snapshot <" + 
+						snapshotStore.getFile().getName() + ">.");
+			} else if (_source != null) {
+				loadSnapshot(_source, _config.getInt(ProviderConfig.LOAD_PARALLELISM, Runtime.getRuntime().availableProcessors()));
+				if (_source != snapshotStore) {		// migrate to the configured snapshot format
+					writeSnapshot();
+					if (_source.delete()) {
+						logger.info("migrated snapshot <" + _source.getFile().getName() + "> to <" + 
+								snapshotStore.getFile().getName() + ">.");
+					}
 				}
+			} else if (importLegacyJson() > 0) {
+				writeSnapshot();		// migrate to the new snapshot format
 			}
-			if (_addressbooks.size() == 0) {
+			storeWriter = openStoreWriter(_config);
+			if (allAddressbook == null) {
 				// create implicit 'all' addressbook
 				AddressbookModel _am = new AddressbookModel();
 				_am.setId(UUID.randomUUID().toString());
@@ -105,8 +176,10 @@ public class FileServiceProvider extends AbstractFileServiceProvider<ABaddressbo
 				allAddressbook = new ABaddressbook(_am);
 				abookIndex.put(_am.getId(), allAddressbook);
 				logger.info("create() -> " + PrettyPrinter.prettyPrintAsJSON(_am));
-				exportJson(abookIndex.values());
+				commit(JournalRecord.addressbook(JournalRecord.Op.ADDRESSBOOK_CREATE, _am));
 			}
+			loadMetrics.ready();
+			logger.info("loaded store: " + loadMetrics);
 		}
 		logger.info("indexed " 
 			+ abookIndex.size() + " AddressBooks, "
@@ -115,6 +188,66 @@ public class FileServiceProvider extends AbstractFileServiceProvider<ABaddressbo
 			+ addressIndex.size() + " Addresses.");
 	}
 	
+	/**
+	 * @return the feed of all committed mutations, to subscribe to
+	 */
+	public static ChangeFeed getFeed() {
+		return feed;
+	}
+	
+	/**
+	 * @return the progress and duration of the cold start
+	 */
+	public static LoadMetrics getLoadMetrics() {
+		return loadMetrics;
+	}
+	
+	/**
+	 * @return the call counts, errors and latencies of the operations
+	 */
+	public static ProviderMetrics getMetrics() {
+		return metrics;
+	}
+	
+	/**
+	 * Close the store and drop all indexes, so that the next instance loads the store again.
+	 * Only meant for benchmarks and tools that start the provider several times in one JVM.
+	 */
+	static synchronized void reset() {
+		if (storeWriter != null) {
+			storeWriter.close();
+		}
+		if (feed != null) {
+			feed.close();
+		}
+		if (bulkPool != null) {
+			bulkPool.shutdown();
+		}
+		abookIndex = null;
+		contactIndex = null;
+		orgIndex = null;
+		addressIndex = null;
+		allAddressbook = null;
+		snapshotStore = null;
+		storeWriter = null;
+		persistenceMode = null;
+		loadMetrics = null;
+		mapped = false;
+		contactOrder = null;
+		orgOrder = null;
+		contactSearch = null;
+		orgSearch = null;
+		contactPlanner = null;
+		orgPlanner = null;
+		changes = null;
+		feed = null;
+		contactAddressValues = null;
+		orgAddressValues = null;
+		locks = null;
+		bulkPool = null;
+		metrics.reset();
+	}
+	
 	/* (non-Javadoc)
 	 * @see org.opentdc.addressbooks.ServiceProvider#list(java.lang.String, java.lang.String, int, int)
 	 */
@@ -125,23 +258,22 @@ public class FileServiceProvider extends AbstractFileServiceProvider<ABaddressbo
 		int position,
 		int size) 
 	{		
-		ArrayList<AddressbookModel> _list = new ArrayList<AddressbookModel>();
-		for (ABaddressbook _ab : abookIndex.values()) {
-			_list.add(_ab.getModel());
-		}
-		Collections.sort(_list, AddressbookModel.AddressbookComparator);
-		AddressbookQueryHandler _queryHandler = new AddressbookQueryHandler(query);
-		ArrayList<AddressbookModel> _selection = new ArrayList<AddressbookModel>();
-		for (int i = 0; i < _list.size(); i++) {
-			if (i >= position && i < (position + size)) {
-				if (_queryHandler.evaluate(_list.get(i)) == true) {
-					_selection.add(_list.get(i));
-				}
-			}			
+		ProviderMetrics.Timer _timer = metrics.start(ProviderOperation.LIST);
+		try {
+			ArrayList<AddressbookModel> _list = new ArrayList<AddressbookModel>();
+			for (ABaddressbook _ab : abookIndex.values()) {
+				_list.add(_ab.getModel());
+			}
+			List<AddressbookModel> _selection = Paging.select(_list, AddressbookModel.AddressbookComparator, 
+					addressbookFilter(query), position, size);
+			log.info("list(<{}>, <{}>, <{}>, <{}>) -> {} addressbooks.", query, queryType, position, size, _selection.size());
+			return _selection;
+		} catch (RuntimeException _ex) {
+			_timer.failed(_ex);
+			throw _ex;
+		} finally {
+			_timer.close();
 		}
-		logger.info("list(<" + query + ">, <" + queryType + 
-			">, <" + position + ">, <" + size + ">) -> " + _selection.size() + " addressbooks.");
-		return _selection;
 	}
 
 	/**
@@ -158,37 +290,45 @@ public class FileServiceProvider extends AbstractFileServiceProvider<ABaddressbo
 		HttpServletRequest request,
 		AddressbookModel addressbook
 	) throws DuplicateException, ValidationException {
-		logger.info("create(" + PrettyPrinter.prettyPrintAsJSON(addressbook) + ")");
-		String _id = addressbook.getId();
-		if (_id == null || _id == "") {
-			_id = UUID.randomUUID().toString();
-		} else {
-			if (abookIndex.get(_id) != null) {
-				// object with same ID exists already
-				throw new DuplicateException("addressbook <" + _id + "> exists already.");
+		ProviderMetrics.Timer _timer = metrics.start(ProviderOperation.CREATE);
+		try {
+			log.info("create({})", addressbook);
+			String _id = addressbook.getId();
+			if (_id == null || _id == "") {
+				_id = UUID.randomUUID().toString();
+			} else {
+				if (abookIndex.get(_id) != null) {
+					// object with same ID exists already
+					throw new DuplicateException("addressbook <" + _id + "> exists already.");
+				}
+				else {  // a new ID was set on the client; we do not allow this
+					throw new ValidationException("addressbook <" + _id + 
+							"> contains an ID generated on the client. This is not allowed.");
+				}
 			}
-			else {  // a new ID was set on the client; we do not allow this
+			if (addressbook.getName() == null || addressbook.getName().length() == 0) {
 				throw new ValidationException("addressbook <" + _id + 
-						"> contains an ID generated on the client. This is not allowed.");
+						"> must contain a valid name.");
 			}
+			if (addressbook.getName().equalsIgnoreCase(ALL_ADDRESSBOOK_NAME)) {
+				throw new ValidationException("[" + ALL_ADDRESSBOOK_NAME + "] is a reserved addressbook name; please choose a different name.");
+			}
+			addressbook.setId(_id);
+			Date _date = new Date();
+			addressbook.setCreatedAt(_date);
+			addressbook.setCreatedBy(ServiceUtil.getPrincipal(request));
+			addressbook.setModifiedAt(_date);
+			addressbook.setModifiedBy(ServiceUtil.getPrincipal(request));
+			abookIndex.put(_id, new ABaddressbook(addressbook));
+			log.info("create() -> {}", addressbook);
+			commit(JournalRecord.addressbook(JournalRecord.Op.ADDRESSBOOK_CREATE, addressbook));
+			return addressbook;
+		} catch (RuntimeException _ex) {
+			_timer.failed(_ex);
+			throw _ex;
+		} finally {
+			_timer.close();
 		}
-		if (addressbook.getName() == null || addressbook.getName().length() == 0) {
-			throw new ValidationException("addressbook <" + _id + 
-					"> must contain a valid name.");
-		}
-		if (addressbook.getName().equalsIgnoreCase(ALL_ADDRESSBOOK_NAME)) {
-			throw new ValidationException("[" + ALL_ADDRESSBOOK_NAME + "] is a reserved addressbook name; please choose a different name.");
-		}
-		addressbook.setId(_id);
-		Date _date = new Date();
-		addressbook.setCreatedAt(_date);
-		addressbook.setCreatedBy(ServiceUtil.getPrincipal(request));
-		addressbook.setModifiedAt(_date);
-		addressbook.setModifiedBy(ServiceUtil.getPrincipal(request));
-		abookIndex.put(_id, new ABaddressbook(addressbook));
-		logger.info("create() -> " + PrettyPrinter.prettyPrintAsJSON(addressbook));
-		exportJson(abookIndex.values());
-		return addressbook;
 	}
 
 	/* (non-Javadoc)
@@ -198,9 +338,17 @@ public class FileServiceProvider extends AbstractFileServiceProvider<ABaddressbo
 	public AddressbookModel read(
 		String id
 	) throws NotFoundException {
-		AddressbookModel _adbm = readAddressbook(id).getModel();
-		logger.info("read(" + id + ") -> " + PrettyPrinter.prettyPrintAsJSON(_adbm));
-		return _adbm;
+		ProviderMetrics.Timer _timer = metrics.start(ProviderOperation.READ);
+		try {
+			AddressbookModel _adbm = readAddressbook(id).getModel();
+			log.fine("read({}) -> {}", id, _adbm);
+			return _adbm;
+		} catch (RuntimeException _ex) {
+			_timer.failed(_ex);
+			throw _ex;
+		} finally {
+			_timer.close();
+		}
 	}
 	
 	/**
@@ -231,32 +379,39 @@ public class FileServiceProvider extends AbstractFileServiceProvider<ABaddressbo
 		String aid,
 		AddressbookModel addressbook
 	) throws NotFoundException, ValidationException {
-		ABaddressbook _adb = readAddressbook(aid);
-		AddressbookModel _am = _adb.getModel();
-		if (! _am.getCreatedAt().equals(addressbook.getCreatedAt())) {
-			logger.warning("addressbook<" + aid + ">: ignoring createdAt value <" + addressbook.getCreatedAt().toString() + 
-					"> because it was set on the client");
-		}
-		if (! _am.getCreatedBy().equalsIgnoreCase(addressbook.getCreatedBy())) {
-			logger.warning("addressbook<" + aid + ">: ignoring createdBy value <" + addressbook.getCreatedBy() +
-					"> because it was set on the client.");
-		}
-		if (addressbook.getName() == null || addressbook.getName().length() == 0) {
-			throw new ValidationException("new values of addressbook <" + aid + 
-					"> must contain a valid name.");
-		}
-		if (addressbook.getName().equalsIgnoreCase(ALL_ADDRESSBOOK_NAME)) {
-			throw new ValidationException("[" + ALL_ADDRESSBOOK_NAME + "] is a reserved name for addressbooks; please choose a different name.");
-		}
-		_am.setName(addressbook.getName());
-		_am.setModifiedAt(new Date());
-		_am.setModifiedBy(ServiceUtil.getPrincipal(request));
-		_adb.setModel(_am);
+		ProviderMetrics.Timer _timer = metrics.start(ProviderOperation.UPDATE);
+		try (Mutation _mutation = new Mutation(locks.write(aid))) {
+			ABaddressbook _adb = readAddressbook(aid);
+			AddressbookModel _am = StoreJson.copy(_adb.getModel(), AddressbookModel.class);
+			if (! _am.getCreatedAt().equals(addressbook.getCreatedAt())) {
+				logger.warning("addressbook<" + aid + ">: ignoring createdAt value <" + addressbook.getCreatedAt().toString() + 
+						"> because it was set on the client");
+			}
+			if (! _am.getCreatedBy().equalsIgnoreCase(addressbook.getCreatedBy())) {
+				logger.warning("addressbook<" + aid + ">: ignoring createdBy value <" + addressbook.getCreatedBy() +
+						"> because it was set on the client.");
+			}
+			if (addressbook.getName() == null || addressbook.getName().length() == 0) {
+				throw new ValidationException("new values of addressbook <" + aid + 
+						"> must contain a valid name.");
+			}
+			if (addressbook.getName().equalsIgnoreCase(ALL_ADDRESSBOOK_NAME)) {
+				throw new ValidationException("[" + ALL_ADDRESSBOOK_NAME + "] is a reserved name for addressbooks; please choose a different name.");
+			}
+			_am.setName(addressbook.getName());
+			_am.setModifiedAt(new Date());
+			_am.setModifiedBy(ServiceUtil.getPrincipal(request));
+			_adb.setModel(_am);
 
-		logger.info("update(" + aid + ", " + PrettyPrinter.prettyPrintAsJSON(addressbook) + ") -> " +
-				PrettyPrinter.prettyPrintAsJSON(_adb.getModel()));
-		exportJson(abookIndex.values());
-		return _adb.getModel();
+			log.info("update({}, {}) -> {}", aid, addressbook, _adb.getModel());
+			_mutation.commit(JournalRecord.addressbook(JournalRecord.Op.ADDRESSBOOK_UPDATE, _adb.getModel()));
+			return _adb.getModel();
+		} catch (RuntimeException _ex) {
+			_timer.failed(_ex);
+			throw _ex;
+		} finally {
+			_timer.close();
+		}
 	}
 
 	/* (non-Javadoc)
@@ -265,6 +420,27 @@ public class FileServiceProvider extends AbstractFileServiceProvider<ABaddressbo
 	@Override
 	public void delete(
 		String id
+	) throws NotFoundException {
+		ProviderMetrics.Timer _timer = metrics.start(ProviderOperation.DELETE);
+		try (Mutation _mutation = new Mutation(locks.writeAll())) {
+			removeAddressbook(id);
+			_mutation.commit(JournalRecord.delete(JournalRecord.Op.ADDRESSBOOK_DELETE, id, null, id));
+			log.info("delete({})", id);
+		} catch (RuntimeException _ex) {
+			_timer.failed(_ex);
+			throw _ex;
+		} finally {
+			_timer.close();
+		}
+	}
+	
+	/**
+	 * Remove an addressbook and all of its contacts and orgs from the indexes.
+	 * @param id the addressbook to remove
+	 * @throws NotFoundException if the addressbook does not exist
+	 */
+	private void removeAddressbook(
+			String id
 	) throws NotFoundException {
 		ABaddressbook _adb = readAddressbook(id);
 		for (String _cid : _adb.getContacts()) {
@@ -277,8 +453,6 @@ public class FileServiceProvider extends AbstractFileServiceProvider<ABaddressbo
 			throw new InternalServerErrorException("addressbook <" + id
 					+ "> can not be removed, because it does not exist in the index");
 		}
-		exportJson(abookIndex.values());
-		logger.info("delete(" + id + ")");
 	}
 
 	/* (non-Javadoc)
@@ -291,25 +465,19 @@ public class FileServiceProvider extends AbstractFileServiceProvider<ABaddressbo
 			int position, 
 			int size
 	) {
-		ArrayList<ContactModel> _list = new ArrayList<ContactModel>(); 
-		for (ABcontact _abContact : contactIndex.values()) {
-			_list.add(_abContact.getModel());
-		}
-
-		Collections.sort(_list, ContactModel.ContactComparator);
-		ContactQueryHandler _queryHandler = new ContactQueryHandler(query);
-		ArrayList<ContactModel> _selection = new ArrayList<ContactModel>(); 
-		for (int i = 0; i < _list.size(); i++) {
-			if (i >= position && i < (position + size)) {
-				if (_queryHandler.evaluate(_list.get(i)) == true) {
-					_selection.add(_list.get(i));
-				}
-			}
+		ProviderMetrics.Timer _timer = metrics.start(ProviderOperation.LIST_ALL_CONTACTS);
+		try {
+			QueryPlanner.Plan<ContactModel> _plan = contactPlanner.plan(query, queryType, null, position, size);
+			ArrayList<ContactModel> _selection = new ArrayList<ContactModel>(_plan.execute()); 
+			log.info("listAllContacts(<{}>, <{}>, <{}>, <{}>) -> {} values using {}", query, queryType, position, size, 
+					_selection.size(), _plan.explain());
+			return _selection;
+		} catch (RuntimeException _ex) {
+			_timer.failed(_ex);
+			throw _ex;
+		} finally {
+			_timer.close();
 		}
-		logger.info("listAllContacts(<" + query + ">, <" + queryType + 
-				">, <" + position + ">, <" + size + ">) -> " + _selection.size()
-				+ " values");
-		return _selection;
 	}
 
 	/* (non-Javadoc)
@@ -322,25 +490,210 @@ public class FileServiceProvider extends AbstractFileServiceProvider<ABaddressbo
 			int position, 
 			int size
 	) {
-		ArrayList<OrgModel> _list = new ArrayList<OrgModel>(); 
-		for (ABorg _abOrg : orgIndex.values()) {
-			_list.add(_abOrg.getModel());
+		ProviderMetrics.Timer _timer = metrics.start(ProviderOperation.LIST_ALL_ORGS);
+		try {
+			QueryPlanner.Plan<OrgModel> _plan = orgPlanner.plan(query, queryType, null, position, size);
+			ArrayList<OrgModel> _selection = new ArrayList<OrgModel>(_plan.execute()); 
+			log.info("listAllOrgs(<{}>, <{}>, <{}>, <{}>) -> {} values using {}", query, queryType, position, size, 
+					_selection.size(), _plan.explain());
+			return _selection;
+		} catch (RuntimeException _ex) {
+			_timer.failed(_ex);
+			throw _ex;
+		} finally {
+			_timer.close();
 		}
+	}
 
-		Collections.sort(_list, OrgModel.OrgComparator);
-		OrgQueryHandler _queryHandler = new OrgQueryHandler(query);
-		ArrayList<OrgModel> _selection = new ArrayList<OrgModel>(); 
-		for (int i = 0; i < _list.size(); i++) {
-			if (i >= position && i < (position + size)) {
-				if (_queryHandler.evaluate(_list.get(i)) == true) {
-					_selection.add(_list.get(i));
-				}
-			}
+	/**
+	 * List all contacts with cursor-based paging. Unlike position-based paging, the cost of a page does not depend
+	 * on its depth, and concurrent inserts or deletes do not shift the following pages.
+	 * @param query the contact query
+	 * @param cursor the cursor returned with the previous page, or null for the first page
+	 * @param size the maximal number of contacts to return
+	 * @return the page of contacts and the cursor of the next page
+	 * @throws ValidationException if the cursor or the size are not valid
+	 */
+	public Page<ContactModel> pageAllContacts(
+			String query,
+			String cursor,
+			int size) 
+				throws ValidationException {
+		ProviderMetrics.Timer _timer = metrics.start(ProviderOperation.PAGE_ALL_CONTACTS);
+		try {
+			Page<ContactModel> _page = selectContactPage(allAddressbook, query, cursor, size);
+			log.info("pageAllContacts(<{}>, <{}>, <{}>) -> {} values", query, cursor, size, _page.getItems().size());
+			return _page;
+		} catch (RuntimeException _ex) {
+			_timer.failed(_ex);
+			throw _ex;
+		} finally {
+			_timer.close();
 		}
-		logger.info("listAllOrgs(<" + query + ">, <" + queryType + 
-				">, <" + position + ">, <" + size + ">) -> " + _selection.size()
-				+ " values");
-		return _selection;
+	}
+
+	/**
+	 * List the contacts of an addressbook with cursor-based paging.
+	 * Each page seeks into the sorted index of all contacts and skips the contacts of other addressbooks.
+	 * @param aid the addressbook
+	 * @param query the contact query
+	 * @param cursor the cursor returned with the previous page, or null for the first page
+	 * @param size the maximal number of contacts to return
+	 * @return the page of contacts and the cursor of the next page
+	 * @throws NotFoundException if the addressbook does not exist
+	 * @throws ValidationException if the cursor or the size are not valid
+	 */
+	public Page<ContactModel> pageContacts(
+			String aid,
+			String query,
+			String cursor,
+			int size) 
+				throws NotFoundException, ValidationException {
+		ProviderMetrics.Timer _timer = metrics.start(ProviderOperation.PAGE_CONTACTS);
+		try {
+			Page<ContactModel> _page = selectContactPage(readAddressbook(aid), query, cursor, size);
+			log.info("pageContacts(<{}>, <{}>, <{}>, <{}>) -> {} values", aid, query, cursor, size, _page.getItems().size());
+			return _page;
+		} catch (RuntimeException _ex) {
+			_timer.failed(_ex);
+			throw _ex;
+		} finally {
+			_timer.close();
+		}
+	}
+
+	/**
+	 * Select a page of contacts by seeking into the sorted index of all contacts; not metered, so that
+	 * pageAllContacts() and pageContacts() each record only their own call.
+	 * @param ab the addressbook
+	 * @param query the contact query
+	 * @param cursor the cursor returned with the previous page, or null for the first page
+	 * @param size the maximal number of contacts to return
+	 * @return the page of contacts and the cursor of the next page
+	 * @throws ValidationException if the cursor or the size are not valid
+	 */
+	private Page<ContactModel> selectContactPage(
+			ABaddressbook ab,
+			String query,
+			String cursor,
+			int size) 
+				throws ValidationException {
+		if (size <= 0) {
+			throw new ValidationException("page size <" + size + "> must be positive.");
+		}
+		ContactModel _after = null;
+		if (cursor != null) {
+			PageCursor _cursor = PageCursor.decode(cursor);
+			_after = new ContactModel();
+			_after.setFn(_cursor.getKey());
+			_after.setId(_cursor.getId());
+		}
+		Paging.Filter<ContactModel> _filter = contactMembers(ab, contactFilter(query));
+		List<ContactModel> _items = _after == null ? 
+			contactOrder.select(_filter, 0, size + 1) : 
+			contactOrder.selectAfter(_after, _filter, size + 1);
+		String _next = null;
+		if (_items.size() > size) {
+			_items.remove(size);
+			ContactModel _last = _items.get(size - 1);
+			_next = new PageCursor(_last.getFn(), _last.getId()).encode();
+		}
+		return new Page<ContactModel>(_items, _next);
+	}
+
+	/**
+	 * List all orgs with cursor-based paging.
+	 * @param query the org query
+	 * @param cursor the cursor returned with the previous page, or null for the first page
+	 * @param size the maximal number of orgs to return
+	 * @return the page of orgs and the cursor of the next page
+	 * @throws ValidationException if the cursor or the size are not valid
+	 */
+	public Page<OrgModel> pageAllOrgs(
+			String query,
+			String cursor,
+			int size) 
+				throws ValidationException {
+		ProviderMetrics.Timer _timer = metrics.start(ProviderOperation.PAGE_ALL_ORGS);
+		try {
+			Page<OrgModel> _page = selectOrgPage(allAddressbook, query, cursor, size);
+			log.info("pageAllOrgs(<{}>, <{}>, <{}>) -> {} values", query, cursor, size, _page.getItems().size());
+			return _page;
+		} catch (RuntimeException _ex) {
+			_timer.failed(_ex);
+			throw _ex;
+		} finally {
+			_timer.close();
+		}
+	}
+
+	/**
+	 * List the orgs of an addressbook with cursor-based paging.
+	 * Each page seeks into the sorted index of all orgs and skips the orgs of other addressbooks.
+	 * @param aid the addressbook
+	 * @param query the org query
+	 * @param cursor the cursor returned with the previous page, or null for the first page
+	 * @param size the maximal number of orgs to return
+	 * @return the page of orgs and the cursor of the next page
+	 * @throws NotFoundException if the addressbook does not exist
+	 * @throws ValidationException if the cursor or the size are not valid
+	 */
+	public Page<OrgModel> pageOrgs(
+			String aid,
+			String query,
+			String cursor,
+			int size) 
+				throws NotFoundException, ValidationException {
+		ProviderMetrics.Timer _timer = metrics.start(ProviderOperation.PAGE_ORGS);
+		try {
+			Page<OrgModel> _page = selectOrgPage(readAddressbook(aid), query, cursor, size);
+			log.info("pageOrgs(<{}>, <{}>, <{}>, <{}>) -> {} values", aid, query, cursor, size, _page.getItems().size());
+			return _page;
+		} catch (RuntimeException _ex) {
+			_timer.failed(_ex);
+			throw _ex;
+		} finally {
+			_timer.close();
+		}
+	}
+
+	/**
+	 * Select a page of orgs by seeking into the sorted index of all orgs; not metered, so that
+	 * pageAllOrgs() and pageOrgs() each record only their own call.
+	 * @param ab the addressbook
+	 * @param query the org query
+	 * @param cursor the cursor returned with the previous page, or null for the first page
+	 * @param size the maximal number of orgs to return
+	 * @return the page of orgs and the cursor of the next page
+	 * @throws ValidationException if the cursor or the size are not valid
+	 */
+	private Page<OrgModel> selectOrgPage(
+			ABaddressbook ab,
+			String query,
+			String cursor,
+			int size) 
+				throws ValidationException {
+		if (size <= 0) {
+			throw new ValidationException("page size <" + size + "> must be positive.");
+		}
+		OrgModel _after = null;
+		if (cursor != null) {
+			PageCursor _cursor = PageCursor.decode(cursor);
+			_after = new OrgModel();
+			_after.setName(_cursor.getKey());
+			_after.setId(_cursor.getId());
+		}
+		Paging.Filter<OrgModel> _filter = orgMembers(ab, orgFilter(query));
+		List<OrgModel> _items = _after == null ? 
+			orgOrder.select(_filter, 0, size + 1) : 
+			orgOrder.selectAfter(_after, _filter, size + 1);
+		String _next = null;
+		if (_items.size() > size) {
+			_items.remove(size);
+			OrgModel _last = _items.get(size - 1);
+			_next = new PageCursor(_last.getName(), _last.getId()).encode();
+		}
+		return new Page<OrgModel>(_items, _next);
 	}
 
 	/******************************** contact *****************************************/
@@ -355,24 +708,19 @@ public class FileServiceProvider extends AbstractFileServiceProvider<ABaddressbo
 			int position, 
 			int size) 
 	{
-		ArrayList<ContactModel> _list = new ArrayList<ContactModel>(); 
-		for (String _cid : readAddressbook(aid).getContacts()) {
-			_list.add(readABcontact(_cid).getModel());
-		}
-		Collections.sort(_list, ContactModel.ContactComparator);
-		ContactQueryHandler _queryHandler = new ContactQueryHandler(query);
-		ArrayList<ContactModel> _selection = new ArrayList<ContactModel>(); 
-		for (int i = 0; i < _list.size(); i++) {
-			if (i >= position && i < (position + size)) {
-				if (_queryHandler.evaluate(_list.get(i)) == true) {
-					_selection.add(_list.get(i));
-				}
-			}
+		ProviderMetrics.Timer _timer = metrics.start(ProviderOperation.LIST_CONTACTS);
+		try {
+			QueryPlanner.Plan<ContactModel> _plan = planContacts(aid, query, queryType, position, size);
+			ArrayList<ContactModel> _selection = new ArrayList<ContactModel>(_plan.execute());
+			log.info("listContacts(<{}>, <{}>, <{}>, <{}>, <{}>) -> {} values using {}", aid, query, queryType, position, size, 
+					_selection.size(), _plan.explain());
+			return _selection;
+		} catch (RuntimeException _ex) {
+			_timer.failed(_ex);
+			throw _ex;
+		} finally {
+			_timer.close();
 		}
-		logger.info("listContacts(<" + aid + ">, <" + query + ">, <" + queryType + 
-				">, <" + position + ">, <" + size + ">) -> " + _selection.size()
-				+ " values");
-		return _selection;
 	}
 	
 	/* (non-Javadoc)
@@ -385,53 +733,91 @@ public class FileServiceProvider extends AbstractFileServiceProvider<ABaddressbo
 		ContactModel contact) 
 				throws DuplicateException, ValidationException 
 	{
-		// logger.info("createContact(" + aid + ", " + PrettyPrinter.prettyPrintAsJSON(contact) + ")");
-		String _id = contact.getId();
-		if (_id == null || _id == "") {
-			_id = UUID.randomUUID().toString();
-			contact.setId(_id);
-			String _fn = ContactModel.createFullName(contact.getFirstName(), contact.getLastName());
-			if (_fn == null) {
-				throw new ValidationException("contact <" + _id + 
-						"> must contain either a valid firstName and/or a valid lastName");
-			}
-			contact.setFn(_fn);
-			Date _date = new Date();
-			contact.setCreatedAt(_date);
-			contact.setCreatedBy(ServiceUtil.getPrincipal(request));
-			contact.setModifiedAt(_date);
-			contact.setModifiedBy(ServiceUtil.getPrincipal(request));
-
-			ABcontact _abContact = new ABcontact();
-			_abContact.setModel(contact);
-			_abContact.addMembership(aid);
-			readAddressbook(aid).addContact(_id);
-			if (!allAddressbook.getModel().getId().equalsIgnoreCase(aid)) {	// custom addressbook
-				_abContact.addMembership(allAddressbook.getModel().getId());
-				allAddressbook.addContact(_id);
-			}
-			addContactToIndex(_abContact);	
-		} 
-		else {
-			ABcontact _contact = contactIndex.get(_id);
-			if (_contact != null) {		// same contact exists in index already
-				ABaddressbook _ab = readAddressbook(aid);
-				if (_ab.containsContact(_id) == true) {
-					throw new DuplicateException("contact <" + contact.getId() + 
-						"> exists already.");
-				} else {		// add the existing contact to this addressbook
-					_contact.addMembership(aid);
-					_ab.addContact(_id);
-				}	
+		ProviderMetrics.Timer _timer = metrics.start(ProviderOperation.CREATE_CONTACT);
+		try {
+			// logger.info("createContact(" + aid + ", " + PrettyPrinter.prettyPrintAsJSON(contact) + ")");
+			String _id = contact.getId();
+			boolean _isNew = _id == null || _id == "";
+			if (_isNew) {
+				_id = UUID.randomUUID().toString();
 			}
-			else {  // a new ID was set on the client; we do not allow this
-				throw new ValidationException("contact <" + _id +
-						"> contains an ID generated on the client. This is not allowed.");
+			try (Mutation _mutation = new Mutation(locks.readWrite(aid, _id))) {
+				if (_isNew) {
+					contact.setId(_id);
+					validateNewContact(ServiceUtil.getPrincipal(request), new Date(), contact);
+					insertContact(aid, contact);
+				} 
+				else {
+					ABcontact _contact = contactIndex.get(_id);
+					if (_contact != null) {		// same contact exists in index already
+						ABaddressbook _ab = readAddressbook(aid);
+						if (_ab.containsContact(_id) == true) {
+							throw new DuplicateException("contact <" + contact.getId() + 
+								"> exists already.");
+						} else {		// add the existing contact to this addressbook
+							_contact.addMembership(aid);
+							_ab.addContact(_id);
+							changes.put(ChangeIndex.Kind.CONTACT, _id, null, _contact.getModel().getModifiedAt());
+						}	
+					}
+					else {  // a new ID was set on the client; we do not allow this
+						throw new ValidationException("contact <" + _id +
+								"> contains an ID generated on the client. This is not allowed.");
+					}
+				}
+				log.info("createContact({}, contact) -> {}", aid, contact);
+				_mutation.commit(JournalRecord.contact(JournalRecord.Op.CONTACT_CREATE, aid, contact));
+				return contact;
 			}
+		} catch (RuntimeException _ex) {
+			_timer.failed(_ex);
+			throw _ex;
+		} finally {
+			_timer.close();
+		}
+	}
+	
+	/**
+	 * Check a new contact that already got its id, and set its full name and creation data.
+	 * @param principal the user creating the contact
+	 * @param date the creation date
+	 * @param contact the new contact
+	 * @throws ValidationException if the contact has neither a first nor a last name
+	 */
+	private static void validateNewContact(
+			String principal,
+			Date date,
+			ContactModel contact)
+				throws ValidationException {
+		String _fn = ContactModel.createFullName(contact.getFirstName(), contact.getLastName());
+		if (_fn == null) {
+			throw new ValidationException("contact <" + contact.getId() + 
+					"> must contain either a valid firstName and/or a valid lastName");
+		}
+		contact.setFn(_fn);
+		contact.setCreatedAt(date);
+		contact.setCreatedBy(principal);
+		contact.setModifiedAt(date);
+		contact.setModifiedBy(principal);
+	}
+	
+	/**
+	 * Add a new contact to an addressbook and to the implicit 'all' addressbook.
+	 * @param aid the addressbook to add the contact to
+	 * @param contact the validated contact data
+	 */
+	private void insertContact(
+			String aid,
+			ContactModel contact) {
+		ABcontact _abContact = new ABcontact();
+		_abContact.setModel(contact);
+		_abContact.addMembership(aid);
+		readAddressbook(aid).addContact(contact.getId());
+		if (!allAddressbook.getModel().getId().equalsIgnoreCase(aid)) {	// custom addressbook
+			_abContact.addMembership(allAddressbook.getModel().getId());
+			allAddressbook.addContact(contact.getId());
 		}
-		logger.info("createContact(" + aid + ", contact) -> " + PrettyPrinter.prettyPrintAsJSON(contact));
-		exportJson(abookIndex.values());
-		return contact;
+		addContactToIndex(_abContact);	
 	}
 	
 	/* (non-Javadoc)
@@ -442,11 +828,19 @@ public class FileServiceProvider extends AbstractFileServiceProvider<ABaddressbo
 			String aid,
 			String cid) 
 				throws NotFoundException {
-		ABaddressbook _abAddressbook = readAddressbook(aid);		// verify existence of addressbook
-		if (_abAddressbook.containsContact(cid) == false) {
-			throw new NotFoundException("contact <" + cid + "> was not found in Addressbook <" + aid +">.");
+		ProviderMetrics.Timer _timer = metrics.start(ProviderOperation.READ_CONTACT);
+		try {
+			ABaddressbook _abAddressbook = readAddressbook(aid);		// verify existence of addressbook
+			if (_abAddressbook.containsContact(cid) == false) {
+				throw new NotFoundException("contact <" + cid + "> was not found in Addressbook <" + aid +">.");
+			}
+			return getContactModel(cid);
+		} catch (RuntimeException _ex) {
+			_timer.failed(_ex);
+			throw _ex;
+		} finally {
+			_timer.close();
 		}
-		return getContactModel(cid);
 	}
 	
 	/**
@@ -459,8 +853,7 @@ public class FileServiceProvider extends AbstractFileServiceProvider<ABaddressbo
 			String contactId)
 			throws NotFoundException {
 		ABcontact _abContact = readABcontact(contactId);
-		logger.info("getContactModel(" + contactId + ") -> "
-				+ PrettyPrinter.prettyPrintAsJSON(_abContact.getModel()));
+		log.fine("getContactModel({}) -> {}", contactId, _abContact.getModel());
 		return _abContact.getModel();
 	}
 	
@@ -491,43 +884,54 @@ public class FileServiceProvider extends AbstractFileServiceProvider<ABaddressbo
 			ContactModel contact) 
 				throws NotFoundException, ValidationException 
 	{
-		readAddressbook(aid);		// verify existence of addressbook
-		ABcontact _c = readABcontact(cid);
-		ContactModel _cm = _c.getModel();
-		
-		if (! _cm.getCreatedAt().equals(contact.getCreatedAt())) {
-			logger.warning("contact <" + cid + ">: ignoring createdAt value <" + contact.getCreatedAt().toString() +
-					"> because it was set on the client.");
-		}
-		if (! _cm.getCreatedBy().equalsIgnoreCase(contact.getCreatedBy())) {
-			logger.warning("contact <" + cid + ">: ignoring createdBy value <" + contact.getCreatedBy() + 
-					"> because it was set on the client.");
-		}
-		String _fn = ContactModel.createFullName(contact.getFirstName(), contact.getLastName());
-		if (_fn == null) {
-			throw new ValidationException("contact <" + cid + 
-					"> must contain either a valid firstName and/or a valid lastName");
+		ProviderMetrics.Timer _timer = metrics.start(ProviderOperation.UPDATE_CONTACT);
+		try (Mutation _mutation = new Mutation(locks.readWrite(aid, cid))) {
+			readAddressbook(aid);		// verify existence of addressbook
+			ABcontact _c = readABcontact(cid);
+			ContactModel _cm = StoreJson.copy(_c.getModel(), ContactModel.class);
+	
+			if (! _cm.getCreatedAt().equals(contact.getCreatedAt())) {
+				logger.warning("contact <" + cid + ">: ignoring createdAt value <" + contact.getCreatedAt().toString() +
+						"> because it was set on the client.");
+			}
+			if (! _cm.getCreatedBy().equalsIgnoreCase(contact.getCreatedBy())) {
+				logger.warning("contact <" + cid + ">: ignoring createdBy value <" + contact.getCreatedBy() + 
+						"> because it was set on the client.");
+			}
+			String _fn = ContactModel.createFullName(contact.getFirstName(), contact.getLastName());
+			if (_fn == null) {
+				throw new ValidationException("contact <" + cid + 
+						"> must contain either a valid firstName and/or a valid lastName");
+			}
+			_cm.setFn(_fn);
+			_cm.setPhotoUrl(contact.getPhotoUrl());
+			_cm.setFirstName(contact.getFirstName());
+			_cm.setLastName(contact.getLastName());
+			_cm.setMiddleName(contact.getMiddleName());
+			_cm.setMaidenName(contact.getMaidenName());
+			_cm.setPrefix(contact.getPrefix());
+			_cm.setSuffix(contact.getSuffix());
+			_cm.setNickName(contact.getNickName());
+			_cm.setJobTitle(contact.getJobTitle());
+			_cm.setDepartment(contact.getDepartment());
+			_cm.setCompany(contact.getCompany());
+			_cm.setBirthday(contact.getBirthday());
+			_cm.setNote(contact.getNote());
+			_cm.setModifiedAt(new Date());
+			_cm.setModifiedBy(ServiceUtil.getPrincipal(request));
+			contactOrder.replace(_c.getModel(), _cm);
+			contactSearch.replace(_c.getModel(), _cm);
+			_c.setModel(_cm);
+			changes.put(ChangeIndex.Kind.CONTACT, cid, null, _cm.getModifiedAt());
+			log.info("updateContact({}, {}, {}) -> OK", aid, cid, _cm);
+			_mutation.commit(JournalRecord.contact(JournalRecord.Op.CONTACT_UPDATE, aid, _cm));
+			return _cm;
+		} catch (RuntimeException _ex) {
+			_timer.failed(_ex);
+			throw _ex;
+		} finally {
+			_timer.close();
 		}
-		_cm.setFn(_fn);
-		_cm.setPhotoUrl(contact.getPhotoUrl());
-		_cm.setFirstName(contact.getFirstName());
-		_cm.setLastName(contact.getLastName());
-		_cm.setMiddleName(contact.getMiddleName());
-		_cm.setMaidenName(contact.getMaidenName());
-		_cm.setPrefix(contact.getPrefix());
-		_cm.setSuffix(contact.getSuffix());
-		_cm.setNickName(contact.getNickName());
-		_cm.setJobTitle(contact.getJobTitle());
-		_cm.setDepartment(contact.getDepartment());
-		_cm.setCompany(contact.getCompany());
-		_cm.setBirthday(contact.getBirthday());
-		_cm.setNote(contact.getNote());
-		_cm.setModifiedAt(new Date());
-		_cm.setModifiedBy(ServiceUtil.getPrincipal(request));
-		_c.setModel(_cm);
-		logger.info("updateContact(" + aid + ", " + cid + ", "+ PrettyPrinter.prettyPrintAsJSON(_cm) + ") -> OK");
-		exportJson(abookIndex.values());
-		return _cm;
 	}
 	
 	// deleting a contact from a custom addressbook -> remove it from the addressbook, but keep it in all addressbook
@@ -541,6 +945,30 @@ public class FileServiceProvider extends AbstractFileServiceProvider<ABaddressbo
 			String cid) 
 				throws NotFoundException,
 					InternalServerErrorException 
+	{
+		ProviderMetrics.Timer _timer = metrics.start(ProviderOperation.DELETE_CONTACT);
+		try (Mutation _mutation = new Mutation(locks.readWrite(aid, cid))) {
+			removeContact(aid, cid);
+			log.info("deleteContact({}, {}) -> OK", aid, cid);
+			_mutation.commit(JournalRecord.delete(JournalRecord.Op.CONTACT_DELETE, aid, null, cid));
+		} catch (RuntimeException _ex) {
+			_timer.failed(_ex);
+			throw _ex;
+		} finally {
+			_timer.close();
+		}
+	}
+	
+	/**
+	 * Remove a contact from an addressbook; removing it from the 'all' addressbook deletes it completely.
+	 * @param aid the addressbook to remove the contact from
+	 * @param cid the contact to remove
+	 * @throws NotFoundException if the addressbook or the contact do not exist
+	 */
+	private void removeContact(
+			String aid,
+			String cid)
+				throws NotFoundException
 	{
 		ABaddressbook _abab = readAddressbook(aid);		// verify existence of addressbook
 		ABcontact _contact = readABcontact(cid);		// throws NotFoundException
@@ -554,10 +982,8 @@ public class FileServiceProvider extends AbstractFileServiceProvider<ABaddressbo
 				throw new NotFoundException("contact <" + cid + "> was not found in addressbook <" + aid +">.");
 			}
 			_contact.removeMembership(aid);
+			changes.delete(ChangeIndex.Kind.CONTACT, cid, null, aid);
 		}
-					
-		logger.info("deleteContact(" + aid + ", " + cid + ") -> OK");
-		exportJson(abookIndex.values());
 	}
 
 	/******************************** org *****************************************/
@@ -572,24 +998,19 @@ public class FileServiceProvider extends AbstractFileServiceProvider<ABaddressbo
 			int position, 
 			int size) 
 	{
-		ArrayList<OrgModel> _list = new ArrayList<OrgModel>(); 
-		for (String _oid : readAddressbook(aid).getOrgs()) {
-			_list.add(readABorg(_oid).getModel());
+		ProviderMetrics.Timer _timer = metrics.start(ProviderOperation.LIST_ORGS);
+		try {
+			QueryPlanner.Plan<OrgModel> _plan = planOrgs(aid, query, queryType, position, size);
+			List<OrgModel> _selection = _plan.execute();
+			log.info("listOrgs(<{}>, <{}>, <{}>, <{}>, <{}>) -> {} values using {}", aid, query, queryType, position, size, 
+					_selection.size(), _plan.explain());
+			return _selection;
+		} catch (RuntimeException _ex) {
+			_timer.failed(_ex);
+			throw _ex;
+		} finally {
+			_timer.close();
 		}
-		Collections.sort(_list, OrgModel.OrgComparator);
-		OrgQueryHandler _queryHandler = new OrgQueryHandler(query);
-		ArrayList<OrgModel> _selection = new ArrayList<OrgModel>(); 
-		for (int i = 0; i < _list.size(); i++) {
-			if (i >= position && i < (position + size)) {
-				if (_queryHandler.evaluate(_list.get(i)) == true) {
-					_selection.add(_list.get(i));
-				}
-			}
-		}
-		logger.info("listOrgs(<" + aid + ">, <" + query + ">, <" + queryType + 
-				">, <" + position + ">, <" + size + ">) -> " + _selection.size()
-				+ " values");
-		return _selection;
 	}
 
 	/* (non-Javadoc)
@@ -602,51 +1023,89 @@ public class FileServiceProvider extends AbstractFileServiceProvider<ABaddressbo
 			OrgModel org)
 					throws DuplicateException, ValidationException 
 	{
-		String _id = org.getId();
-		if (_id == null || _id == "") {
-			_id = UUID.randomUUID().toString();
-			org.setId(_id);
-			if (org.getName() == null || org.getName().length() == 0) {
-				throw new ValidationException("org <" + _id + "> must contain a name.");
-			}
-			if (org.getOrgType() == null) {
-				org.setOrgType(OrgType.getDefaultOrgType());
+		ProviderMetrics.Timer _timer = metrics.start(ProviderOperation.CREATE_ORG);
+		try {
+			String _id = org.getId();
+			boolean _isNew = _id == null || _id == "";
+			if (_isNew) {
+				_id = UUID.randomUUID().toString();
 			}
-			Date _date = new Date();
-			org.setCreatedAt(_date);
-			org.setCreatedBy(ServiceUtil.getPrincipal(request));
-			org.setModifiedAt(_date);
-			org.setModifiedBy(ServiceUtil.getPrincipal(request));
-			
-			ABorg _abOrg = new ABorg();
-			_abOrg.setModel(org);
-			_abOrg.addMembership(aid);
-			readAddressbook(aid).addOrg(_id);
-			if (!allAddressbook.getModel().getId().equalsIgnoreCase(aid)) {	// custom addressbook
-				_abOrg.addMembership(allAddressbook.getModel().getId());	
-				allAddressbook.addOrg(_id);
-			}
-			addOrgToIndex(_abOrg);	
-		} else {
-			ABorg _org = orgIndex.get(_id);
-			if (_org != null) {	// same org exists in index already
-				ABaddressbook _ab = readAddressbook(aid);
-				if (_ab.containsOrg(_id) == true) {
-					throw new DuplicateException("org <" + org.getId() + 
-							"> exists already.");
-				} else {	// add the existing org to this addressbook
-					_org.addMembership(aid);
-					_ab.addOrg(_id);
+			try (Mutation _mutation = new Mutation(locks.readWrite(aid, _id))) {
+				if (_isNew) {
+					org.setId(_id);
+					validateNewOrg(ServiceUtil.getPrincipal(request), new Date(), org);
+					insertOrg(aid, org);
+				} else {
+					ABorg _org = orgIndex.get(_id);
+					if (_org != null) {	// same org exists in index already
+						ABaddressbook _ab = readAddressbook(aid);
+						if (_ab.containsOrg(_id) == true) {
+							throw new DuplicateException("org <" + org.getId() + 
+									"> exists already.");
+						} else {	// add the existing org to this addressbook
+							_org.addMembership(aid);
+							_ab.addOrg(_id);
+							changes.put(ChangeIndex.Kind.ORG, _id, null, _org.getModel().getModifiedAt());
+						}
+					}
+					else {  // a new ID was set on the client; we do not allow this
+						throw new ValidationException("org <" + _id +
+								"> contains an ID generated on the client. This is not allowed.");
+					}
 				}
+				log.info("createOrg({}, {})", aid, org);
+				_mutation.commit(JournalRecord.org(JournalRecord.Op.ORG_CREATE, aid, org));
+				return org;
 			}
-			else {  // a new ID was set on the client; we do not allow this
-				throw new ValidationException("org <" + _id +
-						"> contains an ID generated on the client. This is not allowed.");
-			}
+		} catch (RuntimeException _ex) {
+			_timer.failed(_ex);
+			throw _ex;
+		} finally {
+			_timer.close();
+		}
+	}
+	
+	/**
+	 * Check a new org that already got its id, and set its defaults and creation data.
+	 * @param principal the user creating the org
+	 * @param date the creation date
+	 * @param org the new org
+	 * @throws ValidationException if the org has no name
+	 */
+	private static void validateNewOrg(
+			String principal,
+			Date date,
+			OrgModel org)
+				throws ValidationException {
+		if (org.getName() == null || org.getName().length() == 0) {
+			throw new ValidationException("org <" + org.getId() + "> must contain a name.");
+		}
+		if (org.getOrgType() == null) {
+			org.setOrgType(OrgType.getDefaultOrgType());
+		}
+		org.setCreatedAt(date);
+		org.setCreatedBy(principal);
+		org.setModifiedAt(date);
+		org.setModifiedBy(principal);
+	}
+	
+	/**
+	 * Add a new org to an addressbook and to the implicit 'all' addressbook.
+	 * @param aid the addressbook to add the org to
+	 * @param org the validated org data
+	 */
+	private void insertOrg(
+			String aid,
+			OrgModel org) {
+		ABorg _abOrg = new ABorg();
+		_abOrg.setModel(org);
+		_abOrg.addMembership(aid);
+		readAddressbook(aid).addOrg(org.getId());
+		if (!allAddressbook.getModel().getId().equalsIgnoreCase(aid)) {	// custom addressbook
+			_abOrg.addMembership(allAddressbook.getModel().getId());	
+			allAddressbook.addOrg(org.getId());
 		}
-		logger.info("createOrg(" + aid + ", " + PrettyPrinter.prettyPrintAsJSON(org) + ")");
-		exportJson(abookIndex.values());
-		return org;
+		addOrgToIndex(_abOrg);	
 	}
 
 	/**
@@ -672,14 +1131,21 @@ public class FileServiceProvider extends AbstractFileServiceProvider<ABaddressbo
 			String aid, 
 			String oid) 
 					throws NotFoundException {
-		ABaddressbook _abAddressbook = readAddressbook(aid);		// verify existence of addressbook
-		if (_abAddressbook.containsOrg(oid) == false) {
-			throw new NotFoundException("contact <" + oid + "> was not found in Addressbook <" + aid +">.");
+		ProviderMetrics.Timer _timer = metrics.start(ProviderOperation.READ_ORG);
+		try {
+			ABaddressbook _abAddressbook = readAddressbook(aid);		// verify existence of addressbook
+			if (_abAddressbook.containsOrg(oid) == false) {
+				throw new NotFoundException("contact <" + oid + "> was not found in Addressbook <" + aid +">.");
+			}
+			ABorg _abOrg = readABorg(oid);
+			log.fine("readOrg({}, {}) -> {}", aid, oid, _abOrg.getModel());
+			return _abOrg.getModel();
+		} catch (RuntimeException _ex) {
+			_timer.failed(_ex);
+			throw _ex;
+		} finally {
+			_timer.close();
 		}
-		ABorg _abOrg = readABorg(oid);
-		logger.info("readOrg(" + aid + ", " + oid + ") -> "
-				+ PrettyPrinter.prettyPrintAsJSON(_abOrg.getModel()));
-		return _abOrg.getModel();
 	}
 
 	/* (non-Javadoc)
@@ -692,37 +1158,48 @@ public class FileServiceProvider extends AbstractFileServiceProvider<ABaddressbo
 			String oid, 
 			OrgModel org)
 			throws NotFoundException, ValidationException {
-		readAddressbook(aid);		// verify existence of addressbook
-		ABorg _abOrg = readABorg(oid);
-		OrgModel _om = _abOrg.getModel();
-		
-		if (! _om.getCreatedAt().equals(org.getCreatedAt())) {
-			logger.warning("contact<" + oid + ">: ignoring createdAt value <" + org.getCreatedAt().toString() +
-					"> because it was set on the client.");
-		}
-		if (! _om.getCreatedBy().equalsIgnoreCase(org.getCreatedBy())) {
-			logger.warning("contact<" + oid + ">: ignoring createdBy value <" + org.getCreatedBy() +
-					"> because it was set on the client.");
-		}
-		if (org.getName() == null || org.getName().length() == 0) {
-			throw new ValidationException("org <" + oid + "> must contain a name.");
-		}
-		if (org.getOrgType() == null) {
-			org.setOrgType(OrgType.getDefaultOrgType());
+		ProviderMetrics.Timer _timer = metrics.start(ProviderOperation.UPDATE_ORG);
+		try (Mutation _mutation = new Mutation(locks.readWrite(aid, oid))) {
+			readAddressbook(aid);		// verify existence of addressbook
+			ABorg _abOrg = readABorg(oid);
+			OrgModel _om = StoreJson.copy(_abOrg.getModel(), OrgModel.class);
+	
+			if (! _om.getCreatedAt().equals(org.getCreatedAt())) {
+				logger.warning("contact<" + oid + ">: ignoring createdAt value <" + org.getCreatedAt().toString() +
+						"> because it was set on the client.");
+			}
+			if (! _om.getCreatedBy().equalsIgnoreCase(org.getCreatedBy())) {
+				logger.warning("contact<" + oid + ">: ignoring createdBy value <" + org.getCreatedBy() +
+						"> because it was set on the client.");
+			}
+			if (org.getName() == null || org.getName().length() == 0) {
+				throw new ValidationException("org <" + oid + "> must contain a name.");
+			}
+			if (org.getOrgType() == null) {
+				org.setOrgType(OrgType.getDefaultOrgType());
+			}
+			_om.setName(org.getName());
+			_om.setDescription(org.getDescription());
+			_om.setCostCenter(org.getCostCenter());
+			_om.setStockExchange(org.getStockExchange());
+			_om.setTickerSymbol(org.getTickerSymbol());
+			_om.setOrgType(org.getOrgType());
+			_om.setLogoUrl(org.getLogoUrl());
+			_om.setModifiedAt(new Date());
+			_om.setModifiedBy(ServiceUtil.getPrincipal(request));
+			orgOrder.replace(_abOrg.getModel(), _om);
+			orgSearch.replace(_abOrg.getModel(), _om);
+			_abOrg.setModel(_om);
+			changes.put(ChangeIndex.Kind.ORG, oid, null, _om.getModifiedAt());
+			log.info("updateOrg({}, {}, {}) -> OK", aid, oid, _om);
+			_mutation.commit(JournalRecord.org(JournalRecord.Op.ORG_UPDATE, aid, _om));
+			return _om;
+		} catch (RuntimeException _ex) {
+			_timer.failed(_ex);
+			throw _ex;
+		} finally {
+			_timer.close();
 		}
-		_om.setName(org.getName());
-		_om.setDescription(org.getDescription());
-		_om.setCostCenter(org.getCostCenter());
-		_om.setStockExchange(org.getStockExchange());
-		_om.setTickerSymbol(org.getTickerSymbol());
-		_om.setOrgType(org.getOrgType());
-		_om.setLogoUrl(org.getLogoUrl());
-		_om.setModifiedAt(new Date());
-		_om.setModifiedBy(ServiceUtil.getPrincipal(request));
-		_abOrg.setModel(_om);
-		logger.info("updateOrg(" + aid + ", " + oid + ", "+ PrettyPrinter.prettyPrintAsJSON(_om) + ") -> OK");
-		exportJson(abookIndex.values());
-		return _om;
 	}
 
 	/* (non-Javadoc)
@@ -734,6 +1211,30 @@ public class FileServiceProvider extends AbstractFileServiceProvider<ABaddressbo
 			String oid) 
 					throws NotFoundException,
 					InternalServerErrorException 
+	{
+		ProviderMetrics.Timer _timer = metrics.start(ProviderOperation.DELETE_ORG);
+		try (Mutation _mutation = new Mutation(locks.readWrite(aid, oid))) {
+			removeOrg(aid, oid);
+			log.info("deleteOrg({}, {}) -> OK", aid, oid);
+			_mutation.commit(JournalRecord.delete(JournalRecord.Op.ORG_DELETE, aid, null, oid));
+		} catch (RuntimeException _ex) {
+			_timer.failed(_ex);
+			throw _ex;
+		} finally {
+			_timer.close();
+		}
+	}
+	
+	/**
+	 * Remove an org from an addressbook; removing it from the 'all' addressbook deletes it completely.
+	 * @param aid the addressbook to remove the org from
+	 * @param oid the org to remove
+	 * @throws NotFoundException if the addressbook or the org do not exist
+	 */
+	private void removeOrg(
+			String aid,
+			String oid)
+				throws NotFoundException
 	{
 		ABaddressbook _abab = readAddressbook(aid);		// verify existence of addressbook
 		ABorg _org = readABorg(oid);
@@ -747,10 +1248,8 @@ public class FileServiceProvider extends AbstractFileServiceProvider<ABaddressbo
 				throw new NotFoundException("org <" + oid + "> was not found in addressbook <" + aid +">.");
 			}		
 			_org.removeMembership(aid);
+			changes.delete(ChangeIndex.Kind.ORG, oid, null, aid);
 		}
-					
-		logger.info("deleteOrg(" + aid + ", " + oid + ") -> OK");
-		exportJson(abookIndex.values());
 	}
 	
 	/******************************** address (of contacts) *****************************************/	
@@ -762,19 +1261,19 @@ public class FileServiceProvider extends AbstractFileServiceProvider<ABaddressbo
 			String queryType, 
 			int position, 
 			int size) {
-		readAddressbook(aid);		// verify existence of addressbook
-		ABcontact _c = readABcontact(cid);
-		List<AddressModel> _addresses = _c.getAddresses();
-		Collections.sort(_addresses, AddressModel.AddressComparator);
-		ArrayList<AddressModel> _selection = new ArrayList<AddressModel>();
-		for (int i = 0; i < _addresses.size(); i++) {
-			if (i >= position && i < (position + size)) {
-				_selection.add(_addresses.get(i));
-			}
-		}		
-		logger.info("listAddresses(" + aid + ", " + cid + ", " + query + ", " + 
-				queryType + ", " + position + ", " + size + ") -> " + _selection.size()	+ " values");
-		return _selection;
+		ProviderMetrics.Timer _timer = metrics.start(ProviderOperation.LIST_ADDRESSES);
+		try {
+			readAddressbook(aid);		// verify existence of addressbook
+			ABcontact _c = readABcontact(cid);
+			List<AddressModel> _selection = Paging.select(_c.getAddresses(), null, position, size);
+			log.info("listAddresses({}, {}, {}, {}, {}, {}) -> {} values", aid, cid, query, queryType, position, size, _selection.size());
+			return _selection;
+		} catch (RuntimeException _ex) {
+			_timer.failed(_ex);
+			throw _ex;
+		} finally {
+			_timer.close();
+		}
 	}
 
 	@Override
@@ -784,18 +1283,35 @@ public class FileServiceProvider extends AbstractFileServiceProvider<ABaddressbo
 			String cid,
 			AddressModel address) 
 					throws ValidationException, DuplicateException {
-		readAddressbook(aid);		// verify existence of addressbook
-		ABcontact _contact = readABcontact(cid);
-		AddressModel _newAddress = validateNewAddress(request, address);
-		addressIndex.put(_newAddress.getId(), _newAddress);
-		_contact.addAddress(_newAddress);
-		logger.info("createAddress(" + aid + ", " + cid + ", "+ PrettyPrinter.prettyPrintAsJSON(address) + ")");
-		exportJson(abookIndex.values());
-		return _newAddress;
+		ProviderMetrics.Timer _timer = metrics.start(ProviderOperation.CREATE_ADDRESS);
+		try (Mutation _mutation = new Mutation(locks.readWrite(aid, cid))) {
+			readAddressbook(aid);		// verify existence of addressbook
+			ABcontact _contact = readABcontact(cid);
+			AddressModel _newAddress = validateNewAddress(ServiceUtil.getPrincipal(request), new Date(), address);
+			addContactAddress(_contact, _newAddress);
+			log.info("createAddress({}, {}, {})", aid, cid, address);
+			_mutation.commit(JournalRecord.address(JournalRecord.Op.CONTACT_ADDRESS_CREATE, aid, cid, _newAddress));
+			return _newAddress;
+		} catch (RuntimeException _ex) {
+			_timer.failed(_ex);
+			throw _ex;
+		} finally {
+			_timer.close();
+		}
 	}
 	
+	/**
+	 * Check a new address, and set its id and creation data.
+	 * @param principal the user creating the address
+	 * @param date the creation date
+	 * @param address the new address
+	 * @return the address
+	 * @throws ValidationException if the address is not valid for its addressType
+	 * @throws DuplicateException if the address has the id of an existing address
+	 */
 	private AddressModel validateNewAddress(
-			HttpServletRequest request,
+			String principal,
+			Date date,
 			AddressModel address) 
 				throws ValidationException, DuplicateException {
 		String _id = address.getId();
@@ -855,11 +1371,10 @@ public class FileServiceProvider extends AbstractFileServiceProvider<ABaddressbo
 						address.getAddressType());
 		}
 		address.setId(_id);
-		Date _date = new Date();
-		address.setCreatedAt(_date);
-		address.setCreatedBy(ServiceUtil.getPrincipal(request));
-		address.setModifiedAt(_date);
-		address.setModifiedBy(ServiceUtil.getPrincipal(request));
+		address.setCreatedAt(date);
+		address.setCreatedBy(principal);
+		address.setModifiedAt(date);
+		address.setModifiedBy(principal);
 		return address;		
 	}
 	
@@ -877,12 +1392,19 @@ public class FileServiceProvider extends AbstractFileServiceProvider<ABaddressbo
 			String cid, 
 			String adrid)
 					throws NotFoundException {
-		readAddressbook(aid);		// verify existence of addressbook
-		readABcontact(cid);			// verify existence of contact
-		AddressModel _address = getAddress(adrid);
-		logger.info("readAddress(" + aid + ", " + cid + ", " + adrid + ") -> " +
-				PrettyPrinter.prettyPrintAsJSON(_address));
-		return _address;
+		ProviderMetrics.Timer _timer = metrics.start(ProviderOperation.READ_ADDRESS);
+		try {
+			readAddressbook(aid);		// verify existence of addressbook
+			readABcontact(cid);			// verify existence of contact
+			AddressModel _address = getAddress(adrid);
+			log.fine("readAddress({}, {}, {}) -> {}", aid, cid, adrid, _address);
+			return _address;
+		} catch (RuntimeException _ex) {
+			_timer.failed(_ex);
+			throw _ex;
+		} finally {
+			_timer.close();
+		}
 	}
 
 	@Override
@@ -893,15 +1415,24 @@ public class FileServiceProvider extends AbstractFileServiceProvider<ABaddressbo
 			String adrid,
 			AddressModel address) 
 				throws NotFoundException, ValidationException {
-		readAddressbook(aid);		// verify existence of addressbook
-		ABcontact _abContact = readABcontact(cid);			// verify existence of contact
-		AddressModel _am = validateChangedAddress(request, "contact", cid, adrid, address);
-		addressIndex.put(adrid, _am);
-		_abContact.replaceAddress(_am);
-		logger.info("updateAddress(" + aid + ", " + cid + ", " + adrid + ") -> " +
-				PrettyPrinter.prettyPrintAsJSON(_am));
-		exportJson(abookIndex.values());
-		return _am;
+		ProviderMetrics.Timer _timer = metrics.start(ProviderOperation.UPDATE_ADDRESS);
+		try (Mutation _mutation = new Mutation(locks.readWrite(aid, cid))) {
+			readAddressbook(aid);		// verify existence of addressbook
+			ABcontact _abContact = readABcontact(cid);			// verify existence of contact
+			AddressModel _am = validateChangedAddress(request, "contact", cid, adrid, address);
+			AddressModel _previous = addressIndex.put(adrid, _am);
+			_abContact.replaceAddress(_am);
+			contactAddressValues.replace(cid, _previous, _am);
+			changes.put(ChangeIndex.Kind.ADDRESS, adrid, cid, _am.getModifiedAt());
+			log.info("updateAddress({}, {}, {}) -> {}", aid, cid, adrid, _am);
+			_mutation.commit(JournalRecord.address(JournalRecord.Op.CONTACT_ADDRESS_UPDATE, aid, cid, _am));
+			return _am;
+		} catch (RuntimeException _ex) {
+			_timer.failed(_ex);
+			throw _ex;
+		} finally {
+			_timer.close();
+		}
 	}
 	
 	private AddressModel validateChangedAddress(
@@ -911,7 +1442,7 @@ public class FileServiceProvider extends AbstractFileServiceProvider<ABaddressbo
 			String adrid, 
 			AddressModel address) 
 					throws NotFoundException, ValidationException {
-		AddressModel _am = getAddress(adrid);
+		AddressModel _am = StoreJson.copy(getAddress(adrid), AddressModel.class);
 		if (! _am.getCreatedAt().equals(address.getCreatedAt())) {
 			logger.warning(parentType + " <" + pid + ">: ignoring createdAt value <" + address.getCreatedAt().toString() + 
 					"> because it was set on the client.");
@@ -977,20 +1508,30 @@ public class FileServiceProvider extends AbstractFileServiceProvider<ABaddressbo
 			String cid, 
 			String adrid)
 			throws NotFoundException, InternalServerErrorException {
-		readAddressbook(aid);		// verify existence of addressbook
-		ABcontact _c = readABcontact(cid);			// verify existence of contact
-		AddressModel _adr = getAddress(adrid);
-		
-		if (_c.removeAddress(_adr) == false) {
-			throw new InternalServerErrorException("address <" + adrid + "> could not be removed from contact <" 
-					+ cid + ">, because it was not listed as a member of the contact.");
-		}
-		if (addressIndex.remove(adrid) == null) {
-			throw new InternalServerErrorException("address <" + adrid
-					+ "> can not be removed, because it does not exist in the index");	
+		ProviderMetrics.Timer _timer = metrics.start(ProviderOperation.DELETE_ADDRESS);
+		try (Mutation _mutation = new Mutation(locks.readWrite(aid, cid))) {
+			readAddressbook(aid);		// verify existence of addressbook
+			ABcontact _c = readABcontact(cid);			// verify existence of contact
+			AddressModel _adr = getAddress(adrid);
+	
+			if (_c.removeAddress(_adr) == false) {
+				throw new InternalServerErrorException("address <" + adrid + "> could not be removed from contact <" 
+						+ cid + ">, because it was not listed as a member of the contact.");
+			}
+			contactAddressValues.remove(_adr);
+			changes.delete(ChangeIndex.Kind.ADDRESS, adrid, cid, null);
+			if (addressIndex.remove(adrid) == null) {
+				throw new InternalServerErrorException("address <" + adrid
+						+ "> can not be removed, because it does not exist in the index");	
+			}
+			log.info("deleteAddress({}, {}, {}) -> OK", aid, cid, adrid);
+			_mutation.commit(JournalRecord.delete(JournalRecord.Op.CONTACT_ADDRESS_DELETE, aid, cid, adrid));
+		} catch (RuntimeException _ex) {
+			_timer.failed(_ex);
+			throw _ex;
+		} finally {
+			_timer.close();
 		}
-		logger.info("deleteAddress(" + aid + ", " + cid + ", " + adrid + ") -> OK");
-		exportJson(abookIndex.values());
 	}
 
 	/******************************** address (of orgs) *****************************************/	
@@ -1002,19 +1543,19 @@ public class FileServiceProvider extends AbstractFileServiceProvider<ABaddressbo
 			String queryType, 
 			int position, 
 			int size) {
-		readAddressbook(aid);		// verify existence of addressbook
-		ABorg _org = readABorg(oid);
-		List<AddressModel> _addresses = _org.getAddresses();
-		Collections.sort(_addresses, AddressModel.AddressComparator);
-		ArrayList<AddressModel> _selection = new ArrayList<AddressModel>();
-		for (int i = 0; i < _addresses.size(); i++) {
-			if (i >= position && i < (position + size)) {
-				_selection.add(_addresses.get(i));
-			}
-		}		
-		logger.info("listAddresses(" + aid + ", " + oid + ", " + query + ", " + 
-				queryType + ", " + position + ", " + size + ") -> " + _selection.size()	+ " values");
-		return _selection;
+		ProviderMetrics.Timer _timer = metrics.start(ProviderOperation.LIST_ORG_ADDRESSES);
+		try {
+			readAddressbook(aid);		// verify existence of addressbook
+			ABorg _org = readABorg(oid);
+			List<AddressModel> _selection = Paging.select(_org.getAddresses(), null, position, size);
+			log.info("listOrgAddresses({}, {}, {}, {}, {}, {}) -> {} values", aid, oid, query, queryType, position, size, _selection.size());
+			return _selection;
+		} catch (RuntimeException _ex) {
+			_timer.failed(_ex);
+			throw _ex;
+		} finally {
+			_timer.close();
+		}
 	}
 
 	@Override
@@ -1024,14 +1565,21 @@ public class FileServiceProvider extends AbstractFileServiceProvider<ABaddressbo
 			String oid,
 			AddressModel address) 
 					throws ValidationException, DuplicateException {
-		readAddressbook(aid);		// verify existence of addressbook
-		ABorg _org = readABorg(oid);
-		AddressModel _newAddress = validateNewAddress(request, address);
-		addressIndex.put(_newAddress.getId(), _newAddress);
-		_org.addAddress(_newAddress);
-		logger.info("createAddress(" + aid + ", " + oid + ", "+ PrettyPrinter.prettyPrintAsJSON(address) + ")");
-		exportJson(abookIndex.values());
-		return _newAddress;
+		ProviderMetrics.Timer _timer = metrics.start(ProviderOperation.CREATE_ORG_ADDRESS);
+		try (Mutation _mutation = new Mutation(locks.readWrite(aid, oid))) {
+			readAddressbook(aid);		// verify existence of addressbook
+			ABorg _org = readABorg(oid);
+			AddressModel _newAddress = validateNewAddress(ServiceUtil.getPrincipal(request), new Date(), address);
+			addOrgAddress(_org, _newAddress);
+			log.info("createOrgAddress({}, {}, {})", aid, oid, address);
+			_mutation.commit(JournalRecord.address(JournalRecord.Op.ORG_ADDRESS_CREATE, aid, oid, _newAddress));
+			return _newAddress;
+		} catch (RuntimeException _ex) {
+			_timer.failed(_ex);
+			throw _ex;
+		} finally {
+			_timer.close();
+		}
 	}
 	
 	@Override
@@ -1040,12 +1588,19 @@ public class FileServiceProvider extends AbstractFileServiceProvider<ABaddressbo
 			String oid, 
 			String adrid)
 					throws NotFoundException {
-		readAddressbook(aid);		// verify existence of addressbook
-		readABorg(oid);			// verify existence of org
-		AddressModel _address = getAddress(adrid);
-		logger.info("readAddress(" + aid + ", " + oid + ", " + adrid + ") -> " +
-				PrettyPrinter.prettyPrintAsJSON(_address));
-		return _address;
+		ProviderMetrics.Timer _timer = metrics.start(ProviderOperation.READ_ORG_ADDRESS);
+		try {
+			readAddressbook(aid);		// verify existence of addressbook
+			readABorg(oid);			// verify existence of org
+			AddressModel _address = getAddress(adrid);
+			log.fine("readOrgAddress({}, {}, {}) -> {}", aid, oid, adrid, _address);
+			return _address;
+		} catch (RuntimeException _ex) {
+			_timer.failed(_ex);
+			throw _ex;
+		} finally {
+			_timer.close();
+		}
 	}
 
 	@Override
@@ -1056,15 +1611,24 @@ public class FileServiceProvider extends AbstractFileServiceProvider<ABaddressbo
 			String adrid,
 			AddressModel address) 
 				throws NotFoundException, ValidationException {
-		readAddressbook(aid);		// verify existence of addressbook
-		ABorg _abOrg = readABorg(oid);			// verify existence of org
-		AddressModel _am = validateChangedAddress(request, "org", oid, adrid, address);
-		addressIndex.put(adrid, _am);
-		_abOrg.replaceAddress(_am);
-		logger.info("updateAddress(" + aid + ", " + oid + ", " + adrid + ") -> " +
-				PrettyPrinter.prettyPrintAsJSON(_am));
-		exportJson(abookIndex.values());
-		return _am;
+		ProviderMetrics.Timer _timer = metrics.start(ProviderOperation.UPDATE_ORG_ADDRESS);
+		try (Mutation _mutation = new Mutation(locks.readWrite(aid, oid))) {
+			readAddressbook(aid);		// verify existence of addressbook
+			ABorg _abOrg = readABorg(oid);			// verify existence of org
+			AddressModel _am = validateChangedAddress(request, "org", oid, adrid, address);
+			AddressModel _previous = addressIndex.put(adrid, _am);
+			_abOrg.replaceAddress(_am);
+			orgAddressValues.replace(oid, _previous, _am);
+			changes.put(ChangeIndex.Kind.ADDRESS, adrid, oid, _am.getModifiedAt());
+			log.info("updateOrgAddress({}, {}, {}) -> {}", aid, oid, adrid, _am);
+			_mutation.commit(JournalRecord.address(JournalRecord.Op.ORG_ADDRESS_UPDATE, aid, oid, _am));
+			return _am;
+		} catch (RuntimeException _ex) {
+			_timer.failed(_ex);
+			throw _ex;
+		} finally {
+			_timer.close();
+		}
 	}
 
 	@Override
@@ -1073,32 +1637,1625 @@ public class FileServiceProvider extends AbstractFileServiceProvider<ABaddressbo
 			String oid, 
 			String adrid)
 			throws NotFoundException, InternalServerErrorException {
-		readAddressbook(aid);		// verify existence of addressbook
-		ABorg _org = readABorg(oid);			// verify existence of contact
-		AddressModel _adr = getAddress(adrid);
-		
-		if (_org.removeAddress(_adr) == false) {
-			throw new InternalServerErrorException("address <" + adrid + "> could not be removed from org <" 
-					+ oid + ">, because it was not listed as a member of the org.");
-		}
-		if (addressIndex.remove(adrid) == null) {
-			throw new InternalServerErrorException("address <" + adrid
-					+ "> can not be removed, because it does not exist in the index");	
+		ProviderMetrics.Timer _timer = metrics.start(ProviderOperation.DELETE_ORG_ADDRESS);
+		try (Mutation _mutation = new Mutation(locks.readWrite(aid, oid))) {
+			readAddressbook(aid);		// verify existence of addressbook
+			ABorg _org = readABorg(oid);			// verify existence of contact
+			AddressModel _adr = getAddress(adrid);
+	
+			if (_org.removeAddress(_adr) == false) {
+				throw new InternalServerErrorException("address <" + adrid + "> could not be removed from org <" 
+						+ oid + ">, because it was not listed as a member of the org.");
+			}
+			orgAddressValues.remove(_adr);
+			changes.delete(ChangeIndex.Kind.ADDRESS, adrid, oid, null);
+			if (addressIndex.remove(adrid) == null) {
+				throw new InternalServerErrorException("address <" + adrid
+						+ "> can not be removed, because it does not exist in the index");	
+			}
+			log.info("deleteOrgAddress({}, {}, {}) -> OK", aid, oid, adrid);
+			_mutation.commit(JournalRecord.delete(JournalRecord.Op.ORG_ADDRESS_DELETE, aid, oid, adrid));
+		} catch (RuntimeException _ex) {
+			_timer.failed(_ex);
+			throw _ex;
+		} finally {
+			_timer.close();
+		}
+	}
+	
+	
+	/******************************** bulk import *****************************************/
+	/**
+	 * Create many contacts and orgs with their addresses at once, e.g. when a customer is onboarded.
+	 * The items are validated in parallel with the same rules as createContact(), createOrg() and createAddress(),
+	 * then applied to the indexes while holding all locks, and made durable with a single commit
+	 * while only the imported contacts and orgs are still locked.
+	 * An item with the id of an existing contact or org adds it to the addressbook, as createContact() and createOrg() do.
+	 * An item that fails is skipped as a whole; the other items are applied nevertheless.
+	 * @param request the request of the user importing the items
+	 * @param aid the addressbook to add the contacts and orgs to
+	 * @param items the contacts and orgs to create, each with its addresses
+	 * @return the result of each item, in the order of the items
+	 * @throws NotFoundException if the addressbook does not exist
+	 */
+	public List<BulkResult> bulkImport(
+			HttpServletRequest request,
+			String aid,
+			List<BulkItem> items)
+				throws NotFoundException {
+		ProviderMetrics.Timer _timer = metrics.start(ProviderOperation.BULK_IMPORT);
+		try {
+			List<BulkResult> _results = bulkImport(request, aid, items, true);
+			int _failed = 0;
+			for (BulkResult _result : _results) {
+				if (_result.getStatus() == BulkResult.Status.FAILED) {
+					_failed++;
+				}
+			}
+			log.info("bulkImport({}, {} items) -> {} applied, {} failed", aid, items.size(), 
+					items.size() - _failed, _failed);
+			return _results;
+		} catch (RuntimeException _ex) {
+			_timer.failed(_ex);
+			throw _ex;
+		} finally {
+			_timer.close();
+		}
+	}
+	
+	/**
+	 * Validate and apply a bulk import.
+	 * @param request the request of the user importing the items
+	 * @param aid the addressbook to add the contacts and orgs to
+	 * @param items the contacts and orgs to create, each with its addresses
+	 * @param durable if false, the items are only published to the change feed; the caller has to write the snapshot
+	 * @return the result of each item, in the order of the items
+	 * @throws NotFoundException if the addressbook does not exist
+	 */
+	private List<BulkResult> bulkImport(
+			HttpServletRequest request,
+			String aid,
+			List<BulkItem> items,
+			boolean durable)
+				throws NotFoundException {
+		readAddressbook(aid);		// verify existence of addressbook
+		BulkResult[] _results = validateBulk(items, ServiceUtil.getPrincipal(request), new Date());
+		List<JournalRecord> _records = new ArrayList<JournalRecord>();
+		List<String> _applied = new ArrayList<String>();
+		Mutation _appliedMutation = null;
+		try {
+			LockStripes.Held _all = locks.writeAll();
+			try {
+				ABaddressbook _ab = readAddressbook(aid);
+				for (int i = 0; i < _results.length; i++) {
+					if (_results[i].getStatus() != BulkResult.Status.FAILED) {
+						_results[i] = applyBulkItem(aid, _ab, items.get(i), _results[i], _records);
+					}
+					if (_results[i].getStatus() != BulkResult.Status.FAILED) {
+						_applied.add(_results[i].getId());
+					}
+				}
+			} finally {
+				// downgrade to the locks of the applied contacts and orgs, so that other operations can proceed 
+				// while the batch is committed, but none of them is journaled before the batch
+				_appliedMutation = new Mutation(locks.readWrite(aid, _applied.toArray(new String[_applied.size()])));
+				_all.close();
+			}
+		} finally {		// whatever was applied to the indexes must be made durable
+			try {
+				if (!_records.isEmpty() && durable) {
+					_appliedMutation.commit(JournalRecord.batch(aid, _records));
+				} else if (!_records.isEmpty()) {
+					publish(JournalRecord.batch(aid, _records));
+				}
+			} finally {
+				if (_appliedMutation != null) {		// releases the locks before waiting for durability
+					_appliedMutation.close();
+				}
+			}
+		}
+		return Arrays.asList(_results);
+	}
+	
+	/**
+	 * Validate the items of a bulk import, in chunks on bulk.parallelism threads.
+	 * @param items the items to validate
+	 * @param principal the user importing the items
+	 * @param date the creation date of all items
+	 * @return for each item, either the failure or the tentative result if the item is applied
+	 */
+	private BulkResult[] validateBulk(
+			final List<BulkItem> items,
+			final String principal,
+			final Date date) {
+		final BulkResult[] _results = new BulkResult[items.size()];
+		if (items.size() <= BULK_CHUNK_SIZE || bulkPool == null) {
+			validateBulk(items, 0, items.size(), principal, date, _results);
+			return _results;
+		}
+		List<Callable<Void>> _tasks = new ArrayList<Callable<Void>>();
+		for (int i = 0; i < items.size(); i += BULK_CHUNK_SIZE) {
+			final int _from = i;
+			final int _to = Math.min(i + BULK_CHUNK_SIZE, items.size());
+			_tasks.add(new Callable<Void>() {
+				@Override
+				public Void call() {
+					validateBulk(items, _from, _to, principal, date, _results);
+					return null;
+				}
+			});
+		}
+		try {
+			for (Future<Void> _task : bulkPool.invokeAll(_tasks)) {
+				_task.get();
+			}
+		} catch (InterruptedException _ex) {
+			Thread.currentThread().interrupt();
+			throw new InternalServerErrorException("bulk import was interrupted.");
+		} catch (ExecutionException _ex) {
+			throw new InternalServerErrorException("bulk import can not be validated: " + _ex.getCause().getMessage());
+		}
+		return _results;
+	}
+	
+	private void validateBulk(
+			List<BulkItem> items,
+			int from,
+			int to,
+			String principal,
+			Date date,
+			BulkResult[] results) {
+		for (int i = from; i < to; i++) {
+			results[i] = validateBulkItem(i, items.get(i), principal, date);
+		}
+	}
+	
+	/**
+	 * Validate an item of a bulk import. New contacts, orgs and addresses get their ids and creation data.
+	 * Whether an existing contact or org can be added to the addressbook is only checked when the item is applied.
+	 * @param index the position of the item
+	 * @param item the item to validate
+	 * @param principal the user importing the item
+	 * @param date the creation date
+	 * @return the failure, or the tentative result if the item is applied
+	 */
+	private BulkResult validateBulkItem(
+			int index,
+			BulkItem item,
+			String principal,
+			Date date) {
+		if (item == null || (item.getContact() == null) == (item.getOrg() == null)) {
+			return BulkResult.failed(index, null, "item <" + index + "> must contain either a contact or an org.");
+		}
+		String _id = item.getContact() != null ? item.getContact().getId() : item.getOrg().getId();
+		boolean _isNew = _id == null || _id.length() == 0;
+		int _addresses = 0;
+		try {
+			if (item.getContact() != null) {
+				if (_isNew) {
+					item.getContact().setId(UUID.randomUUID().toString());
+					validateNewContact(principal, date, item.getContact());
+				}
+			} else if (_isNew) {
+				item.getOrg().setId(UUID.randomUUID().toString());
+				validateNewOrg(principal, date, item.getOrg());
+			}
+			for (AddressModel _address : item.getAddresses()) {
+				validateNewAddress(principal, date, _address);
+				_addresses++;
+			}
+			return BulkResult.applied(index, item.getContact() != null ? item.getContact().getId() : item.getOrg().getId(), 
+					_isNew);
+		} catch (ValidationException | DuplicateException _ex) {
+			// drop the ids assigned so far, so that the item can be corrected and imported again
+			if (_isNew) {
+				if (item.getContact() != null) {
+					item.getContact().setId(null);
+				} else {
+					item.getOrg().setId(null);
+				}
+			}
+			dropAddressIds(item, _addresses);
+			return BulkResult.failed(index, _isNew ? null : _id, _ex.getMessage());
+		}
+	}
+	
+	/**
+	 * Apply a validated item of a bulk import to the indexes. Must be called while holding all locks.
+	 * @param aid the addressbook to add the contact or org to
+	 * @param ab the addressbook
+	 * @param item the validated item
+	 * @param result the tentative result of the item
+	 * @param records receives the journal records of the item
+	 * @return the result of the item
+	 */
+	private BulkResult applyBulkItem(
+			String aid,
+			ABaddressbook ab,
+			BulkItem item,
+			BulkResult result,
+			List<JournalRecord> records) {
+		boolean _isNew = result.getStatus() == BulkResult.Status.CREATED;
+		String _id = result.getId();
+		if (item.getContact() != null) {
+			if (_isNew) {
+				insertContact(aid, item.getContact());
+			} else if (contactIndex.get(_id) == null) {
+				dropAddressIds(item, item.getAddresses().size());
+				return BulkResult.failed(result.getIndex(), _id, "contact <" + _id +
+						"> contains an ID generated on the client. This is not allowed.");
+			} else if (ab.containsContact(_id)) {
+				dropAddressIds(item, item.getAddresses().size());
+				return BulkResult.failed(result.getIndex(), _id, "contact <" + _id + "> exists already.");
+			}
+			ABcontact _contact = contactIndex.get(_id);
+			if (!_isNew) {		// add the existing contact to this addressbook
+				_contact.addMembership(aid);
+				ab.addContact(_id);
+				changes.put(ChangeIndex.Kind.CONTACT, _id, null, _contact.getModel().getModifiedAt());
+			}
+			records.add(JournalRecord.contact(JournalRecord.Op.CONTACT_CREATE, aid, _contact.getModel()));
+			for (AddressModel _address : item.getAddresses()) {
+				addContactAddress(_contact, _address);
+				records.add(JournalRecord.address(JournalRecord.Op.CONTACT_ADDRESS_CREATE, aid, _id, _address));
+			}
+		} else {
+			if (_isNew) {
+				insertOrg(aid, item.getOrg());
+			} else if (orgIndex.get(_id) == null) {
+				dropAddressIds(item, item.getAddresses().size());
+				return BulkResult.failed(result.getIndex(), _id, "org <" + _id +
+						"> contains an ID generated on the client. This is not allowed.");
+			} else if (ab.containsOrg(_id)) {
+				dropAddressIds(item, item.getAddresses().size());
+				return BulkResult.failed(result.getIndex(), _id, "org <" + _id + "> exists already.");
+			}
+			ABorg _org = orgIndex.get(_id);
+			if (!_isNew) {		// add the existing org to this addressbook
+				_org.addMembership(aid);
+				ab.addOrg(_id);
+				changes.put(ChangeIndex.Kind.ORG, _id, null, _org.getModel().getModifiedAt());
+			}
+			records.add(JournalRecord.org(JournalRecord.Op.ORG_CREATE, aid, _org.getModel()));
+			for (AddressModel _address : item.getAddresses()) {
+				addOrgAddress(_org, _address);
+				records.add(JournalRecord.address(JournalRecord.Op.ORG_ADDRESS_CREATE, aid, _id, _address));
+			}
 		}
-		logger.info("deleteAddress(" + aid + ", " + oid + ", " + adrid + ") -> OK");
-		exportJson(abookIndex.values());
+		return result;
 	}
 	
+	/**
+	 * Drop the address ids assigned by validateBulkItem(), so that a failed item can be corrected and imported again.
+	 * @param item the failed item
+	 * @param count the number of addresses that got an id
+	 */
+	private static void dropAddressIds(
+			BulkItem item,
+			int count) {
+		for (int i = 0; i < count; i++) {
+			item.getAddresses().get(i).setId(null);
+		}
+	}
+	
+	/******************************** export *****************************************/
+	/**
+	 * Write all contacts and orgs of an addressbook with their addresses to a stream, e.g. for a backup.
+	 * The contacts and then the orgs are read from the sorted indexes page by page, so that the memory needed
+	 * does not depend on the size of the addressbook. Changes made while the export runs may or may not be contained.
+	 * @param aid the addressbook to export
+	 * @param format the format to write
+	 * @param out the stream to write to; it is flushed, but not closed
+	 * @return the number of contacts and orgs written
+	 * @throws NotFoundException if the addressbook does not exist
+	 * @throws IOException if the stream can not be written
+	 */
+	public int exportAddressbook(
+			String aid,
+			CardFormat format,
+			OutputStream out)
+				throws NotFoundException, IOException {
+		ProviderMetrics.Timer _timer = metrics.start(ProviderOperation.EXPORT_ADDRESSBOOK);
+		try {
+			ABaddressbook _ab = readAddressbook(aid);
+			CardCodec.CardWriter _writer = format.createCodec().openWriter(out);
+			int _count = 0;
+			Paging.Filter<ContactModel> _contactFilter = contactMembers(_ab, null);
+			List<ContactModel> _contacts = contactOrder.select(_contactFilter, 0, EXPORT_PAGE_SIZE);
+			while (!_contacts.isEmpty()) {
+				for (ContactModel _model : _contacts) {
+					ABcontact _contact = contactIndex.get(_model.getId());
+					if (_contact != null) {		// not deleted in the meantime
+						_writer.writeContact(_contact.getModel(), _contact.getAddresses());
+						_count++;
+					}
+				}
+				_contacts = _contacts.size() < EXPORT_PAGE_SIZE ? Collections.<ContactModel>emptyList() :
+					contactOrder.selectAfter(_contacts.get(_contacts.size() - 1), _contactFilter, EXPORT_PAGE_SIZE);
+			}
+			Paging.Filter<OrgModel> _orgFilter = orgMembers(_ab, null);
+			List<OrgModel> _orgs = orgOrder.select(_orgFilter, 0, EXPORT_PAGE_SIZE);
+			while (!_orgs.isEmpty()) {
+				for (OrgModel _model : _orgs) {
+					ABorg _org = orgIndex.get(_model.getId());
+					if (_org != null) {
+						_writer.writeOrg(_org.getModel(), _org.getAddresses());
+						_count++;
+					}
+				}
+				_orgs = _orgs.size() < EXPORT_PAGE_SIZE ? Collections.<OrgModel>emptyList() :
+					orgOrder.selectAfter(_orgs.get(_orgs.size() - 1), _orgFilter, EXPORT_PAGE_SIZE);
+			}
+			_writer.finish();
+			log.info("exportAddressbook({}, {}) -> {} contacts and orgs", aid, format, _count);
+			return _count;
+		} catch (IOException | RuntimeException _ex) {
+			_timer.failed(_ex);
+			throw _ex;
+		} finally {
+			_timer.close();
+		}
+	}
+	
+	/******************************** import *****************************************/
+	/**
+	 * Import the contacts and orgs of a file into an addressbook, e.g. a backup written by exportAddressbook().
+	 * The file is parsed card by card into a bounded queue and imported in batches of import.batchSize with
+	 * bulkImport(), so that files of any size can be imported with little memory besides the imported data itself.
+	 * Cards with the id of an existing contact or org add it to the addressbook without importing its addresses again;
+	 * other ids are dropped, so that the cards are created with new ids. In snapshot persistence mode, the snapshot
+	 * is written once at the end instead of after each batch.
+	 * @param request the request of the user importing the file
+	 * @param aid the addressbook to import into
+	 * @param format the format of the file
+	 * @param in the file; it is read to its end, but not closed
+	 * @param listener is called with the progress and each error while the import runs, or null
+	 * @return the number of cards read, created, added and failed, and the first errors
+	 * @throws NotFoundException if the addressbook does not exist
+	 * @throws IOException if the file can not be read; the cards read before were imported
+	 */
+	public ImportReport importAddressbook(
+			final HttpServletRequest request,
+			final String aid,
+			CardFormat format,
+			InputStream in,
+			ImportListener listener)
+				throws NotFoundException, IOException {
+		ProviderMetrics.Timer _timer = metrics.start(ProviderOperation.IMPORT_ADDRESSBOOK);
+		final boolean _deferred = persistenceMode == PersistenceMode.SNAPSHOT;
+		final AtomicBoolean _applied = new AtomicBoolean(false);
+		try {
+			readAddressbook(aid);		// verify existence of addressbook
+			CardImporter _importer = new CardImporter(format.createCodec(), importBatchSize, importMaxErrors, listener);
+			ImportReport _report = _importer.run(in, new CardImporter.Sink() {
+				@Override
+				public List<BulkResult> apply(List<BulkItem> items) {
+					for (BulkItem _item : items) {
+						dropUnknownId(_item);
+					}
+					_applied.set(true);
+					return bulkImport(request, aid, items, !_deferred);
+				}
+			});
+			log.info("importAddressbook({}, {}) -> {}", aid, format, _report.toString());
+			return _report;
+		} catch (IOException | RuntimeException _ex) {
+			_timer.failed(_ex);
+			throw _ex;
+		} finally {
+			try {
+				if (_deferred && _applied.get()) {
+					writeSnapshot();
+				}
+			} finally {
+				_timer.close();
+			}
+		}
+	}
+	
+	/**
+	 * Drop the id of an imported contact or org unless it exists, so that a new one is created.
+	 * A contact or org that exists is only added to the addressbook; its addresses are not imported again.
+	 * @param item the imported contact or org
+	 */
+	private static void dropUnknownId(
+			BulkItem item) {
+		String _id = item.getContact() != null ? item.getContact().getId() : item.getOrg().getId();
+		if (_id == null) {
+			return;
+		}
+		if (item.getContact() != null ? contactIndex.containsKey(_id) : orgIndex.containsKey(_id)) {
+			item.setAddresses(null);
+		} else if (item.getContact() != null) {
+			item.getContact().setId(null);
+		} else {
+			item.getOrg().setId(null);
+		}
+	}
+	
+	/******************************** search *****************************************/
+	/**
+	 * Type-ahead search for contacts: each word of the query must be a prefix of a word of fn, firstName, lastName, 
+	 * nickName, company or jobTitle; case and accents are ignored.
+	 * Queries are answered from an inverted index that keeps its posting lists in sort order; only queries that
+	 * consist of broad prefixes, e.g. a single letter, scan the contacts in sort order until the page is complete.
+	 * Same as listContacts() with queryType prefix.
+	 * @param aid the addressbook to search, or null to search all contacts
+	 * @param query the words or prefixes to search for
+	 * @param position the number of matches to skip
+	 * @param size the maximal number of matches to return
+	 * @return the matches from position to position + size in ContactComparator order
+	 * @throws NotFoundException if the addressbook does not exist
+	 * @throws ValidationException if the query contains no words
+	 */
+	public List<ContactModel> searchContacts(
+			String aid,
+			String query,
+			int position,
+			int size)
+				throws NotFoundException, ValidationException {
+		ProviderMetrics.Timer _timer = metrics.start(ProviderOperation.SEARCH_CONTACTS);
+		try {
+			List<ContactModel> _selection = planContacts(aid == null ? allAddressbook.getModel().getId() : aid, 
+					query, QueryPlanner.QUERY_TYPE_PREFIX, position, size).execute();
+			log.info("searchContacts(<{}>, <{}>, <{}>, <{}>) -> {} values", aid, query, position, size, _selection.size());
+			return _selection;
+		} catch (RuntimeException _ex) {
+			_timer.failed(_ex);
+			throw _ex;
+		} finally {
+			_timer.close();
+		}
+	}
+	
+	/**
+	 * Type-ahead search for orgs: each word of the query must be a prefix of a word of the name or description;
+	 * case and accents are ignored. Same as listOrgs() with queryType prefix, see searchContacts().
+	 * @param aid the addressbook to search, or null to search all orgs
+	 * @param query the words or prefixes to search for
+	 * @param position the number of matches to skip
+	 * @param size the maximal number of matches to return
+	 * @return the matches from position to position + size in OrgComparator order
+	 * @throws NotFoundException if the addressbook does not exist
+	 * @throws ValidationException if the query contains no words
+	 */
+	public List<OrgModel> searchOrgs(
+			String aid,
+			String query,
+			int position,
+			int size)
+				throws NotFoundException, ValidationException {
+		ProviderMetrics.Timer _timer = metrics.start(ProviderOperation.SEARCH_ORGS);
+		try {
+			List<OrgModel> _selection = planOrgs(aid == null ? allAddressbook.getModel().getId() : aid, 
+					query, QueryPlanner.QUERY_TYPE_PREFIX, position, size).execute();
+			log.info("searchOrgs(<{}>, <{}>, <{}>, <{}>) -> {} values", aid, query, position, size, _selection.size());
+			return _selection;
+		} catch (RuntimeException _ex) {
+			_timer.failed(_ex);
+			throw _ex;
+		} finally {
+			_timer.close();
+		}
+	}
+	
+	/******************************** query planning *****************************************/
+	/**
+	 * Describe how listContacts() would answer a query, without running it.
+	 * @param aid the addressbook
+	 * @param query the query
+	 * @param queryType how the query is to be read: id, address, prefix or none; see QueryPlanner
+	 * @param position the number of matches to skip
+	 * @param size the maximal number of matches to return
+	 * @return the plan, e.g. <i>scan(sorted) &gt; filter(query) &gt; page(0, 20)</i>
+	 * @throws NotFoundException if the addressbook does not exist
+	 * @throws ValidationException if the query can not be read as queryType
+	 */
+	public String explainContacts(
+			String aid,
+			String query,
+			String queryType,
+			int position,
+			int size)
+				throws NotFoundException, ValidationException {
+		ProviderMetrics.Timer _timer = metrics.start(ProviderOperation.EXPLAIN_CONTACTS);
+		try {
+			String _plan = planContacts(aid, query, queryType, position, size).explain();
+			log.info("explainContacts(<{}>, <{}>, <{}>, <{}>, <{}>) -> {}", aid, query, queryType, position, size, _plan);
+			return _plan;
+		} catch (RuntimeException _ex) {
+			_timer.failed(_ex);
+			throw _ex;
+		} finally {
+			_timer.close();
+		}
+	}
+	
+	/**
+	 * Describe how listOrgs() would answer a query, without running it.
+	 * @param aid the addressbook
+	 * @param query the query
+	 * @param queryType how the query is to be read: id, address, prefix or none; see QueryPlanner
+	 * @param position the number of matches to skip
+	 * @param size the maximal number of matches to return
+	 * @return the plan
+	 * @throws NotFoundException if the addressbook does not exist
+	 * @throws ValidationException if the query can not be read as queryType
+	 */
+	public String explainOrgs(
+			String aid,
+			String query,
+			String queryType,
+			int position,
+			int size)
+				throws NotFoundException, ValidationException {
+		ProviderMetrics.Timer _timer = metrics.start(ProviderOperation.EXPLAIN_ORGS);
+		try {
+			String _plan = planOrgs(aid, query, queryType, position, size).explain();
+			log.info("explainOrgs(<{}>, <{}>, <{}>, <{}>, <{}>) -> {}", aid, query, queryType, position, size, _plan);
+			return _plan;
+		} catch (RuntimeException _ex) {
+			_timer.failed(_ex);
+			throw _ex;
+		} finally {
+			_timer.close();
+		}
+	}
+	
+	private QueryPlanner.Plan<ContactModel> planContacts(
+			String aid,
+			String query,
+			String queryType,
+			int position,
+			int size) {
+		ABaddressbook _ab = readAddressbook(aid);
+		return contactPlanner.plan(query, queryType, _ab == allAddressbook ? null : _ab.getContacts(), position, size);
+	}
+	
+	private QueryPlanner.Plan<OrgModel> planOrgs(
+			String aid,
+			String query,
+			String queryType,
+			int position,
+			int size) {
+		ABaddressbook _ab = readAddressbook(aid);
+		return orgPlanner.plan(query, queryType, _ab == allAddressbook ? null : _ab.getOrgs(), position, size);
+	}
+	
+	/******************************** changes *****************************************/
+	/**
+	 * Incremental sync: the contacts, orgs and addresses of an addressbook that were changed or deleted since a token.
+	 * Pass null as token for the first call, then the token of the previous result. If the token is expired,
+	 * e.g. because the service was restarted, the result is flagged with resync and starts from the beginning.
+	 * @param aid the addressbook
+	 * @param token the token of the previous result, or null to read all changes
+	 * @param size the maximal number of changes to return
+	 * @return the changes in the order they were made, and the token for the next call
+	 * @throws NotFoundException if the addressbook does not exist
+	 * @throws ValidationException if the token is not valid
+	 */
+	public ChangeSet changesSince(
+			String aid,
+			String token,
+			int size)
+				throws NotFoundException, ValidationException {
+		ProviderMetrics.Timer _timer = metrics.start(ProviderOperation.CHANGES_SINCE);
+		try {
+			ABaddressbook _ab = readAddressbook(aid);
+			long _seq = 0;
+			try {
+				_seq = changes.parse(token);
+			} catch (IllegalArgumentException _ex) {
+				throw new ValidationException(_ex.getMessage());
+			}
+			ChangeSet _changeSet = new ChangeSet(_seq < 0);
+			long _last = Math.max(0, _seq);
+			Iterator<ChangeIndex.Change> _changes = changes.after(_last).iterator();
+			while (_changeSet.size() < size && _changes.hasNext()) {
+				ChangeIndex.Change _change = _changes.next();
+				_last = _change.getSeq();
+				addChange(_changeSet, _ab, _change);
+			}
+			_changeSet.setToken(changes.getToken(_last));
+			_changeSet.setMore(_changes.hasNext());
+			log.info("changesSince({}, {}, {}) -> {} changes, resync {}", aid, token, size, _changeSet.size(), _changeSet.isResync());
+			return _changeSet;
+		} catch (RuntimeException _ex) {
+			_timer.failed(_ex);
+			throw _ex;
+		} finally {
+			_timer.close();
+		}
+	}
+	
+	/**
+	 * Add a change to the result if it concerns the addressbook.
+	 * Tombstones of contacts and orgs that were deleted completely are returned for all addressbooks.
+	 */
+	private static void addChange(
+			ChangeSet changeSet,
+			ABaddressbook ab,
+			ChangeIndex.Change change) {
+		String _id = change.getId();
+		boolean _tombstone = change.isDeleted() && 
+				(change.getAid() == null || change.getAid().equalsIgnoreCase(ab.getModel().getId()));
+		switch (change.getKind()) {
+		case CONTACT:
+			ABcontact _contact = contactIndex.get(_id);
+			if (_tombstone) {
+				changeSet.getDeletedContacts().add(_id);
+			} else if (!change.isDeleted() && _contact != null && ab.containsContact(_id)) {
+				changeSet.getContacts().add(_contact.getModel());
+			}
+			break;
+		case ORG:
+			ABorg _org = orgIndex.get(_id);
+			if (_tombstone) {
+				changeSet.getDeletedOrgs().add(_id);
+			} else if (!change.isDeleted() && _org != null && ab.containsOrg(_id)) {
+				changeSet.getOrgs().add(_org.getModel());
+			}
+			break;
+		case ADDRESS:
+			if (!ab.containsContact(change.getOwnerId()) && !ab.containsOrg(change.getOwnerId())) {
+				break;		// the owner is not a member, or was deleted and has a tombstone itself
+			}
+			AddressModel _address = addressIndex.get(_id);
+			if (change.isDeleted()) {
+				changeSet.getDeletedAddresses().add(_id);
+			} else if (_address != null) {
+				changeSet.getAddresses().add(_address);
+			}
+			break;
+		}
+	}
+	
+	/******************************** lookup by address *****************************************/
+	/**
+	 * Find the contacts that have an email, phone, web or messaging address with a given value.
+	 * Values are compared in normalized form, e.g. phone numbers by their digits only.
+	 * @param addressType the type of the address; POSTAL addresses can not be looked up
+	 * @param value the value of the address
+	 * @return the contacts with such an address, in ContactComparator order; empty if there is none
+	 * @throws ValidationException if the addressType is missing or POSTAL, or the value is empty
+	 */
+	public List<ContactModel> findContactsByAddress(
+			AddressType addressType,
+			String value)
+				throws ValidationException {
+		ProviderMetrics.Timer _timer = metrics.start(ProviderOperation.FIND_CONTACTS_BY_ADDRESS);
+		try {
+			validateLookup(addressType, value);
+			List<ContactModel> _contacts = new ArrayList<ContactModel>();
+			for (String _cid : contactAddressValues.lookup(addressType, value)) {
+				ABcontact _contact = contactIndex.get(_cid);
+				if (_contact != null) {		// skip contacts deleted concurrently
+					_contacts.add(_contact.getModel());
+				}
+			}
+			Collections.sort(_contacts, ContactModel.ContactComparator);
+			log.info("findContactsByAddress({}, {}) -> {} values", addressType, value, _contacts.size());
+			return _contacts;
+		} catch (RuntimeException _ex) {
+			_timer.failed(_ex);
+			throw _ex;
+		} finally {
+			_timer.close();
+		}
+	}
+	
+	/**
+	 * Find the orgs that have an email, phone, web or messaging address with a given value.
+	 * Values are compared in normalized form, e.g. phone numbers by their digits only.
+	 * @param addressType the type of the address; POSTAL addresses can not be looked up
+	 * @param value the value of the address
+	 * @return the orgs with such an address, in OrgComparator order; empty if there is none
+	 * @throws ValidationException if the addressType is missing or POSTAL, or the value is empty
+	 */
+	public List<OrgModel> findOrgsByAddress(
+			AddressType addressType,
+			String value)
+				throws ValidationException {
+		ProviderMetrics.Timer _timer = metrics.start(ProviderOperation.FIND_ORGS_BY_ADDRESS);
+		try {
+			validateLookup(addressType, value);
+			List<OrgModel> _orgs = new ArrayList<OrgModel>();
+			for (String _oid : orgAddressValues.lookup(addressType, value)) {
+				ABorg _org = orgIndex.get(_oid);
+				if (_org != null) {		// skip orgs deleted concurrently
+					_orgs.add(_org.getModel());
+				}
+			}
+			Collections.sort(_orgs, OrgModel.OrgComparator);
+			log.info("findOrgsByAddress({}, {}) -> {} values", addressType, value, _orgs.size());
+			return _orgs;
+		} catch (RuntimeException _ex) {
+			_timer.failed(_ex);
+			throw _ex;
+		} finally {
+			_timer.close();
+		}
+	}
+	
+	private static void validateLookup(
+			AddressType addressType,
+			String value) 
+				throws ValidationException {
+		if (!AddressValueIndex.isIndexed(addressType)) {
+			throw new ValidationException("addresses of type <" + addressType + "> can not be looked up.");
+		}
+		if (AddressValueIndex.key(addressType, value) == null) {
+			throw new ValidationException("an address value is required for the lookup.");
+		}
+	}
+	
+	/******************************** persistence *****************************************/
+	/**
+	 * Create the change feed; if it is persisted, its sequence numbers continue those of the feed log.
+	 * @param config the provider configuration
+	 * @return the open change feed
+	 * @throws IOException if the feed log can not be read
+	 */
+	private static ChangeFeed openFeed(
+			ProviderConfig config) throws IOException {
+		FeedLog _log = null;
+		if (config.getBoolean(ProviderConfig.FEED_PERSIST, false)) {
+			_log = new FeedLog(new File(config.getDataDir(), "feed"), 
+					config.getInt(ProviderConfig.FEED_SEGMENT_SIZE, 100000), 
+					config.getInt(ProviderConfig.FEED_SEGMENTS, 10));
+		}
+		ChangeFeed _feed = new ChangeFeed(config.getInt(ProviderConfig.FEED_CAPACITY, 65536), 
+				config.getLong(ProviderConfig.FEED_BLOCK_TIMEOUT, 1000), _log);
+		_feed.open();
+		return _feed;
+	}
+	
+	/**
+	 * Create the StoreWriter for the configured persistence mode.
+	 * In journal mode, the journal is replayed on top of the snapshot that was already loaded.
+	 * @param config the provider configuration
+	 * @return the StoreWriter to use for all mutations
+	 * @throws IOException if the journal can not be read or opened
+	 */
+	private StoreWriter openStoreWriter(
+			ProviderConfig config) 
+				throws IOException {
+		PersistenceMode _mode = config.getEnum(ProviderConfig.PERSISTENCE_MODE, PersistenceMode.class, PersistenceMode.SNAPSHOT);
+		persistenceMode = _mode;
+		logger.info("persistence mode: " + _mode);
+		final Snapshotter _snapshotter = new Snapshotter() {
+			@Override
+			public void writeSnapshot() throws IOException {
+				FileServiceProvider.this.writeSnapshot();
+			}
+		};
+		switch (_mode) {
+		case JOURNAL:
+			Journal _journal = new Journal(
+				config.getDataDir(),
+				_snapshotter,
+				config.getBoolean(ProviderConfig.JOURNAL_SYNC, true),
+				mapped ? 0 : config.getLong(ProviderConfig.JOURNAL_COMPACT_INTERVAL, 60000),
+				mapped ? 0 : config.getInt(ProviderConfig.JOURNAL_COMPACT_THRESHOLD, 10000));
+			int _replayed = _journal.replay(new Journal.Replayer() {
+				@Override
+				public void replay(JournalRecord record) {
+					replayRecord(record);
+				}
+			});
+			logger.info("replayed " + _replayed + " journal records.");
+			loadMetrics.setReplayedRecords(_replayed);
+			_journal.open();
+			if (mapped && _replayed > 0 && _replayed >= config.getInt(ProviderConfig.JOURNAL_COMPACT_THRESHOLD, 10000)) {
+				remapSnapshot(_journal, config);
+			}
+			return _journal;
+		case GROUP_COMMIT:
+			return new GroupCommitWriter(
+				_snapshotter,
+				config.getLong(ProviderConfig.GROUP_COMMIT_WINDOW, 100),
+				config.getEnum(ProviderConfig.GROUP_COMMIT_DURABILITY, GroupCommitWriter.Durability.class, 
+						GroupCommitWriter.Durability.ASYNC));
+		default:
+			return new StoreWriter() {
+				@Override
+				public long write(JournalRecord record) {
+					return 0;
+				}
+
+				@Override
+				public void awaitDurable(long ticket, JournalRecord record) {
+					try {
+						_snapshotter.writeSnapshot();
+					} catch (IOException _ex) {
+						throw new InternalServerErrorException("snapshot can not be written: " + _ex.getMessage());
+					}
+				}
+
+				@Override
+				public void close() {
+				}
+			};
+		}
+	}
+	
+	/**
+	 * Fold the replayed journal into a new snapshot and map it, so that the next startup replays nothing.
+	 * The journal is only compacted here while the snapshot is mapped, because the indexes must be switched 
+	 * to the new snapshot, which is only safe before the provider serves any request.
+	 * @param journal the opened journal
+	 * @param config the provider configuration
+	 */
+	private void remapSnapshot(
+			Journal journal,
+			ProviderConfig config) {
+		if (!journal.compact()) {
+			logger.warning("journal can not be compacted; serving the replayed records from the heap.");
+			return;
+		}
+		loadMetrics.restart();
+		if (mapSnapshot(config)) {
+			logger.info("compacted journal and mapped snapshot <" + snapshotStore.getFile().getName() + ">.");
+		}
+	}
+	
+	/**
+	 * Write the complete in-memory state as a new snapshot.
+	 * @throws IOException if the snapshot can not be written
+	 */
+	private void writeSnapshot() 
+			throws IOException {
+		ProviderMetrics.Timer _timer = metrics.start(ProviderOperation.WRITE_SNAPSHOT);
+		try {
+			snapshotStore.write(new StoreSnapshot(abookIndex.values(), scan(contactIndex), scan(orgIndex)));
+			logger.fine("wrote snapshot in " + TimeUnit.NANOSECONDS.toMillis(_timer.getElapsedNanos()) + "ms.");
+		} catch (IOException | RuntimeException _ex) {
+			_timer.failed(_ex);
+			throw _ex;
+		} finally {
+			_timer.close();
+		}
+	}
+	
+	/**
+	 * @param index a contact or org index
+	 * @return all values of the index; values of a mapped snapshot are read without keeping them on the heap
+	 */
+	private static <V> Collection<V> scan(
+			Map<String, V> index) {
+		if (index instanceof LazyIndex) {
+			return ((LazyIndex<V>) index).scan();
+		}
+		return index.values();
+	}
+	
+	/**
+	 * Find the snapshot to load; a snapshot in the configured format is preferred over one in another format.
+	 * @param dataDir the data directory
+	 * @return the snapshot, or null if there is none
+	 */
+	private SnapshotStore findSnapshot(
+			File dataDir) {
+		if (snapshotStore.exists()) {
+			return snapshotStore;
+		}
+		for (SnapshotFormat _format : SnapshotFormat.values()) {
+			SnapshotStore _store = new SnapshotStore(dataDir, _format.createCodec(BinarySnapshotCodec.Compression.NONE));
+			if (_store.exists()) {
+				return _store;
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * Map the binary snapshot read-only and replace the contact, org and address indexes with lazy indexes on it.
+	 * Addressbooks are loaded eagerly. Mutations are kept on the heap and persisted in the journal only,
+	 * i.e. the journal is not compacted while the provider runs, but on the next startup (see remapSnapshot()).
+	 * @param config the provider configuration
+	 * @return false if the snapshot can not be mapped and must be loaded onto the heap
+	 */
+	private boolean mapSnapshot(
+			ProviderConfig config) {
+		if (config.getEnum(ProviderConfig.SNAPSHOT_FORMAT, SnapshotFormat.class, SnapshotFormat.JSON) != SnapshotFormat.BINARY
+				|| config.getEnum(ProviderConfig.PERSISTENCE_MODE, PersistenceMode.class, PersistenceMode.SNAPSHOT) != PersistenceMode.JOURNAL) {
+			logger.warning("snapshot.mapped requires snapshot.format=binary and persistence.mode=journal; loading the snapshot onto the heap.");
+			return false;
+		}
+		final MappedSnapshot _snapshot;
+		try {
+			_snapshot = MappedSnapshot.open(snapshotStore.getFile(), StoreSection.ADDRESSBOOKS, 
+				new SnapshotCodec.RecordSink() {
+					@Override
+					public void accept(StoreSection section, JsonObject record) {
+						loadRecord(section, record);
+					}
+				}, loadMetrics);
+		} catch (IOException _ex) {
+			logger.warning("snapshot <" + snapshotStore.getFile().getName() + "> can not be mapped (" + _ex.getMessage() + 
+					"); loading it onto the heap.");
+			return false;
+		}
+		addressIndex = new LazyIndex<AddressModel>(_snapshot.getOffsets(StoreSection.ADDRESSES), 
+			new LazyIndex.Materializer<AddressModel>() {
+				@Override
+				public AddressModel materialize(String id, int offset) {
+					return StoreRecords.toAddress(_snapshot.readRecord(offset));
+				}
+			});
+		contactIndex = new LazyIndex<ABcontact>(_snapshot.getOffsets(StoreSection.CONTACTS), 
+			new LazyIndex.Materializer<ABcontact>() {
+				@Override
+				public ABcontact materialize(String id, int offset) {
+					ABcontact _contact = StoreRecords.toContact(_snapshot.readRecord(offset));
+					for (String _adrid : _snapshot.getAddressIds(id)) {
+						AddressModel _address = addressIndex.get(_adrid);
+						if (_address != null) {
+							_contact.addAddress(_address);
+						}
+					}
+					return _contact;
+				}
+			});
+		orgIndex = new LazyIndex<ABorg>(_snapshot.getOffsets(StoreSection.ORGS), 
+			new LazyIndex.Materializer<ABorg>() {
+				@Override
+				public ABorg materialize(String id, int offset) {
+					ABorg _org = StoreRecords.toOrg(_snapshot.readRecord(offset));
+					for (String _adrid : _snapshot.getAddressIds(id)) {
+						AddressModel _address = addressIndex.get(_adrid);
+						if (_address != null) {
+							_org.addAddress(_address);
+						}
+					}
+					return _org;
+				}
+			});
+		mapped = true;
+		return true;
+	}
+	
+	/**
+	 * Stream a snapshot into the indexes.
+	 * @param source the snapshot to load
+	 * @param parallelism the number of threads building the indexes; 1 indexes on the reading thread
+	 * @throws IOException if the snapshot can not be read
+	 */
+	private void loadSnapshot(
+			SnapshotStore source,
+			int parallelism) 
+				throws IOException {
+		SnapshotCodec.RecordSink _sink = new SnapshotCodec.RecordSink() {
+			@Override
+			public void accept(StoreSection section, JsonObject record) {
+				loadRecord(section, record);
+			}
+		};
+		if (parallelism <= 1) {
+			source.load(_sink, loadMetrics);
+			return;
+		}
+		ParallelSnapshotLoader _loader = new ParallelSnapshotLoader(_sink, parallelism, loadMetrics);
+		try {
+			source.load(_loader, loadMetrics);
+			_loader.finish();
+		} finally {
+			_loader.close();
+		}
+	}
+	
+	/**
+	 * Add a snapshot record to the indexes. The sections arrive in dependency order,
+	 * i.e. the parents of an address are always indexed before the address itself.
+	 * This method is called concurrently by the indexing threads of ParallelSnapshotLoader.
+	 * @param section the section the record belongs to
+	 * @param record the record
+	 */
+	private void loadRecord(
+			StoreSection section,
+			JsonObject record) {
+		switch (section) {
+		case ADDRESSBOOKS:
+			ABaddressbook _addressbook = StoreRecords.toAddressbook(record);
+			abookIndex.put(_addressbook.getModel().getId(), _addressbook);
+			if (_addressbook.getModel().getName().equalsIgnoreCase(ALL_ADDRESSBOOK_NAME)) {
+				allAddressbook = _addressbook;
+			}
+			break;
+		case CONTACTS:
+			ABcontact _contact = StoreRecords.toContact(record);
+			contactIndex.put(_contact.getModel().getId(), _contact);
+			break;
+		case ORGS:
+			ABorg _org = StoreRecords.toOrg(record);
+			orgIndex.put(_org.getModel().getId(), _org);
+			break;
+		case ADDRESSES:
+			AddressModel _address = StoreRecords.toAddress(record);
+			String _pid = StoreRecords.getParentId(record);
+			if (StoreRecords.PARENT_ORG.equals(StoreRecords.getParentType(record))) {
+				ABorg _parentOrg = orgIndex.get(_pid);
+				if (_parentOrg == null) {
+					logger.warning("snapshot: ignoring address <" + _address.getId() + "> of unknown org <" + _pid + ">.");
+					return;
+				}
+				_parentOrg.addAddress(_address);
+			} else {
+				ABcontact _parentContact = contactIndex.get(_pid);
+				if (_parentContact == null) {
+					logger.warning("snapshot: ignoring address <" + _address.getId() + "> of unknown contact <" + _pid + ">.");
+					return;
+				}
+				_parentContact.addAddress(_address);
+			}
+			addressIndex.put(_address.getId(), _address);
+			break;
+		}
+		loadMetrics.recordLoaded(section);
+	}
+	
+	/**
+	 * Load the snapshot written by previous versions with exportJson().
+	 * This format only contains the addressbooks with the ids of their members.
+	 * @return the number of addressbooks imported
+	 */
+	private int importLegacyJson() {
+		List<ABaddressbook> _addressbooks = importJson();
+		for (ABaddressbook _addressbook : _addressbooks) {
+			addAbookToIndex(_addressbook);
+			if (_addressbook.getModel().getName().equalsIgnoreCase(ALL_ADDRESSBOOK_NAME)) {
+				allAddressbook = _addressbook;
+			}
+		}
+		if (_addressbooks.size() > 0) {
+			logger.info("imported " + _addressbooks.size() + " addressbooks from legacy snapshot.");
+		}
+		return _addressbooks.size();
+	}
+	
+	/**
+	 * Make a mutation durable that was applied without holding any locks.
+	 * Must be called after the mutation was applied to the indexes.
+	 * Its duration is measured separately from the operation, so that index time can be told from disk time.
+	 * @param record the mutation
+	 */
+	private void commit(
+			JournalRecord record) {
+		ProviderMetrics.Timer _timer = metrics.start(ProviderOperation.COMMIT);
+		try {
+			long _ticket = storeWriter.write(record);
+			publish(record);
+			storeWriter.awaitDurable(_ticket, record);
+		} catch (RuntimeException _ex) {
+			_timer.failed(_ex);
+			throw _ex;
+		} finally {
+			_timer.close();
+		}
+	}
+	
+	/**
+	 * The stripe locks of a mutation and the record it committed.
+	 * The record is handed over to the StoreWriter and published while the locks are held, so that
+	 * the store and the feed see the mutations of an entity in the order they were applied.
+	 * Closing the mutation releases the locks first and then waits until the record is durable, so that
+	 * other operations on the same stripes are not held up by the disk (e.g. a SYNC group commit window).
+	 * The commit duration spans from the hand-over to durability.
+	 */
+	private final class Mutation implements AutoCloseable {
+		private final LockStripes.Held locks;
+		private JournalRecord record = null;
+		private long ticket = 0;
+		private ProviderMetrics.Timer timer = null;
+		
+		Mutation(
+				LockStripes.Held locks) {
+			this.locks = locks;
+		}
+		
+		/**
+		 * Commit the mutation. Must be called after the mutation was applied to the indexes.
+		 * @param record the mutation
+		 */
+		void commit(
+				JournalRecord record) {
+			ProviderMetrics.Timer _timer = metrics.start(ProviderOperation.COMMIT);
+			try {
+				ticket = storeWriter.write(record);
+				publish(record);
+			} catch (RuntimeException _ex) {
+				_timer.failed(_ex);
+				_timer.close();
+				throw _ex;
+			}
+			this.record = record;
+			timer = _timer;
+		}
+		
+		/**
+		 * Release the locks and wait until the committed record is durable.
+		 */
+		@Override
+		public void close() {
+			locks.close();
+			if (record == null) {
+				return;
+			}
+			try {
+				storeWriter.awaitDurable(ticket, record);
+			} catch (RuntimeException _ex) {
+				timer.failed(_ex);
+				throw _ex;
+			} finally {
+				timer.close();
+			}
+		}
+	}
+	
+	/**
+	 * Publish a mutation to the change feed; the records of a batch are published one by one.
+	 * @param record the mutation
+	 */
+	private void publish(
+			JournalRecord record) {
+		if (record.getOp() == JournalRecord.Op.BATCH) {
+			for (JournalRecord _record : record.getRecords()) {
+				feed.publish(_record);
+			}
+		} else {
+			feed.publish(record);
+		}
+	}
+	
+	/**
+	 * Apply a journal record to the indexes during startup.
+	 * Records that are already contained in the snapshot are applied idempotently or skipped.
+	 * @param record the journal record to apply
+	 */
+	private void replayRecord(
+			JournalRecord record) {
+		String _aid = record.getAid();
+		String _id = record.getId();
+		try {
+			switch (record.getOp()) {
+			case ADDRESSBOOK_CREATE:
+				ABaddressbook _ab = abookIndex.get(_id);
+				if (_ab == null) {
+					_ab = new ABaddressbook(record.getAddressbook());
+					abookIndex.put(_id, _ab);
+				} else {
+					_ab.setModel(record.getAddressbook());
+				}
+				if (record.getAddressbook().getName().equalsIgnoreCase(ALL_ADDRESSBOOK_NAME)) {
+					allAddressbook = _ab;
+				}
+				break;
+			case ADDRESSBOOK_UPDATE:
+				readAddressbook(_id).setModel(record.getAddressbook());
+				break;
+			case ADDRESSBOOK_DELETE:
+				removeAddressbook(_id);
+				break;
+			case CONTACT_CREATE:
+				ABcontact _contact = contactIndex.get(_id);
+				if (_contact == null) {
+					insertContact(_aid, record.getContact());
+				} else if (readAddressbook(_aid).containsContact(_id) == false) {
+					_contact.addMembership(_aid);
+					readAddressbook(_aid).addContact(_id);
+					changes.put(ChangeIndex.Kind.CONTACT, _id, null, _contact.getModel().getModifiedAt());
+				}
+				break;
+			case CONTACT_UPDATE:
+				ABcontact _updatedContact = readABcontact(_id);
+				contactOrder.replace(_updatedContact.getModel(), record.getContact());
+				contactSearch.replace(_updatedContact.getModel(), record.getContact());
+				_updatedContact.setModel(record.getContact());
+				changes.put(ChangeIndex.Kind.CONTACT, _id, null, record.getContact().getModifiedAt());
+				break;
+			case CONTACT_DELETE:
+				removeContact(_aid, _id);
+				break;
+			case ORG_CREATE:
+				ABorg _org = orgIndex.get(_id);
+				if (_org == null) {
+					insertOrg(_aid, record.getOrg());
+				} else if (readAddressbook(_aid).containsOrg(_id) == false) {
+					_org.addMembership(_aid);
+					readAddressbook(_aid).addOrg(_id);
+					changes.put(ChangeIndex.Kind.ORG, _id, null, _org.getModel().getModifiedAt());
+				}
+				break;
+			case ORG_UPDATE:
+				ABorg _updatedOrg = readABorg(_id);
+				orgOrder.replace(_updatedOrg.getModel(), record.getOrg());
+				orgSearch.replace(_updatedOrg.getModel(), record.getOrg());
+				_updatedOrg.setModel(record.getOrg());
+				changes.put(ChangeIndex.Kind.ORG, _id, null, record.getOrg().getModifiedAt());
+				break;
+			case ORG_DELETE:
+				removeOrg(_aid, _id);
+				break;
+			case CONTACT_ADDRESS_CREATE:
+			case CONTACT_ADDRESS_UPDATE:
+				ABcontact _parentContact = readABcontact(record.getPid());
+				if (addressIndex.put(_id, record.getAddress()) == null) {
+					_parentContact.addAddress(record.getAddress());
+				} else {
+					_parentContact.replaceAddress(record.getAddress());
+				}
+				break;
+			case CONTACT_ADDRESS_DELETE:
+				readABcontact(record.getPid()).removeAddress(getAddress(_id));
+				addressIndex.remove(_id);
+				break;
+			case ORG_ADDRESS_CREATE:
+			case ORG_ADDRESS_UPDATE:
+				ABorg _parentOrg = readABorg(record.getPid());
+				if (addressIndex.put(_id, record.getAddress()) == null) {
+					_parentOrg.addAddress(record.getAddress());
+				} else {
+					_parentOrg.replaceAddress(record.getAddress());
+				}
+				break;
+			case ORG_ADDRESS_DELETE:
+				readABorg(record.getPid()).removeAddress(getAddress(_id));
+				addressIndex.remove(_id);
+				break;
+			case BATCH:
+				for (JournalRecord _record : record.getRecords()) {
+					replayRecord(_record);
+				}
+				break;
+			}
+		} catch (RuntimeException _ex) {
+			logger.warning("journal replay: skipping record <" + record.getOp() + ", " + _id + ">: " + _ex.getMessage());
+		}
+	}
 	
 	/******************************** utility methods *****************************************/
+	/**
+	 * @param query the addressbook query
+	 * @return the filter evaluating the query, or null if the query matches all addressbooks
+	 */
+	private static Paging.Filter<AddressbookModel> addressbookFilter(
+			String query) {
+		if (query == null || query.isEmpty()) {
+			return null;
+		}
+		final AddressbookQueryHandler _queryHandler = new AddressbookQueryHandler(query);
+		return new Paging.Filter<AddressbookModel>() {
+			@Override
+			public boolean evaluate(AddressbookModel model) {
+				return _queryHandler.evaluate(model);
+			}
+		};
+	}
+	
+	/**
+	 * @param query the contact query
+	 * @return the filter evaluating the query, or null if the query matches all contacts
+	 */
+	private static Paging.Filter<ContactModel> contactFilter(
+			String query) {
+		if (query == null || query.isEmpty()) {
+			return null;
+		}
+		final ContactQueryHandler _queryHandler = new ContactQueryHandler(query);
+		return new Paging.Filter<ContactModel>() {
+			@Override
+			public boolean evaluate(ContactModel model) {
+				return _queryHandler.evaluate(model);
+			}
+		};
+	}
+	
+	/**
+	 * @param query the org query
+	 * @return the filter evaluating the query, or null if the query matches all orgs
+	 */
+	private static Paging.Filter<OrgModel> orgFilter(
+			String query) {
+		if (query == null || query.isEmpty()) {
+			return null;
+		}
+		final OrgQueryHandler _queryHandler = new OrgQueryHandler(query);
+		return new Paging.Filter<OrgModel>() {
+			@Override
+			public boolean evaluate(OrgModel model) {
+				return _queryHandler.evaluate(model);
+			}
+		};
+	}
+	
+	/**
+	 * @param ab an addressbook
+	 * @param filter a contact query, or null
+	 * @return a filter that matches the contacts of the addressbook that match the query;
+	 *  null if all contacts match, i.e. the query is null and ab is the 'all' addressbook
+	 */
+	private static Paging.Filter<ContactModel> contactMembers(
+			final ABaddressbook ab,
+			final Paging.Filter<ContactModel> filter) {
+		if (ab == allAddressbook) {
+			return filter;
+		}
+		return new Paging.Filter<ContactModel>() {
+			@Override
+			public boolean evaluate(ContactModel model) {
+				return ab.containsContact(model.getId()) && (filter == null || filter.evaluate(model));
+			}
+		};
+	}
+	
+	/**
+	 * @param ab an addressbook
+	 * @param filter an org query, or null
+	 * @return a filter that matches the orgs of the addressbook that match the query;
+	 *  null if all orgs match, i.e. the query is null and ab is the 'all' addressbook
+	 */
+	private static Paging.Filter<OrgModel> orgMembers(
+			final ABaddressbook ab,
+			final Paging.Filter<OrgModel> filter) {
+		if (ab == allAddressbook) {
+			return filter;
+		}
+		return new Paging.Filter<OrgModel>() {
+			@Override
+			public boolean evaluate(OrgModel model) {
+				return ab.containsOrg(model.getId()) && (filter == null || filter.evaluate(model));
+			}
+		};
+	}
+	
+	/**
+	 * Create the indexes from email, phone and other address values to the contacts and orgs that have them.
+	 */
+	private static void createAddressValueIndexes() {
+		contactAddressValues = new AddressValueIndex<ABcontact>(
+			new AddressValueIndex.Owner<ABcontact>() {
+				@Override
+				public String getId(ABcontact owner) {
+					return owner.getModel().getId();
+				}
+
+				@Override
+				public List<AddressModel> getAddresses(ABcontact owner) {
+					return owner.getAddresses();
+				}
+			},
+			new AddressValueIndex.Source<ABcontact>() {
+				@Override
+				public Collection<ABcontact> values() {
+					return contactIndex.values();
+				}
+			});
+		orgAddressValues = new AddressValueIndex<ABorg>(
+			new AddressValueIndex.Owner<ABorg>() {
+				@Override
+				public String getId(ABorg owner) {
+					return owner.getModel().getId();
+				}
+
+				@Override
+				public List<AddressModel> getAddresses(ABorg owner) {
+					return owner.getAddresses();
+				}
+			},
+			new AddressValueIndex.Source<ABorg>() {
+				@Override
+				public Collection<ABorg> values() {
+					return orgIndex.values();
+				}
+			});
+	}
+	
+	private static void createSearchIndexes() {
+		contactSearch = new PrefixIndex<ContactModel>(contactOrder.getOrder(),
+			new PrefixIndex.Document<ContactModel>() {
+				@Override
+				public String getId(ContactModel model) {
+					return model.getId();
+				}
+
+				@Override
+				public String[] getTexts(ContactModel model) {
+					return new String[] { model.getFn(), model.getFirstName(), model.getLastName(), model.getNickName(),
+						model.getCompany(), model.getJobTitle() };
+				}
+			},
+			new PrefixIndex.Source<ContactModel>() {
+				@Override
+				public Collection<ContactModel> values() {
+					List<ContactModel> _models = new ArrayList<ContactModel>(contactIndex.size());
+					for (ABcontact _contact : contactIndex.values()) {
+						_models.add(_contact.getModel());
+					}
+					return _models;
+				}
+			});
+		orgSearch = new PrefixIndex<OrgModel>(orgOrder.getOrder(),
+			new PrefixIndex.Document<OrgModel>() {
+				@Override
+				public String getId(OrgModel model) {
+					return model.getId();
+				}
+
+				@Override
+				public String[] getTexts(OrgModel model) {
+					return new String[] { model.getName(), model.getDescription() };
+				}
+			},
+			new PrefixIndex.Source<OrgModel>() {
+				@Override
+				public Collection<OrgModel> values() {
+					List<OrgModel> _models = new ArrayList<OrgModel>(orgIndex.size());
+					for (ABorg _org : orgIndex.values()) {
+						_models.add(_org.getModel());
+					}
+					return _models;
+				}
+			});
+	}
+	
+	private static void createChangeIndex(
+			int maxTombstones) {
+		changes = new ChangeIndex(
+			new ChangeIndex.Source() {
+				@Override
+				public Collection<ChangeIndex.Change> values() {
+					List<ChangeIndex.Change> _changes = new ArrayList<ChangeIndex.Change>();
+					for (ABcontact _contact : contactIndex.values()) {
+						ContactModel _model = _contact.getModel();
+						_changes.add(new ChangeIndex.Change(0, ChangeIndex.Kind.CONTACT, _model.getId(), null, null, 
+								false, _model.getModifiedAt()));
+						addAddressChanges(_changes, _model.getId(), _contact.getAddresses());
+					}
+					for (ABorg _org : orgIndex.values()) {
+						OrgModel _model = _org.getModel();
+						_changes.add(new ChangeIndex.Change(0, ChangeIndex.Kind.ORG, _model.getId(), null, null, 
+								false, _model.getModifiedAt()));
+						addAddressChanges(_changes, _model.getId(), _org.getAddresses());
+					}
+					return _changes;
+				}
+			}, maxTombstones);
+	}
+	
+	private static void addAddressChanges(
+			List<ChangeIndex.Change> changes,
+			String ownerId,
+			List<AddressModel> addresses) {
+		for (AddressModel _address : addresses) {
+			changes.add(new ChangeIndex.Change(0, ChangeIndex.Kind.ADDRESS, _address.getId(), ownerId, null, 
+					false, _address.getModifiedAt()));
+		}
+	}
+	
+	private static void createQueryPlanners() {
+		contactPlanner = new QueryPlanner<ContactModel>(
+			new QueryPlanner.Catalog<ContactModel>() {
+				@Override
+				public String getId(ContactModel model) {
+					return model.getId();
+				}
+
+				@Override
+				public ContactModel get(String id) {
+					ABcontact _contact = contactIndex.get(id);
+					return _contact == null ? null : _contact.getModel();
+				}
+
+				@Override
+				public Set<String> findByAddress(AddressType addressType, String value) {
+					return contactAddressValues.lookup(addressType, value);
+				}
+
+				@Override
+				public Set<String> findModifiedSince(Date since) {
+					return changes.modifiedSince(ChangeIndex.Kind.CONTACT, since);
+				}
+
+				@Override
+				public Paging.Filter<ContactModel> parse(String query) {
+					return contactFilter(query);
+				}
+			}, contactOrder, contactSearch);
+		orgPlanner = new QueryPlanner<OrgModel>(
+			new QueryPlanner.Catalog<OrgModel>() {
+				@Override
+				public String getId(OrgModel model) {
+					return model.getId();
+				}
+
+				@Override
+				public OrgModel get(String id) {
+					ABorg _org = orgIndex.get(id);
+					return _org == null ? null : _org.getModel();
+				}
+
+				@Override
+				public Set<String> findByAddress(AddressType addressType, String value) {
+					return orgAddressValues.lookup(addressType, value);
+				}
+
+				@Override
+				public Set<String> findModifiedSince(Date since) {
+					return changes.modifiedSince(ChangeIndex.Kind.ORG, since);
+				}
+
+				@Override
+				public Paging.Filter<OrgModel> parse(String query) {
+					return orgFilter(query);
+				}
+			}, orgOrder, orgSearch);
+	}
+	
+	/**
+	 * Create the sorted views used by listAllContacts and listAllOrgs.
+	 * They are built from the indexes on first use, i.e. a mapped snapshot is only materialized when it is listed.
+	 */
+	private static void createSortedIndexes() {
+		contactOrder = new SortedIndex<ContactModel>(ContactModel.ContactComparator, 
+			new SortedIndex.Identity<ContactModel>() {
+				@Override
+				public String getId(ContactModel model) {
+					return model.getId();
+				}
+			}, 
+			new SortedIndex.Source<ContactModel>() {
+				@Override
+				public Collection<ContactModel> values() {
+					List<ContactModel> _models = new ArrayList<ContactModel>(contactIndex.size());
+					for (ABcontact _contact : contactIndex.values()) {
+						_models.add(_contact.getModel());
+					}
+					return _models;
+				}
+			});
+		orgOrder = new SortedIndex<OrgModel>(OrgModel.OrgComparator, 
+			new SortedIndex.Identity<OrgModel>() {
+				@Override
+				public String getId(OrgModel model) {
+					return model.getId();
+				}
+			}, 
+			new SortedIndex.Source<OrgModel>() {
+				@Override
+				public Collection<OrgModel> values() {
+					List<OrgModel> _models = new ArrayList<OrgModel>(orgIndex.size());
+					for (ABorg _org : orgIndex.values()) {
+						_models.add(_org.getModel());
+					}
+					return _models;
+				}
+			});
+	}
+	
+	/**
+	 * Add an addressbook of a legacy snapshot to the index.
+	 * Legacy snapshots never contained the contacts and orgs themselves, so their ids are dropped.
+	 * @param abook the addressbook to add
+	 */
 	private void addAbookToIndex(
 			ABaddressbook abook) {
 		abookIndex.put(abook.getModel().getId(), abook);
-		for (String _cid : abook.getContacts()) {
-			addContactToIndex(readABcontact(_cid));
+		int _dropped = 0;
+		for (String _cid : new ArrayList<String>(abook.getContacts())) {
+			if (contactIndex.get(_cid) == null) {
+				abook.removeContact(_cid);
+				_dropped++;
+			}
+		}
+		for (String _oid : new ArrayList<String>(abook.getOrgs())) {
+			if (orgIndex.get(_oid) == null) {
+				abook.removeOrg(_oid);
+				_dropped++;
+			}
 		}
-		for (String _oid : abook.getOrgs()) {
-			addOrgToIndex(readABorg(_oid));
+		if (_dropped > 0) {
+			logger.warning("addressbook <" + abook.getModel().getId() + ">: dropped " + _dropped + 
+					" members that are not contained in the legacy snapshot.");
 		}
 	}
 	
@@ -1107,8 +3264,12 @@ public class FileServiceProvider extends AbstractFileServiceProvider<ABaddressbo
 		if (abContact != null) {
 			for (AddressModel _address : abContact.getAddresses()) {
 				addressIndex.put(_address.getId(), _address);
+				contactAddressValues.add(abContact.getModel().getId(), _address);
 			}
 			contactIndex.put(abContact.getModel().getId(), abContact);
+			contactOrder.add(abContact.getModel());
+			contactSearch.add(abContact.getModel());
+			changes.put(ChangeIndex.Kind.CONTACT, abContact.getModel().getId(), null, abContact.getModel().getModifiedAt());
 		}
 	}
 	
@@ -1117,27 +3278,57 @@ public class FileServiceProvider extends AbstractFileServiceProvider<ABaddressbo
 		if (abOrg != null) {
 			for (AddressModel _address : abOrg.getAddresses()) {
 				addressIndex.put(_address.getId(), _address);
+				orgAddressValues.add(abOrg.getModel().getId(), _address);
 			}
 			orgIndex.put(abOrg.getModel().getId(), abOrg);
+			orgOrder.add(abOrg.getModel());
+			orgSearch.add(abOrg.getModel());
+			changes.put(ChangeIndex.Kind.ORG, abOrg.getModel().getId(), null, abOrg.getModel().getModifiedAt());
 		}
 	}
 	
+	private void addContactAddress(
+			ABcontact abContact,
+			AddressModel address) {
+		String _cid = abContact.getModel().getId();
+		addressIndex.put(address.getId(), address);
+		abContact.addAddress(address);
+		contactAddressValues.add(_cid, address);
+		changes.put(ChangeIndex.Kind.ADDRESS, address.getId(), _cid, address.getModifiedAt());
+	}
+	
+	private void addOrgAddress(
+			ABorg abOrg,
+			AddressModel address) {
+		String _oid = abOrg.getModel().getId();
+		addressIndex.put(address.getId(), address);
+		abOrg.addAddress(address);
+		orgAddressValues.add(_oid, address);
+		changes.put(ChangeIndex.Kind.ADDRESS, address.getId(), _oid, address.getModifiedAt());
+	}
+	
 	private void removeContactFromIndex(
 		String cid) 
 	{
 		if (cid != null) {
 			ABcontact _abContact = readABcontact(cid);
+			List<String> _addressIds = new ArrayList<String>();
 			for (AddressModel _address : _abContact.getAddresses()) {
 				if (addressIndex.remove(_address.getId()) == null) {
 					throw new InternalServerErrorException("address <" + _address.getId()
 							+ "> can not be removed, because it does not exist in the index");	
 				}
+				contactAddressValues.remove(_address);
+				_addressIds.add(_address.getId());
 			}
 			if ((contactIndex.remove(cid)) == null) {
 				throw new InternalServerErrorException("contact <" + cid
 					+ "> can not be removed, because it does not exist in the index");
 			}
-			logger.info("removed contact <" + cid + "> from index.");
+			contactOrder.remove(_abContact.getModel());
+			contactSearch.remove(_abContact.getModel());
+			changes.deleteOwner(ChangeIndex.Kind.CONTACT, cid, _addressIds);
+			log.info("removeContactFromIndex: removed contact <{}> from index.", cid);
 		}
 	}
 	
@@ -1146,17 +3337,23 @@ public class FileServiceProvider extends AbstractFileServiceProvider<ABaddressbo
 	{
 		if (oid != null) {
 			ABorg _abOrg = readABorg(oid);
+			List<String> _addressIds = new ArrayList<String>();
 			for (AddressModel _address : _abOrg.getAddresses()) {
 				if (addressIndex.remove(_address.getId()) == null) {
 					throw new InternalServerErrorException("address <" + _address.getId()
 							+ "> can not be removed, because it does not exist in the index");
 				}
+				orgAddressValues.remove(_address);
+				_addressIds.add(_address.getId());
 			}
 			if ((orgIndex.remove(oid)) == null) {
 				throw new InternalServerErrorException("org <" + oid
 						+ "> can not be removed, because it does not exist in the index");
-			}				
-			logger.info("removed org <" + oid + "> from index.");
+			}
+			orgOrder.remove(_abOrg.getModel());
+			orgSearch.remove(_abOrg.getModel());
+			changes.deleteOwner(ChangeIndex.Kind.ORG, oid, _addressIds);
+			log.info("removeOrgFromIndex: removed org <{}> from index.", oid);
 		}
 	}
 	
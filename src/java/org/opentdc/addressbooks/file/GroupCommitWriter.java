@@ -0,0 +1,230 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Arbalo AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.opentdc.addressbooks.file;
+
+import java.io.IOException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.opentdc.service.exception.InternalServerErrorException;
+
+/**
+ * Coalescing snapshot writer.
+ * Mutations only mark the store dirty; a single background thread collects all mutations
+ * made within the commit window and writes them with one snapshot (group commit).
+ * With durability ASYNC the caller returns immediately and at most one window of changes can be lost,
+ * with durability SYNC the caller waits until the snapshot containing its mutation was written.
+ * This wait happens in awaitDurable(), after the caller released its locks; a caller therefore waits
+ * up to one window plus one snapshot, but never blocks other operations while doing so.
+ * @author Bruno Kaiser
+ *
+ */
+class GroupCommitWriter implements StoreWriter, Runnable {
+	private static final Logger logger = Logger.getLogger(GroupCommitWriter.class.getName());
+
+	public enum Durability {
+		/**
+		 * fire-and-forget: return as soon as the mutation was applied in memory
+		 */
+		ASYNC,
+		/**
+		 * wait until the next group flush contains the mutation
+		 */
+		SYNC
+	}
+
+	private final Snapshotter snapshotter;
+	private final long window;
+	private final Durability durability;
+	private final Thread writer;
+	private final Thread shutdownHook;
+	private long requested = 0;			// generation of the latest mutation
+	private long flushed = 0;			// latest generation contained in a snapshot
+	private long failed = 0;			// latest generation whose snapshot failed
+	private long snapshots = 0;
+	private boolean closed = false;
+
+	/**
+	 * Constructor; starts the background writer.
+	 * @param snapshotter writes the snapshot
+	 * @param window the commit window in milliseconds
+	 * @param durability whether callers wait for the flush of their mutation
+	 */
+	GroupCommitWriter(
+			Snapshotter snapshotter,
+			long window,
+			Durability durability) {
+		this.snapshotter = snapshotter;
+		this.window = window;
+		this.durability = durability;
+		writer = new Thread(this, "addressbooks-group-commit");
+		writer.setDaemon(true);
+		writer.start();
+		shutdownHook = new Thread("addressbooks-group-commit-shutdown") {
+			@Override
+			public void run() {
+				GroupCommitWriter.this.close();
+			}
+		};
+		Runtime.getRuntime().addShutdownHook(shutdownHook);
+	}
+
+	/* (non-Javadoc)
+	 * @see org.opentdc.addressbooks.file.StoreWriter#write(org.opentdc.addressbooks.file.JournalRecord)
+	 */
+	@Override
+	public synchronized long write(
+			JournalRecord record) {
+		if (closed) {
+			throw new InternalServerErrorException("store is closed; <" + record.getOp() + ", " + 
+					record.getId() + "> can not be persisted.");
+		}
+		notifyAll();
+		return ++requested;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.opentdc.addressbooks.file.StoreWriter#awaitDurable(long, org.opentdc.addressbooks.file.JournalRecord)
+	 */
+	@Override
+	public void awaitDurable(
+			long ticket,
+			JournalRecord record) {
+		if (durability == Durability.SYNC) {
+			awaitFlush(ticket, record);
+		}
+	}
+
+	private synchronized void awaitFlush(
+			long generation,
+			JournalRecord record) {
+		while (flushed < generation) {
+			if (failed >= generation) {
+				throw new InternalServerErrorException("snapshot containing <" + record.getOp() + ", " + 
+						record.getId() + "> could not be written.");
+			}
+			if (closed && !writer.isAlive()) {
+				throw new InternalServerErrorException("store was closed before <" + record.getOp() + ", " + 
+						record.getId() + "> was persisted.");
+			}
+			try {
+				wait();
+			} catch (InterruptedException _ex) {
+				Thread.currentThread().interrupt();
+				throw new InternalServerErrorException("interrupted while waiting for <" + record.getOp() + ", " + 
+						record.getId() + "> to be persisted.");
+			}
+		}
+	}
+
+	/**
+	 * The background writer loop.
+	 */
+	@Override
+	public void run() {
+		while (true) {
+			synchronized (this) {
+				while (requested == flushed && !closed) {
+					try {
+						wait();
+					} catch (InterruptedException _ex) {
+						// re-check the state; close() interrupts a sleeping writer
+					}
+				}
+				if (requested == flushed) {		// closed and nothing left to write
+					return;
+				}
+			}
+			pause();		// collect all mutations within the commit window
+			long _generation = 0;
+			synchronized (this) {
+				_generation = requested;
+			}
+			try {
+				snapshotter.writeSnapshot();
+				synchronized (this) {
+					flushed = _generation;
+					snapshots++;
+					notifyAll();
+				}
+			} catch (IOException | RuntimeException _ex) {
+				logger.log(Level.SEVERE, "group commit of generation <" + _generation + "> failed.", _ex);
+				synchronized (this) {
+					failed = _generation;
+					notifyAll();
+					if (closed) {
+						return;
+					}
+				}
+				pause();		// back off before retrying
+			}
+		}
+	}
+
+	private void pause() {
+		synchronized (this) {
+			if (closed) {
+				return;
+			}
+		}
+		try {
+			Thread.sleep(window);
+		} catch (InterruptedException _ex) {
+			// closing; flush immediately
+		}
+	}
+
+	/**
+	 * @return the number of snapshots written so far
+	 */
+	synchronized long getSnapshotCount() {
+		return snapshots;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.opentdc.addressbooks.file.StoreWriter#close()
+	 */
+	@Override
+	public void close() {
+		synchronized (this) {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			notifyAll();
+		}
+		try {		// a closed writer must not be kept alive by its hook, e.g. after a redeployment
+			Runtime.getRuntime().removeShutdownHook(shutdownHook);
+		} catch (IllegalStateException _ex) {
+			// the JVM is shutting down, possibly in this very hook
+		}
+		writer.interrupt();
+		try {
+			writer.join(60000);
+		} catch (InterruptedException _ex) {
+			Thread.currentThread().interrupt();
+		}
+		logger.info("group commit writer closed after " + getSnapshotCount() + " snapshots.");
+	}
+}
@@ -0,0 +1,73 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Arbalo AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.opentdc.addressbooks.file;
+
+/**
+ * A contact or org of an imported file that was not imported.
+ * @author Bruno Kaiser
+ *
+ */
+public class ImportError {
+	private final int line;
+	private final String id;
+	private final String message;
+
+	ImportError(
+			int line,
+			String id,
+			String message) {
+		this.line = line;
+		this.id = id;
+		this.message = message;
+	}
+
+	/**
+	 * @return the line of the file the contact or org starts at
+	 */
+	public int getLine() {
+		return line;
+	}
+
+	/**
+	 * @return the id of the contact or org if it has one, or null
+	 */
+	public String getId() {
+		return id;
+	}
+
+	/**
+	 * @return the reason why the contact or org can not be parsed or was rejected
+	 */
+	public String getMessage() {
+		return message;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "line " + line + ": " + message;
+	}
+}
@@ -0,0 +1,148 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Arbalo AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.opentdc.addressbooks.file;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The progress and result of an import of FileServiceProvider.importAddressbook().
+ * It is updated by the thread running the import, and can be read from other threads while the import runs.
+ * @author Bruno Kaiser
+ *
+ */
+public class ImportReport {
+	private final long startTime = System.currentTimeMillis();
+	private final int maxErrors;
+	private final List<ImportError> errors = new ArrayList<ImportError>();
+	private volatile long read = 0;
+	private volatile long created = 0;
+	private volatile long added = 0;
+	private volatile long failed = 0;
+	private volatile long endTime = 0;
+
+	/**
+	 * Constructor.
+	 * @param maxErrors the number of errors to keep
+	 */
+	ImportReport(
+			int maxErrors) {
+		this.maxErrors = maxErrors;
+	}
+
+	/**
+	 * @return the number of contacts and orgs read from the file
+	 */
+	public long getRead() {
+		return read;
+	}
+
+	/**
+	 * @return the number of contacts and orgs created
+	 */
+	public long getCreated() {
+		return created;
+	}
+
+	/**
+	 * @return the number of existing contacts and orgs that were added to the addressbook
+	 */
+	public long getAdded() {
+		return added;
+	}
+
+	/**
+	 * @return the number of contacts and orgs that were not imported
+	 */
+	public long getFailed() {
+		return failed;
+	}
+
+	/**
+	 * @return the first errors, up to import.maxErrors
+	 */
+	public List<ImportError> getErrors() {
+		synchronized (errors) {
+			return Collections.unmodifiableList(new ArrayList<ImportError>(errors));
+		}
+	}
+
+	/**
+	 * @return true if the whole file was imported
+	 */
+	public boolean isFinished() {
+		return endTime != 0;
+	}
+
+	/**
+	 * @return the milliseconds since the import started, until it finished
+	 */
+	public long getElapsedMillis() {
+		return (endTime == 0 ? System.currentTimeMillis() : endTime) - startTime;
+	}
+
+	/**
+	 * @return the number of contacts and orgs read per second
+	 */
+	public long getThroughput() {
+		return read * 1000 / Math.max(1, getElapsedMillis());
+	}
+
+	void addRead(
+			int count) {
+		read += count;
+	}
+
+	void addCreated() {
+		created++;
+	}
+
+	void addAdded() {
+		added++;
+	}
+
+	void addError(
+			ImportError error) {
+		failed++;
+		synchronized (errors) {
+			if (errors.size() < maxErrors) {
+				errors.add(error);
+			}
+		}
+	}
+
+	void finish() {
+		endTime = System.currentTimeMillis();
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return read + " read, " + created + " created, " + added + " added, " + failed + " failed in " + 
+				getElapsedMillis() + "ms (" + getThroughput() + "/s)";
+	}
+}
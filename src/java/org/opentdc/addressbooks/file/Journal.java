@@ -0,0 +1,363 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Arbalo AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.opentdc.addressbooks.file;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.opentdc.service.exception.InternalServerErrorException;
+
+import com.google.gson.JsonParseException;
+
+/**
+ * Append-only write-ahead journal of the addressbook store.
+ * Each mutation is appended as one JSON line to the current journal segment.
+ * A background compactor periodically starts a new segment, writes a fresh snapshot
+ * and removes all segments that are contained in this snapshot.
+ * On startup, the snapshot is loaded first and the remaining segments are replayed in order.
+ * @author Bruno Kaiser
+ *
+ */
+class Journal implements StoreWriter {
+	private static final Logger logger = Logger.getLogger(Journal.class.getName());
+	private static final String SEGMENT_PREFIX = "journal-";
+	private static final String SEGMENT_SUFFIX = ".log";
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/**
+	 * Applies a journal record to the in-memory indexes during startup.
+	 */
+	interface Replayer {
+		void replay(JournalRecord record);
+	}
+
+	private final File dir;
+	private final Snapshotter snapshotter;
+	private final boolean sync;
+	private final long compactInterval;
+	private final int compactThreshold;
+	private final Object compactLock = new Object();
+	private final Object forceLock = new Object();
+	private final ScheduledExecutorService compactor;
+	private FileChannel channel = null;
+	private long generation = 0;
+	private int recordsSinceCompaction = 0;
+	private boolean compactionPending = false;
+	private long appended = 0;			// number of records appended so far
+	private long forced = 0;			// number of records forced to disk; guarded by forceLock
+
+	/**
+	 * Constructor.
+	 * @param dir the directory containing the journal segments
+	 * @param snapshotter writes the snapshot during compaction
+	 * @param sync if true, each record is forced to disk before awaitDurable() returns
+	 * @param compactInterval the delay between two compactions in milliseconds; 0 disables periodic compaction
+	 * @param compactThreshold the number of records that triggers an early compaction; 0 disables it
+	 */
+	Journal(
+			File dir,
+			Snapshotter snapshotter,
+			boolean sync,
+			long compactInterval,
+			int compactThreshold) {
+		this.dir = dir;
+		this.snapshotter = snapshotter;
+		this.sync = sync;
+		this.compactInterval = compactInterval;
+		this.compactThreshold = compactThreshold;
+		this.compactor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread _t = new Thread(runnable, "addressbooks-journal-compactor");
+				_t.setDaemon(true);
+				return _t;
+			}
+		});
+	}
+
+	/**
+	 * Replay all journal segments in the order they were written.
+	 * A torn record at the end of a segment (e.g. after a crash) ends the replay of this segment.
+	 * @param replayer applies the records to the indexes
+	 * @return the number of records replayed
+	 * @throws IOException if a segment can not be read
+	 */
+	int replay(
+			Replayer replayer) throws IOException {
+		int _count = 0;
+		for (File _segment : listSegments()) {
+			try (BufferedReader _reader = new BufferedReader(
+					new InputStreamReader(new FileInputStream(_segment), UTF8))) {
+				String _line = null;
+				int _lineNr = 0;
+				while ((_line = _reader.readLine()) != null) {
+					_lineNr++;
+					if (_line.trim().length() == 0) {
+						continue;
+					}
+					JournalRecord _record = null;
+					try {
+						_record = StoreJson.GSON.fromJson(_line, JournalRecord.class);
+					} catch (JsonParseException _ex) {
+						_record = null;
+					}
+					if (_record == null || _record.getOp() == null) {
+						logger.warning("journal segment <" + _segment.getName() + ">: ignoring torn record at line " +
+								_lineNr + " and all following records.");
+						break;
+					}
+					replayer.replay(_record);
+					_count++;
+				}
+			}
+			generation = Math.max(generation, getGeneration(_segment));
+		}
+		recordsSinceCompaction = _count;
+		compactionPending = _count > 0;
+		return _count;
+	}
+
+	/**
+	 * Start a new journal segment and schedule the compactor. Must be called after replay().
+	 * @throws IOException if the segment can not be created
+	 */
+	synchronized void open() throws IOException {
+		generation++;
+		channel = openSegment(generation);
+		if (compactInterval > 0) {
+			compactor.scheduleWithFixedDelay(new Runnable() {
+				@Override
+				public void run() {
+					compact();
+				}
+			}, compactInterval, compactInterval, TimeUnit.MILLISECONDS);
+		}
+		logger.info("journal opened with segment <" + getSegmentFile(generation).getName() + ">.");
+	}
+
+	/* (non-Javadoc)
+	 * @see org.opentdc.addressbooks.file.StoreWriter#write(org.opentdc.addressbooks.file.JournalRecord)
+	 */
+	@Override
+	public long write(
+			JournalRecord record) {
+		ByteBuffer _line = ByteBuffer.wrap((StoreJson.GSON.toJson(record) + "\n").getBytes(UTF8));
+		int _records = 0;
+		long _ticket = 0;
+		synchronized (this) {
+			try {
+				while (_line.hasRemaining()) {
+					channel.write(_line);
+				}
+			} catch (IOException _ex) {
+				throw new InternalServerErrorException("journal record <" + record.getOp() + ", " + record.getId() +
+						"> can not be written: " + _ex.getMessage());
+			}
+			_records = ++recordsSinceCompaction;
+			_ticket = ++appended;
+		}
+		if (compactThreshold > 0 && _records == compactThreshold) {
+			compactor.execute(new Runnable() {
+				@Override
+				public void run() {
+					compact();
+				}
+			});
+		}
+		return _ticket;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.opentdc.addressbooks.file.StoreWriter#awaitDurable(long, org.opentdc.addressbooks.file.JournalRecord)
+	 */
+	@Override
+	public void awaitDurable(
+			long ticket,
+			JournalRecord record) {
+		if (!sync) {
+			return;
+		}
+		synchronized (forceLock) {		// one force covers all records appended before it
+			if (forced >= ticket) {
+				return;
+			}
+			long _appended = 0;
+			FileChannel _channel = null;
+			synchronized (this) {		// appenders continue while the segment is forced
+				_appended = appended;
+				_channel = channel;
+			}
+			try {
+				if (_channel == null) {
+					throw new IOException("journal is closed");
+				}
+				try {
+					_channel.force(false);
+				} catch (ClosedChannelException _ex) {
+					synchronized (this) {
+						if (channel == null) {
+							throw _ex;
+						}
+					}
+					// sealed by compact(), which forced it before closing
+				}
+			} catch (IOException _ex) {
+				throw new InternalServerErrorException("journal record <" + record.getOp() + ", " + record.getId() +
+						"> can not be forced to disk: " + _ex.getMessage());
+			}
+			forced = _appended;
+		}
+	}
+
+	/**
+	 * Fold the journal into a fresh snapshot.
+	 * The current segment is sealed first, so that writers can continue on a new segment while the snapshot is written.
+	 * Records in the new segment that are already contained in the snapshot are replayed idempotently.
+	 * @return true if a snapshot was written and the sealed segments were removed
+	 */
+	boolean compact() {
+		synchronized (compactLock) {
+			long _sealed = 0;
+			synchronized (this) {
+				if (recordsSinceCompaction == 0 && !compactionPending) {
+					return false;
+				}
+				try {
+					if (sync) {		// awaitDurable() only forces the current segment
+						channel.force(false);
+					}
+					channel.close();
+					generation++;
+					channel = openSegment(generation);
+				} catch (IOException _ex) {
+					logger.severe("journal segment <" + generation + "> can not be opened: " + _ex.getMessage());
+					return false;
+				}
+				_sealed = generation - 1;
+				recordsSinceCompaction = 0;
+				compactionPending = true;
+			}
+			try {
+				snapshotter.writeSnapshot();
+			} catch (IOException | RuntimeException _ex) {
+				logger.log(Level.SEVERE, "journal compaction failed, keeping journal segments up to <" + _sealed + ">.", _ex);
+				return false;
+			}
+			int _deleted = 0;
+			for (File _segment : listSegments()) {
+				if (getGeneration(_segment) <= _sealed) {
+					if (_segment.delete()) {
+						_deleted++;
+					} else {
+						logger.warning("journal segment <" + _segment.getName() + "> can not be deleted.");
+					}
+				}
+			}
+			synchronized (this) {
+				compactionPending = false;
+			}
+			logger.info("compacted journal into snapshot, removed " + _deleted + " segments.");
+			return true;
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see org.opentdc.addressbooks.file.StoreWriter#close()
+	 */
+	@Override
+	public void close() {
+		compactor.shutdown();
+		synchronized (this) {
+			if (channel != null) {
+				try {
+					if (sync) {
+						channel.force(false);
+					}
+					channel.close();
+				} catch (IOException _ex) {
+					logger.warning("journal segment can not be closed: " + _ex.getMessage());
+				}
+				channel = null;
+			}
+		}
+	}
+
+	private FileChannel openSegment(
+			long gen) throws IOException {
+		return FileChannel.open(getSegmentFile(gen).toPath(),
+				StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+	}
+
+	private File getSegmentFile(
+			long gen) {
+		return new File(dir, SEGMENT_PREFIX + String.format("%012d", gen) + SEGMENT_SUFFIX);
+	}
+
+	private static long getGeneration(
+			File segment) {
+		String _name = segment.getName();
+		return Long.parseLong(_name.substring(SEGMENT_PREFIX.length(), _name.length() - SEGMENT_SUFFIX.length()));
+	}
+
+	/**
+	 * @return all journal segments, oldest first
+	 */
+	private File[] listSegments() {
+		File[] _segments = dir.listFiles(new FileFilter() {
+			@Override
+			public boolean accept(File file) {
+				String _name = file.getName();
+				return file.isFile() && _name.startsWith(SEGMENT_PREFIX) && _name.endsWith(SEGMENT_SUFFIX)
+						&& _name.substring(SEGMENT_PREFIX.length(), _name.length() - SEGMENT_SUFFIX.length()).matches("[0-9]+");
+			}
+		});
+		if (_segments == null) {
+			return new File[0];
+		}
+		Arrays.sort(_segments, new Comparator<File>() {
+			@Override
+			public int compare(File f1, File f2) {
+				return Long.compare(getGeneration(f1), getGeneration(f2));
+			}
+		});
+		return _segments;
+	}
+}
@@ -0,0 +1,174 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Arbalo AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.opentdc.addressbooks.file;
+
+import java.util.List;
+
+import org.opentdc.addressbooks.AddressModel;
+import org.opentdc.addressbooks.AddressbookModel;
+import org.opentdc.addressbooks.ContactModel;
+import org.opentdc.addressbooks.OrgModel;
+
+/**
+ * A single committed mutation of the addressbook store.
+ * Create and update records carry the resulting model, delete records only the ids.
+ * A batch record carries several records that are written and replayed as one.
+ * @author Bruno Kaiser
+ *
+ */
+public class JournalRecord {
+	public enum Op {
+		ADDRESSBOOK_CREATE,
+		ADDRESSBOOK_UPDATE,
+		ADDRESSBOOK_DELETE,
+		CONTACT_CREATE,
+		CONTACT_UPDATE,
+		CONTACT_DELETE,
+		ORG_CREATE,
+		ORG_UPDATE,
+		ORG_DELETE,
+		CONTACT_ADDRESS_CREATE,
+		CONTACT_ADDRESS_UPDATE,
+		CONTACT_ADDRESS_DELETE,
+		ORG_ADDRESS_CREATE,
+		ORG_ADDRESS_UPDATE,
+		ORG_ADDRESS_DELETE,
+		BATCH
+	}
+
+	private Op op;
+	private String aid;			// the addressbook the operation was executed in
+	private String pid;			// the contact or org owning an address
+	private String id;			// the id of the object that was changed
+	private AddressbookModel addressbook;
+	private ContactModel contact;
+	private OrgModel org;
+	private AddressModel address;
+	private List<JournalRecord> records;
+
+	public JournalRecord() {
+	}
+
+	private JournalRecord(
+			Op op,
+			String aid,
+			String pid,
+			String id) {
+		this.op = op;
+		this.aid = aid;
+		this.pid = pid;
+		this.id = id;
+	}
+
+	public static JournalRecord addressbook(
+			Op op,
+			AddressbookModel addressbook) {
+		JournalRecord _r = new JournalRecord(op, addressbook.getId(), null, addressbook.getId());
+		_r.addressbook = addressbook;
+		return _r;
+	}
+
+	public static JournalRecord contact(
+			Op op,
+			String aid,
+			ContactModel contact) {
+		JournalRecord _r = new JournalRecord(op, aid, null, contact.getId());
+		_r.contact = contact;
+		return _r;
+	}
+
+	public static JournalRecord org(
+			Op op,
+			String aid,
+			OrgModel org) {
+		JournalRecord _r = new JournalRecord(op, aid, null, org.getId());
+		_r.org = org;
+		return _r;
+	}
+
+	public static JournalRecord address(
+			Op op,
+			String aid,
+			String pid,
+			AddressModel address) {
+		JournalRecord _r = new JournalRecord(op, aid, pid, address.getId());
+		_r.address = address;
+		return _r;
+	}
+
+	public static JournalRecord delete(
+			Op op,
+			String aid,
+			String pid,
+			String id) {
+		return new JournalRecord(op, aid, pid, id);
+	}
+
+	public static JournalRecord batch(
+			String aid,
+			List<JournalRecord> records) {
+		JournalRecord _r = new JournalRecord(Op.BATCH, aid, null, null);
+		_r.records = records;
+		return _r;
+	}
+
+	public Op getOp() {
+		return op;
+	}
+
+	public String getAid() {
+		return aid;
+	}
+
+	public String getPid() {
+		return pid;
+	}
+
+	public String getId() {
+		return id;
+	}
+
+	public AddressbookModel getAddressbook() {
+		return addressbook;
+	}
+
+	public ContactModel getContact() {
+		return contact;
+	}
+
+	public OrgModel getOrg() {
+		return org;
+	}
+
+	public AddressModel getAddress() {
+		return address;
+	}
+
+	/**
+	 * @return the records of a batch, in the order they were applied
+	 */
+	public List<JournalRecord> getRecords() {
+		return records;
+	}
+}
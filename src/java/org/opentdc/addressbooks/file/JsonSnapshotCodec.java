@@ -0,0 +1,131 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Arbalo AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.opentdc.addressbooks.file;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.Charset;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * JSON snapshot format:
+ * <pre>
+ * {"version":1,"addressbooks":[...],"contacts":[...],"orgs":[...],"addresses":[...]}
+ * </pre>
+ * The file is written and read token by token; only one record at a time is held in memory.
+ * @author Bruno Kaiser
+ *
+ */
+class JsonSnapshotCodec implements SnapshotCodec {
+	static final int VERSION = 1;
+	private static final String VERSION_KEY = "version";
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/* (non-Javadoc)
+	 * @see org.opentdc.addressbooks.file.SnapshotCodec#getExtension()
+	 */
+	@Override
+	public String getExtension() {
+		return "json";
+	}
+
+	/* (non-Javadoc)
+	 * @see org.opentdc.addressbooks.file.SnapshotCodec#openWriter(java.io.OutputStream)
+	 */
+	@Override
+	public RecordWriter openWriter(
+			OutputStream out) throws IOException {
+		final JsonWriter _writer = new JsonWriter(new OutputStreamWriter(out, UTF8));
+		_writer.beginObject();
+		_writer.name(VERSION_KEY).value(VERSION);
+		return new RecordWriter() {
+			private StoreSection section = null;
+
+			@Override
+			public void accept(StoreSection section, JsonObject record) throws IOException {
+				if (section != this.section) {
+					if (this.section != null) {
+						_writer.endArray();
+					}
+					_writer.name(section.getKey());
+					_writer.beginArray();
+					this.section = section;
+				}
+				StoreJson.GSON.toJson(record, _writer);
+			}
+
+			@Override
+			public void finish() throws IOException {
+				if (section != null) {
+					_writer.endArray();
+				}
+				_writer.endObject();
+				_writer.flush();
+			}
+		};
+	}
+
+	/* (non-Javadoc)
+	 * @see org.opentdc.addressbooks.file.SnapshotCodec#read(java.io.InputStream, org.opentdc.addressbooks.file.SnapshotCodec.RecordSink)
+	 */
+	@Override
+	public void read(
+			InputStream in,
+			RecordSink sink) throws IOException {
+		JsonReader _reader = new JsonReader(new InputStreamReader(in, UTF8));
+		try {
+			_reader.beginObject();
+			while (_reader.hasNext()) {
+				String _name = _reader.nextName();
+				StoreSection _section = StoreSection.forKey(_name);
+				if (VERSION_KEY.equals(_name)) {
+					int _version = _reader.nextInt();
+					if (_version > VERSION) {
+						throw new IOException("snapshot version <" + _version + "> is not supported; expected <= " + VERSION + ".");
+					}
+				} else if (_section == null) {
+					_reader.skipValue();
+				} else {
+					_reader.beginArray();
+					while (_reader.hasNext()) {
+						JsonElement _record = StoreJson.GSON.fromJson(_reader, JsonElement.class);
+						sink.accept(_section, _record.getAsJsonObject());
+					}
+					_reader.endArray();
+				}
+			}
+			_reader.endObject();
+		} catch (JsonParseException | IllegalStateException _ex) {
+			throw new IOException("snapshot is corrupt: " + _ex.getMessage(), _ex);
+		}
+	}
+}
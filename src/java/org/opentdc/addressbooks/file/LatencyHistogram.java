@@ -0,0 +1,155 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Arbalo AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.opentdc.addressbooks.file;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free histogram of latencies in nanoseconds with log-linear buckets, similar to HdrHistogram.
+ * Each power of two is split into 32 linear buckets, i.e. percentiles are exact to about 3%.
+ * @author Bruno Kaiser
+ *
+ */
+final class LatencyHistogram {
+	private static final int SUB_BITS = 5;
+	private static final int SUB_COUNT = 1 << SUB_BITS;
+	private static final int BUCKETS = (64 - SUB_BITS) * SUB_COUNT;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final AtomicLong total = new AtomicLong();
+	private final AtomicLong sum = new AtomicLong();
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * Record a latency.
+	 * @param nanos the latency in nanoseconds; negative values are recorded as 0
+	 */
+	void record(
+			long nanos) {
+		long _value = Math.max(0, nanos);
+		counts.incrementAndGet(index(_value));
+		total.incrementAndGet();
+		sum.addAndGet(_value);
+		long _max = max.get();
+		while (_value > _max && !max.compareAndSet(_max, _value)) {
+			_max = max.get();
+		}
+	}
+
+	/**
+	 * @return the number of recorded latencies
+	 */
+	long getCount() {
+		return total.get();
+	}
+
+	/**
+	 * @return the mean latency in nanoseconds, or 0 if nothing was recorded
+	 */
+	long getMean() {
+		long _count = total.get();
+		return _count == 0 ? 0 : sum.get() / _count;
+	}
+
+	/**
+	 * @return the maximal latency in nanoseconds
+	 */
+	long getMax() {
+		return max.get();
+	}
+
+	/**
+	 * @param percentile the percentile, between 0.0 and 100.0
+	 * @return the highest latency in nanoseconds of the bucket that contains the percentile, 
+	 * 		but at most the maximal latency; 0 if nothing was recorded
+	 */
+	long getPercentile(
+			double percentile) {
+		return getPercentiles(percentile)[0];
+	}
+
+	/**
+	 * Compute several percentiles from one pass over the buckets.
+	 * @param percentiles the percentiles in ascending order, between 0.0 and 100.0
+	 * @return the latencies in nanoseconds, see getPercentile()
+	 */
+	long[] getPercentiles(
+			double... percentiles) {
+		long[] _counts = new long[BUCKETS];
+		long _total = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			_counts[i] = counts.get(i);
+			_total += _counts[i];
+		}
+		long[] _result = new long[percentiles.length];
+		if (_total == 0) {
+			return _result;
+		}
+		long _max = max.get();
+		long _seen = 0;
+		int _bucket = -1;
+		for (int p = 0; p < percentiles.length; p++) {
+			long _rank = Math.max(1, (long) Math.ceil(percentiles[p] / 100.0 * _total));
+			while (_seen < _rank && _bucket < BUCKETS - 1) {
+				_seen += _counts[++_bucket];
+			}
+			_result[p] = Math.min(_max, highestValue(_bucket));
+		}
+		return _result;
+	}
+
+	/**
+	 * Clear all recorded latencies. Latencies recorded concurrently may be lost or partially counted.
+	 */
+	void reset() {
+		for (int i = 0; i < BUCKETS; i++) {
+			counts.set(i, 0);
+		}
+		total.set(0);
+		sum.set(0);
+		max.set(0);
+	}
+
+	private static int index(
+			long value) {
+		if (value < (SUB_COUNT << 1)) {
+			return (int) value;
+		}
+		int _magnitude = 63 - Long.numberOfLeadingZeros(value);
+		int _shift = _magnitude - SUB_BITS;
+		int _sub = (int) (value >>> _shift);		// between SUB_COUNT and 2 * SUB_COUNT - 1
+		return ((_shift + 1) << SUB_BITS) + _sub - SUB_COUNT;
+	}
+
+	private static long highestValue(
+			int index) {
+		if (index < (SUB_COUNT << 1)) {
+			return index;
+		}
+		int _shift = (index >>> SUB_BITS) - 1;
+		long _sub = SUB_COUNT + (index & (SUB_COUNT - 1));
+		return ((_sub + 1) << _shift) - 1;
+	}
+}
@@ -0,0 +1,257 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Arbalo AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.opentdc.addressbooks.file;
+
+import java.util.AbstractCollection;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * An index whose values are materialized from a mapped snapshot on first access.
+ * Only the offsets of the records are kept on the heap until a value is read;
+ * values that are put into the index or were materialized are kept in a ConcurrentHashMap.
+ * Iterating over the index materializes all values.
+ * @author Bruno Kaiser
+ *
+ * @param <V> the type of the indexed objects
+ */
+class LazyIndex<V> extends AbstractMap<String, V> {
+	/**
+	 * Creates the object stored in a snapshot record.
+	 */
+	interface Materializer<V> {
+		V materialize(String id, int offset);
+	}
+
+	private final Map<String, Integer> offsets;
+	private final Materializer<V> materializer;
+	private final Map<String, V> values = new ConcurrentHashMap<String, V>();
+	private final Set<String> removed = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+	private final Set<String> added = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+	/**
+	 * Constructor.
+	 * @param offsets the offsets of the snapshot records by id; must not be modified afterwards
+	 * @param materializer creates the objects from the snapshot records
+	 */
+	LazyIndex(
+			Map<String, Integer> offsets,
+			Materializer<V> materializer) {
+		this.offsets = offsets;
+		this.materializer = materializer;
+	}
+
+	/**
+	 * @return the number of values that were materialized from the snapshot or put into the index
+	 */
+	int getMaterializedCount() {
+		return values.size();
+	}
+
+	@Override
+	public V get(
+			Object key) {
+		V _value = values.get(key);
+		if (_value != null || removed.contains(key)) {
+			return _value;
+		}
+		Integer _offset = offsets.get(key);
+		if (_offset == null) {
+			return null;
+		}
+		String _id = (String) key;
+		_value = materializer.materialize(_id, _offset);
+		synchronized (this) {
+			if (removed.contains(_id)) {
+				return null;
+			}
+			V _existing = values.get(_id);
+			if (_existing != null) {
+				return _existing;
+			}
+			values.put(_id, _value);
+		}
+		return _value;
+	}
+
+	@Override
+	public boolean containsKey(
+			Object key) {
+		return get(key) != null;
+	}
+
+	@Override
+	public V put(
+			String key,
+			V value) {
+		V _previous = get(key);
+		synchronized (this) {
+			values.put(key, value);
+			if (offsets.containsKey(key)) {
+				removed.remove(key);
+			} else {
+				added.add(key);
+			}
+		}
+		return _previous;
+	}
+
+	@Override
+	public V remove(
+			Object key) {
+		V _previous = get(key);
+		synchronized (this) {
+			values.remove(key);
+			if (offsets.containsKey(key)) {
+				removed.add((String) key);
+			} else {
+				added.remove(key);
+			}
+		}
+		return _previous;
+	}
+
+	@Override
+	public synchronized int size() {
+		return offsets.size() - removed.size() + added.size();
+	}
+
+	/**
+	 * Iterate over all values like values(), but without keeping the values that were not materialized yet,
+	 * e.g. to write them to a new snapshot.
+	 * @return all values of the index
+	 */
+	Collection<V> scan() {
+		return new AbstractCollection<V>() {
+			@Override
+			public Iterator<V> iterator() {
+				final List<String> _keys = new ArrayList<String>(offsets.keySet());
+				_keys.addAll(added);
+				final Iterator<String> _it = _keys.iterator();
+				return new Iterator<V>() {
+					private V next = advance();
+
+					private V advance() {
+						while (_it.hasNext()) {
+							String _key = _it.next();
+							V _value = values.get(_key);
+							if (_value == null && !removed.contains(_key) && offsets.containsKey(_key)) {
+								_value = materializer.materialize(_key, offsets.get(_key));
+							}
+							if (_value != null) {
+								return _value;
+							}
+						}
+						return null;
+					}
+
+					@Override
+					public boolean hasNext() {
+						return next != null;
+					}
+
+					@Override
+					public V next() {
+						if (next == null) {
+							throw new NoSuchElementException();
+						}
+						V _current = next;
+						next = advance();
+						return _current;
+					}
+
+					@Override
+					public void remove() {
+						throw new UnsupportedOperationException();
+					}
+				};
+			}
+
+			@Override
+			public int size() {
+				return LazyIndex.this.size();
+			}
+		};
+	}
+
+	@Override
+	public Set<Entry<String, V>> entrySet() {
+		return new AbstractSet<Entry<String, V>>() {
+			@Override
+			public Iterator<Entry<String, V>> iterator() {
+				final List<String> _keys = new ArrayList<String>(offsets.keySet());
+				_keys.addAll(added);
+				final Iterator<String> _it = _keys.iterator();
+				return new Iterator<Entry<String, V>>() {
+					private Entry<String, V> next = advance();
+
+					private Entry<String, V> advance() {
+						while (_it.hasNext()) {
+							String _key = _it.next();
+							V _value = get(_key);
+							if (_value != null) {
+								return new SimpleImmutableEntry<String, V>(_key, _value);
+							}
+						}
+						return null;
+					}
+
+					@Override
+					public boolean hasNext() {
+						return next != null;
+					}
+
+					@Override
+					public Entry<String, V> next() {
+						if (next == null) {
+							throw new NoSuchElementException();
+						}
+						Entry<String, V> _current = next;
+						next = advance();
+						return _current;
+					}
+
+					@Override
+					public void remove() {
+						throw new UnsupportedOperationException();
+					}
+				};
+			}
+
+			@Override
+			public int size() {
+				return LazyIndex.this.size();
+			}
+		};
+	}
+}
@@ -0,0 +1,144 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Arbalo AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.opentdc.addressbooks.file;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Progress and timing of the cold start of FileServiceProvider.
+ * @author Bruno Kaiser
+ *
+ */
+public class LoadMetrics {
+	private final long startedAt;
+	private final AtomicLong bytesRead = new AtomicLong();
+	private final AtomicLongArray records = new AtomicLongArray(StoreSection.values().length);
+	private volatile long totalBytes = 0;
+	private volatile long replayedRecords = 0;
+	private volatile long readyAt = 0;
+
+	public LoadMetrics() {
+		startedAt = System.currentTimeMillis();
+	}
+
+	void setTotalBytes(
+			long totalBytes) {
+		this.totalBytes = totalBytes;
+	}
+
+	void addBytesRead(
+			long bytes) {
+		bytesRead.addAndGet(bytes);
+	}
+
+	void recordLoaded(
+			StoreSection section) {
+		records.incrementAndGet(section.ordinal());
+	}
+
+	void setReplayedRecords(
+			long replayedRecords) {
+		this.replayedRecords = replayedRecords;
+	}
+
+	/**
+	 * Clear the progress of the snapshot before another snapshot is read during the same startup.
+	 */
+	void restart() {
+		bytesRead.set(0);
+		for (int i = 0; i < records.length(); i++) {
+			records.set(i, 0);
+		}
+	}
+
+	void ready() {
+		readyAt = System.currentTimeMillis();
+	}
+
+	/**
+	 * @return the number of snapshot bytes read so far
+	 */
+	public long getBytesRead() {
+		return bytesRead.get();
+	}
+
+	/**
+	 * @return the size of the snapshot file
+	 */
+	public long getTotalBytes() {
+		return totalBytes;
+	}
+
+	/**
+	 * @return the fraction of the snapshot that was read, between 0.0 and 1.0
+	 */
+	public double getProgress() {
+		if (readyAt != 0 || totalBytes == 0) {
+			return readyAt != 0 ? 1.0 : 0.0;
+		}
+		return Math.min(1.0, (double) bytesRead.get() / totalBytes);
+	}
+
+	/**
+	 * @param section the section of the snapshot
+	 * @return the number of records of this section that were indexed so far
+	 */
+	public long getRecords(
+			StoreSection section) {
+		return records.get(section.ordinal());
+	}
+
+	/**
+	 * @return the number of journal records replayed on top of the snapshot
+	 */
+	public long getReplayedRecords() {
+		return replayedRecords;
+	}
+
+	public boolean isReady() {
+		return readyAt != 0;
+	}
+
+	/**
+	 * @return the milliseconds from the start of the load until the provider was ready, or -1 while still loading
+	 */
+	public long getTimeToReady() {
+		return readyAt == 0 ? -1 : readyAt - startedAt;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder _sb = new StringBuilder();
+		for (StoreSection _section : StoreSection.values()) {
+			_sb.append(getRecords(_section)).append(' ').append(_section.getKey()).append(", ");
+		}
+		_sb.append(replayedRecords).append(" journal records, ");
+		_sb.append(bytesRead.get()).append('/').append(totalBytes).append(" bytes");
+		if (readyAt != 0) {
+			_sb.append(", ready after ").append(getTimeToReady()).append("ms");
+		}
+		return _sb.toString();
+	}
+}
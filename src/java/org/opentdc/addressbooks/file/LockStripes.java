@@ -0,0 +1,169 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Arbalo AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.opentdc.addressbooks.file;
+
+import java.util.Locale;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A fixed set of read/write locks that addressbooks, contacts and orgs are mapped to by their ids.
+ * Operations on independent entities mostly use different stripes and can run in parallel.
+ * Locks of several stripes are always acquired in ascending stripe order, so that two operations
+ * can not deadlock, and a stripe that is requested both for reading and writing is locked for writing.
+ * @author Bruno Kaiser
+ *
+ */
+class LockStripes {
+	private final ReentrantReadWriteLock[] stripes;
+
+	/**
+	 * A set of acquired locks; closing it releases them.
+	 */
+	static class Held implements AutoCloseable {
+		private final ReentrantReadWriteLock[] stripes;
+		private final byte[] modes;
+
+		private Held(
+				ReentrantReadWriteLock[] stripes,
+				byte[] modes) {
+			this.stripes = stripes;
+			this.modes = modes;
+		}
+
+		/* (non-Javadoc)
+		 * @see java.lang.AutoCloseable#close()
+		 */
+		@Override
+		public void close() {
+			for (int i = modes.length - 1; i >= 0; i--) {
+				if (modes[i] == WRITE) {
+					stripes[i].writeLock().unlock();
+				} else if (modes[i] == READ) {
+					stripes[i].readLock().unlock();
+				}
+			}
+		}
+	}
+
+	private static final byte NONE = 0;
+	private static final byte READ = 1;
+	private static final byte WRITE = 2;
+
+	/**
+	 * Constructor.
+	 * @param count the number of stripes; it is rounded up to a power of two
+	 */
+	LockStripes(
+			int count) {
+		int _size = 1;
+		while (_size < count) {
+			_size <<= 1;
+		}
+		stripes = new ReentrantReadWriteLock[_size];
+		for (int i = 0; i < _size; i++) {
+			stripes[i] = new ReentrantReadWriteLock();
+		}
+	}
+
+	/**
+	 * Lock the stripes of some ids for reading.
+	 * @param ids the ids; null ids are ignored
+	 * @return the acquired locks
+	 */
+	Held read(
+			String... ids) {
+		return acquire(ids, new String[0]);
+	}
+
+	/**
+	 * Lock the stripes of some ids for writing.
+	 * @param ids the ids; null ids are ignored
+	 * @return the acquired locks
+	 */
+	Held write(
+			String... ids) {
+		return acquire(new String[0], ids);
+	}
+
+	/**
+	 * Lock the stripe of a parent for reading and the stripes of its children for writing,
+	 * e.g. an addressbook that must not be deleted while one of its contacts is changed.
+	 * @param readId the id of the parent
+	 * @param writeIds the ids of the children
+	 * @return the acquired locks
+	 */
+	Held readWrite(
+			String readId,
+			String... writeIds) {
+		return acquire(new String[] { readId }, writeIds);
+	}
+
+	/**
+	 * Lock all stripes for writing, e.g. to change many entities at once.
+	 * @return the acquired locks
+	 */
+	Held writeAll() {
+		byte[] _modes = new byte[stripes.length];
+		for (int i = 0; i < _modes.length; i++) {
+			_modes[i] = WRITE;
+		}
+		return lock(_modes);
+	}
+
+	private Held acquire(
+			String[] readIds,
+			String[] writeIds) {
+		byte[] _modes = new byte[stripes.length];
+		for (String _id : readIds) {
+			if (_id != null && _modes[indexOf(_id)] == NONE) {
+				_modes[indexOf(_id)] = READ;
+			}
+		}
+		for (String _id : writeIds) {
+			if (_id != null) {
+				_modes[indexOf(_id)] = WRITE;
+			}
+		}
+		return lock(_modes);
+	}
+
+	private Held lock(
+			byte[] modes) {
+		for (int i = 0; i < modes.length; i++) {
+			if (modes[i] == WRITE) {
+				stripes[i].writeLock().lock();
+			} else if (modes[i] == READ) {
+				stripes[i].readLock().lock();
+			}
+		}
+		return new Held(stripes, modes);
+	}
+
+	private int indexOf(
+			String id) {
+		int _hash = id.toLowerCase(Locale.ROOT).hashCode();
+		_hash ^= (_hash >>> 16);
+		return _hash & (stripes.length - 1);
+	}
+}
@@ -0,0 +1,211 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Arbalo AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.opentdc.addressbooks.file;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import com.google.gson.JsonObject;
+
+/**
+ * A binary snapshot that is mapped into memory instead of being loaded onto the heap.
+ * Opening the snapshot only scans the frame headers: it reads the string dictionary and remembers
+ * the offset of each record by its id, without decoding the payloads. Records are decoded on demand,
+ * so that the operating system's page cache holds the cold bulk of the data.
+ * Only uncompressed snapshots up to 2GB can be mapped.
+ * @author Bruno Kaiser
+ *
+ */
+class MappedSnapshot {
+	private static final Logger logger = Logger.getLogger(MappedSnapshot.class.getName());
+
+	private final MappedByteBuffer buffer;
+	private final List<String> dictionary = new ArrayList<String>();
+	private final Map<StoreSection, Map<String, Integer>> offsets = 
+			new EnumMap<StoreSection, Map<String, Integer>>(StoreSection.class);
+	private final Map<String, List<String>> children = new HashMap<String, List<String>>();
+
+	private MappedSnapshot(
+			MappedByteBuffer buffer) {
+		this.buffer = buffer;
+		for (StoreSection _section : StoreSection.values()) {
+			offsets.put(_section, new HashMap<String, Integer>());
+		}
+	}
+
+	/**
+	 * Map a snapshot and index its records by id.
+	 * @param file the binary snapshot
+	 * @param eager receives the records of these sections immediately instead of indexing them by offset
+	 * @param sink receives the eagerly loaded records
+	 * @param metrics receives the progress of the scan
+	 * @return the mapped snapshot
+	 * @throws IOException if the file is not an uncompressed binary snapshot or can not be mapped
+	 */
+	static MappedSnapshot open(
+			File file,
+			StoreSection eager,
+			SnapshotCodec.RecordSink sink,
+			LoadMetrics metrics) throws IOException {
+		long _start = System.currentTimeMillis();
+		MappedByteBuffer _buffer = null;
+		try (RandomAccessFile _raf = new RandomAccessFile(file, "r")) {
+			if (_raf.length() > Integer.MAX_VALUE) {
+				throw new IOException("snapshot <" + file.getName() + "> is too large to be mapped.");
+			}
+			_buffer = _raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, _raf.length());
+		}
+		metrics.setTotalBytes(_buffer.capacity());
+		MappedSnapshot _snapshot = new MappedSnapshot(_buffer);
+		_snapshot.scan(eager, sink, metrics);
+		logger.info("mapped snapshot <" + file.getName() + "> in " + (System.currentTimeMillis() - _start) + "ms.");
+		return _snapshot;
+	}
+
+	private void scan(
+			StoreSection eager,
+			SnapshotCodec.RecordSink sink,
+			LoadMetrics metrics) throws IOException {
+		ByteBuffer _buffer = buffer.duplicate();
+		DataInputStream _in = new DataInputStream(new ByteBufferInputStream(_buffer));
+		if (BinarySnapshotCodec.readHeader(_in) != BinarySnapshotCodec.Compression.NONE) {
+			throw new IOException("compressed snapshots can not be mapped.");
+		}
+		while (true) {
+			int _frame = _in.read();
+			switch (_frame) {
+			case BinarySnapshotCodec.FRAME_END:
+				metrics.addBytesRead(_buffer.position());
+				return;
+			case BinarySnapshotCodec.FRAME_DICTIONARY:
+				BinarySnapshotCodec.readDictionary(_in, dictionary);
+				break;
+			case BinarySnapshotCodec.FRAME_RECORD:
+				StoreSection _section = BinarySnapshotCodec.readSection(_in.readUnsignedByte());
+				String _id = BinarySnapshotCodec.readIdentifier(_in);
+				String _pid = BinarySnapshotCodec.readIdentifier(_in);
+				int _offset = _buffer.position();
+				int _length = BinarySnapshotCodec.readVarInt(_in);
+				if (_section == eager) {
+					sink.accept(_section, readRecord(_offset));
+				} else {
+					offsets.get(_section).put(_id, _offset);
+					metrics.recordLoaded(_section);
+				}
+				if (_section == StoreSection.ADDRESSES) {
+					List<String> _children = children.get(_pid);
+					if (_children == null) {
+						_children = new ArrayList<String>(2);
+						children.put(_pid, _children);
+					}
+					_children.add(_id);
+				}
+				_buffer.position(_buffer.position() + _length);
+				break;
+			case -1:
+				throw new IOException("mapped snapshot is truncated.");
+			default:
+				throw new IOException("mapped snapshot contains an invalid frame type <" + _frame + ">.");
+			}
+		}
+	}
+
+	/**
+	 * @param section a section of the snapshot
+	 * @return the offsets of the records of this section by id
+	 */
+	Map<String, Integer> getOffsets(
+			StoreSection section) {
+		return offsets.get(section);
+	}
+
+	/**
+	 * @param pid the id of a contact or org
+	 * @return the ids of its addresses in the snapshot
+	 */
+	List<String> getAddressIds(
+			String pid) {
+		List<String> _children = children.get(pid);
+		return _children == null ? Collections.<String>emptyList() : _children;
+	}
+
+	/**
+	 * Decode a record. This method may be called concurrently.
+	 * @param offset the offset of the record as returned by getOffsets()
+	 * @return the record
+	 */
+	JsonObject readRecord(
+			int offset) {
+		ByteBuffer _buffer = buffer.duplicate();
+		_buffer.position(offset);
+		try {
+			int _length = BinarySnapshotCodec.readVarInt(new DataInputStream(new ByteBufferInputStream(_buffer)));
+			byte[] _payload = new byte[_length];
+			_buffer.get(_payload);
+			return BinarySnapshotCodec.decodeRecord(_payload, 0, _length, dictionary);
+		} catch (IOException _ex) {
+			throw new IllegalStateException("mapped snapshot record at offset <" + offset + "> is corrupt: " + _ex.getMessage(), _ex);
+		}
+	}
+
+	private static class ByteBufferInputStream extends InputStream {
+		private final ByteBuffer buffer;
+
+		ByteBufferInputStream(
+				ByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		@Override
+		public int read() {
+			return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+		}
+
+		@Override
+		public int read(
+				byte[] b,
+				int off,
+				int len) {
+			if (!buffer.hasRemaining()) {
+				return -1;
+			}
+			int _n = Math.min(len, buffer.remaining());
+			buffer.get(b, off, _n);
+			return _n;
+		}
+	}
+}
@@ -0,0 +1,110 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Arbalo AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.opentdc.addressbooks.file;
+
+import java.util.AbstractSet;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A set of ids that compares ids case-insensitively in O(1).
+ * The ids are kept as they were added and iterated in insertion order,
+ * so that the set serializes to the same JSON array as the list it replaces.
+ * Reads and iterations never block; iterators are weakly consistent and never throw a ConcurrentModificationException.
+ * Adding and removing the same id concurrently must be serialized by the caller.
+ * @author Bruno Kaiser
+ *
+ */
+class MembershipSet extends AbstractSet<String> {
+	private final AtomicLong sequence = new AtomicLong();
+	private final ConcurrentMap<String, Long> keys = new ConcurrentHashMap<String, Long>();
+	private final ConcurrentNavigableMap<Long, String> ids = new ConcurrentSkipListMap<Long, String>();
+
+	private static String normalize(
+			Object id) {
+		return ((String) id).toLowerCase(Locale.ROOT);
+	}
+
+	/* (non-Javadoc)
+	 * @see java.util.AbstractCollection#add(java.lang.Object)
+	 */
+	@Override
+	public boolean add(
+			String id) {
+		Long _seq = sequence.incrementAndGet();
+		if (keys.putIfAbsent(normalize(id), _seq) != null) {
+			return false;
+		}
+		ids.put(_seq, id);
+		return true;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.util.AbstractCollection#contains(java.lang.Object)
+	 */
+	@Override
+	public boolean contains(
+			Object id) {
+		return id instanceof String && keys.containsKey(normalize(id));
+	}
+
+	/* (non-Javadoc)
+	 * @see java.util.AbstractCollection#remove(java.lang.Object)
+	 */
+	@Override
+	public boolean remove(
+			Object id) {
+		if (!(id instanceof String)) {
+			return false;
+		}
+		Long _seq = keys.remove(normalize(id));
+		if (_seq == null) {
+			return false;
+		}
+		ids.remove(_seq);
+		return true;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.util.AbstractCollection#iterator()
+	 */
+	@Override
+	public Iterator<String> iterator() {
+		return Collections.unmodifiableCollection(ids.values()).iterator();
+	}
+
+	/* (non-Javadoc)
+	 * @see java.util.AbstractCollection#size()
+	 */
+	@Override
+	public int size() {
+		return keys.size();
+	}
+}
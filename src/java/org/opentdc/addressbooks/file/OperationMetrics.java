@@ -0,0 +1,187 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Arbalo AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.opentdc.addressbooks.file;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Call count, errors by exception type and latency histogram of one provider operation.
+ * @author Bruno Kaiser
+ *
+ */
+public class OperationMetrics implements OperationMetricsMBean {
+	private final String name;
+	private final LatencyHistogram latencies = new LatencyHistogram();
+	private final AtomicLong errorCount = new AtomicLong();
+	private final ConcurrentMap<String, AtomicLong> errors = new ConcurrentHashMap<String, AtomicLong>();
+
+	OperationMetrics(
+			String name) {
+		this.name = name;
+	}
+
+	/**
+	 * Record a call, successful or not.
+	 * @param nanos the latency of the call in nanoseconds
+	 */
+	void record(
+			long nanos) {
+		latencies.record(nanos);
+	}
+
+	/**
+	 * Record the exception of a failed call; the call itself is recorded with record().
+	 * @param exception the exception thrown by the call
+	 */
+	void failed(
+			Throwable exception) {
+		String _type = exception.getClass().getSimpleName();
+		AtomicLong _count = errors.get(_type);
+		if (_count == null) {
+			_count = new AtomicLong();
+			AtomicLong _existing = errors.putIfAbsent(_type, _count);
+			if (_existing != null) {
+				_count = _existing;
+			}
+		}
+		_count.incrementAndGet();
+		errorCount.incrementAndGet();
+	}
+
+	void reset() {
+		latencies.reset();
+		errorCount.set(0);
+		errors.clear();
+	}
+
+	/**
+	 * @return the name of the provider method
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.opentdc.addressbooks.file.OperationMetricsMBean#getCount()
+	 */
+	@Override
+	public long getCount() {
+		return latencies.getCount();
+	}
+
+	/* (non-Javadoc)
+	 * @see org.opentdc.addressbooks.file.OperationMetricsMBean#getErrorCount()
+	 */
+	@Override
+	public long getErrorCount() {
+		return errorCount.get();
+	}
+
+	/* (non-Javadoc)
+	 * @see org.opentdc.addressbooks.file.OperationMetricsMBean#getErrors()
+	 */
+	@Override
+	public Map<String, Long> getErrors() {
+		Map<String, Long> _errors = new TreeMap<String, Long>();
+		for (Map.Entry<String, AtomicLong> _entry : errors.entrySet()) {
+			_errors.put(_entry.getKey(), _entry.getValue().get());
+		}
+		return _errors;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.opentdc.addressbooks.file.OperationMetricsMBean#getMeanMicros()
+	 */
+	@Override
+	public long getMeanMicros() {
+		return toMicros(latencies.getMean());
+	}
+
+	/* (non-Javadoc)
+	 * @see org.opentdc.addressbooks.file.OperationMetricsMBean#getP50Micros()
+	 */
+	@Override
+	public long getP50Micros() {
+		return toMicros(latencies.getPercentile(50.0));
+	}
+
+	/* (non-Javadoc)
+	 * @see org.opentdc.addressbooks.file.OperationMetricsMBean#getP90Micros()
+	 */
+	@Override
+	public long getP90Micros() {
+		return toMicros(latencies.getPercentile(90.0));
+	}
+
+	/* (non-Javadoc)
+	 * @see org.opentdc.addressbooks.file.OperationMetricsMBean#getP99Micros()
+	 */
+	@Override
+	public long getP99Micros() {
+		return toMicros(latencies.getPercentile(99.0));
+	}
+
+	/* (non-Javadoc)
+	 * @see org.opentdc.addressbooks.file.OperationMetricsMBean#getP999Micros()
+	 */
+	@Override
+	public long getP999Micros() {
+		return toMicros(latencies.getPercentile(99.9));
+	}
+
+	/* (non-Javadoc)
+	 * @see org.opentdc.addressbooks.file.OperationMetricsMBean#getMaxMicros()
+	 */
+	@Override
+	public long getMaxMicros() {
+		return toMicros(latencies.getMax());
+	}
+
+	/**
+	 * Append one line of the plain-text dump.
+	 * @param sb the dump
+	 */
+	void appendTo(
+			StringBuilder sb) {
+		long[] _percentiles = latencies.getPercentiles(50.0, 90.0, 99.0, 99.9);
+		sb.append(String.format("%-20s %10d %8d %10d %10d %10d %10d %10d %10d", 
+				name, latencies.getCount(), errorCount.get(), toMicros(latencies.getMean()),
+				toMicros(_percentiles[0]), toMicros(_percentiles[1]), toMicros(_percentiles[2]),
+				toMicros(_percentiles[3]), toMicros(latencies.getMax())));
+		if (!errors.isEmpty()) {
+			sb.append("  ").append(getErrors());
+		}
+		sb.append('\n');
+	}
+
+	private static long toMicros(
+			long nanos) {
+		return TimeUnit.NANOSECONDS.toMicros(nanos);
+	}
+}
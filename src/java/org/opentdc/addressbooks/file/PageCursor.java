@@ -0,0 +1,104 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Arbalo AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.opentdc.addressbooks.file;
+
+import java.nio.charset.Charset;
+
+import org.opentdc.service.exception.ValidationException;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+
+/**
+ * The position of a cursor-based listing: the sort key and the id of the last model returned.
+ * The cursor is passed to clients as an opaque token.
+ * @author Bruno Kaiser
+ *
+ */
+final class PageCursor {
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	private final String key;
+	private final String id;
+
+	PageCursor(
+			String key,
+			String id) {
+		this.key = key;
+		this.id = id;
+	}
+
+	String getKey() {
+		return key;
+	}
+
+	String getId() {
+		return id;
+	}
+
+	/**
+	 * @return the opaque token representing this cursor
+	 */
+	String encode() {
+		JsonObject _json = new JsonObject();
+		_json.addProperty("k", key);
+		_json.addProperty("id", id);
+		byte[] _bytes = StoreJson.GSON.toJson(_json).getBytes(UTF8);
+		char[] _token = new char[_bytes.length * 2];
+		for (int i = 0; i < _bytes.length; i++) {
+			_token[2 * i] = HEX[(_bytes[i] >> 4) & 0xf];
+			_token[2 * i + 1] = HEX[_bytes[i] & 0xf];
+		}
+		return new String(_token);
+	}
+
+	/**
+	 * @param token a token returned by encode()
+	 * @return the cursor
+	 * @throws ValidationException if the token is not a valid cursor
+	 */
+	static PageCursor decode(
+			String token) 
+				throws ValidationException {
+		try {
+			if (token.length() % 2 != 0) {
+				throw new IllegalArgumentException();
+			}
+			byte[] _bytes = new byte[token.length() / 2];
+			for (int i = 0; i < _bytes.length; i++) {
+				_bytes[i] = (byte) Integer.parseInt(token.substring(2 * i, 2 * i + 2), 16);
+			}
+			JsonObject _json = StoreJson.GSON.fromJson(new String(_bytes, UTF8), JsonObject.class);
+			if (_json == null || !_json.has("id")) {
+				throw new IllegalArgumentException();
+			}
+			return new PageCursor(
+				_json.has("k") && !_json.get("k").isJsonNull() ? _json.get("k").getAsString() : null,
+				_json.get("id").getAsString());
+		} catch (IllegalArgumentException | JsonParseException | IllegalStateException | ClassCastException _ex) {
+			throw new ValidationException("cursor <" + token + "> is not valid.");
+		}
+	}
+}
@@ -0,0 +1,143 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Arbalo AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.opentdc.addressbooks.file;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Selects a page of the models that match a query.
+ * The query is evaluated before paging: the first position matches are skipped and
+ * the scan stops as soon as size matches were found.
+ * @author Bruno Kaiser
+ *
+ */
+final class Paging {
+	/**
+	 * A predicate on models, e.g. a ContactQueryHandler.
+	 */
+	interface Filter<T> {
+		boolean evaluate(T model);
+	}
+
+	private Paging() {
+	}
+
+	/**
+	 * Select a page from models in sort order.
+	 * @param models the models in sort order
+	 * @param filter the query; null matches all models
+	 * @param position the number of matches to skip
+	 * @param size the maximal number of matches to return
+	 * @return the matches from position to position + size
+	 */
+	static <T> List<T> select(
+			List<T> models,
+			Filter<? super T> filter,
+			int position,
+			int size) {
+		if (filter == null) {
+			int _from = Math.max(0, Math.min(position, models.size()));
+			int _to = (int) Math.max(_from, Math.min((long) position + size, models.size()));
+			return new ArrayList<T>(models.subList(_from, _to));
+		}
+		return scan(models, 0, filter, Math.max(0, position), size);
+	}
+
+	/**
+	 * Seek to a model in sort order and select the matches that follow it (keyset paging).
+	 * @param models the models in sort order
+	 * @param order the sort order; it must order all models strictly, e.g. by id on equal keys
+	 * @param after the last model of the previous page; it does not need to be contained in models
+	 * @param filter the query; null matches all models
+	 * @param size the maximal number of matches to return
+	 * @return the first size matches after the given model
+	 */
+	static <T> List<T> seek(
+			List<T> models,
+			Comparator<? super T> order,
+			T after,
+			Filter<? super T> filter,
+			int size) {
+		int _pos = Collections.binarySearch(models, after, order);
+		return scan(models, _pos >= 0 ? _pos + 1 : -_pos - 1, filter, 0, size);
+	}
+
+	private static <T> List<T> scan(
+			List<T> models,
+			int from,
+			Filter<? super T> filter,
+			int skip,
+			int size) {
+		List<T> _selection = new ArrayList<T>(Math.max(0, Math.min(size, 1024)));
+		for (int i = from; i < models.size() && _selection.size() < size; i++) {
+			T _model = models.get(i);
+			if (filter == null || filter.evaluate(_model)) {
+				if (skip > 0) {
+					skip--;
+				} else {
+					_selection.add(_model);
+				}
+			}
+		}
+		return _selection;
+	}
+
+	/**
+	 * Select a page from unsorted models; only the matches are sorted.
+	 * @param models the models in any order
+	 * @param order the sort order
+	 * @param filter the query; null matches all models
+	 * @param position the number of matches to skip
+	 * @param size the maximal number of matches to return
+	 * @return the matches from position to position + size
+	 */
+	static <T> List<T> select(
+			List<T> models,
+			Comparator<? super T> order,
+			Filter<? super T> filter,
+			int position,
+			int size) {
+		List<T> _matches = filter(models, filter);
+		Collections.sort(_matches, order);
+		return select(_matches, null, position, size);
+	}
+
+	private static <T> List<T> filter(
+			List<T> models,
+			Filter<? super T> filter) {
+		if (filter == null) {
+			return models;
+		}
+		List<T> _matches = new ArrayList<T>();
+		for (T _model : models) {
+			if (filter.evaluate(_model)) {
+				_matches.add(_model);
+			}
+		}
+		return _matches;
+	}
+}
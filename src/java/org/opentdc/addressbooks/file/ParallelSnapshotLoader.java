@@ -0,0 +1,190 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Arbalo AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.opentdc.addressbooks.file;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.Semaphore;
+import java.util.logging.Logger;
+
+import com.google.gson.JsonObject;
+
+/**
+ * Indexes the records of a snapshot in parallel while it is being read.
+ * The reading thread only tokenizes the snapshot; the records are collected into batches that are
+ * bound to model objects and indexed by a fork/join pool. Addresses are only indexed after all contacts
+ * and orgs were indexed, because they are attached to their parents.
+ * The number of batches in flight is bounded, so that memory stays constant while loading.
+ * @author Bruno Kaiser
+ *
+ */
+class ParallelSnapshotLoader implements SnapshotCodec.RecordSink {
+	private static final Logger logger = Logger.getLogger(ParallelSnapshotLoader.class.getName());
+	private static final int BATCH_SIZE = 1024;
+	private static final long PROGRESS_INTERVAL = 5000;
+
+	private final SnapshotCodec.RecordSink target;
+	private final LoadMetrics metrics;
+	private final ForkJoinPool pool;
+	private final Semaphore inFlight;
+	private final List<ForkJoinTask<?>> pending = new ArrayList<ForkJoinTask<?>>();
+	private StoreSection section = null;
+	private List<JsonObject> batch = new ArrayList<JsonObject>(BATCH_SIZE);
+	private long lastProgress = System.currentTimeMillis();
+
+	/**
+	 * Constructor.
+	 * @param target indexes a single record; must be thread-safe
+	 * @param parallelism the number of indexing threads
+	 * @param metrics receives the load progress
+	 */
+	ParallelSnapshotLoader(
+			SnapshotCodec.RecordSink target,
+			int parallelism,
+			LoadMetrics metrics) {
+		this.target = target;
+		this.metrics = metrics;
+		this.pool = new ForkJoinPool(parallelism);
+		this.inFlight = new Semaphore(parallelism * 4);
+	}
+
+	/* (non-Javadoc)
+	 * @see org.opentdc.addressbooks.file.SnapshotCodec.RecordSink#accept(org.opentdc.addressbooks.file.StoreSection, com.google.gson.JsonObject)
+	 */
+	@Override
+	public void accept(
+			StoreSection section,
+			JsonObject record) throws IOException {
+		if (section != this.section) {
+			submitBatch();
+			if (section == StoreSection.ADDRESSES) {		// the parents must be indexed first
+				awaitPending();
+			}
+			this.section = section;
+		}
+		batch.add(record);
+		if (batch.size() == BATCH_SIZE) {
+			submitBatch();
+		}
+	}
+
+	/**
+	 * Index the remaining records and wait until all records are indexed.
+	 * @throws IOException if a record could not be indexed
+	 */
+	void finish() throws IOException {
+		submitBatch();
+		awaitPending();
+	}
+
+	void close() {
+		pool.shutdown();
+	}
+
+	private void submitBatch() throws IOException {
+		if (batch.isEmpty()) {
+			return;
+		}
+		try {
+			inFlight.acquire();
+		} catch (InterruptedException _ex) {
+			Thread.currentThread().interrupt();
+			throw new IOException("interrupted while loading the snapshot");
+		}
+		pending.add(pool.submit(new BatchTask(section, batch)));
+		batch = new ArrayList<JsonObject>(BATCH_SIZE);
+		if (pending.size() > 1024) {		// forget about completed tasks
+			awaitCompleted();
+		}
+		long _now = System.currentTimeMillis();
+		if (_now - lastProgress > PROGRESS_INTERVAL) {
+			lastProgress = _now;
+			logger.info("loading snapshot: " + Math.round(metrics.getProgress() * 100) + "% (" + metrics + ")");
+		}
+	}
+
+	private void awaitCompleted() throws IOException {
+		List<ForkJoinTask<?>> _running = new ArrayList<ForkJoinTask<?>>();
+		for (ForkJoinTask<?> _task : pending) {
+			if (_task.isDone()) {
+				join(_task);
+			} else {
+				_running.add(_task);
+			}
+		}
+		pending.clear();
+		pending.addAll(_running);
+	}
+
+	private void awaitPending() throws IOException {
+		for (ForkJoinTask<?> _task : pending) {
+			join(_task);
+		}
+		pending.clear();
+	}
+
+	private void join(
+			ForkJoinTask<?> task) throws IOException {
+		try {
+			task.join();
+		} catch (RuntimeException _ex) {
+			for (Throwable _cause = _ex; _cause != null; _cause = _cause.getCause()) {
+				if (_cause instanceof IOException) {
+					throw (IOException) _cause;
+				}
+			}
+			throw new IOException("snapshot record can not be indexed: " + _ex.getMessage(), _ex);
+		}
+	}
+
+	private class BatchTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final StoreSection section;
+		private final List<JsonObject> records;
+
+		BatchTask(
+				StoreSection section,
+				List<JsonObject> records) {
+			this.section = section;
+			this.records = records;
+		}
+
+		@Override
+		protected void compute() {
+			try {
+				for (JsonObject _record : records) {
+					target.accept(section, _record);
+				}
+			} catch (IOException _ex) {
+				throw new RuntimeException(_ex);
+			} finally {
+				inFlight.release();
+			}
+		}
+	}
+}
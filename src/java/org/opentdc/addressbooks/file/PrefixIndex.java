@@ -0,0 +1,477 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Arbalo AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.opentdc.addressbooks.file;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * An inverted index from the tokens of the text fields of models to the models, for type-ahead prefix search.
+ * Texts are split into tokens at all characters that are neither letters nor digits; tokens are compared
+ * without case and accents. A query matches a model if each token of the query is a prefix of a token of the model.
+ * Each posting list holds its models in sort order, so that a page is read by joining the posting lists of the
+ * query tokens in this order, and the join stops as soon as the page is complete; nothing is sorted at query time.
+ * Posting lists are immutable arrays that are replaced on each change, and the tokens are kept in a skip list,
+ * so that lookups never take a lock.
+ * The index is built from its source on first use and maintained incrementally afterwards;
+ * until then add(), remove() and replace() are no-ops.
+ * Models must not be changed while they are contained in the index: replace them by a changed copy instead.
+ * @author Bruno Kaiser
+ *
+ * @param <T> the type of the models
+ */
+class PrefixIndex<T> {
+	/**
+	 * Provides all models when the index is built.
+	 */
+	interface Source<T> {
+		Collection<T> values();
+	}
+
+	/**
+	 * Provides the id and the searchable text fields of a model.
+	 */
+	interface Document<T> {
+		String getId(T model);
+
+		String[] getTexts(T model);
+	}
+
+	/**
+	 * The maximal number of distinct tokens a query token may be a prefix of to be joined by its posting lists;
+	 * broader query tokens, e.g. single letters, are checked on the candidates of the others.
+	 */
+	static final int MAX_JOINED_TOKENS = 64;
+
+	private static final Object[] NO_MODELS = new Object[0];
+
+	private final Comparator<? super T> order;
+	private final Document<T> document;
+	private final Source<T> source;
+	private volatile ConcurrentNavigableMap<String, Object[]> postings = null;
+	private final Map<String, String[]> tokensById = new ConcurrentHashMap<String, String[]>();
+
+	/**
+	 * Constructor.
+	 * @param order the sort order of the results; it must order all models strictly, e.g. by id on equal keys
+	 * @param document provides the ids and texts of the models
+	 * @param source provides the models when the index is built
+	 */
+	PrefixIndex(
+			Comparator<? super T> order,
+			Document<T> document,
+			Source<T> source) {
+		this.order = order;
+		this.document = document;
+		this.source = source;
+	}
+
+	/**
+	 * Index a model.
+	 * @param model the model to add
+	 */
+	synchronized void add(
+			T model) {
+		if (postings != null) {
+			put(postings, model);
+		}
+	}
+
+	/**
+	 * Remove a model from the index.
+	 * @param model the indexed version of the model
+	 */
+	synchronized void remove(
+			T model) {
+		if (postings != null) {
+			delete(postings, model);
+		}
+	}
+
+	/**
+	 * Re-index a changed model.
+	 * @param model the indexed version of the model
+	 * @param changed the changed model
+	 */
+	synchronized void replace(
+			T model,
+			T changed) {
+		if (postings != null) {
+			delete(postings, model);
+			put(postings, changed);
+		}
+	}
+
+	/**
+	 * Select a page of the models that match a query.
+	 * The posting lists of the query tokens are joined in sort order; query tokens that are a prefix of more than
+	 * MAX_JOINED_TOKENS tokens are checked on the candidates of the others instead.
+	 * @param query the query tokens, see tokenize()
+	 * @param filter an additional condition on the matches; null accepts all matches
+	 * @param position the number of matches to skip
+	 * @param size the maximal number of matches to return
+	 * @return the matches from position to position + size in sort order, or null if all query tokens are too broad
+	 * to be joined; such a query is answered faster by scanning the models in sort order with matches()
+	 */
+	List<T> select(
+			List<String> query,
+			Paging.Filter<? super T> filter,
+			int position,
+			int size) {
+		ConcurrentNavigableMap<String, Object[]> _postings = current();
+		List<Cursor> _cursors = new ArrayList<Cursor>();
+		List<String> _checked = new ArrayList<String>();
+		for (String _token : query) {
+			ConcurrentNavigableMap<String, Object[]> _range = range(_postings, _token);
+			if (_range.isEmpty()) {
+				return new ArrayList<T>();
+			}
+			if (isNarrow(_range)) {
+				_cursors.add(new Cursor(_range));
+			} else {
+				_checked.add(_token);
+			}
+		}
+		if (_cursors.isEmpty()) {
+			return null;
+		}
+		// leapfrog join: advance the cursors in turn to the current candidate until all of them agree on it
+		List<T> _selection = new ArrayList<T>(Math.max(0, Math.min(size, 1024)));
+		int _skip = Math.max(0, position);
+		T _candidate = _cursors.get(0).seek(null, false);
+		int _agreed = 1;
+		int i = 0;
+		while (_candidate != null && _selection.size() < size) {
+			if (_agreed == _cursors.size()) {
+				if ((_checked.isEmpty() || matches(tokensById.get(document.getId(_candidate)), _checked)) 
+						&& (filter == null || filter.evaluate(_candidate))) {
+					if (_skip > 0) {
+						_skip--;
+					} else {
+						_selection.add(_candidate);
+					}
+				}
+				_candidate = _cursors.get(0).seek(_candidate, true);
+				_agreed = 1;
+				i = 0;
+				continue;
+			}
+			i = (i + 1) % _cursors.size();
+			T _head = _cursors.get(i).seek(_candidate, false);
+			if (_head == null) {
+				break;
+			}
+			if (order.compare(_head, _candidate) == 0) {
+				_agreed++;
+			} else {
+				_candidate = _head;
+				_agreed = 1;
+			}
+		}
+		return _selection;
+	}
+
+	/**
+	 * @param query the query tokens, see tokenize()
+	 * @return true if select() can join the posting lists of the query, i.e. not all query tokens are too broad
+	 */
+	boolean isJoinable(
+			List<String> query) {
+		ConcurrentNavigableMap<String, Object[]> _postings = current();
+		for (String _token : query) {
+			if (isNarrow(range(_postings, _token))) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @param id the id of an indexed model
+	 * @param query the query tokens, see tokenize()
+	 * @return true if each query token is a prefix of a token of the model
+	 */
+	boolean matches(
+			String id,
+			List<String> query) {
+		return matches(tokensById.get(id), query);
+	}
+
+	/**
+	 * Split texts into normalized tokens: lower case, without accents, at all characters that are neither letters nor digits.
+	 * @param texts the texts; null values are skipped
+	 * @return the distinct tokens in order of their first occurrence
+	 */
+	static String[] tokenize(
+			String... texts) {
+		Set<String> _tokens = new LinkedHashSet<String>();
+		for (String _text : texts) {
+			if (_text == null) {
+				continue;
+			}
+			String _normalized = Normalizer.normalize(_text, Normalizer.Form.NFD).toLowerCase(Locale.ROOT);
+			StringBuilder _token = new StringBuilder();
+			for (int i = 0; i <= _normalized.length(); i++) {
+				char _c = i < _normalized.length() ? _normalized.charAt(i) : ' ';
+				if (Character.getType(_c) == Character.NON_SPACING_MARK) {
+					continue;		// accent of the previous character
+				}
+				if (Character.isLetterOrDigit(_c)) {
+					_token.append(_c);
+				} else if (_token.length() > 0) {
+					_tokens.add(_token.toString());
+					_token.setLength(0);
+				}
+			}
+		}
+		return _tokens.toArray(new String[_tokens.size()]);
+	}
+
+	/**
+	 * Reads the models of all tokens with a given prefix, i.e. the union of their posting lists, in sort order.
+	 */
+	private class Cursor {
+		private final Object[][] lists;
+		private final int[] positions;
+
+		Cursor(
+				Map<String, Object[]> range) {
+			lists = range.values().toArray(new Object[0][]);
+			positions = new int[lists.length];
+		}
+
+		/**
+		 * Advance to a model; the cursor only moves forward.
+		 * @param key the model to advance to, or null to read the first model
+		 * @param after if true, advance past the key
+		 * @return the first model from key on (after key if after is true), or null if there is none
+		 */
+		@SuppressWarnings("unchecked")
+		T seek(
+				T key,
+				boolean after) {
+			T _first = null;
+			for (int j = 0; j < lists.length; j++) {
+				Object[] _list = lists[j];
+				if (key != null) {
+					positions[j] = ceiling(_list, positions[j], key, after);
+				}
+				if (positions[j] < _list.length) {
+					T _head = (T) _list[positions[j]];
+					if (_first == null || order.compare(_head, _first) < 0) {
+						_first = _head;
+					}
+				}
+			}
+			return _first;
+		}
+
+		@SuppressWarnings("unchecked")
+		private int ceiling(
+				Object[] list,
+				int from,
+				T key,
+				boolean after) {
+			int _low = from;
+			int _high = list.length;
+			while (_low < _high) {
+				int _mid = (_low + _high) >>> 1;
+				int _cmp = order.compare((T) list[_mid], key);
+				if (_cmp < 0 || (after && _cmp == 0)) {
+					_low = _mid + 1;
+				} else {
+					_high = _mid;
+				}
+			}
+			return _low;
+		}
+	}
+
+	private static boolean matches(
+			String[] tokens,
+			List<String> query) {
+		if (tokens == null) {
+			return false;
+		}
+		for (String _prefix : query) {
+			boolean _found = false;
+			for (String _token : tokens) {
+				if (_token.startsWith(_prefix)) {
+					_found = true;
+					break;
+				}
+			}
+			if (!_found) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static ConcurrentNavigableMap<String, Object[]> range(
+			ConcurrentNavigableMap<String, Object[]> postings,
+			String prefix) {
+		return postings.subMap(prefix, true, prefix + Character.MAX_VALUE, false);
+	}
+
+	private static boolean isNarrow(
+			ConcurrentNavigableMap<String, Object[]> range) {
+		int _count = 0;
+		for (Iterator<String> _tokens = range.keySet().iterator(); _tokens.hasNext(); _tokens.next()) {
+			if (++_count > MAX_JOINED_TOKENS) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@SuppressWarnings("unchecked")
+	private int search(
+			Object[] list,
+			T model) {
+		int _low = 0;
+		int _high = list.length - 1;
+		while (_low <= _high) {
+			int _mid = (_low + _high) >>> 1;
+			int _cmp = order.compare((T) list[_mid], model);
+			if (_cmp < 0) {
+				_low = _mid + 1;
+			} else if (_cmp > 0) {
+				_high = _mid - 1;
+			} else {
+				return _mid;
+			}
+		}
+		return -(_low + 1);
+	}
+
+	private void put(
+			ConcurrentNavigableMap<String, Object[]> postings,
+			T model) {
+		String _id = document.getId(model);
+		String[] _tokens = tokenize(document.getTexts(model));
+		tokensById.put(_id, _tokens);
+		for (String _token : _tokens) {
+			Object[] _list = postings.get(_token);
+			if (_list == null) {
+				_list = NO_MODELS;
+			}
+			int _pos = search(_list, model);
+			if (_pos >= 0) {
+				continue;		// already indexed, e.g. by the build of the index
+			}
+			_pos = -_pos - 1;
+			Object[] _changed = new Object[_list.length + 1];
+			System.arraycopy(_list, 0, _changed, 0, _pos);
+			_changed[_pos] = model;
+			System.arraycopy(_list, _pos, _changed, _pos + 1, _list.length - _pos);
+			postings.put(_token, _changed);
+		}
+	}
+
+	private void delete(
+			ConcurrentNavigableMap<String, Object[]> postings,
+			T model) {
+		String _id = document.getId(model);
+		String[] _tokens = tokensById.remove(_id);
+		if (_tokens == null) {
+			return;
+		}
+		for (String _token : _tokens) {
+			Object[] _list = postings.get(_token);
+			if (_list == null) {
+				continue;
+			}
+			int _pos = search(_list, model);
+			if (_pos < 0) {
+				// the model was changed while it was indexed
+				for (int i = 0; i < _list.length; i++) {
+					@SuppressWarnings("unchecked")
+					T _model = (T) _list[i];
+					if (document.getId(_model).equals(_id)) {
+						_pos = i;
+						break;
+					}
+				}
+			}
+			if (_pos < 0) {
+				continue;
+			}
+			if (_list.length == 1) {
+				postings.remove(_token);
+			} else {
+				Object[] _changed = new Object[_list.length - 1];
+				System.arraycopy(_list, 0, _changed, 0, _pos);
+				System.arraycopy(_list, _pos + 1, _changed, _pos, _list.length - _pos - 1);
+				postings.put(_token, _changed);
+			}
+		}
+	}
+
+	private ConcurrentNavigableMap<String, Object[]> current() {
+		ConcurrentNavigableMap<String, Object[]> _postings = postings;
+		if (_postings != null) {
+			return _postings;
+		}
+		synchronized (this) {
+			if (postings == null) {
+				// distribute the sorted models, so that all posting lists are built in sort order
+				List<T> _models = new ArrayList<T>(source.values());
+				Collections.sort(_models, order);
+				Map<String, List<Object>> _lists = new HashMap<String, List<Object>>();
+				for (T _model : _models) {
+					String[] _tokens = tokenize(document.getTexts(_model));
+					tokensById.put(document.getId(_model), _tokens);
+					for (String _token : _tokens) {
+						List<Object> _list = _lists.get(_token);
+						if (_list == null) {
+							_list = new ArrayList<Object>();
+							_lists.put(_token, _list);
+						}
+						_list.add(_model);
+					}
+				}
+				ConcurrentNavigableMap<String, Object[]> _built = new ConcurrentSkipListMap<String, Object[]>();
+				for (Map.Entry<String, List<Object>> _entry : _lists.entrySet()) {
+					_built.put(_entry.getKey(), _entry.getValue().toArray());
+				}
+				postings = _built;
+			}
+			return postings;
+		}
+	}
+}
@@ -0,0 +1,159 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Arbalo AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.opentdc.addressbooks.file;
+
+import java.io.File;
+import java.util.Arrays;
+
+import javax.servlet.ServletContext;
+
+/**
+ * Configuration of the file-based addressbook service.
+ * Each value is looked up as servlet context init parameter <code>prefix.key</code>,
+ * then as system property of the same name, and finally falls back to its default.
+ * @author Bruno Kaiser
+ *
+ */
+public class ProviderConfig {
+	public static final String DATA_DIR = "dataDir";
+	public static final String PERSISTENCE_MODE = "persistence.mode";
+	public static final String JOURNAL_SYNC = "journal.sync";
+	public static final String JOURNAL_COMPACT_INTERVAL = "journal.compactInterval";
+	public static final String JOURNAL_COMPACT_THRESHOLD = "journal.compactThreshold";
+	public static final String SNAPSHOT_FORMAT = "snapshot.format";
+	public static final String SNAPSHOT_COMPRESSION = "snapshot.compression";
+	public static final String SNAPSHOT_MAPPED = "snapshot.mapped";
+	public static final String LOAD_PARALLELISM = "load.parallelism";
+	public static final String LOCK_STRIPES = "lock.stripes";
+	public static final String BULK_PARALLELISM = "bulk.parallelism";
+	public static final String IMPORT_BATCH_SIZE = "import.batchSize";
+	public static final String IMPORT_MAX_ERRORS = "import.maxErrors";
+	public static final String LOG_SAMPLE_RATE = "log.sampleRate";
+	public static final String METRICS_JMX = "metrics.jmx";
+	public static final String CHANGES_TOMBSTONES = "changes.tombstones";
+	public static final String FEED_CAPACITY = "feed.capacity";
+	public static final String FEED_BLOCK_TIMEOUT = "feed.blockTimeout";
+	public static final String FEED_PERSIST = "feed.persist";
+	public static final String FEED_SEGMENT_SIZE = "feed.segmentSize";
+	public static final String FEED_SEGMENTS = "feed.segments";
+	public static final String GROUP_COMMIT_WINDOW = "groupCommit.window";
+	public static final String GROUP_COMMIT_DURABILITY = "groupCommit.durability";
+
+	private final ServletContext context;
+	private final String prefix;
+
+	/**
+	 * Constructor.
+	 * @param context the servlet context (may be null outside of a servlet container)
+	 * @param prefix the name of the service implementation, used as namespace of all keys
+	 */
+	public ProviderConfig(
+			ServletContext context,
+			String prefix) {
+		this.context = context;
+		this.prefix = prefix;
+	}
+
+	public String getString(
+			String key,
+			String defaultValue) {
+		String _name = prefix + "." + key;
+		String _value = null;
+		if (context != null) {
+			_value = context.getInitParameter(_name);
+		}
+		if (_value == null) {
+			_value = System.getProperty(_name);
+		}
+		if (_value == null || _value.trim().length() == 0) {
+			return defaultValue;
+		}
+		return _value.trim();
+	}
+
+	public int getInt(
+			String key,
+			int defaultValue) {
+		return (int) getLong(key, defaultValue);
+	}
+
+	public long getLong(
+			String key,
+			long defaultValue) {
+		String _value = getString(key, null);
+		if (_value == null) {
+			return defaultValue;
+		}
+		try {
+			return Long.parseLong(_value);
+		} catch (NumberFormatException _ex) {
+			throw new IllegalArgumentException("configuration value <" + prefix + "." + key +
+					"> must be a number, but is <" + _value + ">.");
+		}
+	}
+
+	public boolean getBoolean(
+			String key,
+			boolean defaultValue) {
+		String _value = getString(key, null);
+		return _value == null ? defaultValue : Boolean.parseBoolean(_value);
+	}
+
+	public <E extends Enum<E>> E getEnum(
+			String key,
+			Class<E> type,
+			E defaultValue) {
+		String _value = getString(key, null);
+		if (_value == null) {
+			return defaultValue;
+		}
+		for (E _constant : type.getEnumConstants()) {
+			if (_constant.name().equalsIgnoreCase(_value)) {
+				return _constant;
+			}
+		}
+		throw new IllegalArgumentException("configuration value <" + prefix + "." + key +
+				"> must be one of " + Arrays.toString(type.getEnumConstants()) + ", but is <" + _value + ">.");
+	}
+
+	/**
+	 * The directory where journal and snapshot files are kept.
+	 * Defaults to the <code>prefix</code> directory within the web application.
+	 * @return the data directory; it is created if it does not yet exist
+	 */
+	public File getDataDir() {
+		String _path = getString(DATA_DIR, null);
+		if (_path == null && context != null) {
+			_path = context.getRealPath("/" + prefix);
+		}
+		if (_path == null) {
+			_path = new File(System.getProperty("java.io.tmpdir"), prefix).getPath();
+		}
+		File _dir = new File(_path);
+		if (!_dir.isDirectory() && !_dir.mkdirs()) {
+			throw new IllegalStateException("data directory <" + _dir + "> can not be created.");
+		}
+		return _dir;
+	}
+}
@@ -0,0 +1,211 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Arbalo AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.opentdc.addressbooks.file;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.opentdc.util.PrettyPrinter;
+
+/**
+ * Logging facade for the operations of the provider.
+ * Messages are patterns with {} placeholders. Nothing is formatted unless the message is actually logged:
+ * the level is checked first, and models are only rendered as pretty JSON when the message is written.
+ * Arguments that are not strings, numbers, booleans or enums are rendered as pretty JSON.
+ * Each operation (the pattern up to the first parenthesis) can be sampled, i.e. only every n-th
+ * message of this operation is logged. Reads of single models are logged at FINE, so that they are off by default.
+ * @author Bruno Kaiser
+ *
+ */
+final class ProviderLog {
+	private static final Object[] NO_ARGS = new Object[0];
+
+	private final Logger logger;
+	private final ProviderConfig config;
+	private final long defaultRate;
+	private final ConcurrentMap<String, Sampler> samplers = new ConcurrentHashMap<String, Sampler>();
+
+	private static class Sampler {
+		private final long rate;
+		private final AtomicLong count = new AtomicLong();
+
+		Sampler(
+				long rate) {
+			this.rate = Math.max(1, rate);
+		}
+
+		boolean sample() {
+			return rate == 1 || count.getAndIncrement() % rate == 0;
+		}
+	}
+
+	/**
+	 * Constructor.
+	 * @param logger the logger to write to
+	 * @param config the provider configuration with the sampling rates, or null to log all messages
+	 */
+	ProviderLog(
+			Logger logger,
+			ProviderConfig config) {
+		this.logger = logger;
+		this.config = config;
+		this.defaultRate = config == null ? 1 : config.getLong(ProviderConfig.LOG_SAMPLE_RATE, 1);
+	}
+
+	/*
+	 * The info() overloads take a fixed number of arguments, so that no argument array is allocated
+	 * unless the message is logged.
+	 */
+	void info(String pattern) {
+		if (isLoggable(Level.INFO, pattern)) {
+			log(Level.INFO, pattern, NO_ARGS);
+		}
+	}
+
+	void info(String pattern, Object a0) {
+		if (isLoggable(Level.INFO, pattern)) {
+			log(Level.INFO, pattern, new Object[] { a0 });
+		}
+	}
+
+	void info(String pattern, Object a0, Object a1) {
+		if (isLoggable(Level.INFO, pattern)) {
+			log(Level.INFO, pattern, new Object[] { a0, a1 });
+		}
+	}
+
+	void info(String pattern, Object a0, Object a1, Object a2) {
+		if (isLoggable(Level.INFO, pattern)) {
+			log(Level.INFO, pattern, new Object[] { a0, a1, a2 });
+		}
+	}
+
+	void info(String pattern, Object a0, Object a1, Object a2, Object a3) {
+		if (isLoggable(Level.INFO, pattern)) {
+			log(Level.INFO, pattern, new Object[] { a0, a1, a2, a3 });
+		}
+	}
+
+	void info(String pattern, Object a0, Object a1, Object a2, Object a3, Object a4) {
+		if (isLoggable(Level.INFO, pattern)) {
+			log(Level.INFO, pattern, new Object[] { a0, a1, a2, a3, a4 });
+		}
+	}
+
+	void info(String pattern, Object a0, Object a1, Object a2, Object a3, Object a4, Object a5) {
+		if (isLoggable(Level.INFO, pattern)) {
+			log(Level.INFO, pattern, new Object[] { a0, a1, a2, a3, a4, a5 });
+		}
+	}
+
+	void info(String pattern, Object a0, Object a1, Object a2, Object a3, Object a4, Object a5, Object a6) {
+		if (isLoggable(Level.INFO, pattern)) {
+			log(Level.INFO, pattern, new Object[] { a0, a1, a2, a3, a4, a5, a6 });
+		}
+	}
+
+	/*
+	 * The fine() overloads are meant for the read paths, which would otherwise log a model per call.
+	 */
+	void fine(String pattern, Object a0, Object a1) {
+		if (isLoggable(Level.FINE, pattern)) {
+			log(Level.FINE, pattern, new Object[] { a0, a1 });
+		}
+	}
+
+	void fine(String pattern, Object a0, Object a1, Object a2) {
+		if (isLoggable(Level.FINE, pattern)) {
+			log(Level.FINE, pattern, new Object[] { a0, a1, a2 });
+		}
+	}
+
+	void fine(String pattern, Object a0, Object a1, Object a2, Object a3) {
+		if (isLoggable(Level.FINE, pattern)) {
+			log(Level.FINE, pattern, new Object[] { a0, a1, a2, a3 });
+		}
+	}
+
+	/**
+	 * @param level the level of the message
+	 * @param pattern the message pattern, which identifies the operation
+	 * @return true if the message is to be logged; this takes a sample of the operation
+	 */
+	private boolean isLoggable(
+			Level level,
+			String pattern) {
+		if (!logger.isLoggable(level)) {
+			return false;
+		}
+		Sampler _sampler = samplers.get(pattern);
+		if (_sampler == null) {
+			_sampler = new Sampler(getRate(pattern));
+			Sampler _existing = samplers.putIfAbsent(pattern, _sampler);
+			if (_existing != null) {
+				_sampler = _existing;
+			}
+		}
+		return _sampler.sample();
+	}
+
+	private long getRate(
+			String pattern) {
+		if (config == null) {
+			return defaultRate;
+		}
+		int _end = pattern.indexOf('(');
+		String _operation = _end < 0 ? pattern : pattern.substring(0, _end);
+		return config.getLong(ProviderConfig.LOG_SAMPLE_RATE + "." + _operation, defaultRate);
+	}
+
+	private void log(
+			Level level,
+			String pattern,
+			Object[] args) {
+		StringBuilder _message = new StringBuilder(pattern.length() + 64);
+		int _arg = 0;
+		int _start = 0;
+		int _pos = 0;
+		while ((_pos = pattern.indexOf("{}", _start)) >= 0 && _arg < args.length) {
+			_message.append(pattern, _start, _pos);
+			render(_message, args[_arg++]);
+			_start = _pos + 2;
+		}
+		_message.append(pattern, _start, pattern.length());
+		logger.log(level, _message.toString());
+	}
+
+	private static void render(
+			StringBuilder message,
+			Object arg) {
+		if (arg == null || arg instanceof CharSequence || arg instanceof Number 
+				|| arg instanceof Boolean || arg instanceof Enum) {
+			message.append(arg);
+		} else {
+			message.append(PrettyPrinter.prettyPrintAsJSON(arg));
+		}
+	}
+}
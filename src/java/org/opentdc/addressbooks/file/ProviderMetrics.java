@@ -0,0 +1,182 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Arbalo AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.opentdc.addressbooks.file;
+
+import java.lang.management.ManagementFactory;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Call counts, errors and latencies of all operations of FileServiceProvider,
+ * exposed as JMX MBeans and as a plain-text dump.
+ * @author Bruno Kaiser
+ *
+ */
+public class ProviderMetrics implements ProviderMetricsMBean {
+	private static final Logger logger = Logger.getLogger(ProviderMetrics.class.getName());
+	private static final String DOMAIN = "org.opentdc.addressbooks.file";
+
+	private final OperationMetrics[] operations;
+
+	ProviderMetrics() {
+		ProviderOperation[] _values = ProviderOperation.values();
+		operations = new OperationMetrics[_values.length];
+		for (int i = 0; i < _values.length; i++) {
+			operations[i] = new OperationMetrics(_values[i].getName());
+		}
+	}
+
+	/**
+	 * Measures one call of an operation. Closing the timer records the call, successful or not:
+	 * <pre>
+	 * ProviderMetrics.Timer _timer = metrics.start(ProviderOperation.READ_CONTACT);
+	 * try {
+	 * 	...
+	 * } catch (RuntimeException _ex) {
+	 * 	_timer.failed(_ex);
+	 * 	throw _ex;
+	 * } finally {
+	 * 	_timer.close();
+	 * }
+	 * </pre>
+	 */
+	static class Timer implements AutoCloseable {
+		private final OperationMetrics operation;
+		private final long startNanos;
+
+		private Timer(
+				OperationMetrics operation) {
+			this.operation = operation;
+			this.startNanos = System.nanoTime();
+		}
+
+		/**
+		 * Record the exception of a failed call.
+		 * @param exception the exception thrown by the call
+		 */
+		void failed(
+				Throwable exception) {
+			operation.failed(exception);
+		}
+
+		/**
+		 * @return the nanoseconds elapsed since the call started
+		 */
+		long getElapsedNanos() {
+			return System.nanoTime() - startNanos;
+		}
+
+		/* (non-Javadoc)
+		 * @see java.lang.AutoCloseable#close()
+		 */
+		@Override
+		public void close() {
+			operation.record(getElapsedNanos());
+		}
+	}
+
+	/**
+	 * Start measuring a call of an operation.
+	 * @param operation the operation
+	 * @return the timer to close when the call returns
+	 */
+	Timer start(
+			ProviderOperation operation) {
+		return new Timer(operations[operation.ordinal()]);
+	}
+
+	/**
+	 * @param name the name of the provider method, e.g. readContact
+	 * @return the metrics of this operation, or null if the operation is not measured
+	 */
+	public OperationMetrics getOperation(
+			String name) {
+		for (OperationMetrics _operation : operations) {
+			if (_operation.getName().equals(name)) {
+				return _operation;
+			}
+		}
+		return null;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.opentdc.addressbooks.file.ProviderMetricsMBean#dump()
+	 */
+	@Override
+	public String dump() {
+		StringBuilder _sb = new StringBuilder();
+		_sb.append(String.format("%-20s %10s %8s %10s %10s %10s %10s %10s %10s%n", 
+				"operation", "count", "errors", "mean[us]", "p50[us]", "p90[us]", "p99[us]", "p99.9[us]", "max[us]"));
+		for (OperationMetrics _operation : operations) {
+			if (_operation.getCount() > 0) {
+				_operation.appendTo(_sb);
+			}
+		}
+		return _sb.toString();
+	}
+
+	/* (non-Javadoc)
+	 * @see org.opentdc.addressbooks.file.ProviderMetricsMBean#reset()
+	 */
+	@Override
+	public void reset() {
+		for (OperationMetrics _operation : operations) {
+			_operation.reset();
+		}
+	}
+
+	/**
+	 * Register the metrics and the metrics of each operation with the platform MBean server.
+	 * MBeans of a previous registration with the same name, e.g. of a redeployed web application, are replaced.
+	 * @param name the name of the provider instance, i.e. its configuration prefix
+	 */
+	void register(
+			String name) {
+		MBeanServer _server = ManagementFactory.getPlatformMBeanServer();
+		try {
+			register(_server, new ObjectName(DOMAIN + ":type=ProviderMetrics,name=" + ObjectName.quote(name)), this);
+			for (OperationMetrics _operation : operations) {
+				register(_server, new ObjectName(DOMAIN + ":type=OperationMetrics,provider=" + ObjectName.quote(name) 
+						+ ",name=" + _operation.getName()), _operation);
+			}
+		} catch (JMException _ex) {
+			logger.log(Level.WARNING, "provider metrics can not be registered with JMX", _ex);
+		}
+	}
+
+	private static void register(
+			MBeanServer server,
+			ObjectName name,
+			Object mbean) 
+				throws JMException {
+		if (server.isRegistered(name)) {
+			server.unregisterMBean(name);
+		}
+		server.registerMBean(mbean, name);
+	}
+}
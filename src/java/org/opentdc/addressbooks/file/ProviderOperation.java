@@ -0,0 +1,91 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Arbalo AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.opentdc.addressbooks.file;
+
+/**
+ * The operations of FileServiceProvider that are measured by ProviderMetrics.
+ * COMMIT and WRITE_SNAPSHOT measure the persistence step of the mutations separately, 
+ * so that the time spent on the indexes can be told from the time spent on disk.
+ * @author Bruno Kaiser
+ *
+ */
+enum ProviderOperation {
+	LIST("list"),
+	CREATE("create"),
+	READ("read"),
+	UPDATE("update"),
+	DELETE("delete"),
+	LIST_ALL_CONTACTS("listAllContacts"),
+	LIST_ALL_ORGS("listAllOrgs"),
+	PAGE_ALL_CONTACTS("pageAllContacts"),
+	PAGE_CONTACTS("pageContacts"),
+	PAGE_ALL_ORGS("pageAllOrgs"),
+	PAGE_ORGS("pageOrgs"),
+	LIST_CONTACTS("listContacts"),
+	CREATE_CONTACT("createContact"),
+	READ_CONTACT("readContact"),
+	UPDATE_CONTACT("updateContact"),
+	DELETE_CONTACT("deleteContact"),
+	LIST_ORGS("listOrgs"),
+	CREATE_ORG("createOrg"),
+	READ_ORG("readOrg"),
+	UPDATE_ORG("updateOrg"),
+	DELETE_ORG("deleteOrg"),
+	LIST_ADDRESSES("listAddresses"),
+	CREATE_ADDRESS("createAddress"),
+	READ_ADDRESS("readAddress"),
+	UPDATE_ADDRESS("updateAddress"),
+	DELETE_ADDRESS("deleteAddress"),
+	LIST_ORG_ADDRESSES("listOrgAddresses"),
+	CREATE_ORG_ADDRESS("createOrgAddress"),
+	READ_ORG_ADDRESS("readOrgAddress"),
+	UPDATE_ORG_ADDRESS("updateOrgAddress"),
+	DELETE_ORG_ADDRESS("deleteOrgAddress"),
+	SEARCH_CONTACTS("searchContacts"),
+	SEARCH_ORGS("searchOrgs"),
+	FIND_CONTACTS_BY_ADDRESS("findContactsByAddress"),
+	FIND_ORGS_BY_ADDRESS("findOrgsByAddress"),
+	EXPLAIN_CONTACTS("explainContacts"),
+	EXPLAIN_ORGS("explainOrgs"),
+	CHANGES_SINCE("changesSince"),
+	BULK_IMPORT("bulkImport"),
+	EXPORT_ADDRESSBOOK("exportAddressbook"),
+	IMPORT_ADDRESSBOOK("importAddressbook"),
+	COMMIT("commit"),
+	WRITE_SNAPSHOT("writeSnapshot");
+
+	private final String name;
+
+	private ProviderOperation(
+			String name) {
+		this.name = name;
+	}
+
+	/**
+	 * @return the name of the provider method
+	 */
+	String getName() {
+		return name;
+	}
+}
@@ -0,0 +1,379 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Arbalo AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.opentdc.addressbooks.file;
+
+import java.text.ParsePosition;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.TimeZone;
+
+import org.opentdc.addressbooks.AddressType;
+import org.opentdc.service.exception.ValidationException;
+
+/**
+ * Chooses how a list query on contacts or orgs is answered, so that the list methods do not need special cases
+ * for each index.
+ * The queryType tells how the query is to be read:
+ * <ul>
+ * <li>id: a comma-separated list of ids, answered from the id index</li>
+ * <li>address: &lt;AddressType&gt;:&lt;value&gt;, e.g. EMAIL:anna@example.com, answered from the address-value index</li>
+ * <li>prefix: type-ahead words, answered by joining the posting lists of the prefix index</li>
+ * <li>modified: a date, yyyy-MM-dd or yyyy-MM-ddTHH:mm:ssZ, or milliseconds since 1970; the models modified 
+ * at or after it are answered from the change index</li>
+ * <li>any other value, or none: an expression of the query handler, evaluated while scanning the sorted index</li>
+ * </ul>
+ * Within an addressbook, the members are either collected and sorted, or the sorted index is scanned and the
+ * members are filtered, whichever is estimated to read fewer models.
+ * Each plan describes itself with explain().
+ * @author Bruno Kaiser
+ *
+ * @param <T> the type of the models
+ */
+class QueryPlanner<T> {
+	static final String QUERY_TYPE_ID = "id";
+	static final String QUERY_TYPE_ADDRESS = "address";
+	static final String QUERY_TYPE_PREFIX = "prefix";
+	static final String QUERY_TYPE_MODIFIED = "modified";
+	private static final String[] DATE_PATTERNS = { "yyyy-MM-dd'T'HH:mm:ss.SSSXXX", "yyyy-MM-dd'T'HH:mm:ssXXX", "yyyy-MM-dd" };
+
+	/**
+	 * Provides the models by id and the indexes that are not kept by the planner itself.
+	 */
+	interface Catalog<T> {
+		String getId(T model);
+
+		/**
+		 * @return the model with this id, or null if it does not exist
+		 */
+		T get(String id);
+
+		/**
+		 * @return the ids of the models with an address of this type and value
+		 */
+		Set<String> findByAddress(AddressType addressType, String value);
+
+		/**
+		 * @return the ids of the models modified at or after this date
+		 */
+		Set<String> findModifiedSince(Date since);
+
+		/**
+		 * @return the filter evaluating a query of the query handler, or null if the query matches all models
+		 */
+		Paging.Filter<T> parse(String query);
+	}
+
+	/**
+	 * A chosen way to answer a query.
+	 */
+	abstract static class Plan<T> {
+		private final String description;
+
+		Plan(
+				String description) {
+			this.description = description;
+		}
+
+		/**
+		 * @return the page of matches in sort order
+		 */
+		abstract List<T> execute();
+
+		/**
+		 * @return a description of the plan, e.g. for diagnostics
+		 */
+		String explain() {
+			return description;
+		}
+
+		/* (non-Javadoc)
+		 * @see java.lang.Object#toString()
+		 */
+		@Override
+		public String toString() {
+			return description;
+		}
+	}
+
+	private final Catalog<T> catalog;
+	private final SortedIndex<T> order;
+	private final PrefixIndex<T> search;
+
+	/**
+	 * Constructor.
+	 * @param catalog provides the models by id, the address-value index and the query handler
+	 * @param order the sorted index of all models
+	 * @param search the prefix index of all models
+	 */
+	QueryPlanner(
+			Catalog<T> catalog,
+			SortedIndex<T> order,
+			PrefixIndex<T> search) {
+		this.catalog = catalog;
+		this.order = order;
+		this.search = search;
+	}
+
+	/**
+	 * Plan a query.
+	 * @param query the query
+	 * @param queryType how the query is to be read, see above
+	 * @param members the ids of the models of the addressbook to list, or null to list all models
+	 * @param position the number of matches to skip
+	 * @param size the maximal number of matches to return
+	 * @return the plan
+	 * @throws ValidationException if the query can not be read as queryType
+	 */
+	Plan<T> plan(
+			String query,
+			String queryType,
+			Set<String> members,
+			int position,
+			int size) 
+				throws ValidationException {
+		String _type = queryType == null ? "" : queryType.toLowerCase(Locale.ROOT);
+		switch (_type) {
+		case QUERY_TYPE_ID:
+			return planIds(query, members, position, size);
+		case QUERY_TYPE_ADDRESS:
+			return planAddress(query, members, position, size);
+		case QUERY_TYPE_PREFIX:
+			return planPrefix(query, members, position, size);
+		case QUERY_TYPE_MODIFIED:
+			return planModified(query, members, position, size);
+		default:
+			return planQuery(query, members, position, size);
+		}
+	}
+
+	private Plan<T> planIds(
+			String query,
+			Set<String> members,
+			int position,
+			int size) {
+		Set<String> _ids = new HashSet<String>();
+		for (String _id : (query == null ? "" : query).split(",")) {
+			if (_id.trim().length() > 0) {
+				_ids.add(_id.trim());
+			}
+		}
+		return lookup("lookup(id, " + _ids.size() + " ids)", _ids, members, position, size);
+	}
+
+	private Plan<T> planAddress(
+			String query,
+			Set<String> members,
+			int position,
+			int size) 
+				throws ValidationException {
+		int _colon = query == null ? -1 : query.indexOf(':');
+		AddressType _addressType = null;
+		try {
+			_addressType = _colon < 0 ? null : AddressType.valueOf(query.substring(0, _colon).trim().toUpperCase(Locale.ROOT));
+		} catch (IllegalArgumentException _ex) {
+			_addressType = null;
+		}
+		if (_addressType == null) {
+			throw new ValidationException("the address query <" + query + "> must have the form <AddressType>:<value>.");
+		}
+		String _value = query.substring(_colon + 1);
+		if (!AddressValueIndex.isIndexed(_addressType) || AddressValueIndex.key(_addressType, _value) == null) {
+			throw new ValidationException("the address query <" + query + "> can not be looked up.");
+		}
+		return lookup("lookup(address, " + _addressType + ")", 
+				catalog.findByAddress(_addressType, _value), members, position, size);
+	}
+
+	private Plan<T> planModified(
+			String query,
+			Set<String> members,
+			int position,
+			int size) 
+				throws ValidationException {
+		Date _since = parseDate(query);
+		if (_since == null) {
+			throw new ValidationException("the modified query <" + query + 
+					"> must be a date (yyyy-MM-dd or yyyy-MM-ddTHH:mm:ssZ) or milliseconds since 1970.");
+		}
+		Set<String> _ids = catalog.findModifiedSince(_since);
+		return lookup("lookup(modified, " + _ids.size() + " ids)", _ids, members, position, size);
+	}
+
+	private static Date parseDate(
+			String query) {
+		String _query = query == null ? "" : query.trim();
+		if (_query.matches("\\d{9,}")) {
+			return new Date(Long.parseLong(_query));
+		}
+		for (String _pattern : DATE_PATTERNS) {
+			SimpleDateFormat _format = new SimpleDateFormat(_pattern, Locale.ROOT);
+			_format.setTimeZone(TimeZone.getTimeZone("UTC"));
+			_format.setLenient(false);
+			ParsePosition _position = new ParsePosition(0);
+			Date _date = _format.parse(_query, _position);
+			if (_date != null && _position.getIndex() == _query.length()) {
+				return _date;
+			}
+		}
+		return null;
+	}
+
+	private Plan<T> planPrefix(
+			String query,
+			Set<String> members,
+			final int position,
+			final int size) 
+				throws ValidationException {
+		final List<String> _tokens = Arrays.asList(PrefixIndex.tokenize(query));
+		if (_tokens.isEmpty()) {
+			throw new ValidationException("the search query <" + query + "> contains no words.");
+		}
+		final Paging.Filter<T> _members = membership(members);
+		if (search.isJoinable(_tokens)) {
+			return new Plan<T>("join(prefix, " + _tokens.size() + " words)" + (members == null ? "" : " > filter(members)") 
+					+ page(position, size)) {
+				@Override
+				List<T> execute() {
+					List<T> _selection = search.select(_tokens, _members, position, size);
+					return _selection != null ? _selection : new ArrayList<T>();
+				}
+			};
+		}
+		return scan("filter(prefix, " + _tokens.size() + " words)", new Paging.Filter<T>() {
+			@Override
+			public boolean evaluate(T model) {
+				return search.matches(catalog.getId(model), _tokens);
+			}
+		}, members, position, size);
+	}
+
+	private Plan<T> planQuery(
+			String query,
+			Set<String> members,
+			int position,
+			int size) {
+		return scan(query == null || query.isEmpty() ? null : "filter(query)", catalog.parse(query), members, position, size);
+	}
+
+	/**
+	 * Read the candidates by id, filter and sort them.
+	 */
+	private Plan<T> lookup(
+			String description,
+			final Set<String> ids,
+			final Set<String> members,
+			final int position,
+			final int size) {
+		return new Plan<T>(description + (members == null ? "" : " > filter(members)") + " > sort" + page(position, size)) {
+			@Override
+			List<T> execute() {
+				List<T> _models = new ArrayList<T>(ids.size());
+				for (String _id : ids) {
+					T _model = catalog.get(_id);
+					if (_model != null && (members == null || members.contains(_id))) {
+						_models.add(_model);
+					}
+				}
+				return Paging.select(_models, order.getOrder(), null, position, size);
+			}
+		};
+	}
+
+	/**
+	 * Scan the sorted index until the page is complete, or collect and sort the members of an addressbook.
+	 * A scan of the sorted index reads about (position + size) * all / members models to find a page of members,
+	 * assuming that the members are spread evenly over the sort order; collecting them reads each member once.
+	 */
+	private Plan<T> scan(
+			String description,
+			final Paging.Filter<T> filter,
+			final Set<String> members,
+			final int position,
+			final int size) {
+		String _filter = description == null ? "" : " > " + description;
+		if (members == null) {
+			return new Plan<T>("scan(sorted)" + _filter + page(position, size)) {
+				@Override
+				List<T> execute() {
+					return order.select(filter, position, size);
+				}
+			};
+		}
+		long _count = Math.max(1, members.size());
+		if (((long) position + size) * order.size() / _count < _count) {
+			final Paging.Filter<T> _members = membership(members);
+			return new Plan<T>("scan(sorted) > filter(members, " + members.size() + " of " + order.size() + ")" 
+					+ _filter + page(position, size)) {
+				@Override
+				List<T> execute() {
+					return order.select(new Paging.Filter<T>() {
+						@Override
+						public boolean evaluate(T model) {
+							return _members.evaluate(model) && (filter == null || filter.evaluate(model));
+						}
+					}, position, size);
+				}
+			};
+		}
+		return new Plan<T>("lookup(members, " + members.size() + " of " + order.size() + ")" + _filter + " > sort" 
+				+ page(position, size)) {
+			@Override
+			List<T> execute() {
+				List<T> _models = new ArrayList<T>(members.size());
+				for (String _id : members) {
+					T _model = catalog.get(_id);
+					if (_model != null) {		// skip models that were deleted concurrently
+						_models.add(_model);
+					}
+				}
+				return Paging.select(_models, order.getOrder(), filter, position, size);
+			}
+		};
+	}
+
+	private Paging.Filter<T> membership(
+			final Set<String> members) {
+		if (members == null) {
+			return null;
+		}
+		return new Paging.Filter<T>() {
+			@Override
+			public boolean evaluate(T model) {
+				return members.contains(catalog.getId(model));
+			}
+		};
+	}
+
+	private static String page(
+			int position,
+			int size) {
+		return " > page(" + position + ", " + size + ")";
+	}
+}
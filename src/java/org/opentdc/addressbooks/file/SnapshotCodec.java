@@ -0,0 +1,66 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Arbalo AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.opentdc.addressbooks.file;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import com.google.gson.JsonObject;
+
+/**
+ * Encodes and decodes store snapshots.
+ * A snapshot consists of the sections of StoreSection in their natural order;
+ * implementations must stream the records instead of materializing the whole snapshot.
+ * @author Bruno Kaiser
+ *
+ */
+interface SnapshotCodec {
+	/**
+	 * Receives the records of a snapshot one by one.
+	 */
+	interface RecordSink {
+		void accept(StoreSection section, JsonObject record) throws IOException;
+	}
+
+	/**
+	 * Writes the records of a snapshot; the records must be passed in section order.
+	 */
+	interface RecordWriter extends RecordSink {
+		/**
+		 * Terminate the snapshot and flush it; the underlying stream is not closed.
+		 * @throws IOException if the snapshot can not be written
+		 */
+		void finish() throws IOException;
+	}
+
+	/**
+	 * @return the file name extension of snapshots written with this codec
+	 */
+	String getExtension();
+
+	RecordWriter openWriter(OutputStream out) throws IOException;
+
+	void read(InputStream in, RecordSink sink) throws IOException;
+}
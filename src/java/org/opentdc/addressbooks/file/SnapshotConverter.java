@@ -0,0 +1,95 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Arbalo AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.opentdc.addressbooks.file;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import com.google.gson.JsonObject;
+
+/**
+ * Converts store snapshots between the JSON and the binary format.
+ * <pre>
+ * java org.opentdc.addressbooks.file.SnapshotConverter input output [none|deflate]
+ * </pre>
+ * The format of the input is detected from its content, the format of the output from its extension
+ * (<code>.bin</code> for binary, JSON otherwise). Records are streamed, so that snapshots of any size can be converted.
+ * @author Bruno Kaiser
+ *
+ */
+public class SnapshotConverter {
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	public static void main(
+			String[] args) throws IOException {
+		if (args.length < 2 || args.length > 3) {
+			System.err.println("usage: SnapshotConverter input output [none|deflate]");
+			System.exit(1);
+		}
+		BinarySnapshotCodec.Compression _compression = BinarySnapshotCodec.Compression.NONE;
+		if (args.length == 3) {
+			_compression = BinarySnapshotCodec.Compression.valueOf(args[2].toUpperCase());
+		}
+		long _start = System.currentTimeMillis();
+		long _records = convert(args[0], args[1], _compression);
+		System.out.println("converted " + _records + " records from <" + args[0] + "> to <" + args[1] + "> in " + 
+				(System.currentTimeMillis() - _start) + "ms.");
+	}
+
+	/**
+	 * Convert a snapshot file.
+	 * @param input the snapshot to read
+	 * @param output the snapshot to write
+	 * @param compression the compression used if the output is binary
+	 * @return the number of records converted
+	 * @throws IOException if a snapshot can not be read or written
+	 */
+	public static long convert(
+			String input,
+			String output,
+			BinarySnapshotCodec.Compression compression) throws IOException {
+		SnapshotCodec _outputCodec = (output.endsWith(".bin") ? SnapshotFormat.BINARY : SnapshotFormat.JSON).createCodec(compression);
+		try (InputStream _in = new BufferedInputStream(new FileInputStream(input), BUFFER_SIZE);
+				OutputStream _out = new BufferedOutputStream(new FileOutputStream(output), BUFFER_SIZE)) {
+			SnapshotCodec _inputCodec = BinarySnapshotCodec.isBinarySnapshot(_in) ? 
+					SnapshotFormat.BINARY.createCodec(compression) : SnapshotFormat.JSON.createCodec(compression);
+			final SnapshotCodec.RecordWriter _writer = _outputCodec.openWriter(_out);
+			final long[] _count = new long[1];
+			_inputCodec.read(_in, new SnapshotCodec.RecordSink() {
+				@Override
+				public void accept(StoreSection section, JsonObject record) throws IOException {
+					_writer.accept(section, record);
+					_count[0]++;
+				}
+			});
+			_writer.finish();
+			return _count[0];
+		}
+	}
+}
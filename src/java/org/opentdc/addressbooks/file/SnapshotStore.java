@@ -0,0 +1,159 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Arbalo AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.opentdc.addressbooks.file;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.logging.Logger;
+
+/**
+ * The snapshot file of the addressbook store.
+ * Snapshots are written to a temporary file first and then atomically renamed,
+ * so that a crash while writing never destroys the previous snapshot.
+ * @author Bruno Kaiser
+ *
+ */
+class SnapshotStore {
+	private static final Logger logger = Logger.getLogger(SnapshotStore.class.getName());
+	private static final String FILE_NAME = "store";
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private final File file;
+	private final SnapshotCodec codec;
+
+	/**
+	 * Constructor.
+	 * @param dir the data directory
+	 * @param codec the format of the snapshot
+	 */
+	SnapshotStore(
+			File dir,
+			SnapshotCodec codec) {
+		this.file = new File(dir, FILE_NAME + "." + codec.getExtension());
+		this.codec = codec;
+	}
+
+	File getFile() {
+		return file;
+	}
+
+	boolean exists() {
+		return file.isFile();
+	}
+
+	boolean delete() {
+		return file.delete();
+	}
+
+	/**
+	 * Stream all records of the snapshot into the sink.
+	 * @param sink receives the records in section order
+	 * @param metrics receives the number of bytes read
+	 * @throws IOException if the snapshot can not be read
+	 */
+	void load(
+			SnapshotCodec.RecordSink sink,
+			LoadMetrics metrics) throws IOException {
+		long _start = System.currentTimeMillis();
+		metrics.setTotalBytes(file.length());
+		try (InputStream _in = new BufferedInputStream(new CountingInputStream(new FileInputStream(file), metrics), BUFFER_SIZE)) {
+			codec.read(_in, sink);
+		}
+		logger.info("read snapshot <" + file.getName() + "> in " + (System.currentTimeMillis() - _start) + "ms.");
+	}
+
+	/**
+	 * Write a new snapshot, replacing the previous one atomically.
+	 * @param snapshot the state to write
+	 * @throws IOException if the snapshot can not be written
+	 */
+	synchronized void write(
+			StoreSnapshot snapshot) throws IOException {
+		File _tmp = new File(file.getParentFile(), file.getName() + ".tmp");
+		try (FileOutputStream _fos = new FileOutputStream(_tmp)) {
+			OutputStream _out = new BufferedOutputStream(_fos, BUFFER_SIZE);
+			snapshot.writeTo(codec.openWriter(_out));
+			_out.flush();
+			_fos.getFD().sync();
+		}
+		try {
+			Files.move(_tmp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		} catch (AtomicMoveNotSupportedException _ex) {
+			Files.move(_tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	/**
+	 * Reports the number of bytes read to the load metrics.
+	 */
+	private static class CountingInputStream extends FilterInputStream {
+		private final LoadMetrics metrics;
+
+		CountingInputStream(
+				InputStream in,
+				LoadMetrics metrics) {
+			super(in);
+			this.metrics = metrics;
+		}
+
+		@Override
+		public int read() throws IOException {
+			int _b = super.read();
+			if (_b >= 0) {
+				metrics.addBytesRead(1);
+			}
+			return _b;
+		}
+
+		@Override
+		public int read(
+				byte[] b,
+				int off,
+				int len) throws IOException {
+			int _n = super.read(b, off, len);
+			if (_n > 0) {
+				metrics.addBytesRead(_n);
+			}
+			return _n;
+		}
+
+		@Override
+		public long skip(
+				long n) throws IOException {
+			long _n = super.skip(n);
+			metrics.addBytesRead(_n);
+			return _n;
+		}
+	}
+}
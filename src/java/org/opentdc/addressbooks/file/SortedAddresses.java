@@ -0,0 +1,111 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Arbalo AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.opentdc.addressbooks.file;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.opentdc.addressbooks.AddressModel;
+
+/**
+ * Maintains the addresses of a contact or org as an immutable list in AddressComparator order.
+ * Each change returns a new list, so that readers can page through the list they got without copying or sorting it.
+ * @author Bruno Kaiser
+ *
+ */
+final class SortedAddresses {
+	static final List<AddressModel> EMPTY = Collections.emptyList();
+
+	/**
+	 * AddressComparator, with addresses that compare equal ordered by id.
+	 */
+	static final Comparator<AddressModel> ORDER = new Comparator<AddressModel>() {
+		@Override
+		public int compare(AddressModel o1, AddressModel o2) {
+			int _result = AddressModel.AddressComparator.compare(o1, o2);
+			return _result != 0 ? _result : o1.getId().compareTo(o2.getId());
+		}
+	};
+
+	private SortedAddresses() {
+	}
+
+	/**
+	 * @param addresses addresses in any order
+	 * @return the addresses in sort order
+	 */
+	static List<AddressModel> of(
+			Collection<AddressModel> addresses) {
+		List<AddressModel> _list = new ArrayList<AddressModel>(addresses);
+		Collections.sort(_list, ORDER);
+		return Collections.unmodifiableList(_list);
+	}
+
+	/**
+	 * @param addresses the sorted addresses
+	 * @param address the address to insert at its sort position
+	 * @return a new sorted list containing the address
+	 */
+	static List<AddressModel> add(
+			List<AddressModel> addresses,
+			AddressModel address) {
+		int _pos = Collections.binarySearch(addresses, address, ORDER);
+		List<AddressModel> _list = new ArrayList<AddressModel>(addresses.size() + 1);
+		_list.addAll(addresses);
+		_list.add(_pos >= 0 ? _pos : -_pos - 1, address);
+		return Collections.unmodifiableList(_list);
+	}
+
+	/**
+	 * @param addresses the sorted addresses
+	 * @param address the address to remove; it is matched by id
+	 * @return a new sorted list without the address, or the same list if it does not contain the address
+	 */
+	static List<AddressModel> remove(
+			List<AddressModel> addresses,
+			AddressModel address) {
+		for (int i = 0; i < addresses.size(); i++) {
+			if (addresses.get(i).getId().equalsIgnoreCase(address.getId())) {
+				List<AddressModel> _list = new ArrayList<AddressModel>(addresses);
+				_list.remove(i);
+				return Collections.unmodifiableList(_list);
+			}
+		}
+		return addresses;
+	}
+
+	/**
+	 * @param addresses the sorted addresses
+	 * @param address the changed address; the address with the same id is replaced
+	 * @return a new sorted list containing the changed address
+	 */
+	static List<AddressModel> replace(
+			List<AddressModel> addresses,
+			AddressModel address) {
+		return add(remove(addresses, address), address);
+	}
+}
@@ -0,0 +1,208 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Arbalo AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.opentdc.addressbooks.file;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * A list of models kept in sort order, so that a page can be read without sorting.
+ * Pages are read by position, models are inserted and removed with a binary search.
+ * Each change publishes a new immutable version of the list, which shares all unchanged chunks with the
+ * previous one; readers work on the version they read from a volatile field and never take a lock.
+ * The list is built from its source on first use and maintained incrementally afterwards;
+ * until then add(), remove() and replace() are no-ops.
+ * Models must not be changed while they are contained in the index: replace them by a changed copy instead.
+ * @author Bruno Kaiser
+ *
+ * @param <T> the type of the models
+ */
+class SortedIndex<T> {
+	/**
+	 * Provides all models when the index is built.
+	 */
+	interface Source<T> {
+		Collection<T> values();
+	}
+
+	/**
+	 * Provides the unique id of a model.
+	 */
+	interface Identity<T> {
+		String getId(T model);
+	}
+
+	private final Comparator<T> order;
+	private final Identity<T> identity;
+	private final Source<T> source;
+	private volatile ChunkedList<T> list = null;
+
+	/**
+	 * Constructor.
+	 * @param comparator the sort order; models that compare equal are ordered by id
+	 * @param identity provides the ids of the models
+	 * @param source provides the models when the index is built
+	 */
+	SortedIndex(
+			final Comparator<? super T> comparator,
+			final Identity<T> identity,
+			Source<T> source) {
+		this.identity = identity;
+		this.source = source;
+		this.order = new Comparator<T>() {
+			@Override
+			public int compare(T o1, T o2) {
+				int _result = comparator.compare(o1, o2);
+				return _result != 0 ? _result : identity.getId(o1).compareTo(identity.getId(o2));
+			}
+		};
+	}
+
+	/**
+	 * Insert a model at its sort position.
+	 * @param model the model to add
+	 */
+	synchronized void add(
+			T model) {
+		if (list != null) {
+			list = insert(list, model);
+		}
+	}
+
+	/**
+	 * Remove a model.
+	 * @param model the model to remove
+	 * @return true if the model was contained in the index
+	 */
+	synchronized boolean remove(
+			T model) {
+		if (list == null) {
+			return false;
+		}
+		ChunkedList<T> _list = delete(list, model);
+		if (_list == list) {
+			return false;
+		}
+		list = _list;
+		return true;
+	}
+
+	/**
+	 * Replace a model by a changed copy; readers see either the old or the new model, but never none of them.
+	 * @param model the model to remove
+	 * @param changed the model to add
+	 */
+	synchronized void replace(
+			T model,
+			T changed) {
+		if (list != null) {
+			list = insert(delete(list, model), changed);
+		}
+	}
+
+	/**
+	 * Select a page of the models that match a query, without copying or sorting the index.
+	 * @param filter the query; null matches all models
+	 * @param position the number of matches to skip
+	 * @param size the maximal number of matches to return
+	 * @return the matches from position to position + size in sort order
+	 */
+	List<T> select(
+			Paging.Filter<? super T> filter,
+			int position,
+			int size) {
+		return Paging.select(current(), filter, position, size);
+	}
+
+	/**
+	 * Select the models that match a query and follow a given model in sort order.
+	 * @param after the last model of the previous page; its sort key and id are used to seek into the index
+	 * @param filter the query; null matches all models
+	 * @param size the maximal number of matches to return
+	 * @return the first size matches after the given model
+	 */
+	List<T> selectAfter(
+			T after,
+			Paging.Filter<? super T> filter,
+			int size) {
+		return Paging.seek(current(), order, after, filter, size);
+	}
+
+	/**
+	 * @return the sort order of the index, including the tie-break by id
+	 */
+	Comparator<T> getOrder() {
+		return order;
+	}
+
+	/**
+	 * @return the number of indexed models
+	 */
+	int size() {
+		return current().size();
+	}
+
+	private ChunkedList<T> insert(
+			ChunkedList<T> list,
+			T model) {
+		int _pos = list.search(model, order);
+		return _pos >= 0 ? list : list.insert(-_pos - 1, model);
+	}
+
+	private ChunkedList<T> delete(
+			ChunkedList<T> list,
+			T model) {
+		String _id = identity.getId(model);
+		int _pos = list.search(model, order);
+		if (_pos < 0 || !identity.getId(list.get(_pos)).equals(_id)) {
+			// the model was changed while it was indexed
+			_pos = -1;
+			for (int i = 0; i < list.size(); i++) {
+				if (identity.getId(list.get(i)).equals(_id)) {
+					_pos = i;
+					break;
+				}
+			}
+		}
+		return _pos < 0 ? list : list.delete(_pos);
+	}
+
+	private ChunkedList<T> current() {
+		ChunkedList<T> _list = list;
+		if (_list != null) {
+			return _list;
+		}
+		synchronized (this) {
+			if (list == null) {
+				List<T> _models = new ArrayList<T>(source.values());
+				Collections.sort(_models, order);
+				list = ChunkedList.of(_models);
+			}
+			return list;
+		}
+	}
+}
@@ -0,0 +1,84 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Arbalo AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.opentdc.addressbooks.file;
+
+import java.io.IOException;
+import java.util.Date;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * The Gson configuration used for all files written by this service.
+ * Dates are written as milliseconds since the epoch, so that they survive a round trip unchanged.
+ * @author Bruno Kaiser
+ *
+ */
+final class StoreJson {
+	static final Gson GSON = new GsonBuilder()
+		.registerTypeAdapter(Date.class, new DateAdapter())
+		.create();
+
+	private StoreJson() {
+	}
+
+	/**
+	 * Create a deep copy of a model, e.g. to change it without disturbing concurrent readers of the original.
+	 * @param model the model to copy
+	 * @param type the class of the model
+	 * @return the copy
+	 */
+	static <T> T copy(
+			T model,
+			Class<T> type) {
+		return GSON.fromJson(GSON.toJsonTree(model), type);
+	}
+
+	private static class DateAdapter extends TypeAdapter<Date> {
+		@Override
+		public void write(
+				JsonWriter out,
+				Date value) throws IOException {
+			if (value == null) {
+				out.nullValue();
+			} else {
+				out.value(value.getTime());
+			}
+		}
+
+		@Override
+		public Date read(
+				JsonReader in) throws IOException {
+			if (in.peek() == JsonToken.NULL) {
+				in.nextNull();
+				return null;
+			}
+			return new Date(in.nextLong());
+		}
+	}
+}
@@ -0,0 +1,168 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Arbalo AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.opentdc.addressbooks.file;
+
+import java.util.Collection;
+
+import org.opentdc.addressbooks.AddressModel;
+import org.opentdc.addressbooks.AddressbookModel;
+import org.opentdc.addressbooks.ContactModel;
+import org.opentdc.addressbooks.OrgModel;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+
+/**
+ * Maps the in-memory objects to the records of a store snapshot and back.
+ * Contacts and orgs are stored without their addresses; addresses are separate records referring to their parent.
+ * @author Bruno Kaiser
+ *
+ */
+final class StoreRecords {
+	static final String PARENT_CONTACT = "contact";
+	static final String PARENT_ORG = "org";
+	private static final String MODEL = "model";
+	private static final String CONTACT_IDS = "contactIds";
+	private static final String ORG_IDS = "orgIds";
+	private static final String MEMBERSHIPS = "memberships";
+	private static final String PARENT_TYPE = "parentType";
+	private static final String PARENT_ID = "pid";
+
+	private StoreRecords() {
+	}
+
+	static JsonObject toRecord(
+			ABaddressbook addressbook) {
+		JsonObject _record = new JsonObject();
+		_record.add(MODEL, StoreJson.GSON.toJsonTree(addressbook.getModel()));
+		_record.add(CONTACT_IDS, toArray(addressbook.getContacts()));
+		_record.add(ORG_IDS, toArray(addressbook.getOrgs()));
+		return _record;
+	}
+
+	static ABaddressbook toAddressbook(
+			JsonObject record) {
+		ABaddressbook _addressbook = new ABaddressbook(
+				StoreJson.GSON.fromJson(record.get(MODEL), AddressbookModel.class));
+		for (JsonElement _id : getArray(record, CONTACT_IDS)) {
+			_addressbook.addContact(_id.getAsString());
+		}
+		for (JsonElement _id : getArray(record, ORG_IDS)) {
+			_addressbook.addOrg(_id.getAsString());
+		}
+		return _addressbook;
+	}
+
+	static JsonObject toRecord(
+			ABcontact contact) {
+		JsonObject _record = new JsonObject();
+		_record.add(MODEL, StoreJson.GSON.toJsonTree(contact.getModel()));
+		_record.add(MEMBERSHIPS, toArray(contact.getMemberships()));
+		return _record;
+	}
+
+	static ABcontact toContact(
+			JsonObject record) {
+		ABcontact _contact = new ABcontact();
+		_contact.setModel(StoreJson.GSON.fromJson(record.get(MODEL), ContactModel.class));
+		for (JsonElement _aid : getArray(record, MEMBERSHIPS)) {
+			_contact.addMembership(_aid.getAsString());
+		}
+		return _contact;
+	}
+
+	static JsonObject toRecord(
+			ABorg org) {
+		JsonObject _record = new JsonObject();
+		_record.add(MODEL, StoreJson.GSON.toJsonTree(org.getModel()));
+		_record.add(MEMBERSHIPS, toArray(org.getMemberships()));
+		return _record;
+	}
+
+	static ABorg toOrg(
+			JsonObject record) {
+		ABorg _org = new ABorg();
+		_org.setModel(StoreJson.GSON.fromJson(record.get(MODEL), OrgModel.class));
+		for (JsonElement _aid : getArray(record, MEMBERSHIPS)) {
+			_org.addMembership(_aid.getAsString());
+		}
+		return _org;
+	}
+
+	static JsonObject toRecord(
+			String parentType,
+			String pid,
+			AddressModel address) {
+		JsonObject _record = new JsonObject();
+		_record.addProperty(PARENT_TYPE, parentType);
+		_record.addProperty(PARENT_ID, pid);
+		_record.add(MODEL, StoreJson.GSON.toJsonTree(address));
+		return _record;
+	}
+
+	static AddressModel toAddress(
+			JsonObject record) {
+		return StoreJson.GSON.fromJson(record.get(MODEL), AddressModel.class);
+	}
+
+	/**
+	 * @param record a record of any section
+	 * @return the id of the object stored in the record
+	 */
+	static String getId(
+			JsonObject record) {
+		return record.getAsJsonObject(MODEL).get("id").getAsString();
+	}
+
+	static String getParentType(
+			JsonObject record) {
+		return record.get(PARENT_TYPE).getAsString();
+	}
+
+	static String getParentId(
+			JsonObject record) {
+		return record.get(PARENT_ID).getAsString();
+	}
+
+	private static JsonArray toArray(
+			Collection<String> ids) {
+		JsonArray _array = new JsonArray();
+		for (String _id : ids) {
+			_array.add(new JsonPrimitive(_id));
+		}
+		return _array;
+	}
+
+	private static JsonArray getArray(
+			JsonObject record,
+			String name) {
+		JsonElement _element = record.get(name);
+		if (_element == null || !_element.isJsonArray()) {
+			return new JsonArray();
+		}
+		return _element.getAsJsonArray();
+	}
+}
@@ -0,0 +1,65 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Arbalo AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.opentdc.addressbooks.file;
+
+/**
+ * The sections of a store snapshot, in the order they are written and loaded.
+ * Each section only depends on the sections before it.
+ * @author Bruno Kaiser
+ *
+ */
+public enum StoreSection {
+	ADDRESSBOOKS("addressbooks"),
+	CONTACTS("contacts"),
+	ORGS("orgs"),
+	ADDRESSES("addresses");
+
+	private final String key;
+
+	private StoreSection(
+			String key) {
+		this.key = key;
+	}
+
+	/**
+	 * @return the name of this section in the snapshot file
+	 */
+	public String getKey() {
+		return key;
+	}
+
+	/**
+	 * @param key the name of a section in the snapshot file
+	 * @return the section, or null if the key is not known
+	 */
+	public static StoreSection forKey(
+			String key) {
+		for (StoreSection _section : values()) {
+			if (_section.key.equals(key)) {
+				return _section;
+			}
+		}
+		return null;
+	}
+}
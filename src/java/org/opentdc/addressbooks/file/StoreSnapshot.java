@@ -0,0 +1,102 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Arbalo AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.opentdc.addressbooks.file;
+
+import java.io.IOException;
+import java.util.Collection;
+
+import org.opentdc.addressbooks.AddressModel;
+
+/**
+ * A view of the in-memory state that is written as snapshot, section by section.
+ * @author Bruno Kaiser
+ *
+ */
+class StoreSnapshot {
+	private final Collection<ABaddressbook> addressbooks;
+	private final Collection<ABcontact> contacts;
+	private final Collection<ABorg> orgs;
+
+	StoreSnapshot(
+			Collection<ABaddressbook> addressbooks,
+			Collection<ABcontact> contacts,
+			Collection<ABorg> orgs) {
+		this.addressbooks = addressbooks;
+		this.contacts = contacts;
+		this.orgs = orgs;
+	}
+
+	/**
+	 * Emit all records, section by section.
+	 * @param writer receives the records
+	 * @throws IOException if the writer fails
+	 */
+	void writeTo(
+			SnapshotCodec.RecordWriter writer) throws IOException {
+		for (StoreSection _section : StoreSection.values()) {
+			forEachRecord(_section, writer);
+		}
+		writer.finish();
+	}
+
+	/**
+	 * Emit all records of a section.
+	 * @param section the section to emit
+	 * @param sink receives the records
+	 * @throws IOException if the sink fails
+	 */
+	void forEachRecord(
+			StoreSection section,
+			SnapshotCodec.RecordSink sink) throws IOException {
+		switch (section) {
+		case ADDRESSBOOKS:
+			for (ABaddressbook _addressbook : addressbooks) {
+				sink.accept(section, StoreRecords.toRecord(_addressbook));
+			}
+			break;
+		case CONTACTS:
+			for (ABcontact _contact : contacts) {
+				sink.accept(section, StoreRecords.toRecord(_contact));
+			}
+			break;
+		case ORGS:
+			for (ABorg _org : orgs) {
+				sink.accept(section, StoreRecords.toRecord(_org));
+			}
+			break;
+		case ADDRESSES:
+			for (ABcontact _contact : contacts) {
+				for (AddressModel _address : _contact.getAddresses()) {
+					sink.accept(section, StoreRecords.toRecord(StoreRecords.PARENT_CONTACT, _contact.getModel().getId(), _address));
+				}
+			}
+			for (ABorg _org : orgs) {
+				for (AddressModel _address : _org.getAddresses()) {
+					sink.accept(section, StoreRecords.toRecord(StoreRecords.PARENT_ORG, _org.getModel().getId(), _address));
+				}
+			}
+			break;
+		}
+	}
+}
@@ -0,0 +1,53 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Arbalo AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.opentdc.addressbooks.file;
+
+/**
+ * Persists the store after a mutation was applied to the in-memory indexes.
+ * A mutation is persisted in two steps: write() hands it over while the locks of the mutation are still held,
+ * so that the mutations of an entity reach the store in the order they were applied;
+ * awaitDurable() waits for the disk after these locks were released, so that other operations are not held up by it.
+ * @author Bruno Kaiser
+ *
+ */
+interface StoreWriter {
+	/**
+	 * Hand over a committed mutation.
+	 * @param record the mutation that was applied to the indexes
+	 * @return the ticket to pass to awaitDurable()
+	 */
+	long write(JournalRecord record);
+
+	/**
+	 * Wait until a mutation handed over by write() is durable according to the persistence mode.
+	 * @param ticket the ticket returned by write()
+	 * @param record the mutation that was handed over
+	 */
+	void awaitDurable(long ticket, JournalRecord record);
+
+	/**
+	 * Flush pending data and release all resources.
+	 */
+	void close();
+}
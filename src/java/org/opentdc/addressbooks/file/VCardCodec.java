@@ -0,0 +1,674 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Arbalo AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.opentdc.addressbooks.file;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+
+import org.opentdc.addressbooks.AddressModel;
+import org.opentdc.addressbooks.AddressType;
+import org.opentdc.addressbooks.AttributeType;
+import org.opentdc.addressbooks.ContactModel;
+import org.opentdc.addressbooks.MessageType;
+import org.opentdc.addressbooks.OrgModel;
+import org.opentdc.addressbooks.OrgType;
+
+/**
+ * vCard 4.0 (RFC 6350) codec.
+ * Contacts are written as KIND:individual, orgs as KIND:org; the id is written as UID, the modification date as REV.
+ * Fields without a vCard property (e.g. the maiden name or the org type) are written as X- properties.
+ * Phone numbers and email addresses are text, web and messaging addresses URIs (IMPP as {@code <msgType>:<value>}),
+ * postal addresses structured ADR values with the country code as country. Lines are folded at 75 octets.
+ * When reading, unknown properties are skipped, and addresses without a known TYPE get the attributeType OTHER.
+ * @author Bruno Kaiser
+ *
+ */
+final class VCardCodec implements CardCodec {
+	static final String UID_PREFIX = "urn:uuid:";
+	static final String KIND_INDIVIDUAL = "individual";
+	static final String KIND_ORG = "org";
+	static final String TYPE_CELL = "cell";
+	static final String DATE_PATTERN = "yyyyMMdd";
+	static final String TIMESTAMP_PATTERN = "yyyyMMdd'T'HHmmss'Z'";
+	static final String BOM = "\uFEFF";
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final int MAX_LINE_OCTETS = 75;
+
+	/* (non-Javadoc)
+	 * @see org.opentdc.addressbooks.file.CardCodec#getExtension()
+	 */
+	@Override
+	public String getExtension() {
+		return "vcf";
+	}
+
+	/* (non-Javadoc)
+	 * @see org.opentdc.addressbooks.file.CardCodec#getMediaType()
+	 */
+	@Override
+	public String getMediaType() {
+		return "text/vcard";
+	}
+
+	/* (non-Javadoc)
+	 * @see org.opentdc.addressbooks.file.CardCodec#openWriter(java.io.OutputStream)
+	 */
+	@Override
+	public CardWriter openWriter(
+			OutputStream out) throws IOException {
+		return new VCardWriter(out);
+	}
+
+	/* (non-Javadoc)
+	 * @see org.opentdc.addressbooks.file.CardCodec#openReader(java.io.InputStream)
+	 */
+	@Override
+	public CardReader openReader(
+			InputStream in) throws IOException {
+		return new VCardReader(in);
+	}
+
+	/**
+	 * @param type an attribute type
+	 * @return the value of the TYPE parameter for the attribute type
+	 */
+	static String toType(
+			AttributeType type) {
+		return type == AttributeType.MOBILE ? TYPE_CELL : type.name().toLowerCase(Locale.ROOT);
+	}
+
+	private static class VCardWriter implements CardWriter {
+		private final Writer out;
+		private final SimpleDateFormat dateFormat = new SimpleDateFormat(DATE_PATTERN);
+		private final SimpleDateFormat timestampFormat = new SimpleDateFormat(TIMESTAMP_PATTERN);
+
+		VCardWriter(
+				OutputStream out) {
+			this.out = new BufferedWriter(new OutputStreamWriter(out, UTF8), 65536);
+			this.timestampFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+		}
+
+		/* (non-Javadoc)
+		 * @see org.opentdc.addressbooks.file.CardCodec.CardWriter#writeContact(org.opentdc.addressbooks.ContactModel, java.util.List)
+		 */
+		@Override
+		public void writeContact(
+				ContactModel contact,
+				List<AddressModel> addresses) throws IOException {
+			begin(KIND_INDIVIDUAL, contact.getId());
+			writeText("FN", contact.getFn());
+			writeProperty("N", structured(contact.getLastName(), contact.getFirstName(), contact.getMiddleName(), 
+					contact.getPrefix(), contact.getSuffix()));
+			writeText("NICKNAME", contact.getNickName());
+			writeText("TITLE", contact.getJobTitle());
+			if (contact.getCompany() != null || contact.getDepartment() != null) {
+				writeProperty("ORG", contact.getDepartment() == null ? structured(contact.getCompany()) : 
+					structured(contact.getCompany(), contact.getDepartment()));
+			}
+			if (contact.getBirthday() != null) {
+				writeProperty("BDAY", dateFormat.format(contact.getBirthday()));
+			}
+			writeUri("PHOTO", contact.getPhotoUrl());
+			writeText("NOTE", contact.getNote());
+			writeText("X-MAIDENNAME", contact.getMaidenName());
+			writeAddresses(addresses);
+			end(contact.getModifiedAt());
+		}
+
+		/* (non-Javadoc)
+		 * @see org.opentdc.addressbooks.file.CardCodec.CardWriter#writeOrg(org.opentdc.addressbooks.OrgModel, java.util.List)
+		 */
+		@Override
+		public void writeOrg(
+				OrgModel org,
+				List<AddressModel> addresses) throws IOException {
+			begin(KIND_ORG, org.getId());
+			writeText("FN", org.getName());
+			writeProperty("ORG", structured(org.getName()));
+			writeText("NOTE", org.getDescription());
+			writeUri("LOGO", org.getLogoUrl());
+			if (org.getOrgType() != null) {
+				writeProperty("X-ORGTYPE", org.getOrgType().name());
+			}
+			writeText("X-COSTCENTER", org.getCostCenter());
+			writeText("X-STOCKEXCHANGE", org.getStockExchange());
+			writeText("X-TICKERSYMBOL", org.getTickerSymbol());
+			writeAddresses(addresses);
+			end(org.getModifiedAt());
+		}
+
+		/* (non-Javadoc)
+		 * @see org.opentdc.addressbooks.file.CardCodec.CardWriter#finish()
+		 */
+		@Override
+		public void finish() throws IOException {
+			out.flush();
+		}
+
+		private void begin(
+				String kind,
+				String id) throws IOException {
+			writeLine("BEGIN:VCARD");
+			writeLine("VERSION:4.0");
+			writeProperty("KIND", kind);
+			writeUri("UID", UID_PREFIX + id);
+		}
+
+		private void end(
+				Date modifiedAt) throws IOException {
+			if (modifiedAt != null) {
+				writeProperty("REV", timestampFormat.format(modifiedAt));
+			}
+			writeLine("END:VCARD");
+		}
+
+		private void writeAddresses(
+				List<AddressModel> addresses) throws IOException {
+			for (AddressModel _address : addresses) {
+				String _type = _address.getAttributeType() == null ? "" : ";TYPE=" + toType(_address.getAttributeType());
+				switch (_address.getAddressType()) {
+				case PHONE:
+					writeProperty("TEL;VALUE=text" + _type, escape(_address.getValue()));
+					break;
+				case EMAIL:
+					writeProperty("EMAIL" + _type, escape(_address.getValue()));
+					break;
+				case WEB:
+					writeUri("URL" + _type, _address.getValue());
+					break;
+				case MESSAGING:
+					writeUri("IMPP" + _type, (_address.getMsgType() == null ? "" : 
+						_address.getMsgType().name().toLowerCase(Locale.ROOT) + ":") + _address.getValue());
+					break;
+				case POSTAL:
+					writeProperty("ADR" + _type, structured("", "", _address.getStreet(), _address.getCity(), "", 
+							_address.getPostalCode(), _address.getCountryCode() == 0 ? "" : 
+								String.valueOf(_address.getCountryCode())));
+					break;
+				}
+			}
+		}
+
+		private void writeText(
+				String name,
+				String value) throws IOException {
+			if (value != null) {
+				writeProperty(name, escape(value));
+			}
+		}
+
+		private void writeUri(
+				String name,
+				String value) throws IOException {
+			if (value != null) {
+				writeProperty(name, value.replace("\r", "").replace("\n", ""));
+			}
+		}
+
+		private void writeProperty(
+				String name,
+				String value) throws IOException {
+			writeLine(name + ":" + value);
+		}
+
+		/**
+		 * Write a content line, folded into lines of at most 75 octets without splitting a character.
+		 * @param line the unfolded content line
+		 * @throws IOException if the line can not be written
+		 */
+		private void writeLine(
+				String line) throws IOException {
+			int _octets = 0;
+			int _segment = 0;
+			for (int i = 0; i < line.length(); ) {
+				int _codePoint = line.codePointAt(i);
+				int _length = _codePoint < 0x80 ? 1 : _codePoint < 0x800 ? 2 : _codePoint < 0x10000 ? 3 : 4;
+				if (_octets + _length > MAX_LINE_OCTETS) {
+					out.write(line, _segment, i - _segment);
+					out.write("\r\n ");
+					_segment = i;
+					_octets = 1;
+				}
+				_octets += _length;
+				i += Character.charCount(_codePoint);
+			}
+			out.write(line, _segment, line.length() - _segment);
+			out.write("\r\n");
+		}
+	}
+
+	/**
+	 * Reads vCard 4.0 files, and the properties of vCard 3.0 and 2.1 that have the same meaning.
+	 * Types given as bare parameters (TEL;CELL:...) are understood; inline binary data (e.g. PHOTO;ENCODING=b) is skipped.
+	 * Without N, the first and last name are taken from FN.
+	 */
+	private static class VCardReader implements CardReader {
+		private final BufferedReader in;
+		private final SimpleDateFormat dateFormat = new SimpleDateFormat(DATE_PATTERN);
+		private String lookahead = null;
+		private int lineNr = 0;
+		private int contentLineNr = 0;
+		private int pendingBegin = 0;		// line of a BEGIN:VCARD that was read as the end of an unterminated card
+
+		VCardReader(
+				InputStream in) throws IOException {
+			this.in = new BufferedReader(new InputStreamReader(in, UTF8), 65536);
+			this.dateFormat.setLenient(false);
+			advance();
+			if (lookahead != null && lookahead.startsWith(BOM)) {
+				lookahead = lookahead.substring(1);
+			}
+		}
+
+		/* (non-Javadoc)
+		 * @see org.opentdc.addressbooks.file.CardCodec.CardReader#next()
+		 */
+		@Override
+		public Card next() throws IOException {
+			String _line = null;
+			int _start = pendingBegin;
+			if (_start == 0) {
+				while ((_line = readContentLine()) != null && !_line.equalsIgnoreCase("BEGIN:VCARD")) {
+					// lines outside of a card are ignored
+				}
+				if (_line == null) {
+					return null;
+				}
+				_start = contentLineNr;
+			}
+			pendingBegin = 0;
+			Properties _card = new Properties();
+			String _error = null;
+			while ((_line = readContentLine()) != null && !_line.equalsIgnoreCase("END:VCARD")) {
+				if (_line.equalsIgnoreCase("BEGIN:VCARD")) {		// the next card starts here
+					pendingBegin = contentLineNr;
+					break;
+				}
+				if (_error != null) {
+					continue;
+				}
+				try {
+					_card.add(_line);
+				} catch (IllegalArgumentException _ex) {
+					_error = "line " + contentLineNr + ": " + _ex.getMessage();
+				}
+			}
+			if (pendingBegin > 0 || (_line == null && _error == null)) {
+				_error = "card is not terminated by END:VCARD";
+			}
+			return _error == null ? new Card(_start, _card.toItem(), null) : new Card(_start, null, _error);
+		}
+
+		/**
+		 * @return the next content line, unfolded, or null at the end of the stream
+		 * @throws IOException if the stream can not be read
+		 */
+		private String readContentLine() throws IOException {
+			while (lookahead != null && lookahead.trim().length() == 0) {
+				advance();
+			}
+			if (lookahead == null) {
+				return null;
+			}
+			contentLineNr = lineNr;
+			String _line = lookahead;
+			advance();
+			if (lookahead == null || lookahead.length() == 0 || (lookahead.charAt(0) != ' ' && lookahead.charAt(0) != '\t')) {
+				return _line;
+			}
+			StringBuilder _unfolded = new StringBuilder(_line);
+			while (lookahead != null && lookahead.length() > 0 && (lookahead.charAt(0) == ' ' || lookahead.charAt(0) == '\t')) {
+				_unfolded.append(lookahead, 1, lookahead.length());
+				advance();
+			}
+			return _unfolded.toString();
+		}
+
+		private void advance() throws IOException {
+			lookahead = in.readLine();
+			lineNr++;
+		}
+
+		/**
+		 * The properties of one card.
+		 */
+		private class Properties {
+			private final ContactModel contact = new ContactModel();
+			private final OrgModel org = new OrgModel();
+			private final List<AddressModel> addresses = new ArrayList<AddressModel>();
+			private String kind = null;
+			private String id = null;
+			private String fn = null;
+
+			/**
+			 * Add a content line to the card; unknown properties are ignored.
+			 * @param line the unfolded content line
+			 * @throws IllegalArgumentException if the line can not be parsed
+			 */
+			void add(
+					String line) {
+				int _colon = indexOfValue(line);
+				if (_colon < 0) {
+					throw new IllegalArgumentException("content line without value");
+				}
+				String[] _head = line.substring(0, _colon).split(";");
+				String _name = _head[0].substring(_head[0].indexOf('.') + 1).toUpperCase(Locale.ROOT);	// without group
+				List<String> _types = new ArrayList<String>();
+				boolean _encoded = false;
+				for (int i = 1; i < _head.length; i++) {
+					int _equals = _head[i].indexOf('=');
+					if (_equals < 0) {
+						_types.add(_head[i]);
+					} else if (_head[i].substring(0, _equals).equalsIgnoreCase("TYPE")) {
+						for (String _type : _head[i].substring(_equals + 1).replace("\"", "").split(",")) {
+							_types.add(_type);
+						}
+					} else if (_head[i].substring(0, _equals).equalsIgnoreCase("ENCODING")) {
+						_encoded = true;
+					}
+				}
+				String _value = line.substring(_colon + 1);
+				switch (_name) {
+				case "KIND":
+					kind = _value.trim().toLowerCase(Locale.ROOT);
+					break;
+				case "UID":
+					id = _value.regionMatches(true, 0, UID_PREFIX, 0, UID_PREFIX.length()) ? 
+							_value.substring(UID_PREFIX.length()) : _value;
+					break;
+				case "FN":
+					fn = unescape(_value);
+					break;
+				case "N":
+					String[] _n = split(_value, 5);
+					contact.setLastName(_n[0]);
+					contact.setFirstName(_n[1]);
+					contact.setMiddleName(_n[2]);
+					contact.setPrefix(_n[3]);
+					contact.setSuffix(_n[4]);
+					break;
+				case "NICKNAME":
+					contact.setNickName(unescape(_value));
+					break;
+				case "TITLE":
+					contact.setJobTitle(unescape(_value));
+					break;
+				case "ORG":
+					String[] _org = split(_value, 2);
+					contact.setCompany(_org[0]);
+					contact.setDepartment(_org[1]);
+					org.setName(_org[0]);
+					break;
+				case "BDAY":
+					contact.setBirthday(parseDate(_value));
+					break;
+				case "NOTE":
+					contact.setNote(unescape(_value));
+					org.setDescription(unescape(_value));
+					break;
+				case "PHOTO":
+					contact.setPhotoUrl(toUri(_value, _encoded));
+					break;
+				case "LOGO":
+					org.setLogoUrl(toUri(_value, _encoded));
+					break;
+				case "X-MAIDENNAME":
+					contact.setMaidenName(unescape(_value));
+					break;
+				case "X-ORGTYPE":
+					org.setOrgType(CardMapping.toEnum(_value, OrgType.class));
+					break;
+				case "X-COSTCENTER":
+					org.setCostCenter(unescape(_value));
+					break;
+				case "X-STOCKEXCHANGE":
+					org.setStockExchange(unescape(_value));
+					break;
+				case "X-TICKERSYMBOL":
+					org.setTickerSymbol(unescape(_value));
+					break;
+				case "TEL":
+					AddressModel _phone = CardMapping.newAddress(AddressType.PHONE, toAttributeType(_types));
+					_phone.setValue(_value.regionMatches(true, 0, "tel:", 0, 4) ? _value.substring(4) : unescape(_value));
+					addresses.add(_phone);
+					break;
+				case "EMAIL":
+					AddressModel _email = CardMapping.newAddress(AddressType.EMAIL, toAttributeType(_types));
+					_email.setValue(unescape(_value));
+					addresses.add(_email);
+					break;
+				case "URL":
+					AddressModel _web = CardMapping.newAddress(AddressType.WEB, toAttributeType(_types));
+					_web.setValue(_value);
+					addresses.add(_web);
+					break;
+				case "IMPP":
+					AddressModel _messaging = CardMapping.newAddress(AddressType.MESSAGING, toAttributeType(_types));
+					_messaging.setMsgType(MessageType.OTHER);
+					_messaging.setValue(_value);
+					int _scheme = _value.indexOf(':');
+					if (_scheme > 0) {
+						try {
+							_messaging.setMsgType(CardMapping.toEnum(_value.substring(0, _scheme), MessageType.class));
+							_messaging.setValue(_value.substring(_scheme + 1));
+						} catch (IllegalArgumentException _ex) {
+							// unknown messenger: keep the complete URI
+						}
+					}
+					addresses.add(_messaging);
+					break;
+				case "ADR":
+					String[] _adr = split(_value, 7);
+					AddressModel _postal = CardMapping.newAddress(AddressType.POSTAL, toAttributeType(_types));
+					_postal.setStreet(_adr[2] != null ? _adr[2] : _adr[1]);
+					_postal.setCity(_adr[3]);
+					_postal.setPostalCode(_adr[5]);
+					_postal.setCountryCode(CardMapping.toCountryCode(_adr[6]));
+					addresses.add(_postal);
+					break;
+				}
+			}
+
+			BulkItem toItem() {
+				if (KIND_ORG.equals(kind)) {
+					if (org.getName() == null) {
+						org.setName(fn);
+					}
+					org.setId(id);
+					return BulkItem.org(org, addresses);
+				}
+				CardMapping.setNames(contact, fn);
+				contact.setId(id);
+				return BulkItem.contact(contact, addresses);
+			}
+
+			private Date parseDate(
+					String value) {
+				String _date = value.trim();
+				if (_date.startsWith("--")) {		// without year
+					return null;
+				}
+				int _time = _date.indexOf('T');
+				_date = (_time < 0 ? _date : _date.substring(0, _time)).replace("-", "");
+				try {
+					return dateFormat.parse(_date);
+				} catch (ParseException _ex) {
+					throw new IllegalArgumentException("invalid date <" + value + ">");
+				}
+			}
+		}
+	}
+
+	/**
+	 * @param types the values of the TYPE parameters
+	 * @return the first attribute type given, preferring cell over the others
+	 */
+	private static AttributeType toAttributeType(
+			List<String> types) {
+		AttributeType _result = null;
+		for (String _type : types) {
+			AttributeType _attributeType = CardMapping.toAttributeType(_type);
+			if (_attributeType == AttributeType.MOBILE) {
+				return _attributeType;
+			}
+			if (_result == null) {
+				_result = _attributeType;
+			}
+		}
+		return _result;
+	}
+
+	/**
+	 * @param line a content line
+	 * @return the position of the colon separating the name and parameters from the value
+	 */
+	private static int indexOfValue(
+			String line) {
+		boolean _quoted = false;
+		for (int i = 0; i < line.length(); i++) {
+			char _c = line.charAt(i);
+			if (_c == '"') {
+				_quoted = !_quoted;
+			} else if (_c == ':' && !_quoted) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private static String toUri(
+			String value,
+			boolean encoded) {
+		return encoded || value.startsWith("data:") ? null : value;
+	}
+
+	/**
+	 * @param value a structured value
+	 * @param size the number of components to return
+	 * @return the unescaped components; missing and empty components are null
+	 */
+	private static String[] split(
+			String value,
+			int size) {
+		String[] _components = new String[size];
+		int _component = 0;
+		int _start = 0;
+		for (int i = 0; i <= value.length() && _component < size; i++) {
+			if (i == value.length() || value.charAt(i) == ';') {
+				String _text = unescape(value.substring(_start, i));
+				_components[_component++] = _text.length() == 0 ? null : _text;
+				_start = i + 1;
+			} else if (value.charAt(i) == '\\') {
+				i++;
+			}
+		}
+		return _components;
+	}
+
+	/**
+	 * @param text an escaped text value
+	 * @return the text with the escapes of backslashes, commas, semicolons and line breaks resolved
+	 */
+	private static String unescape(
+			String text) {
+		int _backslash = text.indexOf('\\');
+		if (_backslash < 0) {
+			return text;
+		}
+		StringBuilder _text = new StringBuilder(text.length()).append(text, 0, _backslash);
+		for (int i = _backslash; i < text.length(); i++) {
+			char _c = text.charAt(i);
+			if (_c == '\\' && i + 1 < text.length()) {
+				_c = text.charAt(++i);
+				_text.append(_c == 'n' || _c == 'N' ? '\n' : _c);
+			} else {
+				_text.append(_c);
+			}
+		}
+		return _text.toString();
+	}
+
+	/**
+	 * @param components the components of a structured value; null components are written empty
+	 * @return the components, escaped and separated by semicolons
+	 */
+	private static String structured(
+			String... components) {
+		StringBuilder _value = new StringBuilder();
+		for (int i = 0; i < components.length; i++) {
+			if (i > 0) {
+				_value.append(';');
+			}
+			if (components[i] != null) {
+				_value.append(escape(components[i]));
+			}
+		}
+		return _value.toString();
+	}
+
+	/**
+	 * @param text a text value
+	 * @return the value with backslashes, commas, semicolons and line breaks escaped
+	 */
+	private static String escape(
+			String text) {
+		StringBuilder _escaped = null;
+		for (int i = 0; i < text.length(); i++) {
+			char _c = text.charAt(i);
+			String _replacement = null;
+			switch (_c) {
+			case '\\': _replacement = "\\\\"; break;
+			case ',': _replacement = "\\,"; break;
+			case ';': _replacement = "\\;"; break;
+			case '\n': _replacement = "\\n"; break;
+			case '\r': _replacement = i + 1 < text.length() && text.charAt(i + 1) == '\n' ? "" : "\\n"; break;
+			}
+			if (_replacement != null && _escaped == null) {
+				_escaped = new StringBuilder(text.length() + 16).append(text, 0, i);
+			}
+			if (_escaped != null) {
+				if (_replacement != null) {
+					_escaped.append(_replacement);
+				} else {
+					_escaped.append(_c);
+				}
+			}
+		}
+		return _escaped == null ? text : _escaped.toString();
+	}
+}
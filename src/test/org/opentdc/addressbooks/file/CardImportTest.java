@@ -0,0 +1,264 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Arbalo AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.opentdc.addressbooks.file;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opentdc.addressbooks.AddressModel;
+import org.opentdc.addressbooks.AddressType;
+import org.opentdc.addressbooks.AddressbookModel;
+import org.opentdc.addressbooks.AttributeType;
+import org.opentdc.addressbooks.ContactModel;
+
+/**
+ * Import of vCard and CSV files: parsing card by card, reporting broken cards and importing into an addressbook.
+ * @author Bruno Kaiser
+ *
+ */
+public class CardImportTest {
+	private static final String PREFIX = "importtest";
+
+	@Rule
+	public TemporaryFolder dir = new TemporaryFolder();
+
+	@After
+	public void tearDown() {
+		FileServiceProvider.reset();
+	}
+
+	@Test
+	public void vCardContactAndOrgAreRead() throws IOException {
+		List<CardCodec.Card> _cards = read(CardFormat.VCARD,
+				"BEGIN:VCARD",
+				"VERSION:4.0",
+				"N:Meier;Anna;;;",
+				"FN:Anna Meier",
+				"NOTE:a note that is folded ",
+				" over two lines",
+				"EMAIL;TYPE=work:anna@example.org",
+				"TEL;TYPE=cell:tel:+41440000000",
+				"END:VCARD",
+				"BEGIN:VCARD",
+				"VERSION:4.0",
+				"KIND:org",
+				"FN:Arbalo AG",
+				"URL:http://www.arbalo.ch",
+				"END:VCARD");
+		assertEquals(2, _cards.size());
+		ContactModel _contact = _cards.get(0).getItem().getContact();
+		assertEquals("Anna", _contact.getFirstName());
+		assertEquals("Meier", _contact.getLastName());
+		assertEquals("a note that is folded over two lines", _contact.getNote());
+		List<AddressModel> _addresses = _cards.get(0).getItem().getAddresses();
+		assertEquals(2, _addresses.size());
+		assertEquals(AddressType.EMAIL, _addresses.get(0).getAddressType());
+		assertEquals(AttributeType.WORK, _addresses.get(0).getAttributeType());
+		assertEquals("anna@example.org", _addresses.get(0).getValue());
+		assertEquals(AttributeType.MOBILE, _addresses.get(1).getAttributeType());
+		assertEquals("+41440000000", _addresses.get(1).getValue());
+		assertEquals("Arbalo AG", _cards.get(1).getItem().getOrg().getName());
+		assertEquals(10, _cards.get(1).getLine());
+	}
+
+	@Test
+	public void vCardUnterminatedCardIsReportedAndTheNextCardIsRead() throws IOException {
+		List<CardCodec.Card> _cards = read(CardFormat.VCARD,
+				"BEGIN:VCARD",
+				"FN:Anna Meier",
+				"BEGIN:VCARD",
+				"FN:Beat Huber",
+				"END:VCARD",
+				"BEGIN:VCARD",
+				"FN:Carla Keller");
+		assertEquals(3, _cards.size());
+		assertNull(_cards.get(0).getItem());
+		assertTrue(_cards.get(0).getError().contains("END:VCARD"));
+		assertEquals(1, _cards.get(0).getLine());
+		assertEquals("Huber", _cards.get(1).getItem().getContact().getLastName());
+		assertEquals(3, _cards.get(1).getLine());
+		assertNull(_cards.get(2).getItem());
+		assertEquals(6, _cards.get(2).getLine());
+	}
+
+	@Test
+	public void vCardInvalidLineFailsOnlyItsCard() throws IOException {
+		List<CardCodec.Card> _cards = read(CardFormat.VCARD,
+				"BEGIN:VCARD",
+				"FN:Anna Meier",
+				"BDAY:not a date",
+				"END:VCARD",
+				"BEGIN:VCARD",
+				"FN:Beat Huber",
+				"END:VCARD");
+		assertEquals(2, _cards.size());
+		assertTrue(_cards.get(0).getError(), _cards.get(0).getError().startsWith("line 3: invalid date"));
+		assertNotNull(_cards.get(1).getItem());
+	}
+
+	@Test
+	public void csvHeaderIsMatchedLenientlyAndRowsOfACardAreGrouped() throws IOException {
+		List<CardCodec.Card> _cards = read(CardFormat.CSV,
+				"Kind,ID,First Name,last_name,Note,address-type,Value",
+				"contact,c1,Anna,Meier,\"one, \"\"two\"\"",
+				"three\",EMAIL,anna@example.org",
+				"contact,c1,Anna,Meier,,PHONE,+41440000000",
+				"org,o1,,,,WEB,http://www.arbalo.ch",
+				"",
+				"contact,,Beat,Huber,,,");
+		assertEquals(3, _cards.size());
+		ContactModel _contact = _cards.get(0).getItem().getContact();
+		assertEquals("c1", _contact.getId());
+		assertEquals("Anna", _contact.getFirstName());
+		assertEquals("Meier", _contact.getLastName());
+		assertEquals("one, \"two\"\r\nthree", _contact.getNote());		// line breaks are kept as they are
+		assertEquals(2, _cards.get(0).getItem().getAddresses().size());
+		assertEquals(AddressType.PHONE, _cards.get(0).getItem().getAddresses().get(1).getAddressType());
+		assertEquals("o1", _cards.get(1).getItem().getOrg().getId());
+		assertEquals(5, _cards.get(1).getLine());
+		assertEquals(0, _cards.get(2).getItem().getAddresses().size());
+		assertEquals(7, _cards.get(2).getLine());
+	}
+
+	@Test
+	public void csvUnterminatedQuoteIsReportedAfterTheCardBeforeIt() throws IOException {
+		List<CardCodec.Card> _cards = read(CardFormat.CSV,
+				"kind,id,firstName,lastName",
+				"contact,,Anna,Meier",
+				"contact,,\"Beat,Huber");
+		assertEquals(2, _cards.size());
+		assertEquals("Meier", _cards.get(0).getItem().getContact().getLastName());
+		assertNull(_cards.get(1).getItem());
+		assertTrue(_cards.get(1).getError(), _cards.get(1).getError().contains("not terminated"));
+	}
+
+	@Test
+	public void importCreatesValidCardsAndReportsTheOthers() throws IOException {
+		FileServiceProvider _provider = open();
+		String _aid = createAddressbook(_provider, "imported");
+		ImportReport _report = _provider.importAddressbook(null, _aid, CardFormat.CSV, toStream(
+				"kind,id,firstName,lastName,addressType,value",
+				"contact,unknown-id,Anna,Meier,EMAIL,anna@example.org",
+				"contact,,Beat,Huber,EMAIL,beat@example.org",
+				"robot,,Carla,Keller,,",
+				"org,,,,WEB,http://www.arbalo.ch"), null);		// an org without name is invalid
+		assertEquals(4, _report.getRead());
+		assertEquals(2, _report.getCreated());
+		assertEquals(2, _report.getFailed());
+		assertEquals(4, _report.getErrors().get(0).getLine());
+		assertEquals(5, _report.getErrors().get(1).getLine());
+		assertTrue(_report.isFinished());
+		List<ContactModel> _contacts = _provider.listContacts(_aid, null, null, 0, Integer.MAX_VALUE);
+		assertEquals(2, _contacts.size());
+		for (ContactModel _contact : _contacts) {
+			assertTrue("the unknown id is replaced", !"unknown-id".equals(_contact.getId()));
+		}
+		assertEquals(0, _provider.listOrgs(_aid, null, null, 0, Integer.MAX_VALUE).size());
+	}
+
+	@Test
+	public void exportedAddressbookIsImportedIntoAnotherAddressbook() throws IOException {
+		FileServiceProvider _provider = open();
+		String _aid = createAddressbook(_provider, "exported");
+		for (int i = 0; i < 5; i++) {
+			ContactModel _contact = new ContactModel();
+			_contact.setFirstName("First" + i);
+			_contact.setLastName("Last" + i);
+			_provider.createContact(null, _aid, _contact);
+		}
+		for (CardFormat _format : CardFormat.values()) {
+			ByteArrayOutputStream _out = new ByteArrayOutputStream();
+			assertEquals(5, _provider.exportAddressbook(_aid, _format, _out));
+			String _copy = createAddressbook(_provider, "copy " + _format);
+			ImportReport _report = _provider.importAddressbook(null, _copy, _format, 
+					new ByteArrayInputStream(_out.toByteArray()), null);
+			assertEquals(5, _report.getAdded());		// the contacts exist already, so they are only added
+			assertEquals(0, _report.getFailed());
+			assertEquals(ids(_provider.listContacts(_aid, null, null, 0, Integer.MAX_VALUE)), 
+					ids(_provider.listContacts(_copy, null, null, 0, Integer.MAX_VALUE)));
+		}
+	}
+
+	private FileServiceProvider open() throws IOException {
+		System.setProperty(PREFIX + "." + ProviderConfig.DATA_DIR, dir.getRoot().getPath());
+		System.setProperty(PREFIX + "." + ProviderConfig.PERSISTENCE_MODE, "journal");
+		System.setProperty(PREFIX + "." + ProviderConfig.JOURNAL_SYNC, "false");
+		System.setProperty(PREFIX + "." + ProviderConfig.METRICS_JMX, "false");
+		System.setProperty(PREFIX + "." + ProviderConfig.IMPORT_BATCH_SIZE, "2");
+		FileServiceProvider.reset();
+		return new FileServiceProvider(null, PREFIX);
+	}
+
+	private static String createAddressbook(
+			FileServiceProvider provider,
+			String name) {
+		AddressbookModel _am = new AddressbookModel();
+		_am.setName(name);
+		return provider.create(null, _am).getId();
+	}
+
+	private static List<CardCodec.Card> read(
+			CardFormat format,
+			String... lines) throws IOException {
+		CardCodec.CardReader _reader = format.createCodec().openReader(toStream(lines));
+		List<CardCodec.Card> _cards = new ArrayList<CardCodec.Card>();
+		CardCodec.Card _card = null;
+		while ((_card = _reader.next()) != null) {
+			_cards.add(_card);
+		}
+		return _cards;
+	}
+
+	private static InputStream toStream(
+			String... lines) {
+		StringBuilder _text = new StringBuilder();
+		for (String _line : lines) {
+			_text.append(_line).append("\r\n");
+		}
+		return new ByteArrayInputStream(_text.toString().getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static List<String> ids(
+			List<ContactModel> contacts) {
+		List<String> _ids = new ArrayList<String>();
+		for (ContactModel _contact : contacts) {
+			_ids.add(_contact.getId());
+		}
+		return _ids;
+	}
+}
@@ -0,0 +1,151 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Arbalo AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.opentdc.addressbooks.file;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tokens and tombstones of the change index used by changesSince.
+ * @author Bruno Kaiser
+ *
+ */
+public class ChangeIndexTest {
+	private static final ChangeIndex.Source EMPTY = new ChangeIndex.Source() {
+		@Override
+		public Collection<ChangeIndex.Change> values() {
+			return Collections.emptyList();
+		}
+	};
+
+	private ChangeIndex index;
+
+	@Before
+	public void setUp() {
+		index = new ChangeIndex(EMPTY, 3);
+		assertEquals(0, index.parse(null));		// builds the index
+	}
+
+	@Test
+	public void entityIsListedOnceAtItsLatestChange() {
+		index.put(ChangeIndex.Kind.CONTACT, "c1", null, new Date());
+		index.put(ChangeIndex.Kind.CONTACT, "c2", null, new Date());
+		long _token = index.getLatest();
+		index.put(ChangeIndex.Kind.CONTACT, "c1", null, new Date());
+		assertEquals(Arrays.asList("c2", "c1"), ids(index.after(0)));
+		assertEquals(Arrays.asList("c1"), ids(index.after(_token)));
+	}
+
+	@Test
+	public void tokenRoundTrip() {
+		index.put(ChangeIndex.Kind.ORG, "o1", null, new Date());
+		long _seq = index.getLatest();
+		assertEquals(_seq, index.parse(index.getToken(_seq)));
+	}
+
+	@Test
+	public void tokenOfAnotherIndexIsExpired() throws InterruptedException {
+		Thread.sleep(5);		// the epoch has a resolution of one millisecond
+		ChangeIndex _other = new ChangeIndex(EMPTY, 3);
+		assertEquals(-1, index.parse(_other.getToken(0)));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void invalidTokenIsRejected() {
+		index.parse("no token");
+	}
+
+	@Test
+	public void tokenOlderThanDiscardedTombstoneIsExpired() {
+		String _token = index.getToken(index.getLatest());
+		for (int i = 0; i < 3; i++) {
+			index.delete(ChangeIndex.Kind.CONTACT, "c" + i, null, null);
+		}
+		assertEquals(0, index.parse(_token));
+		index.delete(ChangeIndex.Kind.CONTACT, "c3", null, null);
+		assertEquals(-1, index.parse(_token));
+		assertEquals(Arrays.asList("c1", "c2", "c3"), ids(index.after(0)));
+	}
+
+	@Test
+	public void deletedOwnerReplacesItsAddressesAndScopedTombstones() {
+		index.put(ChangeIndex.Kind.CONTACT, "c1", null, new Date());
+		index.put(ChangeIndex.Kind.ADDRESS, "a1", "c1", new Date());
+		index.put(ChangeIndex.Kind.ADDRESS, "a2", "c1", new Date());
+		index.delete(ChangeIndex.Kind.CONTACT, "c1", null, "ab1");
+		index.deleteOwner(ChangeIndex.Kind.CONTACT, "c1", Arrays.asList("a1", "a2"));
+		Collection<ChangeIndex.Change> _changes = index.after(0);
+		assertEquals(1, _changes.size());
+		ChangeIndex.Change _tombstone = _changes.iterator().next();
+		assertEquals("c1", _tombstone.getId());
+		assertTrue(_tombstone.isDeleted());
+		assertEquals(null, _tombstone.getAid());
+	}
+
+	@Test
+	public void churnIsBoundedByMaxTombstones() {
+		for (int i = 0; i < 1000; i++) {
+			index.put(ChangeIndex.Kind.CONTACT, "c" + i, null, new Date());
+			index.put(ChangeIndex.Kind.ADDRESS, "a" + i, "c" + i, new Date());
+			index.delete(ChangeIndex.Kind.CONTACT, "c" + i, null, "ab1");
+			index.deleteOwner(ChangeIndex.Kind.CONTACT, "c" + i, Arrays.asList("a" + i));
+		}
+		assertTrue(index.after(0).size() <= 3);
+	}
+
+	@Test
+	public void modifiedSinceReadsBackToTheDate() {
+		index.put(ChangeIndex.Kind.CONTACT, "old", null, new Date(1000));
+		index.put(ChangeIndex.Kind.CONTACT, "recent", null, new Date(5000));
+		index.put(ChangeIndex.Kind.ORG, "org", null, new Date(6000));
+		index.put(ChangeIndex.Kind.CONTACT, "added", null, new Date(2000));		// e.g. an existing contact added to an addressbook
+		index.put(ChangeIndex.Kind.CONTACT, "deleted", null, new Date(7000));
+		index.delete(ChangeIndex.Kind.CONTACT, "deleted", null, null);
+		assertEquals(new HashSet<String>(Arrays.asList("recent")), 
+				index.modifiedSince(ChangeIndex.Kind.CONTACT, new Date(3000)));
+		assertEquals(new HashSet<String>(Arrays.asList("recent", "added")), 
+				index.modifiedSince(ChangeIndex.Kind.CONTACT, new Date(2000)));
+		assertEquals(new HashSet<String>(Arrays.asList("org")), index.modifiedSince(ChangeIndex.Kind.ORG, new Date(0)));
+	}
+
+	private static List<String> ids(
+			Collection<ChangeIndex.Change> changes) {
+		List<String> _ids = new ArrayList<String>();
+		for (ChangeIndex.Change _change : changes) {
+			_ids.add(_change.getId());
+		}
+		return _ids;
+	}
+}
@@ -0,0 +1,135 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Arbalo AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.opentdc.addressbooks.file;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+import org.opentdc.addressbooks.AddressbookModel;
+import org.opentdc.service.exception.InternalServerErrorException;
+
+/**
+ * Durability of the group commit: when a committed mutation is contained in a snapshot.
+ * @author Bruno Kaiser
+ *
+ */
+public class GroupCommitWriterTest {
+	private final AtomicInteger snapshots = new AtomicInteger();
+	private volatile boolean failing = false;
+	private GroupCommitWriter writer;
+
+	@After
+	public void tearDown() {
+		if (writer != null) {
+			writer.close();
+		}
+	}
+
+	@Test
+	public void syncWaitsForTheSnapshotContainingTheMutation() {
+		open(50, GroupCommitWriter.Durability.SYNC);
+		JournalRecord _record = newRecord("a1");
+		long _ticket = writer.write(_record);
+		writer.awaitDurable(_ticket, _record);
+		assertEquals(1, snapshots.get());
+	}
+
+	@Test
+	public void mutationsWithinTheWindowShareOneSnapshot() {
+		open(200, GroupCommitWriter.Durability.SYNC);
+		long _ticket = 0;
+		JournalRecord _record = null;
+		for (int i = 0; i < 10; i++) {
+			_record = newRecord("a" + i);
+			_ticket = writer.write(_record);
+		}
+		writer.awaitDurable(_ticket, _record);
+		assertEquals(1, snapshots.get());
+		assertEquals(1, writer.getSnapshotCount());
+	}
+
+	@Test
+	public void asyncReturnsBeforeTheSnapshotAndCloseFlushes() {
+		open(60000, GroupCommitWriter.Durability.ASYNC);
+		JournalRecord _record = newRecord("a1");
+		writer.awaitDurable(writer.write(_record), _record);
+		assertEquals(0, snapshots.get());
+		writer.close();
+		assertEquals(1, snapshots.get());
+	}
+
+	@Test
+	public void failedSnapshotFailsTheWaitingCaller() {
+		failing = true;
+		open(10, GroupCommitWriter.Durability.SYNC);
+		JournalRecord _record = newRecord("a1");
+		long _ticket = writer.write(_record);
+		try {
+			writer.awaitDurable(_ticket, _record);
+			fail("a failed snapshot must not be reported as durable");
+		} catch (InternalServerErrorException _ex) {
+			assertTrue(_ex.getMessage().contains("a1"));
+		}
+	}
+
+	@Test
+	public void closedWriterRejectsMutations() {
+		open(10, GroupCommitWriter.Durability.ASYNC);
+		writer.close();
+		try {
+			writer.write(newRecord("a1"));
+			fail("a closed writer must reject mutations");
+		} catch (InternalServerErrorException _ex) {
+			assertEquals(0, snapshots.get());
+		}
+	}
+
+	private void open(
+			long window,
+			GroupCommitWriter.Durability durability) {
+		writer = new GroupCommitWriter(new Snapshotter() {
+			@Override
+			public void writeSnapshot() throws IOException {
+				if (failing) {
+					throw new IOException("disk full");
+				}
+				snapshots.incrementAndGet();
+			}
+		}, window, durability);
+	}
+
+	private static JournalRecord newRecord(
+			String id) {
+		AddressbookModel _addressbook = new AddressbookModel();
+		_addressbook.setId(id);
+		_addressbook.setName("addressbook " + id);
+		return JournalRecord.addressbook(JournalRecord.Op.ADDRESSBOOK_CREATE, _addressbook);
+	}
+}
@@ -0,0 +1,139 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Arbalo AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.opentdc.addressbooks.file;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opentdc.addressbooks.AddressbookModel;
+
+/**
+ * Replay of the write-ahead journal, e.g. after a crash in the middle of a write.
+ * @author Bruno Kaiser
+ *
+ */
+public class JournalTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+	private File dir;
+	private Journal journal;
+	private final List<String> replayed = new ArrayList<String>();
+
+	@Before
+	public void setUp() {
+		dir = folder.getRoot();
+	}
+
+	@After
+	public void tearDown() {
+		if (journal != null) {
+			journal.close();
+		}
+	}
+
+	@Test
+	public void replaysAllRecordsInOrder() throws IOException {
+		assertEquals(0, restart());
+		write("a1", "a2", "a3");
+		assertEquals(3, restart());
+		assertEquals(Arrays.asList("a1", "a2", "a3"), replayed);
+	}
+
+	@Test
+	public void replayStopsAtTornFinalRecord() throws IOException {
+		restart();
+		write("a1", "a2");
+		journal.close();
+		appendToLastSegment("{\"op\":\"ADDRESSBOOK_CREATE\",\"aid\":\"a3\",\"addr");
+		assertEquals(2, restart());
+		assertEquals(Arrays.asList("a1", "a2"), replayed);
+	}
+
+	@Test
+	public void recordsAfterTornSegmentAreReplayed() throws IOException {
+		restart();
+		write("a1");
+		journal.close();
+		appendToLastSegment("{\"op\":\"ADDRESS");
+		restart();
+		write("a2");
+		assertEquals(2, restart());
+		assertEquals(Arrays.asList("a1", "a2"), replayed);
+	}
+
+	/**
+	 * Close the journal and open it again, as the provider does on startup.
+	 * @return the number of records replayed
+	 */
+	private int restart() throws IOException {
+		if (journal != null) {
+			journal.close();
+		}
+		journal = new Journal(dir, new Snapshotter() {
+			@Override
+			public void writeSnapshot() {
+			}
+		}, false, 0, 0);
+		replayed.clear();
+		int _count = journal.replay(new Journal.Replayer() {
+			@Override
+			public void replay(JournalRecord record) {
+				replayed.add(record.getId());
+			}
+		});
+		journal.open();
+		return _count;
+	}
+
+	private void write(
+			String... ids) {
+		for (String _id : ids) {
+			AddressbookModel _addressbook = new AddressbookModel();
+			_addressbook.setId(_id);
+			_addressbook.setName("addressbook " + _id);
+			journal.write(JournalRecord.addressbook(JournalRecord.Op.ADDRESSBOOK_CREATE, _addressbook));
+		}
+	}
+
+	private void appendToLastSegment(
+			String text) throws IOException {
+		File[] _segments = dir.listFiles();
+		Arrays.sort(_segments);
+		try (FileOutputStream _out = new FileOutputStream(_segments[_segments.length - 1], true)) {
+			_out.write(text.getBytes(StandardCharsets.UTF_8));
+		}
+	}
+}
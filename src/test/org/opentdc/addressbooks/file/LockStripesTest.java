@@ -0,0 +1,196 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Arbalo AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.opentdc.addressbooks.file;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opentdc.addressbooks.AddressbookModel;
+import org.opentdc.addressbooks.ContactModel;
+
+/**
+ * Striped locking, on its own and under concurrent mutations of the provider.
+ * @author Bruno Kaiser
+ *
+ */
+public class LockStripesTest {
+	private static final int THREADS = 8;
+	private static final int CONTACTS_PER_THREAD = 200;
+	private static final String PREFIX = "locktest";
+
+	@Rule
+	public TemporaryFolder dir = new TemporaryFolder();
+	private ExecutorService executor;
+
+	@Before
+	public void setUp() {
+		System.setProperty(PREFIX + "." + ProviderConfig.DATA_DIR, dir.getRoot().getPath());
+		System.setProperty(PREFIX + "." + ProviderConfig.PERSISTENCE_MODE, "journal");
+		System.setProperty(PREFIX + "." + ProviderConfig.JOURNAL_SYNC, "false");
+		System.setProperty(PREFIX + "." + ProviderConfig.METRICS_JMX, "false");
+		executor = Executors.newFixedThreadPool(THREADS);
+	}
+
+	@After
+	public void tearDown() {
+		executor.shutdownNow();
+		FileServiceProvider.reset();
+	}
+
+	@Test(timeout = 30000)
+	public void locksInOppositeOrderDoNotDeadlock() throws Exception {
+		final LockStripes _locks = new LockStripes(4);
+		List<Future<Void>> _futures = new ArrayList<Future<Void>>();
+		for (int t = 0; t < THREADS; t++) {
+			final boolean _reversed = t % 2 == 1;
+			_futures.add(executor.submit(new Callable<Void>() {
+				@Override
+				public Void call() {
+					for (int i = 0; i < 10000; i++) {
+						LockStripes.Held _held = _reversed ? 
+								_locks.readWrite("b" + i % 7, "a" + i % 5) : _locks.readWrite("a" + i % 5, "b" + i % 7);
+						_held.close();
+					}
+					return null;
+				}
+			}));
+		}
+		for (Future<Void> _future : _futures) {
+			_future.get();
+		}
+	}
+
+	@Test(timeout = 30000)
+	public void writeAllWaitsForWriters() throws Exception {
+		final LockStripes _locks = new LockStripes(64);
+		final CountDownLatch _acquired = new CountDownLatch(1);
+		LockStripes.Held _held = _locks.write("contact-1");
+		Future<?> _future = executor.submit(new Runnable() {
+			@Override
+			public void run() {
+				LockStripes.Held _all = _locks.writeAll();
+				try {
+					_acquired.countDown();
+				} finally {
+					_all.close();
+				}
+			}
+		});
+		assertFalse(_acquired.await(200, TimeUnit.MILLISECONDS));
+		_held.close();
+		assertTrue(_acquired.await(10, TimeUnit.SECONDS));
+		_future.get();
+	}
+
+	@Test(timeout = 120000)
+	public void concurrentCreateAndDeleteInSameAddressbook() throws Exception {
+		final FileServiceProvider _provider = open();
+		AddressbookModel _am = new AddressbookModel();
+		_am.setName("shared");
+		final String _aid = _provider.create(null, _am).getId();
+		List<Future<Set<String>>> _futures = new ArrayList<Future<Set<String>>>();
+		for (int t = 0; t < THREADS; t++) {
+			final int _thread = t;
+			_futures.add(executor.submit(new Callable<Set<String>>() {
+				@Override
+				public Set<String> call() {
+					Set<String> _kept = new HashSet<String>();
+					String _previous = null;
+					for (int i = 0; i < CONTACTS_PER_THREAD; i++) {
+						ContactModel _contact = new ContactModel();
+						_contact.setFirstName("First" + i);
+						_contact.setLastName("Last" + _thread);
+						String _cid = _provider.createContact(null, _aid, _contact).getId();
+						if (i % 2 == 1) {		// delete every second contact, one step behind
+							_provider.deleteContact(_aid, _previous);
+							_kept.remove(_previous);
+						}
+						_kept.add(_cid);
+						_previous = _cid;
+					}
+					return _kept;
+				}
+			}));
+		}
+		Set<String> _expected = new HashSet<String>();
+		for (Future<Set<String>> _future : _futures) {
+			_expected.addAll(_future.get());
+		}
+		assertEquals(THREADS * CONTACTS_PER_THREAD / 2, _expected.size());
+		assertMembers(_provider, _aid, _expected);
+
+		// the journal replays to the same state
+		FileServiceProvider _reopened = open();
+		assertMembers(_reopened, _aid, _expected);
+	}
+
+	/**
+	 * Start the provider on the data directory; a provider started before is closed first.
+	 */
+	private static FileServiceProvider open() throws IOException {
+		FileServiceProvider.reset();
+		return new FileServiceProvider(null, PREFIX);
+	}
+
+	private static void assertMembers(
+			FileServiceProvider provider,
+			String aid,
+			Set<String> expected) {
+		assertEquals(expected, ids(provider.listContacts(aid, null, null, 0, Integer.MAX_VALUE)));
+		// deleting from a custom addressbook only removes the membership, the contact itself is kept
+		Set<String> _all = ids(provider.listAllContacts(null, null, 0, Integer.MAX_VALUE));
+		assertEquals(THREADS * CONTACTS_PER_THREAD, _all.size());
+		assertTrue(_all.containsAll(expected));
+		for (String _cid : expected) {
+			assertEquals(_cid, provider.readContact(aid, _cid).getId());
+		}
+	}
+
+	private static Set<String> ids(
+			List<ContactModel> contacts) {
+		Set<String> _ids = new HashSet<String>();
+		for (ContactModel _contact : contacts) {
+			assertTrue("duplicate contact <" + _contact.getId() + ">", _ids.add(_contact.getId()));
+		}
+		return _ids;
+	}
+}
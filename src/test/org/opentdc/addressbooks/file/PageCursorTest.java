@@ -0,0 +1,176 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Arbalo AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.opentdc.addressbooks.file;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opentdc.addressbooks.AddressbookModel;
+import org.opentdc.addressbooks.ContactModel;
+
+/**
+ * Cursor-based paging of contacts while contacts are inserted and deleted between the pages.
+ * @author Bruno Kaiser
+ *
+ */
+public class PageCursorTest {
+	private static final int PAGE_SIZE = 7;
+	private static final String PREFIX = "pagetest";
+
+	@Rule
+	public TemporaryFolder dir = new TemporaryFolder();
+	private FileServiceProvider provider;
+	private String aid;
+	private String otherAid;
+
+	@Before
+	public void setUp() throws IOException {
+		System.setProperty(PREFIX + "." + ProviderConfig.DATA_DIR, dir.getRoot().getPath());
+		System.setProperty(PREFIX + "." + ProviderConfig.PERSISTENCE_MODE, "group_commit");
+		System.setProperty(PREFIX + "." + ProviderConfig.METRICS_JMX, "false");
+		FileServiceProvider.reset();
+		provider = new FileServiceProvider(null, PREFIX);
+		aid = createAddressbook("paged");
+		otherAid = createAddressbook("other");
+		for (int i = 0; i < 60; i++) {
+			// every third contact belongs to the paged addressbook; last names collide to test the order by id
+			createContact(i % 3 == 0 ? aid : otherAid, "First" + i, "Last" + (i % 10));
+		}
+	}
+
+	@After
+	public void tearDown() {
+		FileServiceProvider.reset();
+	}
+
+	@Test
+	public void pagesOfAddressbookAreStableAcrossInserts() {
+		assertStableAcrossInserts(aid);
+	}
+
+	@Test
+	public void pagesOfAllContactsAreStableAcrossInserts() {
+		assertStableAcrossInserts(FileServiceProvider.getAllAddressbook().getModel().getId());
+	}
+
+	@Test
+	public void deletedContactsAreSkipped() {
+		Page<ContactModel> _first = provider.pageContacts(aid, null, null, PAGE_SIZE);
+		List<String> _rest = ids(provider.pageContacts(aid, null, _first.getNextCursor(), 100));
+		provider.deleteContact(aid, _rest.get(0));
+		List<String> _after = ids(provider.pageContacts(aid, null, _first.getNextCursor(), 100));
+		assertEquals(_rest.subList(1, _rest.size()), _after);
+	}
+
+	@Test
+	public void lastPageHasNoCursor() {
+		Page<ContactModel> _page = provider.pageContacts(aid, null, null, 20);
+		assertEquals(20, _page.getItems().size());
+		assertNull(_page.getNextCursor());
+	}
+
+	/**
+	 * Walk all pages; between two pages, insert one contact that sorts before the cursor and one after it.
+	 * Each contact that existed when the walk started is returned exactly once and in sort order, the contacts 
+	 * inserted before the cursor are not returned and the ones inserted after it are.
+	 */
+	private void assertStableAcrossInserts(
+			String pagedAid) {
+		Set<String> _initial = new HashSet<String>();
+		for (ContactModel _contact : provider.pageContacts(pagedAid, null, null, 1000).getItems()) {
+			_initial.add(_contact.getId());
+		}
+		Set<String> _insertedBefore = new HashSet<String>();
+		Set<String> _insertedAfter = new HashSet<String>();
+		List<ContactModel> _walked = new ArrayList<ContactModel>();
+		String _cursor = null;
+		int _pages = 0;
+		do {
+			Page<ContactModel> _page = provider.pageContacts(pagedAid, null, _cursor, PAGE_SIZE);
+			assertTrue(_page.getItems().size() <= PAGE_SIZE);
+			_walked.addAll(_page.getItems());
+			_cursor = _page.getNextCursor();
+			_pages++;
+			if (_cursor != null) {
+				_insertedBefore.add(createContact(aid, "A" + _pages, "Aaa"));
+				_insertedAfter.add(createContact(aid, "Z" + _pages, "Zzz"));
+			}
+		} while (_cursor != null);
+		assertTrue(_pages > 1);
+
+		Set<String> _seen = new HashSet<String>();
+		for (int i = 0; i < _walked.size(); i++) {
+			ContactModel _contact = _walked.get(i);
+			assertTrue("contact <" + _contact.getId() + "> was returned twice", _seen.add(_contact.getId()));
+			assertFalse(_insertedBefore.contains(_contact.getId()));
+			if (i > 0) {
+				assertTrue(ContactModel.ContactComparator.compare(_walked.get(i - 1), _contact) <= 0);
+			}
+		}
+		assertTrue(_seen.containsAll(_initial));
+		assertTrue(_seen.containsAll(_insertedAfter));
+		_seen.removeAll(_initial);
+		_seen.removeAll(_insertedAfter);
+		assertTrue("unexpected contacts " + _seen, _seen.isEmpty());
+	}
+
+	private static List<String> ids(
+			Page<ContactModel> page) {
+		List<String> _ids = new ArrayList<String>();
+		for (ContactModel _contact : page.getItems()) {
+			_ids.add(_contact.getId());
+		}
+		return _ids;
+	}
+
+	private String createAddressbook(
+			String name) {
+		AddressbookModel _am = new AddressbookModel();
+		_am.setName(name);
+		return provider.create(null, _am).getId();
+	}
+
+	private String createContact(
+			String aid,
+			String firstName,
+			String lastName) {
+		ContactModel _contact = new ContactModel();
+		_contact.setFirstName(firstName);
+		_contact.setLastName(lastName);
+		return provider.createContact(null, aid, _contact).getId();
+	}
+}
@@ -0,0 +1,205 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Arbalo AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.opentdc.addressbooks.file;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opentdc.addressbooks.AddressModel;
+import org.opentdc.addressbooks.AddressType;
+import org.opentdc.addressbooks.AddressbookModel;
+import org.opentdc.addressbooks.AttributeType;
+import org.opentdc.addressbooks.ContactModel;
+import org.opentdc.addressbooks.MessageType;
+import org.opentdc.addressbooks.OrgModel;
+import org.opentdc.addressbooks.OrgType;
+
+import com.google.gson.JsonObject;
+
+/**
+ * Round trip of a snapshot through each snapshot codec.
+ * @author Bruno Kaiser
+ *
+ */
+public class SnapshotStoreTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+	private File dir;
+
+	@Before
+	public void setUp() {
+		dir = folder.getRoot();
+	}
+
+	@Test
+	public void jsonRoundTrip() throws IOException {
+		assertRoundTrip(SnapshotFormat.JSON.createCodec(BinarySnapshotCodec.Compression.NONE), "store.json");
+	}
+
+	@Test
+	public void binaryRoundTrip() throws IOException {
+		assertRoundTrip(SnapshotFormat.BINARY.createCodec(BinarySnapshotCodec.Compression.NONE), "store.bin");
+	}
+
+	@Test
+	public void deflatedBinaryRoundTrip() throws IOException {
+		assertRoundTrip(SnapshotFormat.BINARY.createCodec(BinarySnapshotCodec.Compression.DEFLATE), "store.bin");
+	}
+
+	@Test
+	public void emptySnapshotRoundTrip() throws IOException {
+		for (SnapshotFormat _format : SnapshotFormat.values()) {
+			SnapshotStore _store = new SnapshotStore(dir, _format.createCodec(BinarySnapshotCodec.Compression.NONE));
+			StoreSnapshot _snapshot = new StoreSnapshot(Collections.<ABaddressbook>emptyList(), 
+					Collections.<ABcontact>emptyList(), Collections.<ABorg>emptyList());
+			_store.write(_snapshot);
+			assertEquals(0, load(_store).size());
+		}
+	}
+
+	private void assertRoundTrip(
+			SnapshotCodec codec,
+			String fileName) throws IOException {
+		StoreSnapshot _snapshot = createSnapshot();
+		SnapshotStore _store = new SnapshotStore(dir, codec);
+		_store.write(_snapshot);
+		assertTrue(new File(dir, fileName).isFile());
+		assertEquals(records(_snapshot), load(_store));
+
+		_store.write(_snapshot);		// replaces the previous snapshot
+		assertEquals(records(_snapshot), load(_store));
+	}
+
+	/**
+	 * @return the records of a snapshot, each prefixed with its section
+	 */
+	private static List<String> records(
+			StoreSnapshot snapshot) throws IOException {
+		final List<String> _records = new ArrayList<String>();
+		for (StoreSection _section : StoreSection.values()) {
+			snapshot.forEachRecord(_section, new SnapshotCodec.RecordSink() {
+				@Override
+				public void accept(StoreSection section, JsonObject record) {
+					_records.add(section + " " + record);
+				}
+			});
+		}
+		return _records;
+	}
+
+	private static List<String> load(
+			SnapshotStore store) throws IOException {
+		final List<String> _records = new ArrayList<String>();
+		store.load(new SnapshotCodec.RecordSink() {
+			@Override
+			public void accept(StoreSection section, JsonObject record) {
+				_records.add(section + " " + record);
+			}
+		}, new LoadMetrics());
+		return _records;
+	}
+
+	private static StoreSnapshot createSnapshot() {
+		Date _date = new Date(1433116800000L);
+		AddressbookModel _am = new AddressbookModel();
+		_am.setId("ab-1");
+		_am.setName("friends");
+		_am.setCreatedAt(_date);
+		_am.setCreatedBy("tester");
+		_am.setModifiedAt(_date);
+		_am.setModifiedBy("tester");
+		ABaddressbook _addressbook = new ABaddressbook(_am);
+
+		ContactModel _cm = new ContactModel();
+		_cm.setId("c-1");
+		_cm.setFirstName("J\u00fcrg");
+		_cm.setLastName("M\u00fcller; \"Jay\"");
+		_cm.setFn("J\u00fcrg M\u00fcller");
+		_cm.setNote("line one\nline two");
+		_cm.setBirthday(_date);
+		_cm.setCreatedAt(_date);
+		_cm.setCreatedBy("tester");
+		_cm.setModifiedAt(_date);
+		_cm.setModifiedBy("tester");
+		ABcontact _contact = new ABcontact();
+		_contact.setModel(_cm);
+		_contact.addMembership(_am.getId());
+		_contact.addAddress(newAddress("adr-1", AddressType.EMAIL, AttributeType.WORK, "juerg@example.org", _date));
+		AddressModel _skype = newAddress("adr-2", AddressType.MESSAGING, AttributeType.HOME, "juerg.m", _date);
+		_skype.setMsgType(MessageType.SKYPE);
+		_contact.addAddress(_skype);
+		_addressbook.addContact(_cm.getId());
+
+		OrgModel _om = new OrgModel();
+		_om.setId("o-1");
+		_om.setName("Arbalo AG");
+		_om.setOrgType(OrgType.COMP);
+		_om.setCreatedAt(_date);
+		_om.setCreatedBy("tester");
+		_om.setModifiedAt(_date);
+		_om.setModifiedBy("tester");
+		ABorg _org = new ABorg();
+		_org.setModel(_om);
+		_org.addMembership(_am.getId());
+		AddressModel _postal = newAddress("adr-3", AddressType.POSTAL, AttributeType.WORK, null, _date);
+		_postal.setStreet("Bahnhofstrasse 1");
+		_postal.setPostalCode("8001");
+		_postal.setCity("Z\u00fcrich");
+		_postal.setCountryCode((short) 756);
+		_org.addAddress(_postal);
+		_addressbook.addOrg(_om.getId());
+
+		return new StoreSnapshot(Arrays.asList(_addressbook), Arrays.asList(_contact), Arrays.asList(_org));
+	}
+
+	private static AddressModel newAddress(
+			String id,
+			AddressType addressType,
+			AttributeType attributeType,
+			String value,
+			Date date) {
+		AddressModel _address = new AddressModel();
+		_address.setId(id);
+		_address.setAddressType(addressType);
+		_address.setAttributeType(attributeType);
+		_address.setValue(value);
+		_address.setCreatedAt(date);
+		_address.setCreatedBy("tester");
+		_address.setModifiedAt(date);
+		_address.setModifiedBy("tester");
+		return _address;
+	}
+}